@@ -0,0 +1,184 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A set of {@link AlertRule}s compiled for matching events one at a time.
+ *
+ * Each rule with an area is filed under every grid cell its area overlaps, and rules
+ * without one in a global list. Every list is sorted by magnitude floor, so an event only
+ * reads the rules of its own cell and the global list, and stops at the first rule whose
+ * floor is above its magnitude. Only those candidates get the exact distance, box and age
+ * check. Thousands of rules spread over the globe leave a handful per event.
+ *
+ * Immutable; build a new matcher when the rules change.
+ */
+public final class AlertMatcher {
+
+    /** Coarser than {@link QuakeSpatialIndex} cells: a rule spans few cells, an event one. */
+    static final double CELL_DEGREES = 5.0;
+
+    private static final int LAT_CELLS = (int) (180 / CELL_DEGREES);
+    private static final int LON_CELLS = (int) (360 / CELL_DEGREES);
+
+    private static final double KM_PER_DEGREE = Math.PI * QuakeSpatialIndex.EARTH_RADIUS_KM / 180;
+
+    private static final AlertRule[] NO_RULES = new AlertRule[0];
+
+    private static final Comparator<AlertRule> BY_FLOOR = new Comparator<AlertRule>() {
+        @Override
+        public int compare(AlertRule a, AlertRule b) {
+            return Double.compare( a.getMinMagnitude(), b.getMinMagnitude() );
+        }
+    };
+
+    private final int mRuleCount;
+    private final AlertRule[] mGlobal;
+
+    /** Rules per cell, sorted by floor; null for cells no rule covers. */
+    private final AlertRule[][] mCells = new AlertRule[LAT_CELLS * LON_CELLS][];
+
+    public AlertMatcher(List<AlertRule> rules) {
+        mRuleCount = rules.size();
+        List<AlertRule> global = new ArrayList<>();
+        List<List<AlertRule>> cells = new ArrayList<>( mCells.length );
+        for (int c = 0; c < mCells.length; c++) {
+            cells.add( null );
+        }
+        for (AlertRule rule : rules) {
+            if (!fileByArea( rule, cells )) {
+                global.add( rule );
+            }
+        }
+        mGlobal = sorted( global );
+        for (int c = 0; c < mCells.length; c++) {
+            if (cells.get( c ) != null) {
+                mCells[c] = sorted( cells.get( c ) );
+            }
+        }
+    }
+
+    public int size() {
+        return mRuleCount;
+    }
+
+    /**
+     * Adds to {@code out} every rule the event matches, each once, and returns how many
+     * were added.
+     */
+    public int match(double magnitude, long time, double latitude, double longitude, long now,
+                     List<AlertRule> out) {
+        int matched = matchSorted( mGlobal, magnitude, time, latitude, longitude, now, out );
+        if (!Double.isNaN( latitude ) && !Double.isNaN( longitude )) {
+            AlertRule[] cell = mCells[cell( latIndex( latitude ), lonIndex( longitude ) )];
+            if (cell != null) {
+                matched += matchSorted( cell, magnitude, time, latitude, longitude, now, out );
+            }
+        }
+        return matched;
+    }
+
+    public int match(QuakeDescription quake, long now, List<AlertRule> out) {
+        return match( quake.getMagnitude(), quake.getmTimeInMilliSeconds(), quake.getLatitude(),
+                quake.getLongitude(), now, out );
+    }
+
+    private static int matchSorted(AlertRule[] rules, double magnitude, long time,
+                                   double latitude, double longitude, long now,
+                                   List<AlertRule> out) {
+        int matched = 0;
+        for (AlertRule rule : rules) {
+            if (rule.getMinMagnitude() > magnitude) {
+                break;
+            }
+            if (rule.matches( magnitude, time, latitude, longitude, now )) {
+                out.add( rule );
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Files the rule under the cells of its area. Returns false if it has no area, or one
+     * so large that it belongs in the global list.
+     */
+    private boolean fileByArea(AlertRule rule, List<List<AlertRule>> cells) {
+        double south;
+        double north;
+        double west;
+        double east;
+        if (rule.getArea() == AlertRule.AREA_RADIUS) {
+            double dLat = rule.getRadiusKm() / KM_PER_DEGREE;
+            south = rule.getLatitude() - dLat;
+            north = rule.getLatitude() + dLat;
+            // Near a pole, or for a huge radius, the circle covers every longitude.
+            double maxAbsLatitude = Math.max( Math.abs( south ), Math.abs( north ) );
+            double dLon = maxAbsLatitude < 90
+                    ? dLat / Math.cos( Math.toRadians( maxAbsLatitude ) ) : 180;
+            if (dLon >= 180) {
+                west = -180;
+                east = 180;
+            } else {
+                west = rule.getLongitude() - dLon;
+                east = rule.getLongitude() + dLon;
+            }
+        } else if (rule.getArea() == AlertRule.AREA_BOX) {
+            south = rule.getSouth();
+            north = rule.getNorth();
+            west = rule.getWest();
+            east = rule.getWest() <= rule.getEast() ? rule.getEast() : rule.getEast() + 360;
+        } else {
+            return false;
+        }
+
+        int latLow = latIndex( south );
+        int latHigh = latIndex( north );
+        int lonCount = Math.min( LON_CELLS,
+                (int) Math.floor( (east + 180) / CELL_DEGREES )
+                        - (int) Math.floor( (west + 180) / CELL_DEGREES ) + 1 );
+        if ((latHigh - latLow + 1) * lonCount > mCells.length / 4) {
+            // Covers a quarter of the globe or more; cheaper to check for every event.
+            return false;
+        }
+        int lonLow = lonIndex( west );
+        for (int latCell = latLow; latCell <= latHigh; latCell++) {
+            for (int i = 0; i < lonCount; i++) {
+                int c = cell( latCell, (lonLow + i) % LON_CELLS );
+                List<AlertRule> list = cells.get( c );
+                if (list == null) {
+                    list = new ArrayList<>( 4 );
+                    cells.set( c, list );
+                }
+                list.add( rule );
+            }
+        }
+        return true;
+    }
+
+    private static AlertRule[] sorted(List<AlertRule> rules) {
+        if (rules.isEmpty()) {
+            return NO_RULES;
+        }
+        AlertRule[] array = rules.toArray( new AlertRule[rules.size()] );
+        Arrays.sort( array, BY_FLOOR );
+        return array;
+    }
+
+    private static int cell(int latIndex, int lonIndex) {
+        return latIndex * LON_CELLS + lonIndex;
+    }
+
+    private static int latIndex(double latitude) {
+        int index = (int) Math.floor( (latitude + 90) / CELL_DEGREES );
+        return Math.max( 0, Math.min( LAT_CELLS - 1, index ) );
+    }
+
+    private static int lonIndex(double longitude) {
+        int index = (int) Math.floor( (longitude + 180) / CELL_DEGREES ) % LON_CELLS;
+        return index < 0 ? index + LON_CELLS : index;
+    }
+}
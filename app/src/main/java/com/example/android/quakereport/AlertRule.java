@@ -0,0 +1,150 @@
+package com.example.android.quakereport;
+
+/**
+ * One user alert: events at or above a magnitude, optionally only within a radius of a
+ * point or inside a box, and optionally only if they happened recently.
+ */
+public final class AlertRule {
+
+    /** No area: the rule covers the whole globe. */
+    public static final int AREA_ANYWHERE = 0;
+    public static final int AREA_RADIUS = 1;
+    public static final int AREA_BOX = 2;
+
+    private final long mId;
+    private final String mName;
+    private final double mMinMagnitude;
+    private final int mArea;
+
+    /** Center and radius for {@link #AREA_RADIUS}. */
+    private final double mLatitude;
+    private final double mLongitude;
+    private final double mRadiusKm;
+
+    /** Edges for {@link #AREA_BOX}; west east of east means the box crosses the antimeridian. */
+    private final double mSouth;
+    private final double mWest;
+    private final double mNorth;
+    private final double mEast;
+
+    /** Only events at most this old when they arrive fire; 0 for no limit. */
+    private final long mMaxAgeMillis;
+
+    AlertRule(long id, String name, double minMagnitude, int area, double latitude,
+              double longitude, double radiusKm, double south, double west, double north,
+              double east, long maxAgeMillis) {
+        mId = id;
+        mName = name;
+        mMinMagnitude = minMagnitude;
+        mArea = area;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mRadiusKm = radiusKm;
+        mSouth = south;
+        mWest = west;
+        mNorth = north;
+        mEast = east;
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    public static AlertRule anywhere(String name, double minMagnitude, long maxAgeMillis) {
+        return new AlertRule( 0, name, minMagnitude, AREA_ANYWHERE, 0, 0, 0, 0, 0, 0, 0,
+                maxAgeMillis );
+    }
+
+    public static AlertRule withinRadius(String name, double minMagnitude, double latitude,
+                                         double longitude, double radiusKm, long maxAgeMillis) {
+        return new AlertRule( 0, name, minMagnitude, AREA_RADIUS, latitude, longitude, radiusKm,
+                0, 0, 0, 0, maxAgeMillis );
+    }
+
+    public static AlertRule withinBox(String name, double minMagnitude, double south,
+                                      double west, double north, double east, long maxAgeMillis) {
+        return new AlertRule( 0, name, minMagnitude, AREA_BOX, 0, 0, 0, south, west, north, east,
+                maxAgeMillis );
+    }
+
+    /** Returns this rule under the id the store gave it. */
+    AlertRule withId(long id) {
+        return new AlertRule( id, mName, mMinMagnitude, mArea, mLatitude, mLongitude, mRadiusKm,
+                mSouth, mWest, mNorth, mEast, mMaxAgeMillis );
+    }
+
+    /**
+     * Checks an event against every condition of the rule. {@link AlertMatcher} calls this
+     * only for the rules its index could not rule out.
+     */
+    public boolean matches(double magnitude, long time, double latitude, double longitude,
+                           long now) {
+        if (magnitude < mMinMagnitude) {
+            return false;
+        }
+        if (mMaxAgeMillis > 0 && now - time > mMaxAgeMillis) {
+            return false;
+        }
+        switch (mArea) {
+            case AREA_RADIUS:
+                return !Double.isNaN( latitude ) && !Double.isNaN( longitude )
+                        && QuakeSpatialIndex.distanceKm( mLatitude, mLongitude, latitude,
+                        longitude ) <= mRadiusKm;
+            case AREA_BOX:
+                if (Double.isNaN( latitude ) || Double.isNaN( longitude )
+                        || latitude < mSouth || latitude > mNorth) {
+                    return false;
+                }
+                return mWest <= mEast
+                        ? longitude >= mWest && longitude <= mEast
+                        : longitude >= mWest || longitude <= mEast;
+            default:
+                return true;
+        }
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    public int getArea() {
+        return mArea;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public double getRadiusKm() {
+        return mRadiusKm;
+    }
+
+    public double getSouth() {
+        return mSouth;
+    }
+
+    public double getWest() {
+        return mWest;
+    }
+
+    public double getNorth() {
+        return mNorth;
+    }
+
+    public double getEast() {
+        return mEast;
+    }
+
+    public long getMaxAgeMillis() {
+        return mMaxAgeMillis;
+    }
+}
@@ -0,0 +1,425 @@
+package com.example.android.quakereport;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Per-event detail documents, kept so that opening an event is usually a cache hit.
+ *
+ * Two least-recently-used levels, each bounded in bytes: parsed {@link QuakeDetail}s in
+ * memory, and the documents as USGS sent them, gzipped, in a directory on disk. A disk
+ * file is named after the event and the "updated" time it is good for, so the disk index
+ * is rebuilt from a directory listing, oldest use first by modification time, without
+ * reading any file.
+ *
+ * A cached detail is good for as long as no newer version of the event has been seen:
+ * callers pass the list row's "updated" time, and a detail older than that is fetched
+ * again. The detail feed can lag the list, so a fetch may return an older version than
+ * the row it was made for; that detail is still good for the row, or it would be fetched
+ * again on every request until USGS caught up. Concurrent requests for one event, say a
+ * prefetch and the user opening it, share one fetch.
+ */
+public final class DetailCache {
+
+    private static final String LOG_TAG = DetailCache.class.getSimpleName();
+
+    private static final String DIRECTORY = "event_details";
+    private static final String SUFFIX = ".json.gz";
+
+    private static final long MEMORY_BYTES = 512 * 1024;
+    private static final long DISK_BYTES = 16 * 1024 * 1024;
+
+    /** A parsed detail, and the newest "updated" time it answers for. */
+    private static final class MemoryEntry {
+        final QuakeDetail detail;
+        final long goodFor;
+
+        MemoryEntry(QuakeDetail detail, long goodFor) {
+            this.detail = detail;
+            this.goodFor = goodFor;
+        }
+    }
+
+    /** A document on disk. */
+    private static final class DiskEntry {
+        final File file;
+        final long goodFor;
+        final long bytes;
+
+        DiskEntry(File file, long goodFor, long bytes) {
+            this.file = file;
+            this.goodFor = goodFor;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final UsgsHttpClient.BodyParser<byte[]> DOCUMENT_READER =
+            new UsgsHttpClient.BodyParser<byte[]>() {
+                @Override
+                public byte[] parse(InputStream body) throws IOException {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream( 16 * 1024 );
+                    byte[] buffer = new byte[8 * 1024];
+                    int count;
+                    while ((count = body.read( buffer )) != -1) {
+                        bytes.write( buffer, 0, count );
+                    }
+                    return bytes.toByteArray();
+                }
+            };
+
+    private static DetailCache sInstance;
+
+    private final File mDirectory;
+    private final long mMemoryBudget;
+    private final long mDiskBudget;
+    private final String mQueryUrl;
+
+    /** Both in access order, so the eldest entry is the least recently used. */
+    private final LinkedHashMap<String, MemoryEntry> mMemory = new LinkedHashMap<>( 16, 0.75f, true );
+    private final LinkedHashMap<String, DiskEntry> mDisk = new LinkedHashMap<>( 16, 0.75f, true );
+    private long mMemoryBytes;
+    private long mDiskBytes;
+    private boolean mDiskIndexed;
+
+    /** Fetches running, keyed by event id. */
+    private final ConcurrentHashMap<String, FutureTask<QuakeDetail>> mInFlight =
+            new ConcurrentHashMap<>();
+
+    /** A cache in {@code directory} that fetches from the query endpoint at {@code queryUrl}. */
+    DetailCache(File directory, long memoryBudget, long diskBudget, String queryUrl) {
+        mDirectory = directory;
+        mMemoryBudget = memoryBudget;
+        mDiskBudget = diskBudget;
+        mQueryUrl = queryUrl;
+    }
+
+    public static synchronized DetailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DetailCache( new File( context.getCacheDir(), DIRECTORY ),
+                    MEMORY_BYTES, DISK_BYTES, EarthquakeQuery.USGS_REQUEST_URL );
+        }
+        return sInstance;
+    }
+
+    /** URL of the detail document of one event. */
+    public static String detailUrl(String eventId) {
+        return detailUrl( EarthquakeQuery.USGS_REQUEST_URL, eventId );
+    }
+
+    private static String detailUrl(String queryUrl, String eventId) {
+        return Uri.parse( queryUrl ).buildUpon()
+                .appendQueryParameter( "eventid", eventId )
+                .appendQueryParameter( "format", "geojson" )
+                .toString();
+    }
+
+    /**
+     * Returns the detail if it is in memory and not older than {@code minUpdated}, without
+     * touching the disk; cheap enough for the UI thread.
+     */
+    public synchronized QuakeDetail getFromMemory(String id, long minUpdated) {
+        MemoryEntry entry = mMemory.get( id );
+        if (entry != null && entry.goodFor >= minUpdated) {
+            PipelineMetrics.DETAIL_MEMORY_HITS.incrementAndGet();
+            return entry.detail;
+        }
+        return null;
+    }
+
+    /** True if the detail is held in memory or on disk and not older than {@code minUpdated}. */
+    public boolean contains(String id, long minUpdated) {
+        synchronized (this) {
+            MemoryEntry entry = mMemory.get( id );
+            if (entry != null && entry.goodFor >= minUpdated) {
+                return true;
+            }
+        }
+        DiskEntry entry = diskEntry( id );
+        return entry != null && entry.goodFor >= minUpdated;
+    }
+
+    /**
+     * Returns the detail from memory or disk if it is not older than {@code minUpdated},
+     * or null. Reads the disk, so call it off the UI thread.
+     */
+    public QuakeDetail getCached(String id, long minUpdated) {
+        QuakeDetail detail = getFromMemory( id, minUpdated );
+        if (detail != null) {
+            return detail;
+        }
+        DiskEntry entry = diskEntry( id );
+        if (entry == null || entry.goodFor < minUpdated) {
+            return null;
+        }
+        try {
+            InputStream in = new GZIPInputStream(
+                    new BufferedInputStream( new FileInputStream( entry.file ) ) );
+            try {
+                detail = QuakeDetail.parse( in );
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Evicted meanwhile, or damaged; either way it is a miss.
+            Log.w( LOG_TAG, "Dropping unreadable " + entry.file, e );
+            removeDisk( diskKey( id ), entry );
+            return null;
+        }
+        // Keeps its place across restarts, which rebuild the order from these times.
+        entry.file.setLastModified( System.currentTimeMillis() );
+        putMemory( id, detail, entry.goodFor );
+        PipelineMetrics.DETAIL_DISK_HITS.incrementAndGet();
+        return detail;
+    }
+
+    /**
+     * Returns the cached detail, or fetches it, caches it and returns it. Blocks; joins a
+     * fetch of the same event that is already running.
+     *
+     * @throws IOException if it was not cached and could not be fetched
+     */
+    public QuakeDetail get(final String id, final long minUpdated) throws IOException {
+        QuakeDetail detail = getCached( id, minUpdated );
+        if (detail != null) {
+            return detail;
+        }
+        FutureTask<QuakeDetail> task = new FutureTask<>( new Callable<QuakeDetail>() {
+            @Override
+            public QuakeDetail call() throws IOException {
+                return fetch( id, minUpdated );
+            }
+        } );
+        FutureTask<QuakeDetail> inFlight = mInFlight.putIfAbsent( id, task );
+        if (inFlight == null) {
+            try {
+                task.run();
+            } finally {
+                mInFlight.remove( id, task );
+            }
+            inFlight = task;
+        } else {
+            PipelineMetrics.SHARED_REQUESTS.incrementAndGet();
+        }
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while fetching " + id );
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException( cause );
+        }
+    }
+
+    private QuakeDetail fetch(String id, long minUpdated) throws IOException {
+        PipelineMetrics.DETAIL_FETCHES.incrementAndGet();
+        byte[] document = UsgsHttpClient.get( new URL( detailUrl( mQueryUrl, id ) ), false,
+                DOCUMENT_READER );
+        return put( id, document, minUpdated );
+    }
+
+    /**
+     * Parses a document fetched for a row updated at {@code minUpdated}, caches it on both
+     * levels and returns it. It answers for that row even if USGS sent an older version.
+     */
+    QuakeDetail put(String id, byte[] document, long minUpdated) throws IOException {
+        QuakeDetail detail = QuakeDetail.parse( new ByteArrayInputStream( document ) );
+        long goodFor = Math.max( detail.getUpdated(), minUpdated );
+        putMemory( id, detail, goodFor );
+        try {
+            putDisk( id, goodFor, document );
+        } catch (IOException e) {
+            // Still good for this session.
+            Log.w( LOG_TAG, "Could not cache " + id + " on disk", e );
+        }
+        return detail;
+    }
+
+    /** Drops the memory level, all of it or down to a part, as {@code onTrimMemory} asks. */
+    public synchronized void trimMemory(int level) {
+        long target = level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ? 0 : mMemoryBudget / 2;
+        evictMemory( target );
+    }
+
+    public synchronized long getMemoryBytes() {
+        return mMemoryBytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        indexDisk();
+        return mDiskBytes;
+    }
+
+    public synchronized int getDiskCount() {
+        indexDisk();
+        return mDisk.size();
+    }
+
+    /** Kept under the id asked for, which USGS may have merged into another. */
+    private synchronized void putMemory(String id, QuakeDetail detail, long goodFor) {
+        MemoryEntry old = mMemory.put( id, new MemoryEntry( detail, goodFor ) );
+        if (old != null) {
+            mMemoryBytes -= old.detail.getMemoryEstimate();
+        }
+        mMemoryBytes += detail.getMemoryEstimate();
+        evictMemory( mMemoryBudget );
+    }
+
+    private void evictMemory(long target) {
+        Iterator<MemoryEntry> eldest = mMemory.values().iterator();
+        while (mMemoryBytes > target && eldest.hasNext()) {
+            mMemoryBytes -= eldest.next().detail.getMemoryEstimate();
+            eldest.remove();
+        }
+    }
+
+    private synchronized DiskEntry diskEntry(String id) {
+        indexDisk();
+        return mDisk.get( diskKey( id ) );
+    }
+
+    /** Writes the file outside the lock, then swaps it in and evicts. */
+    private void putDisk(String id, long goodFor, byte[] document) throws IOException {
+        synchronized (this) {
+            indexDisk();
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException( "Cannot create " + mDirectory );
+        }
+        String key = diskKey( id );
+        File file = new File( mDirectory, key + "-" + goodFor + SUFFIX );
+        File temp = new File( mDirectory, file.getName() + "." + Thread.currentThread().getId() + ".tmp" );
+        OutputStream out = new GZIPOutputStream( new FileOutputStream( temp ) );
+        try {
+            out.write( document );
+        } finally {
+            out.close();
+        }
+        synchronized (this) {
+            if (!temp.renameTo( file )) {
+                temp.delete();
+                throw new IOException( "Cannot write " + file );
+            }
+            DiskEntry old = mDisk.put( key, new DiskEntry( file, goodFor, file.length() ) );
+            if (old != null) {
+                mDiskBytes -= old.bytes;
+                if (!old.file.equals( file )) {
+                    old.file.delete();
+                }
+            }
+            mDiskBytes += file.length();
+            Iterator<DiskEntry> eldest = mDisk.values().iterator();
+            while (mDiskBytes > mDiskBudget && eldest.hasNext()) {
+                DiskEntry entry = eldest.next();
+                eldest.remove();
+                mDiskBytes -= entry.bytes;
+                entry.file.delete();
+            }
+        }
+    }
+
+    private synchronized void removeDisk(String key, DiskEntry entry) {
+        if (mDisk.get( key ) == entry) {
+            mDisk.remove( key );
+            mDiskBytes -= entry.bytes;
+        }
+        entry.file.delete();
+    }
+
+    /** Lists the directory once, least recently used first; drops leftovers of crashed writes. */
+    private void indexDisk() {
+        if (mDiskIndexed) {
+            return;
+        }
+        mDiskIndexed = true;
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort( order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return modified[a] < modified[b] ? -1 : (modified[a] > modified[b] ? 1 : 0);
+            }
+        } );
+        List<File> stale = new ArrayList<>();
+        for (Integer i : order) {
+            File file = files[i];
+            String name = file.getName();
+            int dash = name.lastIndexOf( '-' );
+            if (!name.endsWith( SUFFIX ) || dash <= 0) {
+                stale.add( file );
+                continue;
+            }
+            String key = name.substring( 0, dash );
+            long goodFor;
+            try {
+                goodFor = Long.parseLong( name.substring( dash + 1, name.length() - SUFFIX.length() ) );
+            } catch (NumberFormatException e) {
+                stale.add( file );
+                continue;
+            }
+            DiskEntry old = mDisk.put( key, new DiskEntry( file, goodFor, file.length() ) );
+            if (old != null) {
+                // Two versions of one event; the later-used one wins.
+                mDiskBytes -= old.bytes;
+                stale.add( old.file );
+            }
+            mDiskBytes += file.length();
+        }
+        for (File file : stale) {
+            file.delete();
+        }
+    }
+
+    /**
+     * The event id as it appears in file names, "us7000abcd-1700000000000.json.gz". USGS
+     * ids are letters and digits; anything else is dropped so no id can leave the directory.
+     */
+    private static String diskKey(String id) {
+        StringBuilder key = new StringBuilder( id.length() );
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt( i );
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '_') {
+                key.append( c );
+            }
+        }
+        return key.toString();
+    }
+}
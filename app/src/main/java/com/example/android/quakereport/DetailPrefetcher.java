@@ -0,0 +1,176 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.Process;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Fetches event details into the {@link DetailCache} before they are opened: first the
+ * rows on screen, then the largest events of the list, which are the ones most often
+ * opened.
+ *
+ * One background-priority thread works through the queue a request at a time, spaced
+ * like the backfill's. Each call replaces the queue, so scrolling past rows never leaves
+ * them waiting. On a metered network only the rows on screen are fetched, and the first
+ * failed fetch ends the round rather than retrying against a bad network.
+ */
+public final class DetailPrefetcher {
+
+    private static final String LOG_TAG = DetailPrefetcher.class.getSimpleName();
+
+    /** Rows on screen fetched per call; a tall tablet list shows more than are worth it. */
+    private static final int MAX_VISIBLE = 20;
+
+    /** Largest events of the list kept cached. */
+    private static final int LARGEST = 10;
+
+    private final Context mContext;
+    private final DetailCache mCache;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread( runnable, "detail-prefetch" );
+                }
+            } );
+
+    /** Event id to the row's "updated" time, in the order to fetch them. */
+    private final LinkedHashMap<String, Long> mPending = new LinkedHashMap<>();
+
+    /** Whose largest events to queue once the rows on screen are done, or null. */
+    private EarthquakeQuery mLargestOf;
+
+    /** True while the worker is draining the queue. */
+    private boolean mDraining;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority( Process.THREAD_PRIORITY_BACKGROUND );
+            boolean finished = false;
+            try {
+                finished = drain();
+            } finally {
+                if (!finished) {
+                    synchronized (DetailPrefetcher.this) {
+                        mDraining = false;
+                    }
+                }
+            }
+        }
+    };
+
+    public DetailPrefetcher(Context context) {
+        mContext = context.getApplicationContext();
+        mCache = DetailCache.getInstance( mContext );
+    }
+
+    /**
+     * Replaces whatever is waiting with the given rows on screen, followed by the largest
+     * events matching {@code query}.
+     */
+    public synchronized void prefetch(List<QuakeDescription> visible, EarthquakeQuery query) {
+        mPending.clear();
+        for (int i = 0; i < visible.size() && i < MAX_VISIBLE; i++) {
+            QuakeDescription quake = visible.get( i );
+            if (quake.getId() != null) {
+                mPending.put( quake.getId(), quake.getUpdated() );
+            }
+        }
+        mLargestOf = query;
+        if (!mDraining) {
+            mDraining = true;
+            mExecutor.execute( mDrain );
+        }
+    }
+
+    /** Drops whatever is waiting; a fetch already running completes. */
+    public synchronized void cancel() {
+        mPending.clear();
+        mLargestOf = null;
+    }
+
+    /** Stops for good, interrupting a running fetch. */
+    public void shutdown() {
+        cancel();
+        mExecutor.shutdownNow();
+    }
+
+    /** Works through the queue; returns true once it is empty and the flag is cleared. */
+    private boolean drain() {
+        while (true) {
+            String id = null;
+            long updated = 0;
+            EarthquakeQuery largestOf = null;
+            synchronized (this) {
+                Iterator<Map.Entry<String, Long>> next = mPending.entrySet().iterator();
+                if (next.hasNext()) {
+                    Map.Entry<String, Long> entry = next.next();
+                    id = entry.getKey();
+                    updated = entry.getValue();
+                    next.remove();
+                } else if (mLargestOf != null) {
+                    largestOf = mLargestOf;
+                    mLargestOf = null;
+                } else {
+                    mDraining = false;
+                    return true;
+                }
+            }
+
+            if (!EarthquakeSync.isOnline( mContext )) {
+                cancel();
+            } else if (largestOf != null) {
+                if (!isMetered()) {
+                    queueLargest( largestOf );
+                }
+            } else if (!mCache.contains( id, updated )) {
+                try {
+                    PipelineMetrics.DETAIL_PREFETCHES.incrementAndGet();
+                    mCache.get( id, updated );
+                    Thread.sleep( EarthquakeBackfill.MIN_REQUEST_INTERVAL_MILLIS );
+                } catch (InterruptedIOException e) {
+                    return false;
+                } catch (InterruptedException e) {
+                    return false;
+                } catch (IOException e) {
+                    Log.w( LOG_TAG, "Prefetch of " + id + " failed; stopping this round", e );
+                    cancel();
+                }
+            }
+        }
+    }
+
+    private void queueLargest(EarthquakeQuery query) {
+        EarthquakeStore store = EarthquakeStore.getInstance( mContext );
+        long since = store.getHistoryStart( query.getSyncKey(),
+                query.getWindowStart( System.currentTimeMillis() ) );
+        List<QuakeDescription> largest = store.query( query.getMinMagnitude(), since,
+                EarthquakeQuery.ORDER_BY_MAGNITUDE, 0, LARGEST );
+        synchronized (this) {
+            for (QuakeDescription quake : largest) {
+                if (quake.getId() != null && !mPending.containsKey( quake.getId() )) {
+                    mPending.put( quake.getId(), quake.getUpdated() );
+                }
+            }
+        }
+    }
+
+    private boolean isMetered() {
+        ConnectivityManager cm =
+                (ConnectivityManager) mContext.getSystemService( Context.CONNECTIVITY_SERVICE );
+        return ConnectivityManagerCompat.isActiveNetworkMetered( cm );
+    }
+}
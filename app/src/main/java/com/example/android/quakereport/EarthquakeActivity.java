@@ -15,39 +15,48 @@
  */
 package com.example.android.quakereport;
 
+import android.app.ActivityManager;
+import android.app.ProgressDialog;
 import android.app.LoaderManager;
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.content.SharedPreferences;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
+import android.support.v4.content.FileProvider;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import org.w3c.dom.Text;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 public class EarthquakeActivity extends AppCompatActivity
-        implements LoaderManager.LoaderCallbacks<List<QuakeDescription>>{
+        implements LoaderManager.LoaderCallbacks<List<QuakeDescription>>,
+        SharedPreferences.OnSharedPreferenceChangeListener {
 
     public static final String LOG_TAG = EarthquakeActivity.class.getName();
-    private static final String USGS_REQUEST_URL =
-            "https://earthquake.usgs.gov/fdsnws/event/1/query";
 
     private QuakeAdapter mAdapter;
 
@@ -59,61 +68,534 @@ public class EarthquakeActivity extends AppCompatActivity
      */
     private static final int EARTHQUAKE_LOADER_ID = 1;
 
+    /** Loader ID for the pages appended below the first one. */
+    private static final int EARTHQUAKE_PAGE_LOADER_ID = 2;
+
+    /** Start fetching the next page when the user is this many rows from the end. */
+    private static final int PREFETCH_DISTANCE = 10;
+
+    private static final String ARG_OFFSET = "offset";
+    private static final String ARG_LIMIT = "limit";
+
+    private final PageSizer mPageSizer = new PageSizer();
+
+    /** Logs scroll frame times in debug builds. */
+    private final FrameTimeMonitor mFrameTimeMonitor = new FrameTimeMonitor();
+
+    /** Everything the last load brought in, for applying preference changes locally. */
+    private QuakeIndex mIndex;
+
+    /** True while a next-page load is running. */
+    private boolean mPageLoading = false;
+
+    /** True once a page came back shorter than asked for, i.e. there is nothing more. */
+    private boolean mEndReached = false;
+
+    /** When the running next-page load was started, for {@link PageSizer}. */
+    private long mPageRequestedAt;
+
+    /** Size of the page the running load asked for. */
+    private int mPageRequested;
+
+    /** How far back "Load past year" reaches before the sync window. */
+    private static final long BACKFILL_MILLIS = 365L * 24 * 60 * 60 * 1000;
+
+    /** The running history backfill, or null. */
+    private BackfillTask mBackfillTask;
+
+    /** Polls the summary feed while live mode is on and the activity is in front. */
+    private LiveFeed mLiveFeed;
+    private final Handler mLiveHandler = new Handler();
+
+    /** The list as last shown, saved when the activity stops and shown on a cold start. */
+    private static final String SNAPSHOT_FILE = "list_snapshot.bin";
+
+    /** Spill files of the list rows evicted from memory. */
+    private static final String WINDOW_DIR = "event_window";
+
+    /** True while the rows shown are from the snapshot and the first load is still running. */
+    private boolean mShowingSnapshot = false;
+
+    /** The running diff of a refreshed list against the rows shown, or null. */
+    private DiffTask mDiffTask;
+
+    /** The running live poll, or null. */
+    private LivePollTask mLivePollTask;
+
+    /** Most place search results shown at once. */
+    private static final int SEARCH_LIMIT = 500;
+
+    /** The place search whose results are shown, or null when browsing. */
+    private String mSearchQuery;
+
+    /** The running place search, or null. */
+    private SearchTask mSearchTask;
+
+    /** Exported files, under the cache directory the FileProvider shares from. */
+    private static final String EXPORT_DIR = "exports";
+
+    /** The running export, or null. */
+    private ExportTask mExportTask;
+
+    /** Fetches the details of the rows on screen before they are tapped. */
+    private DetailPrefetcher mDetailPrefetcher;
+
+    /** The magnitude-over-time chart above the list. */
+    private TimelineView mTimelineView;
+
+    /** The running build of a timeline for a new magnitude floor, or null. */
+    private TimelineTask mTimelineTask;
+
+    /** Starts a live poll, unless one is still running, and schedules the next. */
+    private final Runnable mLivePoll = new Runnable() {
+        @Override
+        public void run() {
+            // A page load works out its offset from the rows shown; let it land first.
+            if (mLivePollTask == null && !mPageLoading) {
+                mLivePollTask = new LivePollTask();
+                mLivePollTask.executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR, currentQuery() );
+            }
+            mLiveHandler.postDelayed( this, getLiveIntervalMillis() );
+        }
+    };
+
 
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate( savedInstanceState );
         setContentView( R.layout.earthquake_activity );
-        ConnectivityManager cm =
-                (ConnectivityManager)this.getSystemService(Context.CONNECTIVITY_SERVICE);
+        PreferenceManager.getDefaultSharedPreferences( this )
+                .registerOnSharedPreferenceChangeListener( this );
+        // Keep the store fresh in the background, so the list is current when the app opens.
+        EarthquakeSync.schedule( this );
+
+        // Find a reference to the {@link ListView} in the layout
+        final ListView earthquakeListView = (ListView) findViewById( R.id.list );
+        mEmptyStateTextView = (TextView) findViewById( R.id.empty_view );
+
+        earthquakeListView.setEmptyView( mEmptyStateTextView );
+
+        // Create a new {@link ArrayAdapter} of earthquakes
+        QuakeWindow window = new QuakeWindow( new File( getFilesDir(), WINDOW_DIR ),
+                getWindowBudgetBytes(), AsyncTask.SERIAL_EXECUTOR );
+        window.setPolicy( getWindowPolicy() );
+        mAdapter = new QuakeAdapter( this, window );
+        mDetailPrefetcher = new DetailPrefetcher( this );
+        mTimelineView = (TimelineView) findViewById( R.id.timeline );
+
+
+        // Set the adapter on the {@link ListView}
+        // so the list can be populated in the user interface
+        earthquakeListView.setAdapter( mAdapter );
+
+        // Log.e( LOG_TAG, "onCreate: " + "Layout is created here\n");
 
-        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
-        boolean isConnected = activeNetwork != null &&
-                activeNetwork.isConnectedOrConnecting();
+        earthquakeListView.setOnItemClickListener( new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
+                // Find the current earthquake that was clicked on
+                QuakeDescription currentEarthquake = mAdapter.getItem( i );
+                if (QuakeWindow.isPlaceholder( currentEarthquake )) {
+                    return;
+                }
+                startActivity( EarthquakeDetailActivity.newIntent( EarthquakeActivity.this,
+                        currentEarthquake ) );
+            }
+        } );
+
+        earthquakeListView.setOnItemLongClickListener( new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> adapterView, View view, int i, long l) {
+                return addAlertNear( mAdapter.getItem( i ) );
+            }
+        } );
+
+        earthquakeListView.setOnScrollListener( new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                if (scrollState == SCROLL_STATE_IDLE) {
+                    prefetchDetails();
+                }
+                if (!BuildConfig.DEBUG) {
+                    return;
+                }
+                if (scrollState == SCROLL_STATE_IDLE) {
+                    mFrameTimeMonitor.stop( "Scroll over " + mAdapter.getCount() + " rows" );
+                } else {
+                    mFrameTimeMonitor.start();
+                }
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem,
+                                 int visibleItemCount, int totalItemCount) {
+                mAdapter.getWindow().setVisibleRange( firstVisibleItem, visibleItemCount );
+                if (totalItemCount > 0
+                        && firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        } );
+
+        LoaderManager loaderManager = getLoaderManager();
+        mPageRequested = mPageSizer.getPageSize();
+        // Show what was on screen last time while the first load syncs with USGS.
+        new SnapshotReadTask( currentQuery() ).executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR );
+        loaderManager.initLoader( EARTHQUAKE_LOADER_ID, null, this );
+//        new EarthquakeAsyncTask().execute( USGS_REQUEST_URL );
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        saveSnapshot();
+    }
+
+    /** Saves the rows shown, off the UI thread, for the next cold start. */
+    private void saveSnapshot() {
+        if (mAdapter.getCount() == 0 || mShowingSnapshot || mSearchQuery != null) {
+            return;
+        }
+        final List<QuakeDescription> rows = mAdapter.getSnapshot();
+        final String key = snapshotKey( currentQuery() );
+        final File file = new File( getFilesDir(), SNAPSHOT_FILE );
+        // Serial, so two saves never write the same file at once.
+        AsyncTask.SERIAL_EXECUTOR.execute( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    QuakeSnapshot.write( file, rows, key );
+                } catch (IOException e) {
+                    Log.e( LOG_TAG, "Could not save the list snapshot", e );
+                }
+            }
+        } );
+    }
+
+    /** A snapshot answers a query only if both the magnitude floor and order match. */
+    private static String snapshotKey(EarthquakeQuery query) {
+        return query.getSyncKey() + "|" + query.getOrderBy();
+    }
+
+    /** Reads the snapshot and shows it, unless the first load got there first. */
+    private class SnapshotReadTask extends AsyncTask<Void, Void, QuakeList> {
+        private final String mKey;
+        private final File mFile;
+
+        SnapshotReadTask(EarthquakeQuery query) {
+            mKey = snapshotKey( query );
+            mFile = new File( getFilesDir(), SNAPSHOT_FILE );
+        }
+
+        @Override
+        protected QuakeList doInBackground(Void... unused) {
+            long start = System.nanoTime();
+            try {
+                QuakeList snapshot = QuakeSnapshot.read( mFile, mKey );
+                if (snapshot != null) {
+                    // Rows saved before they were shown have no text yet; format them here.
+                    QuakeFormatter.prepareAll( snapshot );
+                }
+                return snapshot;
+            } catch (IOException e) {
+                Log.e( LOG_TAG, "Could not read the list snapshot", e );
+                return null;
+            } finally {
+                PipelineMetrics.SNAPSHOT.recordNanos( System.nanoTime() - start );
+            }
+        }
 
-        if(isConnected == false){
+        @Override
+        protected void onPostExecute(QuakeList snapshot) {
+            if (snapshot == null || snapshot.isEmpty() || mAdapter.getCount() > 0
+                    || mDiffTask != null || isFinishing()) {
+                return;
+            }
+            mShowingSnapshot = true;
             findViewById( R.id.progress_bar ).setVisibility( View.GONE );
-            TextView noInternet = (TextView)findViewById( R.id.no_internet_connection );
-            noInternet.setText( R.string.no_internet );
+            mAdapter.addAll( snapshot );
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences( this );
+        if (sharedPref.getBoolean( getString( R.string.settings_live_mode_key ), false )) {
+            if (mLiveFeed == null) {
+                mLiveFeed = new LiveFeed( this );
+            }
+            mLiveHandler.postDelayed( mLivePoll, getLiveIntervalMillis() );
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Live mode only polls while the list is on screen.
+        mLiveHandler.removeCallbacks( mLivePoll );
+        if (mLivePollTask != null) {
+            mLivePollTask.cancel( true );
+            mLivePollTask = null;
         }
-        else {
-            // Find a reference to the {@link ListView} in the layout
-            final ListView earthquakeListView = (ListView) findViewById( R.id.list );
-            mEmptyStateTextView = (TextView) findViewById( R.id.empty_view );
+    }
 
-            earthquakeListView.setEmptyView( mEmptyStateTextView );
+    private long getLiveIntervalMillis() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences( this );
+        String seconds = sharedPref.getString( getString( R.string.settings_live_interval_key ),
+                getString( R.string.settings_live_interval_default ) );
+        try {
+            return Math.max( 1, Long.parseLong( seconds ) ) * 1000;
+        } catch (NumberFormatException e) {
+            return Long.parseLong( getString( R.string.settings_live_interval_default ) ) * 1000;
+        }
+    }
 
-            // Create a new {@link ArrayAdapter} of earthquakes
-            mAdapter = new QuakeAdapter(
-                    this, new ArrayList<QuakeDescription>() );
+    /** Lets go of list rows that are off screen; they are read back when scrolled to. */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory( level );
+        mAdapter.getWindow().trim( level );
+        DetailCache.getInstance( this ).trimMemory( level );
+    }
 
+    /** The memory budget for the list rows, from the preference. */
+    private long getWindowBudgetBytes() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences( this );
+        String megabytes = sharedPref.getString( getString( R.string.settings_memory_budget_key ),
+                getString( R.string.settings_memory_budget_default ) );
+        long budget;
+        try {
+            budget = Long.parseLong( megabytes );
+        } catch (NumberFormatException e) {
+            budget = 0;
+        }
+        if (budget <= 0) {
+            // Automatic: a sixteenth of the heap the system gives an app on this device.
+            ActivityManager activityManager = (ActivityManager) getSystemService( ACTIVITY_SERVICE );
+            return activityManager.getMemoryClass() * 1024L * 1024 / 16;
+        }
+        return budget * 1024 * 1024;
+    }
+
+    private String getWindowPolicy() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences( this );
+        return sharedPref.getString( getString( R.string.settings_eviction_policy_key ),
+                getString( R.string.settings_eviction_policy_default ) );
+    }
 
-            // Set the adapter on the {@link ListView}
-            // so the list can be populated in the user interface
-            earthquakeListView.setAdapter( mAdapter );
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // The backfill saves its progress as it goes, so the next run picks up from here.
+        if (mBackfillTask != null) {
+            mBackfillTask.cancel( true );
+        }
+        if (mExportTask != null) {
+            mExportTask.cancel( true );
+        }
+        mDetailPrefetcher.shutdown();
+        mAdapter.getWindow().release();
+        PreferenceManager.getDefaultSharedPreferences( this )
+                .unregisterOnSharedPreferenceChangeListener( this );
+    }
 
-            // Log.e( LOG_TAG, "onCreate: " + "Layout is created here\n");
+    /**
+     * Re-filters and re-sorts the loaded earthquakes when the minimum magnitude or order
+     * changes. Only goes back to the network if the new minimum is below what was loaded.
+     */
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (mAdapter == null) {
+            return;
+        }
+        if (key.equals( getString( R.string.settings_memory_budget_key ) )) {
+            mAdapter.getWindow().setBudget( getWindowBudgetBytes() );
+            return;
+        }
+        if (key.equals( getString( R.string.settings_eviction_policy_key ) )) {
+            mAdapter.getWindow().setPolicy( getWindowPolicy() );
+            return;
+        }
+        if (key.equals( getString( R.string.settings_min_magnitude_key ) )
+                || key.equals( getString( R.string.settings_order_by_key ) )) {
+            showTimeline( currentQuery() );
+            if (mSearchQuery != null) {
+                // The search applies the new minimum; the list is reloaded when it ends.
+                mIndex = null;
+                startSearch( mSearchQuery );
+                return;
+            }
+            EarthquakeQuery query = currentQuery();
+            if (mIndex != null && mIndex.covers( query.getMinMagnitude() )) {
+                PipelineMetrics.CACHE_HITS.incrementAndGet();
+                showSelection( query );
+            } else {
+                mIndex = null;
+                findViewById( R.id.progress_bar ).setVisibility( View.VISIBLE );
+                getLoaderManager().restartLoader( EARTHQUAKE_LOADER_ID, null, this );
+            }
+        }
+    }
 
-            earthquakeListView.setOnItemClickListener( new AdapterView.OnItemClickListener() {
-                @Override
-                public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
-                    // Find the current earthquake that was clicked on
-                    QuakeDescription currentEarthquake = mAdapter.getItem( i );
-                    // Convert the String URL into a URI object (to pass into the Intent constructor)
-                    Uri webpage = Uri.parse( currentEarthquake.getmUrl() );
-                    // Create a new intent to view the earthquake URI
-                    Intent intent = new Intent( Intent.ACTION_VIEW, webpage );
-                    if (intent.resolveActivity( getPackageManager() ) != null) {
-                        startActivity( intent );
-                    }
+    /**
+     * Shows the timeline of the stored events that match the query. The loader builds it for
+     * the floor it loads; for any other, it is built off the UI thread first.
+     */
+    private void showTimeline(EarthquakeQuery query) {
+        QuakeTimeline timeline = EarthquakeStore.getInstance( getApplicationContext() )
+                .peekTimeline( query.getMinMagnitude() );
+        if (timeline != null) {
+            mTimelineView.setTimeline( timeline );
+            return;
+        }
+        if (mTimelineTask != null) {
+            mTimelineTask.cancel( false );
+        }
+        mTimelineTask = new TimelineTask( query );
+        mTimelineTask.executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR );
+    }
+
+    /** Builds the store's timeline for a query's floor and history and shows it. */
+    private class TimelineTask extends AsyncTask<Void, Void, QuakeTimeline> {
+        private final EarthquakeQuery mQuery;
+
+        TimelineTask(EarthquakeQuery query) {
+            mQuery = query;
+        }
+
+        @Override
+        protected QuakeTimeline doInBackground(Void... unused) {
+            EarthquakeStore store = EarthquakeStore.getInstance( getApplicationContext() );
+            long since = store.getHistoryStart( mQuery.getSyncKey(),
+                    mQuery.getWindowStart( System.currentTimeMillis() ) );
+            return store.getTimeline( mQuery.getMinMagnitude(), since );
+        }
+
+        @Override
+        protected void onPostExecute(QuakeTimeline timeline) {
+            mTimelineTask = null;
+            if (!isFinishing()) {
+                mTimelineView.setTimeline( timeline );
+            }
+        }
+    }
+
+    /**
+     * Replaces the list with the indexed earthquakes that match the query. The index only
+     * holds ids; the rows are read from the store off the UI thread.
+     */
+    private void showSelection(EarthquakeQuery query) {
+        if (mDiffTask != null) {
+            mDiffTask.cancel( false );
+        }
+        mDiffTask = new DiffTask( null,
+                mIndex.selectIds( query.getMinMagnitude(), query.getOrderBy() ),
+                mAdapter.getSnapshot(), mAdapter.getVersion() );
+        mDiffTask.executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR );
+    }
+
+    /**
+     * Replaces the rows shown with {@code earthquakes}. The two are diffed off the UI thread
+     * and only a real difference reaches the list, which then keeps its scroll position.
+     */
+    private void showList(List<QuakeDescription> earthquakes) {
+        if (mDiffTask != null) {
+            mDiffTask.cancel( false );
+        }
+        mDiffTask = new DiffTask( earthquakes, null, mAdapter.getSnapshot(),
+                mAdapter.getVersion() );
+        mDiffTask.executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR );
+    }
+
+    /** Computes a {@link ListDiff} in the background and applies it to the adapter. */
+    private class DiffTask extends AsyncTask<Void, Void, ListDiff> {
+        /** Ids of the new rows, to read from the store first; null if given the rows. */
+        private final List<String> mNewIds;
+        private List<QuakeDescription> mNewList;
+        final List<QuakeDescription> mOldList;
+        private final int mVersion;
+        private final Context mContext = getApplicationContext();
+
+        /** Takes either the new rows or their ids, with the other null. */
+        DiffTask(List<QuakeDescription> newList, List<String> newIds,
+                 List<QuakeDescription> oldList, int version) {
+            mNewList = newList;
+            mNewIds = newIds;
+            mOldList = oldList;
+            mVersion = version;
+        }
+
+        /** Returns the new rows when they were not given; runs in the background. */
+        protected List<QuakeDescription> readNewList() {
+            QuakeList rows = EarthquakeStore.getInstance( mContext ).queryByIds( mNewIds );
+            QuakeFormatter.prepareAll( rows );
+            return rows;
+        }
+
+        @Override
+        protected ListDiff doInBackground(Void... unused) {
+            try {
+                if (mNewList == null) {
+                    mNewList = readNewList();
                 }
-            } );
+                return ListDiff.compute( mOldList, mNewList );
+            } catch (IllegalStateException e) {
+                // A block of the rows shown was evicted and its spill file can't be read.
+                Log.e( LOG_TAG, "Could not read back the rows shown", e );
+                return null;
+            }
+        }
 
-            LoaderManager loaderManager = getLoaderManager();
-            loaderManager.initLoader( EARTHQUAKE_LOADER_ID, null, this );
-//        new EarthquakeAsyncTask().execute( USGS_REQUEST_URL );
+        @Override
+        protected void onPostExecute(ListDiff diff) {
+            mDiffTask = null;
+            if (diff == null) {
+                if (mNewList != null) {
+                    // Nothing to keep in place without the old rows; show the new ones.
+                    mAdapter.clear();
+                    mAdapter.addAll( mNewList );
+                } else {
+                    // The changes are in the store; load the list from there again.
+                    mIndex = null;
+                    getLoaderManager().restartLoader( EARTHQUAKE_LOADER_ID, null,
+                            EarthquakeActivity.this );
+                }
+                return;
+            }
+            ListView list = (ListView) findViewById( R.id.list );
+            int first = list.getFirstVisiblePosition();
+            View firstView = list.getChildAt( 0 );
+            int top = firstView == null ? 0 : firstView.getTop() - list.getPaddingTop();
+            if (!mAdapter.applyDiff( mNewList, diff, mVersion )) {
+                // The rows changed while this ran, e.g. a live update; diff again.
+                showList( mNewList );
+                return;
+            }
+            if (!diff.isEmpty() && firstView != null) {
+                // Keep the event at the top where it was, rather than the position.
+                int position = diff.getNewPosition( first );
+                if (position >= 0) {
+                    list.setSelectionFromTop( position, top );
+                }
+            }
+            prefetchDetails();
+        }
+    }
+
+    /** Warms the detail cache with the rows on screen, then the largest of the list. */
+    private void prefetchDetails() {
+        ListView list = (ListView) findViewById( R.id.list );
+        int last = Math.min( list.getLastVisiblePosition(), mAdapter.getCount() - 1 );
+        List<QuakeDescription> visible = new ArrayList<>();
+        for (int i = Math.max( 0, list.getFirstVisiblePosition() ); i <= last; i++) {
+            QuakeDescription quake = mAdapter.getItem( i );
+            if (!QuakeWindow.isPlaceholder( quake )) {
+                visible.add( quake );
+            }
         }
+        mDetailPrefetcher.prefetch( visible, currentQuery() );
     }
 
     /**
@@ -126,9 +608,118 @@ public class EarthquakeActivity extends AppCompatActivity
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate( R.menu.main, menu );
+        menu.findItem( R.id.action_metrics ).setVisible( BuildConfig.DEBUG );
+
+        MenuItem searchItem = menu.findItem( R.id.action_search );
+        final SearchView searchView = (SearchView) MenuItemCompat.getActionView( searchItem );
+        searchView.setQueryHint( getString( R.string.search_hint ) );
+        searchView.setOnQueryTextListener( new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String text) {
+                if (text.trim().isEmpty()) {
+                    endSearch();
+                } else {
+                    startSearch( text );
+                }
+                return true;
+            }
+        } );
+        MenuItemCompat.setOnActionExpandListener( searchItem,
+                new MenuItemCompat.OnActionExpandListener() {
+                    @Override
+                    public boolean onMenuItemActionExpand(MenuItem item) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onMenuItemActionCollapse(MenuItem item) {
+                        endSearch();
+                        return true;
+                    }
+                } );
         return true;
     }
 
+    /**
+     * Shows the stored events whose place matches {@code query}, best match first, in place
+     * of the list. Each keystroke starts a new search; an older one still running is
+     * cancelled and its results are dropped.
+     */
+    private void startSearch(String query) {
+        mSearchQuery = query;
+        if (mSearchTask != null) {
+            mSearchTask.cancel( false );
+        }
+        mSearchTask = new SearchTask( query, currentQuery().getMinMagnitude() );
+        mSearchTask.executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR );
+    }
+
+    /** Goes back to the list the search replaced. */
+    private void endSearch() {
+        if (mSearchQuery == null) {
+            return;
+        }
+        mSearchQuery = null;
+        if (mSearchTask != null) {
+            mSearchTask.cancel( false );
+            mSearchTask = null;
+        }
+        EarthquakeQuery query = currentQuery();
+        if (mIndex != null && mIndex.covers( query.getMinMagnitude() )) {
+            mEndReached = true;
+            showSelection( query );
+        } else {
+            findViewById( R.id.progress_bar ).setVisibility( View.VISIBLE );
+            getLoaderManager().restartLoader( EARTHQUAKE_LOADER_ID, null, this );
+        }
+    }
+
+    /** Looks up a place search in the store's {@link PlaceIndex} and shows the results. */
+    private class SearchTask extends AsyncTask<Void, Void, List<QuakeDescription>> {
+        private final String mQuery;
+        private final double mMinMagnitude;
+        private final Context mContext = getApplicationContext();
+
+        SearchTask(String query, double minMagnitude) {
+            mQuery = query;
+            mMinMagnitude = minMagnitude;
+        }
+
+        @Override
+        protected List<QuakeDescription> doInBackground(Void... unused) {
+            EarthquakeStore store = EarthquakeStore.getInstance( mContext );
+            PlaceIndex places = store.getPlaceIndex();
+            long start = System.nanoTime();
+            List<String> ids = places.search( mQuery, mMinMagnitude, SEARCH_LIMIT );
+            PipelineMetrics.SEARCH.recordNanos( System.nanoTime() - start );
+            if (isCancelled()) {
+                return null;
+            }
+            QuakeList results = store.queryByIds( ids );
+            QuakeFormatter.prepareAll( results );
+            return results;
+        }
+
+        @Override
+        protected void onPostExecute(List<QuakeDescription> results) {
+            if (mSearchTask == this) {
+                mSearchTask = null;
+            }
+            if (results == null || !mQuery.equals( mSearchQuery )) {
+                return;
+            }
+            // The results are all there is; no pages follow them.
+            mEndReached = true;
+            showList( results );
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
@@ -137,11 +728,430 @@ public class EarthquakeActivity extends AppCompatActivity
             startActivity(settingsIntent);
             return true;
         }
+        if (id == R.id.action_backfill) {
+            startBackfill();
+            return true;
+        }
+        if (id == R.id.action_stats) {
+            new StatsTask( currentQuery().getMinMagnitude() )
+                    .executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR );
+            return true;
+        }
+        if (id == R.id.action_clear_alerts) {
+            final Context context = getApplicationContext();
+            AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable() {
+                @Override
+                public void run() {
+                    EarthquakeAlerts.clearRules( context );
+                }
+            } );
+            Toast.makeText( this, R.string.alerts_cleared, Toast.LENGTH_SHORT ).show();
+            return true;
+        }
+        if (id == R.id.action_export) {
+            chooseExportFormat();
+            return true;
+        }
+        if (id == R.id.action_metrics) {
+            showMetrics();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
-    @Override
-    public Loader<List<QuakeDescription>> onCreateLoader(int i, Bundle bundle) {
+    /** Radius and time window of the alerts added by a long press. */
+    private static final double ALERT_RADIUS_KM = 500;
+    private static final long ALERT_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+
+    /**
+     * Adds an alert for events at or above the current minimum magnitude within
+     * {@link #ALERT_RADIUS_KM} of the given one. Returns false for an event without an
+     * epicenter.
+     */
+    private boolean addAlertNear(QuakeDescription quake) {
+        if (Double.isNaN( quake.getLatitude() ) || Double.isNaN( quake.getLongitude() )) {
+            return false;
+        }
+        EarthquakeQuery query = currentQuery();
+        String name = getString( R.string.alert_rule_near, query.getMinMagnitudeText(),
+                (int) ALERT_RADIUS_KM, quake.getPrimaryLocation() );
+        final AlertRule rule = AlertRule.withinRadius( name, query.getMinMagnitude(),
+                quake.getLatitude(), quake.getLongitude(), ALERT_RADIUS_KM, ALERT_MAX_AGE_MILLIS );
+        final Context context = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute( new Runnable() {
+            @Override
+            public void run() {
+                EarthquakeAlerts.addRule( context, rule );
+            }
+        } );
+        Toast.makeText( this, getString( R.string.alert_added, name ), Toast.LENGTH_LONG ).show();
+        return true;
+    }
+
+    /** Debug screen: shows the pipeline metrics and saves them for a bug report. */
+    private void showMetrics() {
+        QuakeWindow window = mAdapter.getWindow();
+        String message = PipelineMetrics.dumpToString() + "\n" + getString( R.string.metrics_window,
+                window.getResidentRows(), window.size(), window.getResidentBytes() / 1024,
+                window.getBudgetBytes() / 1024, window.getEvictionCount(), window.getReloadCount() );
+        try {
+            message += "\n" + getString( R.string.metrics_saved,
+                    PipelineMetrics.writeDump( this ).getPath() );
+        } catch (IOException e) {
+            Log.e( LOG_TAG, "Could not save the metrics", e );
+        }
+        new AlertDialog.Builder( this )
+                .setTitle( R.string.metrics_menu_item )
+                .setMessage( message )
+                .setPositiveButton( android.R.string.ok, null )
+                .show();
+    }
+
+    /** Regions listed on the statistics screen. */
+    private static final int STATS_REGIONS = 10;
+
+    /**
+     * Shows the statistics of the stored events. They are kept current as events arrive,
+     * so this only reads them; the background thread is for the first call, which builds
+     * them from the store.
+     */
+    private class StatsTask extends AsyncTask<Void, Void, String> {
+        private final double mMinMagnitude;
+
+        StatsTask(double minMagnitude) {
+            mMinMagnitude = minMagnitude;
+        }
+
+        @Override
+        protected String doInBackground(Void... unused) {
+            QuakeStats stats = EarthquakeStore.getInstance( getApplicationContext() ).getStats();
+            long now = System.currentTimeMillis();
+            StringBuilder text = new StringBuilder();
+            text.append( getString( R.string.stats_total, stats.size() ) ).append( "\n\n" );
+
+            text.append( getString( R.string.stats_bands_title ) ).append( '\n' );
+            text.append( getString( R.string.stats_band_below_one, stats.getBandCount( 0 ) ) );
+            for (int band = 1; band < QuakeStats.BANDS - 1; band++) {
+                text.append( '\n' ).append( getString( R.string.stats_band, band, band + 1,
+                        stats.getBandCount( band ) ) );
+            }
+            text.append( '\n' ).append( getString( R.string.stats_band_top, QuakeStats.BANDS - 1,
+                    stats.getBandCount( QuakeStats.BANDS - 1 ) ) ).append( "\n\n" );
+
+            text.append( getString( R.string.stats_rates_title ) ).append( '\n' );
+            double dayRate = stats.getRatePerHour( 24, mMinMagnitude, now );
+            double weekRate = stats.getRatePerHour( QuakeStats.HOURS, mMinMagnitude, now );
+            text.append( getString( R.string.stats_rate_day, Math.round( dayRate * 24 ), dayRate ) )
+                    .append( '\n' )
+                    .append( getString( R.string.stats_rate_week,
+                            Math.round( weekRate * QuakeStats.HOURS ), weekRate ) )
+                    .append( "\n\n" );
+
+            text.append( getString( R.string.stats_regions_title ) );
+            List<QuakeStats.RegionMax> regions = stats.getLargestByRegion();
+            for (int i = 0; i < Math.min( STATS_REGIONS, regions.size() ); i++) {
+                QuakeStats.RegionMax region = regions.get( i );
+                text.append( '\n' ).append( getString( R.string.stats_region, region.region,
+                        region.magnitude, region.count ) );
+            }
+            return text.toString();
+        }
+
+        @Override
+        protected void onPostExecute(String text) {
+            if (isFinishing()) {
+                return;
+            }
+            new AlertDialog.Builder( EarthquakeActivity.this )
+                    .setTitle( R.string.stats_menu_item )
+                    .setMessage( text )
+                    .setPositiveButton( android.R.string.ok, null )
+                    .show();
+        }
+    }
+
+    /** Loads the year before the sync window into the store for the current magnitude. */
+    private void startBackfill() {
+        if (mBackfillTask != null) {
+            return;
+        }
+        EarthquakeQuery query = currentQuery();
+        long windowStart = query.getWindowStart( System.currentTimeMillis() );
+        mBackfillTask = new BackfillTask( query );
+        mBackfillTask.executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR,
+                windowStart - BACKFILL_MILLIS, windowStart );
+    }
+
+    /** Runs an {@link EarthquakeBackfill} and shows its progress under the title. */
+    private class BackfillTask extends AsyncTask<Long, Integer, Boolean> {
+        private final EarthquakeQuery mQuery;
+
+        BackfillTask(EarthquakeQuery query) {
+            mQuery = query;
+        }
+
+        @Override
+        protected Boolean doInBackground(Long... range) {
+            EarthquakeBackfill backfill = new EarthquakeBackfill( getApplicationContext(), mQuery );
+            try {
+                backfill.run( range[0], range[1], new EarthquakeBackfill.Listener() {
+                    @Override
+                    public void onProgress(int windowsDone, int windowCount, int eventsStored) {
+                        publishProgress( windowsDone, windowCount );
+                    }
+                } );
+                return true;
+            } catch (IOException e) {
+                Log.e( LOG_TAG, "Backfill stopped", e );
+                return false;
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... progress) {
+            getSupportActionBar().setSubtitle(
+                    getString( R.string.backfill_progress, progress[0], progress[1] ) );
+            // The store's timeline takes in each window as it is stored.
+            mTimelineView.invalidate();
+        }
+
+        @Override
+        protected void onPostExecute(Boolean success) {
+            mBackfillTask = null;
+            if (!success) {
+                getSupportActionBar().setSubtitle( getString( R.string.backfill_failed ) );
+                return;
+            }
+            getSupportActionBar().setSubtitle( null );
+            // The store now reaches back further; load the list again to show it.
+            mIndex = null;
+            mTimelineView.showAll();
+            getLoaderManager().restartLoader( EARTHQUAKE_LOADER_ID, null, EarthquakeActivity.this );
+        }
+    }
+
+    /** Asks for CSV or GeoJSON, then exports the stored events the list is filtered to. */
+    private void chooseExportFormat() {
+        if (mExportTask != null) {
+            return;
+        }
+        final String[] formats = {QuakeExporter.FORMAT_CSV, QuakeExporter.FORMAT_GEOJSON};
+        CharSequence[] labels = {getString( R.string.export_format_csv ),
+                getString( R.string.export_format_geojson )};
+        new AlertDialog.Builder( this )
+                .setTitle( R.string.export_format_title )
+                .setItems( labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        startExport( formats[which] );
+                    }
+                } )
+                .show();
+    }
+
+    private void startExport(String format) {
+        if (mExportTask != null) {
+            return;
+        }
+        mExportTask = new ExportTask( currentQuery(), format );
+        mExportTask.executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR );
+    }
+
+    /**
+     * Streams the stored events at the list's magnitude and time window into a file with a
+     * {@link QuakeExporter}, showing its progress, then offers the file to share. Cancelling
+     * the dialog interrupts the export and leaves no file behind.
+     */
+    private class ExportTask extends AsyncTask<Void, Integer, File> {
+        private final EarthquakeQuery mQuery;
+        private final String mFormat;
+        private final ProgressDialog mProgress;
+        private int mExported;
+
+        ExportTask(EarthquakeQuery query, String format) {
+            mQuery = query;
+            mFormat = format;
+            mProgress = new ProgressDialog( EarthquakeActivity.this );
+            mProgress.setTitle( getString( R.string.export_progress ) );
+            mProgress.setProgressStyle( ProgressDialog.STYLE_HORIZONTAL );
+            mProgress.setCancelable( false );
+            mProgress.setButton( DialogInterface.BUTTON_NEGATIVE, getString( android.R.string.cancel ),
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            cancel( true );
+                        }
+                    } );
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mProgress.show();
+        }
+
+        @Override
+        protected File doInBackground(Void... params) {
+            File dir = new File( getCacheDir(), EXPORT_DIR );
+            File[] old = dir.listFiles();
+            if (old != null) {
+                // Only the latest export is kept; whoever it was shared with has a copy.
+                for (File file : old) {
+                    file.delete();
+                }
+            }
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                Log.e( LOG_TAG, "Cannot create " + dir );
+                return null;
+            }
+            EarthquakeStore store = EarthquakeStore.getInstance( getApplicationContext() );
+            long since = store.getHistoryStart( mQuery.getSyncKey(),
+                    mQuery.getWindowStart( System.currentTimeMillis() ) );
+            File file = new File( dir, "earthquakes-" + System.currentTimeMillis() + "."
+                    + QuakeExporter.getExtension( mFormat ) );
+            try {
+                mExported = QuakeExporter.export( store, mQuery.getMinMagnitude(), since,
+                        mQuery.getOrderBy(), mFormat, file, new QuakeExporter.Listener() {
+                            @Override
+                            public void onProgress(int exported, int total) {
+                                publishProgress( exported, total );
+                            }
+                        } );
+                return file;
+            } catch (IOException e) {
+                Log.e( LOG_TAG, "Export stopped", e );
+                return null;
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... progress) {
+            mProgress.setMax( progress[1] );
+            mProgress.setProgress( progress[0] );
+        }
+
+        @Override
+        protected void onCancelled(File file) {
+            mExportTask = null;
+            mProgress.dismiss();
+        }
+
+        @Override
+        protected void onPostExecute(File file) {
+            mExportTask = null;
+            mProgress.dismiss();
+            if (file == null) {
+                Toast.makeText( EarthquakeActivity.this, R.string.export_failed,
+                        Toast.LENGTH_SHORT ).show();
+                return;
+            }
+            if (mExported == 0) {
+                file.delete();
+                Toast.makeText( EarthquakeActivity.this, R.string.export_empty,
+                        Toast.LENGTH_SHORT ).show();
+                return;
+            }
+            Uri uri = FileProvider.getUriForFile( EarthquakeActivity.this,
+                    getPackageName() + ".exports", file );
+            Intent share = new Intent( Intent.ACTION_SEND )
+                    .setType( QuakeExporter.getMimeType( mFormat ) )
+                    .putExtra( Intent.EXTRA_STREAM, uri )
+                    .addFlags( Intent.FLAG_GRANT_READ_URI_PERMISSION );
+            startActivity( Intent.createChooser( share,
+                    getString( R.string.export_share, mExported ) ) );
+        }
+    }
+
+    /** Runs one {@link LiveFeed} poll and applies what changed to the list. */
+    private class LivePollTask extends AsyncTask<EarthquakeQuery, Void, FeedDelta> {
+        private EarthquakeQuery mQuery;
+
+        @Override
+        protected FeedDelta doInBackground(EarthquakeQuery... query) {
+            mQuery = query[0];
+            try {
+                return mLiveFeed.poll( mQuery );
+            } catch (IOException e) {
+                Log.e( LOG_TAG, "Live poll failed", e );
+                return FeedDelta.EMPTY;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(FeedDelta delta) {
+            mLivePollTask = null;
+            if (delta == null) {
+                // Too long since the last poll for a feed to cover; the store was synced
+                // in full instead, so load the list from it again.
+                mIndex = null;
+                getLoaderManager().restartLoader( EARTHQUAKE_LOADER_ID, null, EarthquakeActivity.this );
+                return;
+            }
+            if (!delta.isEmpty()) {
+                // The store has already put the changes into its timeline.
+                mTimelineView.invalidate();
+            }
+            if (delta.isEmpty() || mPageLoading || mDiffTask != null) {
+                return;
+            }
+            if (mSearchQuery != null) {
+                // The store has the changes; search again so they show up if they match.
+                mIndex = null;
+                startSearch( mSearchQuery );
+                return;
+            }
+            // The index no longer matches the store; the next preference change reloads.
+            mIndex = null;
+            mDiffTask = new DeltaTask( delta, mQuery, mEndReached, mAdapter.getSnapshot(),
+                    mAdapter.getVersion() );
+            mDiffTask.executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR );
+        }
+    }
+
+    /**
+     * Merges what a live poll found into the rows shown, off the UI thread since that reads
+     * back any rows evicted from memory, then applies it like any other new list.
+     */
+    private class DeltaTask extends DiffTask {
+        private final FeedDelta mDelta;
+        private final EarthquakeQuery mQuery;
+        private final boolean mComplete;
+
+        DeltaTask(FeedDelta delta, EarthquakeQuery query, boolean complete,
+                  List<QuakeDescription> oldList, int version) {
+            super( null, null, oldList, version );
+            mDelta = delta;
+            mQuery = query;
+            mComplete = complete;
+        }
+
+        @Override
+        protected List<QuakeDescription> readNewList() {
+            return QuakeAdapter.merge( mOldList, mDelta, mQuery.getMinMagnitude(),
+                    mQuery.getOrderBy(), mComplete );
+        }
+    }
+
+    /**
+     * Starts loading the page after the rows already in the adapter, unless one is already
+     * on its way or the last page has been reached. The rows already bound stay as they are;
+     * the new page is appended when it arrives.
+     */
+    private void loadNextPage() {
+        if (mPageLoading || mEndReached || mLivePollTask != null || mDiffTask != null
+                || mShowingSnapshot) {
+            return;
+        }
+        mPageLoading = true;
+        mPageRequestedAt = System.currentTimeMillis();
+        mPageRequested = mPageSizer.getPageSize();
+        Bundle args = new Bundle();
+        args.putInt( ARG_OFFSET, mAdapter.getCount() );
+        args.putInt( ARG_LIMIT, mPageRequested );
+        getLoaderManager().restartLoader( EARTHQUAKE_PAGE_LOADER_ID, args, this );
+    }
+
+    /** The query described by the user's current preferences. */
+    private EarthquakeQuery currentQuery() {
         /**
          * adding the prefered choices of the user
          */
@@ -156,39 +1166,92 @@ public class EarthquakeActivity extends AppCompatActivity
                 getString(R.string.settings_order_by_default)
         );
 
-        Uri baseUri = Uri.parse( USGS_REQUEST_URL );
-        Uri.Builder uriBuilder = baseUri.buildUpon();
+        return new EarthquakeQuery( minMagnitude, orderBy, mPageRequested );
+    }
 
-        uriBuilder.appendQueryParameter( "format", "geojson" );
-        uriBuilder.appendQueryParameter( "limit", "10" );
-        uriBuilder.appendQueryParameter( "minmag", minMagnitude );
-        uriBuilder.appendQueryParameter( "orderby", orderBy );
+    @Override
+    public Loader<List<QuakeDescription>> onCreateLoader(int i, Bundle bundle) {
+        EarthquakeQuery query = currentQuery();
+        if (i == EARTHQUAKE_PAGE_LOADER_ID && bundle != null) {
+            query = query.page( bundle.getInt( ARG_OFFSET, 0 ), bundle.getInt( ARG_LIMIT, mPageRequested ) );
+        }
         //Log.e( LOG_TAG, "mLoader: " + "LOADER is loaded here\n");
-        return new EarthquakeLoader(this, uriBuilder.toString());
+        return new EarthquakeLoader(this, query);
     }
 
     @Override
     public void onLoadFinished(Loader<List<QuakeDescription>> loader,
                                List<QuakeDescription> data) {
+        long start = System.nanoTime();
+        showLoaded( loader, data );
+        PipelineMetrics.DELIVER.recordNanos( System.nanoTime() - start );
+    }
+
+    private void showLoaded(Loader<List<QuakeDescription>> loader, List<QuakeDescription> data) {
+        int received = data == null ? 0 : data.size();
+        mEndReached = received < mPageRequested;
+
+        if (loader.getId() == EARTHQUAKE_PAGE_LOADER_ID) {
+            mPageLoading = false;
+            mPageSizer.record( System.currentTimeMillis() - mPageRequestedAt, received );
+            // Append the page; rows that are already on screen keep their bound views.
+            if (received > 0 && mSearchQuery == null) {
+                mAdapter.addAll(data);
+            }
+            return;
+        }
+
+        // The fresh rows replace the snapshot through the same diff as any refresh.
+        mShowingSnapshot = false;
+
         //progress bar while fetching data from the internet
         ProgressBar progressBar = (ProgressBar) findViewById( R.id.progress_bar );
         progressBar.setVisibility( View.GONE );
-        // Set empty state text to display "No earthquakes found."
-        mEmptyStateTextView.setText(R.string.empty);
+        // Whatever was stored is shown even offline; only say so when there is nothing to show.
+        boolean empty = data == null || data.isEmpty();
+        TextView noInternet = (TextView) findViewById( R.id.no_internet_connection );
+        if (empty && !EarthquakeSync.isOnline( this )) {
+            mEmptyStateTextView.setText( "" );
+            noInternet.setText( R.string.no_internet );
+        } else {
+            // Set empty state text to display "No earthquakes found."
+            mEmptyStateTextView.setText(R.string.empty);
+            noInternet.setText( "" );
+        }
 
-        // Clear the adapter of previous earthquake data
-        mAdapter.clear();
+        mPageLoading = false;
+        getLoaderManager().destroyLoader( EARTHQUAKE_PAGE_LOADER_ID );
 
-        // If there is a valid list of {@link Earthquake}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
-        if (data != null && !data.isEmpty()) {
-            mAdapter.addAll(data);
+        // A complete index needs no more pages, and it also answers the current preferences
+        // if they changed after this load was started (e.g. while the activity was rotated).
+        mIndex = ((EarthquakeLoader) loader).getIndex();
+        showTimeline( currentQuery() );
+        if (mSearchQuery != null) {
+            // Keep showing the search; the fresh list is shown when it ends.
+            startSearch( mSearchQuery );
+            return;
         }
+        EarthquakeQuery query = currentQuery();
+        if (mIndex != null && mIndex.covers( query.getMinMagnitude() )) {
+            mEndReached = true;
+            showSelection( query );
+            return;
+        }
+
+        // Swap in the new earthquakes; only the rows that differ are touched.
+        showList( data != null ? data : new ArrayList<QuakeDescription>() );
     }
 
     @Override
     public void onLoaderReset(Loader<List<QuakeDescription>> loader) {
+        if (loader.getId() == EARTHQUAKE_PAGE_LOADER_ID) {
+            return;
+        }
         // Clear the adapter of previous earthquake data
+        if (mDiffTask != null) {
+            mDiffTask.cancel( false );
+            mDiffTask = null;
+        }
         mAdapter.clear();
        // Log.e( LOG_TAG, "LOADER_RESET: " + "Loader is destroyed/reset here\n");
     }
@@ -0,0 +1,126 @@
+package com.example.android.quakereport;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Checks arriving events against the user's {@link AlertRule}s and posts a notification
+ * for each event that matches one.
+ *
+ * The rules are compiled into an {@link AlertMatcher} once and again only when they
+ * change. Every rule fires at most once per event: the store records each firing, so an
+ * update of an event that already fired a rule stays quiet.
+ */
+public final class EarthquakeAlerts {
+
+    /** How long a firing is remembered, so later updates of the event don't repeat it. */
+    private static final long FIRED_RETENTION_MILLIS = 90L * 24 * 60 * 60 * 1000;
+
+    /**
+     * The compiled rules, or null until first needed and after they change. Rules are saved
+     * and compiled under {@link #sLock}, so a matcher compiled from rules that changed
+     * meanwhile is never kept.
+     */
+    private static AlertMatcher sMatcher;
+    private static final Object sLock = new Object();
+
+    private EarthquakeAlerts() {
+    }
+
+    /** Saves a new rule; it applies from the next event that arrives. */
+    public static AlertRule addRule(Context context, AlertRule rule) {
+        synchronized (sLock) {
+            AlertRule saved = EarthquakeStore.getInstance( context ).addAlertRule( rule );
+            sMatcher = null;
+            return saved;
+        }
+    }
+
+    public static void clearRules(Context context) {
+        synchronized (sLock) {
+            EarthquakeStore.getInstance( context ).deleteAlertRules();
+            sMatcher = null;
+        }
+    }
+
+    /**
+     * Checks new or updated events against the rules and notifies about every match that
+     * has not fired before. Call from a background thread, after the events are stored.
+     *
+     * @return the number of rules that fired
+     */
+    public static int check(Context context, List<QuakeDescription> earthquakes) {
+        if (earthquakes.isEmpty()) {
+            return 0;
+        }
+        EarthquakeStore store = EarthquakeStore.getInstance( context );
+        AlertMatcher matcher;
+        synchronized (sLock) {
+            if (sMatcher == null) {
+                sMatcher = new AlertMatcher( store.getAlertRules() );
+            }
+            matcher = sMatcher;
+        }
+        if (matcher.size() == 0) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        int fired = 0;
+        List<AlertRule> matched = new ArrayList<>();
+        for (QuakeDescription quake : earthquakes) {
+            if (quake.getId() == null) {
+                continue;
+            }
+            matched.clear();
+            matcher.match( quake, now, matched );
+            AlertRule first = null;
+            for (AlertRule rule : matched) {
+                if (store.markAlertFired( rule.getId(), quake.getId(), now )) {
+                    fired++;
+                    if (first == null) {
+                        first = rule;
+                    }
+                }
+            }
+            if (first != null) {
+                notify( context, quake, first );
+            }
+        }
+        if (fired > 0) {
+            store.pruneAlertsFired( now - FIRED_RETENTION_MILLIS );
+        }
+        return fired;
+    }
+
+    /**
+     * One notification per event, tagged with its id, however many rules it matched. It
+     * opens the event's detail, which works for events without a web page too.
+     */
+    private static void notify(Context context, QuakeDescription quake, AlertRule rule) {
+        // Intents that differ only in extras are one PendingIntent, so each event gets a
+        // request code of its own.
+        PendingIntent open = PendingIntent.getActivity( context, quake.getId().hashCode(),
+                EarthquakeDetailActivity.newIntent( context, quake ),
+                PendingIntent.FLAG_UPDATE_CURRENT );
+        String title = context.getString( R.string.alert_title,
+                String.format( Locale.US, "%.1f", quake.getMagnitude() ), quake.getQuakePlace() );
+        NotificationCompat.Builder notification = new NotificationCompat.Builder( context )
+                .setSmallIcon( R.mipmap.ic_launcher )
+                .setContentTitle( title )
+                .setContentText( rule.getName() )
+                .setWhen( quake.getmTimeInMilliSeconds() )
+                .setShowWhen( true )
+                .setCategory( NotificationCompat.CATEGORY_EVENT )
+                .setPriority( NotificationCompat.PRIORITY_HIGH )
+                .setContentIntent( open )
+                .setAutoCancel( true );
+        NotificationManagerCompat.from( context ).notify( quake.getId(), 0, notification.build() );
+    }
+}
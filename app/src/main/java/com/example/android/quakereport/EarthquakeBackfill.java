@@ -0,0 +1,345 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a long stretch of history into the store, more than one USGS query may return.
+ *
+ * The range is sized with the FDSN count endpoint and cut into time windows that each
+ * stay well under the per-query cap. The windows are fetched a few at a time, no faster
+ * than {@link #MIN_REQUEST_INTERVAL_MILLIS} apart per host, and stored oldest first as
+ * they complete in order; the store's upsert drops events that two windows share. How
+ * far the stored history reaches is saved after every window, so a backfill that is
+ * interrupted picks up from there the next time it runs. Stretches that {@link QueryPlanner}
+ * finds already fetched, such as by a backfill at a lower magnitude, are neither counted
+ * nor fetched.
+ */
+public final class EarthquakeBackfill {
+
+    private static final String LOG_TAG = EarthquakeBackfill.class.getSimpleName();
+
+    /** What USGS allows per query when the count response does not say. */
+    private static final int DEFAULT_MAX_ALLOWED = EarthquakeQuery.MAX_RESULTS;
+
+    /** Windows are sized to this fraction of the cap, so events added meanwhile still fit. */
+    private static final double SHARD_FILL = 0.5;
+
+    /** Windows are not split below this, whatever their count. */
+    private static final long MIN_SHARD_MILLIS = 60 * 60 * 1000;
+
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    /** Windows fetched but not yet stored are capped, so memory stays bounded. */
+    private static final int MAX_WINDOWS_AHEAD = 2 * MAX_CONCURRENT_REQUESTS;
+
+    /** Least time between the starts of two requests to the same host. */
+    public static final long MIN_REQUEST_INTERVAL_MILLIS = 250;
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final Map<String, RateLimiter> sRateLimiters = new HashMap<>();
+
+    /**
+     * Where a backfill stores what it fetched and how far it got: {@link EarthquakeStore},
+     * or a test's stand-in for it.
+     */
+    interface History extends QueryPlanner.Coverage {
+        /** The backfilled span for the key as {start, completedUntil}, or null. */
+        long[] getBackfillState(String syncKey);
+
+        void setBackfillState(String syncKey, long rangeStart, long completedUntil);
+
+        long upsert(List<QuakeDescription> earthquakes);
+    }
+
+    /** Told how the backfill is getting on, on the thread that runs it. */
+    public interface Listener {
+        void onProgress(int windowsDone, int windowCount, int eventsStored);
+    }
+
+    /** A time window small enough for one query, or one the store already holds. */
+    private static final class Shard {
+        final long start;
+        final long end;
+        final boolean covered;
+
+        Shard(long start, long end, boolean covered) {
+            this.start = start;
+            this.end = end;
+            this.covered = covered;
+        }
+    }
+
+    private final History mStore;
+    private final EarthquakeQuery mQuery;
+    private final String mQueryUrl;
+    private final String mCountUrl;
+
+    public EarthquakeBackfill(Context context, EarthquakeQuery query) {
+        this( EarthquakeStore.getInstance( context ), query, EarthquakeQuery.USGS_REQUEST_URL,
+                EarthquakeQuery.USGS_COUNT_URL );
+    }
+
+    /** A backfill into {@code history} from the server at the given endpoints. */
+    EarthquakeBackfill(History history, EarthquakeQuery query, String queryUrl, String countUrl) {
+        mStore = history;
+        mQuery = query;
+        mQueryUrl = queryUrl;
+        mCountUrl = countUrl;
+    }
+
+    /**
+     * Stores every event of the query's magnitude between {@code start} and {@code end},
+     * skipping whatever an earlier run already stored. Blocks until it is done; interrupt
+     * the calling thread to stop it.
+     *
+     * @throws InterruptedIOException if the thread was interrupted
+     * @throws IOException            if a window still failed after {@link #MAX_ATTEMPTS} tries
+     */
+    public void run(long start, long end, Listener listener) throws IOException {
+        String syncKey = mQuery.getSyncKey();
+        long rangeStart = start;
+        long[] state = mStore.getBackfillState( syncKey );
+        if (state != null && state[0] <= start && state[1] >= start) {
+            // Carry on from an earlier run that reached into this range.
+            rangeStart = state[0];
+            start = Math.max( start, state[1] );
+        }
+        if (start >= end) {
+            return;
+        }
+        mStore.setBackfillState( syncKey, rangeStart, start );
+
+        List<Shard> shards = new ArrayList<>();
+        // The history is not synced again once stored, so however old a region is, it counts.
+        long covered = start;
+        for (long[] missing : QueryPlanner.plan( mStore, mQuery.getMinMagnitude(), start, end, 0 )
+                .getMissing()) {
+            if (missing[0] > covered) {
+                shards.add( new Shard( covered, missing[0], true ) );
+            }
+            plan( missing[0], missing[1], shards );
+            covered = missing[1];
+        }
+        if (covered < end) {
+            shards.add( new Shard( covered, end, true ) );
+        }
+        if (Log.isLoggable( LOG_TAG, Log.DEBUG )) {
+            Log.d( LOG_TAG, "Backfill " + syncKey + ": " + shards.size() + " windows" );
+        }
+        if (listener != null) {
+            listener.onProgress( 0, shards.size(), 0 );
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( MAX_CONCURRENT_REQUESTS );
+        List<Future<List<QuakeDescription>>> fetches = new ArrayList<>( shards.size() );
+        int eventsStored = 0;
+        try {
+            for (int i = 0; i < shards.size(); i++) {
+                while (fetches.size() < shards.size() && fetches.size() <= i + MAX_WINDOWS_AHEAD) {
+                    final Shard shard = shards.get( fetches.size() );
+                    if (shard.covered) {
+                        fetches.add( null );
+                        continue;
+                    }
+                    fetches.add( executor.submit( new Callable<List<QuakeDescription>>() {
+                        @Override
+                        public List<QuakeDescription> call() throws IOException {
+                            return fetch( shard );
+                        }
+                    } ) );
+                }
+                Shard shard = shards.get( i );
+                if (shard.covered) {
+                    // At least a count and a fetch.
+                    PipelineMetrics.REQUESTS_AVOIDED.addAndGet( 2 );
+                } else {
+                    List<QuakeDescription> events = await( fetches.get( i ) );
+                    // Drop the reference so the window can be collected once it is stored.
+                    fetches.set( i, null );
+                    mStore.upsert( events );
+                    QueryPlanner.record( mStore, mQuery.getMinMagnitude(), shard.start, shard.end,
+                            System.currentTimeMillis() );
+                    eventsStored += events.size();
+                }
+                mStore.setBackfillState( syncKey, rangeStart, shard.end );
+                if (listener != null) {
+                    listener.onProgress( i + 1, shards.size(), eventsStored );
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Appends windows covering [start, end) that each hold few enough events. */
+    private void plan(long start, long end, List<Shard> shards) throws IOException {
+        int[] count = count( start, end );
+        int target = (int) (count[1] * SHARD_FILL);
+        if (count[0] <= target || end - start <= MIN_SHARD_MILLIS) {
+            shards.add( new Shard( start, end, false ) );
+            return;
+        }
+        // Events cluster (aftershock sequences), so every piece is counted again.
+        int pieces = Math.max( 2, (count[0] + target - 1) / target );
+        long step = (end - start) / pieces;
+        for (int i = 0; i < pieces; i++) {
+            plan( start + i * step, i == pieces - 1 ? end : start + (i + 1) * step, shards );
+        }
+    }
+
+    /** Returns {events in [start, end), most events USGS allows per query}. */
+    private int[] count(long start, long end) throws IOException {
+        URL url = new URL( mQuery.toCountUrl( mCountUrl, start, end ) );
+        return request( url, new UsgsHttpClient.BodyParser<int[]>() {
+            @Override
+            public int[] parse(InputStream body) throws IOException {
+                int[] result = {0, DEFAULT_MAX_ALLOWED};
+                JsonPullReader reader = new JsonPullReader(
+                        new InputStreamReader( body, Charset.forName( "UTF-8" ) ) );
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if ("count".equals( name )) {
+                        result[0] = (int) reader.nextLong();
+                    } else if ("maxAllowed".equals( name )) {
+                        result[1] = (int) reader.nextLong();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                return result;
+            }
+        } );
+    }
+
+    /**
+     * Fetches the events of a window. It was sized to stay under the cap, but if more have
+     * arrived since it was counted and a page comes back full, the rest is fetched from the
+     * time of its last event on.
+     */
+    private List<QuakeDescription> fetch(Shard shard) throws IOException {
+        List<QuakeDescription> events = fetch( shard.start, shard.end );
+        if (events.size() < EarthquakeQuery.MAX_RESULTS) {
+            return events;
+        }
+        List<QuakeDescription> all = new ArrayList<>( events );
+        long start = shard.start;
+        while (events.size() >= EarthquakeQuery.MAX_RESULTS) {
+            long last = events.get( events.size() - 1 ).getmTimeInMilliSeconds();
+            start = last > start ? last : start + 1;
+            events = fetch( start, shard.end );
+            all.addAll( events );
+        }
+        return all;
+    }
+
+    private List<QuakeDescription> fetch(long start, long end) throws IOException {
+        URL url = new URL( mQuery.toWindowUrl( mQueryUrl, start, end ) );
+        // Unlike the list's parser, the strict one fails a window cut short rather than
+        // returning it partial, since its end would be recorded as stored.
+        return request( url, QueryUtils.STRICT_FEATURE_PARSER );
+    }
+
+    /** Performs a rate-limited request, retrying failures with exponential backoff. */
+    private static <T> T request(URL url, UsgsHttpClient.BodyParser<T> parser)
+            throws IOException {
+        long backoff = 1000;
+        for (int attempt = 1; ; attempt++) {
+            rateLimiter( url.getHost() ).acquire();
+            try {
+                T result = UsgsHttpClient.get( url, false, parser );
+                if (result == null) {
+                    throw new IOException( "No body for " + url );
+                }
+                return result;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+                Log.w( LOG_TAG, "Retrying " + url, e );
+                sleep( backoff );
+                backoff *= 2;
+            }
+        }
+    }
+
+    private static List<QuakeDescription> await(Future<List<QuakeDescription>> fetch)
+            throws IOException {
+        try {
+            return fetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Backfill interrupted" );
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException( cause );
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep( millis );
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Backfill interrupted" );
+        }
+    }
+
+    private static RateLimiter rateLimiter(String host) {
+        synchronized (sRateLimiters) {
+            RateLimiter limiter = sRateLimiters.get( host );
+            if (limiter == null) {
+                limiter = new RateLimiter( MIN_REQUEST_INTERVAL_MILLIS );
+                sRateLimiters.put( host, limiter );
+            }
+            return limiter;
+        }
+    }
+
+    /** Spaces the requests of all threads to one host at least an interval apart. */
+    private static final class RateLimiter {
+        private final long mIntervalNanos;
+        private long mNextFreeNanos = 0;
+
+        RateLimiter(long intervalMillis) {
+            mIntervalNanos = intervalMillis * 1000000;
+        }
+
+        void acquire() throws InterruptedIOException {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long slot = Math.max( now, mNextFreeNanos );
+                mNextFreeNanos = slot + mIntervalNanos;
+                wait = slot - now;
+            }
+            if (wait > 0) {
+                sleep( wait / 1000000 );
+            }
+        }
+    }
+}
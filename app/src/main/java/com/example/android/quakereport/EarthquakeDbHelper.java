@@ -0,0 +1,144 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Creates and upgrades the on-device earthquake database.
+ */
+public class EarthquakeDbHelper extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "earthquakes.db";
+    private static final int DATABASE_VERSION = 1;
+
+    /** One row per USGS event, keyed by the USGS event id. */
+    public static final String TABLE_EVENTS = "events";
+    public static final String COLUMN_ID = "event_id";
+    public static final String COLUMN_MAGNITUDE = "mag";
+    public static final String COLUMN_PLACE = "place";
+    public static final String COLUMN_TIME = "time";
+    public static final String COLUMN_UPDATED = "updated";
+    public static final String COLUMN_URL = "url";
+    public static final String COLUMN_LONGITUDE = "longitude";
+    public static final String COLUMN_LATITUDE = "latitude";
+    public static final String COLUMN_DEPTH = "depth";
+
+    /** High-water mark of the "updated" timestamp per sync key, and when it was synced. */
+    public static final String TABLE_SYNC_STATE = "sync_state";
+    public static final String COLUMN_SYNC_KEY = "sync_key";
+    public static final String COLUMN_HIGH_WATER_MARK = "high_water_mark";
+    public static final String COLUMN_SYNCED_AT = "synced_at";
+
+    /**
+     * Per sync key, the span of history a backfill has stored so far: every event from
+     * range_start up to completed_until is in {@link #TABLE_EVENTS}.
+     */
+    public static final String TABLE_BACKFILL_STATE = "backfill_state";
+    public static final String COLUMN_RANGE_START = "range_start";
+    public static final String COLUMN_COMPLETED_UNTIL = "completed_until";
+
+    /**
+     * Regions of (time, magnitude floor, box) that were fetched in full and when; see
+     * {@link QueryPlanner}. West east of east means the box crosses the antimeridian.
+     */
+    public static final String TABLE_COVERAGE = "coverage";
+    public static final String COLUMN_RANGE_END = "range_end";
+    public static final String COLUMN_FETCHED_AT = "fetched_at";
+
+    /** The user's alert rules; see {@link AlertRule}. Unlike the rest, not a cache. */
+    public static final String TABLE_ALERT_RULES = "alert_rules";
+    public static final String COLUMN_RULE_ID = "rule_id";
+    public static final String COLUMN_RULE_NAME = "name";
+    public static final String COLUMN_MIN_MAGNITUDE = "min_magnitude";
+    public static final String COLUMN_AREA = "area";
+    public static final String COLUMN_RADIUS_KM = "radius_km";
+    public static final String COLUMN_SOUTH = "south";
+    public static final String COLUMN_WEST = "west";
+    public static final String COLUMN_NORTH = "north";
+    public static final String COLUMN_EAST = "east";
+    public static final String COLUMN_MAX_AGE = "max_age";
+
+    /** Which rule fired for which event, so each fires at most once per event. */
+    public static final String TABLE_ALERTS_FIRED = "alerts_fired";
+    public static final String COLUMN_FIRED_AT = "fired_at";
+
+    public EarthquakeDbHelper(Context context) {
+        super( context, DATABASE_NAME, null, DATABASE_VERSION );
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        createCacheTables( db );
+        createAlertTables( db );
+    }
+
+    private static void createCacheTables(SQLiteDatabase db) {
+        db.execSQL( "CREATE TABLE " + TABLE_EVENTS + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_MAGNITUDE + " REAL NOT NULL, "
+                + COLUMN_PLACE + " TEXT, "
+                + COLUMN_TIME + " INTEGER NOT NULL, "
+                + COLUMN_UPDATED + " INTEGER NOT NULL, "
+                + COLUMN_URL + " TEXT, "
+                + COLUMN_LONGITUDE + " REAL, "
+                + COLUMN_LATITUDE + " REAL, "
+                + COLUMN_DEPTH + " REAL)" );
+        db.execSQL( "CREATE INDEX events_time ON " + TABLE_EVENTS + " (" + COLUMN_TIME + ")" );
+        db.execSQL( "CREATE INDEX events_mag ON " + TABLE_EVENTS + " (" + COLUMN_MAGNITUDE + ")" );
+
+        db.execSQL( "CREATE TABLE " + TABLE_SYNC_STATE + " ("
+                + COLUMN_SYNC_KEY + " TEXT PRIMARY KEY, "
+                + COLUMN_HIGH_WATER_MARK + " INTEGER NOT NULL, "
+                + COLUMN_SYNCED_AT + " INTEGER NOT NULL)" );
+
+        db.execSQL( "CREATE TABLE " + TABLE_BACKFILL_STATE + " ("
+                + COLUMN_SYNC_KEY + " TEXT PRIMARY KEY, "
+                + COLUMN_RANGE_START + " INTEGER NOT NULL, "
+                + COLUMN_COMPLETED_UNTIL + " INTEGER NOT NULL)" );
+
+        db.execSQL( "CREATE TABLE " + TABLE_COVERAGE + " ("
+                + COLUMN_RANGE_START + " INTEGER NOT NULL, "
+                + COLUMN_RANGE_END + " INTEGER NOT NULL, "
+                + COLUMN_MIN_MAGNITUDE + " REAL NOT NULL, "
+                + COLUMN_SOUTH + " REAL NOT NULL, "
+                + COLUMN_WEST + " REAL NOT NULL, "
+                + COLUMN_NORTH + " REAL NOT NULL, "
+                + COLUMN_EAST + " REAL NOT NULL, "
+                + COLUMN_FETCHED_AT + " INTEGER NOT NULL)" );
+    }
+
+    private static void createAlertTables(SQLiteDatabase db) {
+        db.execSQL( "CREATE TABLE IF NOT EXISTS " + TABLE_ALERT_RULES + " ("
+                + COLUMN_RULE_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_RULE_NAME + " TEXT, "
+                + COLUMN_MIN_MAGNITUDE + " REAL NOT NULL, "
+                + COLUMN_AREA + " INTEGER NOT NULL, "
+                + COLUMN_LATITUDE + " REAL, "
+                + COLUMN_LONGITUDE + " REAL, "
+                + COLUMN_RADIUS_KM + " REAL, "
+                + COLUMN_SOUTH + " REAL, "
+                + COLUMN_WEST + " REAL, "
+                + COLUMN_NORTH + " REAL, "
+                + COLUMN_EAST + " REAL, "
+                + COLUMN_MAX_AGE + " INTEGER NOT NULL)" );
+
+        db.execSQL( "CREATE TABLE IF NOT EXISTS " + TABLE_ALERTS_FIRED + " ("
+                + COLUMN_RULE_ID + " INTEGER NOT NULL, "
+                + COLUMN_ID + " TEXT NOT NULL, "
+                + COLUMN_FIRED_AT + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_RULE_ID + ", " + COLUMN_ID + "))" );
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The events are only a cache of the USGS feed, so it is safe to rebuild them. The
+        // alert rules are the user's own and are kept.
+        db.execSQL( "DROP TABLE IF EXISTS " + TABLE_EVENTS );
+        db.execSQL( "DROP TABLE IF EXISTS " + TABLE_SYNC_STATE );
+        db.execSQL( "DROP TABLE IF EXISTS " + TABLE_BACKFILL_STATE );
+        db.execSQL( "DROP TABLE IF EXISTS " + TABLE_COVERAGE );
+        createCacheTables( db );
+        createAlertTables( db );
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.drawable.GradientDrawable;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.app.AppCompatActivity;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One event in full, from its USGS detail document: depth, epicenter, felt reports,
+ * intensities, the PAGER alert and the products behind it.
+ *
+ * The list row's own fields are shown at once. The detail comes from the
+ * {@link DetailCache}, from memory on the UI thread when it is there, which after the
+ * {@link DetailPrefetcher} has run is the usual case; otherwise from disk or USGS in the
+ * background. The USGS web page stays one tap away.
+ */
+public class EarthquakeDetailActivity extends AppCompatActivity {
+
+    private static final String LOG_TAG = EarthquakeDetailActivity.class.getSimpleName();
+
+    /** Stored events listed under "nearby", nearest first. */
+    private static final int NEARBY_COUNT = 5;
+
+    private static final String EXTRA_ID = "id";
+    private static final String EXTRA_UPDATED = "updated";
+    private static final String EXTRA_MAGNITUDE = "magnitude";
+    private static final String EXTRA_PLACE = "place";
+    private static final String EXTRA_TIME = "time";
+    private static final String EXTRA_URL = "url";
+    private static final String EXTRA_LATITUDE = "latitude";
+    private static final String EXTRA_LONGITUDE = "longitude";
+    private static final String EXTRA_OPENED_AT = "opened_at";
+
+    private String mId;
+    private long mUpdated;
+    private String mUrl;
+    private TextView mMagnitudeView;
+    private TextView mPlaceView;
+    private TextView mTimeView;
+    private TextView mFactsView;
+    private TextView mNearbyView;
+    private View mProgress;
+    private View mError;
+    private DetailTask mDetailTask;
+    private NearbyTask mNearbyTask;
+
+    /** An intent that opens the detail of {@code quake}. */
+    public static Intent newIntent(Context context, QuakeDescription quake) {
+        return new Intent( context, EarthquakeDetailActivity.class )
+                .putExtra( EXTRA_ID, quake.getId() )
+                .putExtra( EXTRA_UPDATED, quake.getUpdated() )
+                .putExtra( EXTRA_MAGNITUDE, quake.getMagnitude() )
+                .putExtra( EXTRA_PLACE, quake.getQuakePlace() )
+                .putExtra( EXTRA_TIME, quake.getmTimeInMilliSeconds() )
+                .putExtra( EXTRA_URL, quake.getmUrl() )
+                .putExtra( EXTRA_LATITUDE, quake.getLatitude() )
+                .putExtra( EXTRA_LONGITUDE, quake.getLongitude() )
+                .putExtra( EXTRA_OPENED_AT, System.nanoTime() );
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate( savedInstanceState );
+        setContentView( R.layout.detail_activity );
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled( true );
+        }
+        mMagnitudeView = (TextView) findViewById( R.id.detail_magnitude );
+        mPlaceView = (TextView) findViewById( R.id.detail_place );
+        mTimeView = (TextView) findViewById( R.id.detail_time );
+        mFactsView = (TextView) findViewById( R.id.detail_facts );
+        mNearbyView = (TextView) findViewById( R.id.detail_nearby );
+        mProgress = findViewById( R.id.detail_progress );
+        mError = findViewById( R.id.detail_error );
+        findViewById( R.id.detail_website ).setOnClickListener( new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                openWebsite();
+            }
+        } );
+
+        Intent intent = getIntent();
+        mId = intent.getStringExtra( EXTRA_ID );
+        mUpdated = intent.getLongExtra( EXTRA_UPDATED, 0 );
+        mUrl = intent.getStringExtra( EXTRA_URL );
+        showHeader( intent.getDoubleExtra( EXTRA_MAGNITUDE, 0 ), intent.getStringExtra( EXTRA_PLACE ),
+                intent.getLongExtra( EXTRA_TIME, 0 ) );
+        double latitude = intent.getDoubleExtra( EXTRA_LATITUDE, Double.NaN );
+        double longitude = intent.getDoubleExtra( EXTRA_LONGITUDE, Double.NaN );
+        if (!Double.isNaN( latitude ) && !Double.isNaN( longitude )) {
+            mNearbyTask = new NearbyTask( latitude, longitude );
+            mNearbyTask.executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR );
+        }
+        if (mId == null) {
+            showDetail( null );
+            return;
+        }
+
+        long openedAt = intent.getLongExtra( EXTRA_OPENED_AT, System.nanoTime() );
+        QuakeDetail detail = DetailCache.getInstance( this ).getFromMemory( mId, mUpdated );
+        if (detail != null) {
+            showDetail( detail );
+            if (savedInstanceState == null) {
+                PipelineMetrics.DETAIL.recordNanos( System.nanoTime() - openedAt );
+            }
+            return;
+        }
+        mDetailTask = new DetailTask( savedInstanceState == null ? openedAt : 0 );
+        mDetailTask.executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR );
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mDetailTask != null) {
+            // The fetch itself runs on; whoever opens this event next finds it cached.
+            mDetailTask.cancel( false );
+        }
+        if (mNearbyTask != null) {
+            mNearbyTask.cancel( false );
+        }
+    }
+
+    private void showHeader(double magnitude, String place, long time) {
+        mMagnitudeView.setText( String.format( Locale.getDefault(), "%.1f", magnitude ) );
+        GradientDrawable circle = (GradientDrawable) mMagnitudeView.getBackground();
+        circle.setColor( ContextCompat.getColor( this, QuakeFormatter.getMagnitudeColor( magnitude ) ) );
+        mPlaceView.setText( place );
+        mTimeView.setText( DateFormat.getDateTimeInstance( DateFormat.MEDIUM, DateFormat.MEDIUM )
+                .format( new Date( time ) ) );
+    }
+
+    /** Shows the detail, or the error line if it could not be had. */
+    private void showDetail(QuakeDetail detail) {
+        mProgress.setVisibility( View.GONE );
+        if (detail == null) {
+            mError.setVisibility( View.VISIBLE );
+            return;
+        }
+        if (detail.getUrl() != null) {
+            mUrl = detail.getUrl();
+        }
+        // The detail may be newer than the row it was opened from.
+        showHeader( detail.getMagnitude(), detail.getPlace(), detail.getTime() );
+        mFactsView.setText( TextUtils.join( "\n", describe( detail ) ) );
+        mFactsView.setVisibility( View.VISIBLE );
+    }
+
+    private List<String> describe(QuakeDetail detail) {
+        List<String> facts = new ArrayList<>();
+        if (!Double.isNaN( detail.getDepth() )) {
+            facts.add( getString( R.string.detail_depth, detail.getDepth() ) );
+        }
+        if (!Double.isNaN( detail.getLatitude() ) && !Double.isNaN( detail.getLongitude() )) {
+            facts.add( getString( R.string.detail_coordinates, detail.getLatitude(),
+                    detail.getLongitude() ) );
+        }
+        if (detail.getMagnitudeType() != null) {
+            facts.add( getString( R.string.detail_magnitude_type, detail.getMagnitudeType() ) );
+        }
+        if (detail.getFeltReports() >= 0) {
+            facts.add( getString( R.string.detail_felt, detail.getFeltReports() ) );
+        }
+        if (!Double.isNaN( detail.getCdi() )) {
+            facts.add( getString( R.string.detail_cdi, detail.getCdi() ) );
+        }
+        if (!Double.isNaN( detail.getMmi() )) {
+            facts.add( getString( R.string.detail_mmi, detail.getMmi() ) );
+        }
+        if (detail.getAlert() != null) {
+            facts.add( getString( R.string.detail_alert, detail.getAlert() ) );
+        }
+        if (detail.hasTsunamiFlag()) {
+            facts.add( getString( R.string.detail_tsunami ) );
+        }
+        if (detail.getStatus() != null) {
+            facts.add( getString( R.string.detail_status, detail.getStatus() ) );
+        }
+        if (detail.getSignificance() >= 0) {
+            facts.add( getString( R.string.detail_significance, detail.getSignificance() ) );
+        }
+        if (!detail.getProducts().isEmpty()) {
+            List<String> products = new ArrayList<>( detail.getProducts().size() );
+            for (Map.Entry<String, Integer> product : detail.getProducts().entrySet()) {
+                products.add( product.getValue() > 1
+                        ? product.getKey() + " (" + product.getValue() + ")"
+                        : product.getKey() );
+            }
+            facts.add( getString( R.string.detail_products, TextUtils.join( ", ", products ) ) );
+        }
+        return facts;
+    }
+
+    private void openWebsite() {
+        if (mUrl == null) {
+            return;
+        }
+        Intent intent = new Intent( Intent.ACTION_VIEW, Uri.parse( mUrl ) );
+        if (intent.resolveActivity( getPackageManager() ) != null) {
+            startActivity( intent );
+        }
+    }
+
+    /** Lists the stored events nearest this one, from the store's spatial index. */
+    private class NearbyTask extends AsyncTask<Void, Void, List<String>> {
+        private final double mLatitude;
+        private final double mLongitude;
+
+        NearbyTask(double latitude, double longitude) {
+            mLatitude = latitude;
+            mLongitude = longitude;
+        }
+
+        @Override
+        protected List<String> doInBackground(Void... params) {
+            QuakeSpatialIndex index =
+                    EarthquakeStore.getInstance( getApplicationContext() ).getSpatialIndex();
+            // One more than shown, since the event itself is usually among them.
+            QuakeList nearest = index.nearest( mLatitude, mLongitude, NEARBY_COUNT + 1 );
+            List<String> rows = new ArrayList<>( NEARBY_COUNT );
+            for (QuakeDescription quake : nearest) {
+                if (rows.size() == NEARBY_COUNT) {
+                    break;
+                }
+                if (quake.getId() != null && quake.getId().equals( mId )) {
+                    continue;
+                }
+                double distanceKm = QuakeSpatialIndex.distanceKm( mLatitude, mLongitude,
+                        quake.getLatitude(), quake.getLongitude() );
+                rows.add( getString( R.string.detail_nearby_row, quake.getMagnitude(),
+                        Math.round( distanceKm ), quake.getQuakePlace() ) );
+            }
+            return rows;
+        }
+
+        @Override
+        protected void onPostExecute(List<String> rows) {
+            mNearbyTask = null;
+            if (rows.isEmpty()) {
+                return;
+            }
+            mNearbyView.setText( getString( R.string.detail_nearby ) + "\n"
+                    + TextUtils.join( "\n", rows ) );
+            mNearbyView.setVisibility( View.VISIBLE );
+        }
+    }
+
+    /** Gets the detail from disk or USGS when it was not in memory. */
+    private class DetailTask extends AsyncTask<Void, Void, QuakeDetail> {
+        /** When the row was tapped, or 0 if this is a restart and not worth timing. */
+        private final long mOpenedAt;
+
+        DetailTask(long openedAt) {
+            mOpenedAt = openedAt;
+        }
+
+        @Override
+        protected QuakeDetail doInBackground(Void... params) {
+            try {
+                return DetailCache.getInstance( getApplicationContext() ).get( mId, mUpdated );
+            } catch (IOException e) {
+                Log.e( LOG_TAG, "Could not load the detail of " + mId, e );
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(QuakeDetail detail) {
+            mDetailTask = null;
+            if (mOpenedAt != 0 && detail != null) {
+                PipelineMetrics.DETAIL.recordNanos( System.nanoTime() - mOpenedAt );
+            }
+            showDetail( detail );
+        }
+    }
+}
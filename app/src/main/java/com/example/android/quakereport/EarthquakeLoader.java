@@ -2,6 +2,7 @@ package com.example.android.quakereport;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.os.SystemClock;
 
 import java.util.List;
 
@@ -14,24 +15,153 @@ public class EarthquakeLoader extends AsyncTaskLoader<List<QuakeDescription>> {
     /** Tag for log messages */
     private static final String LOG_TAG = EarthquakeLoader.class.getName();
 
-    /** Query URL */
-    private String mUrl;
-    public EarthquakeLoader(Context context, String url) {
+    /** Query the user asked for */
+    private EarthquakeQuery mQuery;
+
+    /** How long a result is served without refreshing it, unless told otherwise. */
+    public static final long DEFAULT_FRESHNESS_MILLIS = 5 * 60 * 1000;
+
+    /** Index over the events of the last first-page load, for re-filtering without a fetch. */
+    private volatile QuakeIndex mIndex;
+
+    /** The last result delivered, kept so a restarted loader can hand it back at once. */
+    private List<QuakeDescription> mData;
+
+    /** {@link SystemClock#elapsedRealtime()} when {@link #mData} was loaded. */
+    private long mLoadedAt;
+
+    private final long mFreshnessMillis;
+
+    public EarthquakeLoader(Context context, EarthquakeQuery query) {
+        this( context, query, DEFAULT_FRESHNESS_MILLIS );
+    }
+
+    /**
+     * @param freshnessMillis how old a result may get before starting the loader again
+     *                        refreshes it in the background
+     */
+    public EarthquakeLoader(Context context, EarthquakeQuery query, long freshnessMillis) {
         super( context );
-        mUrl = url;
+        mQuery = query;
+        mFreshnessMillis = freshnessMillis;
     }
 
+    /**
+     * For the first page, brings the local store up to date with only the events that
+     * changed since the last sync, unless the background sync did so within the freshness
+     * window, then answers the query from the store. Without a connection the store is
+     * answered as it is. Later pages come from the store once it holds the whole window, or
+     * from the FDSN offset/limit query before the first sync has succeeded.
+     */
     @Override
     public List<QuakeDescription> loadInBackground() {
-        if (mUrl == null){
+        if (mQuery == null){
             return null;
         }
-        return QueryUtils.fetchEarthquakeData( mUrl );
+        long start = System.nanoTime();
+        try {
+            return load();
+        } finally {
+            PipelineMetrics.LOAD.recordNanos( System.nanoTime() - start );
+        }
     }
 
+    private List<QuakeDescription> load() {
+        EarthquakeStore store = EarthquakeStore.getInstance( getContext() );
+        // A finished backfill extends the list back past the sync window.
+        long since = store.getHistoryStart( mQuery.getSyncKey(),
+                mQuery.getWindowStart( System.currentTimeMillis() ) );
+
+        if (mQuery.getOffset() > 0) {
+            List<QuakeDescription> page;
+            if (store.getSyncedAt( mQuery.getSyncKey() ) > 0) {
+                page = store.query( mQuery.getMinMagnitude(), since, mQuery.getOrderBy(),
+                        mQuery.getOffset(), mQuery.getLimit() );
+            } else {
+                page = QueryUtils.fetchEarthquakeData( mQuery.toUrl() );
+                store.upsert( page );
+            }
+            QuakeFormatter.prepareAll( page );
+            return page;
+        }
+
+        EarthquakeSync.sync( getContext(), mQuery, mFreshnessMillis );
+
+        // Once the window has been synced the store holds all of it, so index all of it and
+        // let preference changes be answered from the index. Before that, only one page.
+        boolean complete = store.getSyncedAt( mQuery.getSyncKey() ) > 0;
+        QuakeList loaded = store.query( mQuery.getMinMagnitude(), since,
+                mQuery.getOrderBy(), 0, complete ? Integer.MAX_VALUE : mQuery.getLimit() );
+        mIndex = new QuakeIndex( loaded, mQuery.getMinMagnitude(), complete );
+        // Only the first page is kept as the result: the loader holds on to it, and the list
+        // holds its own copy of the rows within its memory budget.
+        QuakeList firstPage = firstPage( loaded, mQuery.getLimit() );
+        // Format the rows here so the adapter only has to set text on the UI thread.
+        QuakeFormatter.prepareAll( firstPage );
+        // Build the chart's timeline for this floor here too, so the UI thread only shows it.
+        store.getTimeline( mQuery.getMinMagnitude(), since );
+        return firstPage;
+    }
+
+    /** Copies the first {@code limit} rows into a table of their own. */
+    private static QuakeList firstPage(QuakeList loaded, int limit) {
+        if (loaded.size() <= limit) {
+            return loaded;
+        }
+        QuakeTable table = new QuakeTable( limit );
+        for (int i = 0; i < limit; i++) {
+            table.appendRow( loaded.getTable(), loaded.rowAt( i ) );
+        }
+        return table.asList();
+    }
+
+    /** Returns the index built by the last first-page load, or null. */
+    public QuakeIndex getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Hands back the last result right away if there is one. A result older than the
+     * freshness window is still shown, and a refresh is started behind it.
+     */
     @Override
     protected void onStartLoading() {
-        forceLoad();
+        if (mData != null) {
+            deliverResult( mData );
+        }
+        boolean stale = SystemClock.elapsedRealtime() - mLoadedAt > mFreshnessMillis;
+        if (takeContentChanged() || mData == null || stale) {
+            forceLoad();
+        } else {
+            PipelineMetrics.CACHE_HITS.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<QuakeDescription> data) {
+        if (isReset()) {
+            return;
+        }
+        if (data != mData) {
+            mData = data;
+            mLoadedAt = SystemClock.elapsedRealtime();
+        }
+        if (isStarted()) {
+            super.deliverResult( data );
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mData = null;
+        mIndex = null;
     }
 }
 
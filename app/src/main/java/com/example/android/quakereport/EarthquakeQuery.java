@@ -0,0 +1,194 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The user's choice of minimum magnitude and ordering, one page of it, and the USGS
+ * request URLs that go with it.
+ */
+public final class EarthquakeQuery {
+
+    public static final String USGS_REQUEST_URL =
+            "https://earthquake.usgs.gov/fdsnws/event/1/query";
+
+    public static final String USGS_COUNT_URL =
+            "https://earthquake.usgs.gov/fdsnws/event/1/count";
+
+    /** USGS returns the last 30 days when a query gives no start time; the store mirrors that. */
+    public static final long DEFAULT_WINDOW_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Most events USGS returns for one query. A query matching more is refused unless it
+     * sets a limit, and then stops at the limit.
+     */
+    public static final int MAX_RESULTS = 20000;
+
+    public static final String ORDER_BY_MAGNITUDE = "magnitude";
+    public static final String ORDER_BY_TIME = "time";
+
+    private static final String SYNC_KEY_PREFIX = "minmag=";
+
+    private final String mMinMagnitude;
+    private final String mOrderBy;
+    private final int mOffset;
+    private final int mLimit;
+
+    public EarthquakeQuery(String minMagnitude, String orderBy, int limit) {
+        this( minMagnitude, orderBy, 0, limit );
+    }
+
+    public EarthquakeQuery(String minMagnitude, String orderBy, int offset, int limit) {
+        mMinMagnitude = minMagnitude;
+        mOrderBy = orderBy;
+        mOffset = offset;
+        mLimit = limit;
+    }
+
+    /** Returns the same query for the page of {@code limit} events starting at {@code offset}. */
+    public EarthquakeQuery page(int offset, int limit) {
+        return new EarthquakeQuery( mMinMagnitude, mOrderBy, offset, limit );
+    }
+
+    public String getMinMagnitudeText() {
+        return mMinMagnitude;
+    }
+
+    /** The minimum magnitude as a number, or 0 if the preference does not parse. */
+    public double getMinMagnitude() {
+        try {
+            return Double.parseDouble( mMinMagnitude );
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public String getOrderBy() {
+        return mOrderBy;
+    }
+
+    /** Zero-based position of the first event of this page. */
+    public int getOffset() {
+        return mOffset;
+    }
+
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /** Start of the time window this query covers, in epoch milliseconds. */
+    public long getWindowStart(long now) {
+        return now - DEFAULT_WINDOW_MILLIS;
+    }
+
+    /** URL for one page of results, exactly as the user asked for it. */
+    public String toUrl() {
+        Uri.Builder uriBuilder = Uri.parse( USGS_REQUEST_URL ).buildUpon();
+        uriBuilder.appendQueryParameter( "format", "geojson" );
+        // FDSN offsets count from 1.
+        uriBuilder.appendQueryParameter( "offset", String.valueOf( mOffset + 1 ) );
+        uriBuilder.appendQueryParameter( "limit", String.valueOf( mLimit ) );
+        uriBuilder.appendQueryParameter( "minmag", mMinMagnitude );
+        uriBuilder.appendQueryParameter( "orderby", mOrderBy );
+        return uriBuilder.toString();
+    }
+
+    /**
+     * URL that fetches every event in the window at this magnitude that changed after
+     * {@code updatedAfter}. A mark of 0 fetches the whole window.
+     */
+    public String toSyncUrl(long updatedAfter) {
+        return toSyncUrl( updatedAfter, 0, 0 );
+    }
+
+    /**
+     * URL for every event at this magnitude between {@code start} and {@code end}, oldest
+     * first.
+     */
+    public String toWindowUrl(long start, long end) {
+        return toWindowUrl( USGS_REQUEST_URL, start, end );
+    }
+
+    /** {@link #toWindowUrl(long, long)} against another server's query endpoint. */
+    String toWindowUrl(String queryUrl, long start, long end) {
+        return toSyncUrl( queryUrl, 0, start, end );
+    }
+
+    /**
+     * URL for the first {@link #MAX_RESULTS} events at this magnitude that changed after
+     * {@code updatedAfter} and happened between {@code start} and {@code end}, oldest first.
+     * A bound of 0 leaves it to USGS: no mark, the last 30 days, until now. A full page means
+     * more may follow, from the time of its last event on.
+     */
+    public String toSyncUrl(long updatedAfter, long start, long end) {
+        return toSyncUrl( USGS_REQUEST_URL, updatedAfter, start, end );
+    }
+
+    private String toSyncUrl(String queryUrl, long updatedAfter, long start, long end) {
+        Uri.Builder uriBuilder = Uri.parse( queryUrl ).buildUpon();
+        uriBuilder.appendQueryParameter( "format", "geojson" );
+        uriBuilder.appendQueryParameter( "minmag", mMinMagnitude );
+        if (updatedAfter > 0) {
+            uriBuilder.appendQueryParameter( "updatedafter", formatIsoTime( updatedAfter ) );
+        }
+        if (start > 0) {
+            uriBuilder.appendQueryParameter( "starttime", formatIsoTime( start ) );
+        }
+        if (end > 0) {
+            uriBuilder.appendQueryParameter( "endtime", formatIsoTime( end ) );
+        }
+        uriBuilder.appendQueryParameter( "orderby", "time-asc" );
+        uriBuilder.appendQueryParameter( "limit", String.valueOf( MAX_RESULTS ) );
+        return uriBuilder.toString();
+    }
+
+    /** URL that counts the events {@link #toWindowUrl(long, long)} would return. */
+    public String toCountUrl(long start, long end) {
+        return toCountUrl( USGS_COUNT_URL, start, end );
+    }
+
+    /** {@link #toCountUrl(long, long)} against another server's count endpoint. */
+    String toCountUrl(String countUrl, long start, long end) {
+        Uri.Builder uriBuilder = Uri.parse( countUrl ).buildUpon();
+        appendWindow( uriBuilder, start, end );
+        return uriBuilder.toString();
+    }
+
+    private void appendWindow(Uri.Builder uriBuilder, long start, long end) {
+        uriBuilder.appendQueryParameter( "format", "geojson" );
+        uriBuilder.appendQueryParameter( "minmag", mMinMagnitude );
+        uriBuilder.appendQueryParameter( "starttime", formatIsoTime( start ) );
+        uriBuilder.appendQueryParameter( "endtime", formatIsoTime( end ) );
+    }
+
+    /**
+     * Key under which the store records the sync high-water mark. Ordering and page
+     * size don't change which events exist, so only the magnitude floor is part of it,
+     * as a number so that "6" and "6.0" share one window.
+     */
+    public String getSyncKey() {
+        return SYNC_KEY_PREFIX + getMinMagnitude();
+    }
+
+    /**
+     * Returns a first-page query for the window recorded under {@code syncKey}, or null if
+     * the key was not made by {@link #getSyncKey()}.
+     */
+    public static EarthquakeQuery fromSyncKey(String syncKey, int limit) {
+        if (!syncKey.startsWith( SYNC_KEY_PREFIX )) {
+            return null;
+        }
+        return new EarthquakeQuery( syncKey.substring( SYNC_KEY_PREFIX.length() ),
+                ORDER_BY_TIME, limit );
+    }
+
+    static String formatIsoTime(long timeInMillis) {
+        SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US );
+        format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        return format.format( new Date( timeInMillis ) );
+    }
+}
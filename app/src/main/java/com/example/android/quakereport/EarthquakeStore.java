@@ -0,0 +1,709 @@
+package com.example.android.quakereport;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.example.android.quakereport.EarthquakeDbHelper.*;
+
+/**
+ * On-device store of earthquakes keyed by USGS event id.
+ *
+ * Events are upserted as they arrive, so fetching only what changed since the last
+ * sync is enough to keep the store current.
+ */
+public final class EarthquakeStore implements EarthquakeBackfill.History {
+
+    private static final String[] EVENT_COLUMNS = {
+            COLUMN_ID, COLUMN_MAGNITUDE, COLUMN_PLACE, COLUMN_TIME, COLUMN_UPDATED, COLUMN_URL,
+            COLUMN_LONGITUDE, COLUMN_LATITUDE, COLUMN_DEPTH
+    };
+
+    private static final String SELECT_FILTERED =
+            COLUMN_MAGNITUDE + " >= ? AND " + COLUMN_TIME + " >= ?";
+
+    /** Ids per statement in {@link #queryByIds}; SQLite allows at most 999 arguments. */
+    private static final int MAX_ARGUMENTS = 500;
+
+    private static EarthquakeStore sInstance;
+
+    /** Receives the events of {@link #scan} a block at a time. */
+    public interface BlockVisitor {
+        void visit(QuakeTable block) throws IOException;
+    }
+
+    private final EarthquakeDbHelper mDbHelper;
+
+    /**
+     * Statistics, the place search index and the timeline over the stored events, each
+     * built on first use and then kept current by every write below. Writes hold
+     * {@link #mStatsLock} so none can slip in while one is built.
+     */
+    private QuakeStats mStats;
+    private PlaceIndex mPlaces;
+    private final Object mStatsLock = new Object();
+
+    /** Read without the lock by {@link #peekTimeline}, on the UI thread. */
+    private volatile QuakeTimeline mTimeline;
+
+    /** The earliest time {@link #mTimeline} was read from the store. */
+    private long mTimelineSince;
+
+    /**
+     * The writes made while timelines are read from the store, to replay on them before
+     * they are installed; null when none is being read. Guarded by {@link #mStatsLock}.
+     */
+    private List<TimelineWrite> mTimelineWrites;
+    private int mTimelineReads;
+
+    /**
+     * Counts the writes, under {@link #mStatsLock}, so an index read from the store
+     * without the lock can tell whether a write came between its read and its install.
+     */
+    private long mWrites;
+
+    /** The spatial index over the stored events, and {@link #mWrites} when it was read. */
+    private QuakeSpatialIndex mSpatialIndex;
+    private long mSpatialIndexWrites;
+
+    /** One write to the store, as it changes a timeline. */
+    private static final class TimelineWrite {
+        final List<QuakeDescription> upserted;
+        final Collection<String> deleted;
+        final long olderThan;
+
+        TimelineWrite(List<QuakeDescription> upserted, Collection<String> deleted,
+                      long olderThan) {
+            this.upserted = upserted;
+            this.deleted = deleted;
+            this.olderThan = olderThan;
+        }
+
+        void applyTo(QuakeTimeline timeline) {
+            if (upserted != null) {
+                timeline.putAll( upserted );
+            } else if (deleted != null) {
+                timeline.removeAll( deleted );
+            } else {
+                timeline.removeOlderThan( olderThan );
+            }
+        }
+    }
+
+    private EarthquakeStore(Context context) {
+        mDbHelper = new EarthquakeDbHelper( context );
+    }
+
+    public static synchronized EarthquakeStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EarthquakeStore( context.getApplicationContext() );
+        }
+        return sInstance;
+    }
+
+    /**
+     * Inserts or replaces the given events and returns the largest "updated" time among
+     * them, or 0 if the list was empty. Events without an id are skipped.
+     */
+    @Override
+    public long upsert(List<QuakeDescription> earthquakes) {
+        synchronized (mStatsLock) {
+            long highWaterMark = upsertEvents( earthquakes );
+            mWrites++;
+            if (mStats != null) {
+                mStats.putAll( earthquakes );
+            }
+            if (mPlaces != null) {
+                mPlaces.putAll( earthquakes );
+            }
+            writeTimeline( new TimelineWrite( earthquakes, null, 0 ) );
+            return highWaterMark;
+        }
+    }
+
+    private long upsertEvents(List<QuakeDescription> earthquakes) {
+        long highWaterMark = 0;
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (QuakeDescription quake : earthquakes) {
+                if (quake.getId() == null) {
+                    continue;
+                }
+                values.clear();
+                values.put( COLUMN_ID, quake.getId() );
+                values.put( COLUMN_MAGNITUDE, quake.getMagnitude() );
+                values.put( COLUMN_PLACE, quake.getQuakePlace() );
+                values.put( COLUMN_TIME, quake.getmTimeInMilliSeconds() );
+                values.put( COLUMN_UPDATED, quake.getUpdated() );
+                values.put( COLUMN_URL, quake.getmUrl() );
+                putCoordinate( values, COLUMN_LONGITUDE, quake.getLongitude() );
+                putCoordinate( values, COLUMN_LATITUDE, quake.getLatitude() );
+                putCoordinate( values, COLUMN_DEPTH, quake.getDepth() );
+                db.insertWithOnConflict( TABLE_EVENTS, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE );
+                highWaterMark = Math.max( highWaterMark, quake.getUpdated() );
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return highWaterMark;
+    }
+
+    /**
+     * Returns up to {@code limit} events at or above {@code minMagnitude} that happened at or
+     * after {@code since}, skipping the first {@code offset}, ordered by
+     * {@link EarthquakeQuery#ORDER_BY_MAGNITUDE} or {@link EarthquakeQuery#ORDER_BY_TIME},
+     * largest first.
+     */
+    public QuakeList query(double minMagnitude, long since, String orderBy, int offset, int limit) {
+        Cursor cursor = mDbHelper.getReadableDatabase().query( TABLE_EVENTS, EVENT_COLUMNS,
+                SELECT_FILTERED, filterArguments( minMagnitude, since ),
+                null, null, orderClause( orderBy ), offset + "," + limit );
+        QuakeTable earthquakes = new QuakeTable( cursor.getCount() );
+        try {
+            while (cursor.moveToNext()) {
+                readEvent( cursor, earthquakes );
+            }
+        } finally {
+            cursor.close();
+        }
+        return earthquakes.asList();
+    }
+
+    /** Number of events {@link #query} would return without a limit. */
+    public int count(double minMagnitude, long since) {
+        return (int) DatabaseUtils.queryNumEntries( mDbHelper.getReadableDatabase(),
+                TABLE_EVENTS, SELECT_FILTERED, filterArguments( minMagnitude, since ) );
+    }
+
+    /**
+     * Hands every event {@link #query} would return without a limit to {@code visitor},
+     * {@code blockRows} at a time, each block in a table of its own. Only one block is
+     * held at once, so the events need not fit in memory together.
+     */
+    public void scan(double minMagnitude, long since, String orderBy, int blockRows,
+                     BlockVisitor visitor) throws IOException {
+        Cursor cursor = mDbHelper.getReadableDatabase().query( TABLE_EVENTS, EVENT_COLUMNS,
+                SELECT_FILTERED, filterArguments( minMagnitude, since ),
+                null, null, orderClause( orderBy ) );
+        try {
+            QuakeTable block = new QuakeTable( blockRows );
+            while (cursor.moveToNext()) {
+                readEvent( cursor, block );
+                if (block.size() == blockRows) {
+                    visitor.visit( block );
+                    block = new QuakeTable( blockRows );
+                }
+            }
+            if (block.size() > 0) {
+                visitor.visit( block );
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the sync high-water mark recorded for the key, or 0 if it was never synced. */
+    public long getHighWaterMark(String syncKey) {
+        Cursor cursor = mDbHelper.getReadableDatabase().query( TABLE_SYNC_STATE,
+                new String[]{COLUMN_HIGH_WATER_MARK}, COLUMN_SYNC_KEY + " = ?",
+                new String[]{syncKey}, null, null, null );
+        try {
+            return cursor.moveToFirst() ? cursor.getLong( 0 ) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns when the key was last synced successfully, in epoch milliseconds, or 0 if it
+     * never was. Once it has been, the store holds every event of its window.
+     */
+    public long getSyncedAt(String syncKey) {
+        Cursor cursor = mDbHelper.getReadableDatabase().query( TABLE_SYNC_STATE,
+                new String[]{COLUMN_SYNCED_AT}, COLUMN_SYNC_KEY + " = ?",
+                new String[]{syncKey}, null, null, null );
+        try {
+            return cursor.moveToFirst() ? cursor.getLong( 0 ) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Records a successful sync of the key. */
+    public void setSyncState(String syncKey, long highWaterMark, long syncedAt) {
+        ContentValues values = new ContentValues();
+        values.put( COLUMN_SYNC_KEY, syncKey );
+        values.put( COLUMN_HIGH_WATER_MARK, highWaterMark );
+        values.put( COLUMN_SYNCED_AT, syncedAt );
+        mDbHelper.getWritableDatabase().insertWithOnConflict( TABLE_SYNC_STATE, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE );
+    }
+
+    /** Returns every key that has been synced, so a background sync can refresh them all. */
+    public List<String> getSyncKeys() {
+        Cursor cursor = mDbHelper.getReadableDatabase().query( TABLE_SYNC_STATE,
+                new String[]{COLUMN_SYNC_KEY}, null, null, null, null, null );
+        List<String> keys = new ArrayList<>( cursor.getCount() );
+        try {
+            while (cursor.moveToNext()) {
+                keys.add( cursor.getString( 0 ) );
+            }
+        } finally {
+            cursor.close();
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the backfilled span for the key as {start, completedUntil}, or null if no
+     * backfill was ever started for it.
+     */
+    @Override
+    public long[] getBackfillState(String syncKey) {
+        Cursor cursor = mDbHelper.getReadableDatabase().query( TABLE_BACKFILL_STATE,
+                new String[]{COLUMN_RANGE_START, COLUMN_COMPLETED_UNTIL}, COLUMN_SYNC_KEY + " = ?",
+                new String[]{syncKey}, null, null, null );
+        try {
+            return cursor.moveToFirst()
+                    ? new long[]{cursor.getLong( 0 ), cursor.getLong( 1 )}
+                    : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void setBackfillState(String syncKey, long rangeStart, long completedUntil) {
+        ContentValues values = new ContentValues();
+        values.put( COLUMN_SYNC_KEY, syncKey );
+        values.put( COLUMN_RANGE_START, rangeStart );
+        values.put( COLUMN_COMPLETED_UNTIL, completedUntil );
+        mDbHelper.getWritableDatabase().insertWithOnConflict( TABLE_BACKFILL_STATE, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE );
+    }
+
+    /**
+     * Returns where the stored history of the key starts: the start of its backfill if
+     * that reaches up to {@code windowStart} without a gap, otherwise {@code windowStart}.
+     */
+    public long getHistoryStart(String syncKey, long windowStart) {
+        long[] backfill = getBackfillState( syncKey );
+        if (backfill != null && backfill[1] >= windowStart) {
+            return Math.min( backfill[0], windowStart );
+        }
+        return windowStart;
+    }
+
+    /**
+     * Returns the regions fetched in full at or below {@code minMagnitude} since
+     * {@code notBefore}, ordered by start.
+     */
+    @Override
+    public List<QueryPlanner.Region> getCoverage(double minMagnitude, long notBefore) {
+        Cursor cursor = mDbHelper.getReadableDatabase().query( TABLE_COVERAGE, new String[]{
+                        COLUMN_RANGE_START, COLUMN_RANGE_END, COLUMN_MIN_MAGNITUDE, COLUMN_SOUTH,
+                        COLUMN_WEST, COLUMN_NORTH, COLUMN_EAST, COLUMN_FETCHED_AT},
+                COLUMN_MIN_MAGNITUDE + " <= ? AND " + COLUMN_FETCHED_AT + " >= ?",
+                new String[]{String.valueOf( minMagnitude ), String.valueOf( notBefore )},
+                null, null, COLUMN_RANGE_START );
+        List<QueryPlanner.Region> regions = new ArrayList<>( cursor.getCount() );
+        try {
+            while (cursor.moveToNext()) {
+                regions.add( new QueryPlanner.Region( cursor.getLong( 0 ), cursor.getLong( 1 ),
+                        cursor.getDouble( 2 ), cursor.getDouble( 3 ), cursor.getDouble( 4 ),
+                        cursor.getDouble( 5 ), cursor.getDouble( 6 ), cursor.getLong( 7 ) ) );
+            }
+        } finally {
+            cursor.close();
+        }
+        return regions;
+    }
+
+    /**
+     * Records a region fetched in full, dropping the older records of the same floor and
+     * box that it contains.
+     */
+    @Override
+    public void addCoverage(QueryPlanner.Region region) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete( TABLE_COVERAGE, COLUMN_MIN_MAGNITUDE + " = ? AND " + COLUMN_SOUTH
+                            + " = ? AND " + COLUMN_WEST + " = ? AND " + COLUMN_NORTH + " = ? AND "
+                            + COLUMN_EAST + " = ? AND " + COLUMN_RANGE_START + " >= ? AND "
+                            + COLUMN_RANGE_END + " <= ? AND " + COLUMN_FETCHED_AT + " <= ?",
+                    new String[]{String.valueOf( region.minMagnitude ),
+                            String.valueOf( region.south ), String.valueOf( region.west ),
+                            String.valueOf( region.north ), String.valueOf( region.east ),
+                            String.valueOf( region.start ), String.valueOf( region.end ),
+                            String.valueOf( region.fetchedAt )} );
+            ContentValues values = new ContentValues();
+            values.put( COLUMN_RANGE_START, region.start );
+            values.put( COLUMN_RANGE_END, region.end );
+            values.put( COLUMN_MIN_MAGNITUDE, region.minMagnitude );
+            values.put( COLUMN_SOUTH, region.south );
+            values.put( COLUMN_WEST, region.west );
+            values.put( COLUMN_NORTH, region.north );
+            values.put( COLUMN_EAST, region.east );
+            values.put( COLUMN_FETCHED_AT, region.fetchedAt );
+            db.insert( TABLE_COVERAGE, null, values );
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes events that have left the sync window, keeping any that a backfill stored,
+     * and cuts the coverage records down to what is left. Returns the number removed.
+     */
+    public int prune(long windowStart) {
+        long keepFrom = windowStart;
+        Cursor cursor = mDbHelper.getReadableDatabase().query( TABLE_BACKFILL_STATE,
+                new String[]{"MIN(" + COLUMN_RANGE_START + ")"}, null, null, null, null, null );
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull( 0 )) {
+                keepFrom = Math.min( keepFrom, cursor.getLong( 0 ) );
+            }
+        } finally {
+            cursor.close();
+        }
+        int deleted = deleteOlderThan( keepFrom );
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        String[] args = {String.valueOf( keepFrom )};
+        db.delete( TABLE_COVERAGE, COLUMN_RANGE_END + " <= ?", args );
+        ContentValues values = new ContentValues();
+        values.put( COLUMN_RANGE_START, keepFrom );
+        db.update( TABLE_COVERAGE, values, COLUMN_RANGE_START + " < ?", args );
+        return deleted;
+    }
+
+    /** Deletes the events with the given ids. Returns the number removed. */
+    public int delete(Collection<String> ids) {
+        synchronized (mStatsLock) {
+            int deleted = deleteEvents( ids );
+            mWrites++;
+            for (String id : ids) {
+                if (mStats != null) {
+                    mStats.remove( id );
+                }
+                if (mPlaces != null) {
+                    mPlaces.remove( id );
+                }
+            }
+            writeTimeline( new TimelineWrite( null, ids, 0 ) );
+            return deleted;
+        }
+    }
+
+    private int deleteEvents(Collection<String> ids) {
+        int deleted = 0;
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            String[] args = new String[1];
+            for (String id : ids) {
+                args[0] = id;
+                deleted += db.delete( TABLE_EVENTS, COLUMN_ID + " = ?", args );
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return deleted;
+    }
+
+    /** Deletes events that happened before the given time. Returns the number removed. */
+    public int deleteOlderThan(long time) {
+        synchronized (mStatsLock) {
+            int deleted = mDbHelper.getWritableDatabase().delete( TABLE_EVENTS,
+                    COLUMN_TIME + " < ?", new String[]{String.valueOf( time )} );
+            mWrites++;
+            if (mStats != null && deleted > 0) {
+                mStats.removeOlderThan( time );
+            }
+            if (mPlaces != null && deleted > 0) {
+                mPlaces.removeOlderThan( time );
+            }
+            if (deleted > 0) {
+                writeTimeline( new TimelineWrite( null, null, time ) );
+            }
+            return deleted;
+        }
+    }
+
+    /**
+     * Returns the statistics over every stored event. The first call reads the whole store
+     * once, so make it off the UI thread; after that they are only updated.
+     */
+    public QuakeStats getStats() {
+        synchronized (mStatsLock) {
+            if (mStats == null) {
+                QuakeStats stats = new QuakeStats();
+                stats.putAll( query( -Double.MAX_VALUE, Long.MIN_VALUE,
+                        EarthquakeQuery.ORDER_BY_TIME, 0, Integer.MAX_VALUE ) );
+                mStats = stats;
+            }
+            return mStats;
+        }
+    }
+
+    /**
+     * Returns the search index over the places of every stored event. Like
+     * {@link #getStats()}, the first call reads the whole store.
+     */
+    public PlaceIndex getPlaceIndex() {
+        synchronized (mStatsLock) {
+            if (mPlaces == null) {
+                PlaceIndex places = new PlaceIndex();
+                places.putAll( query( -Double.MAX_VALUE, Long.MIN_VALUE,
+                        EarthquakeQuery.ORDER_BY_TIME, 0, Integer.MAX_VALUE ) );
+                mPlaces = places;
+            }
+            return mPlaces;
+        }
+    }
+
+    /**
+     * Returns the timeline of the stored events at or above {@code minMagnitude} from
+     * {@code since} on; events written after it is built are added whatever their time.
+     * Only the last floor asked for is kept, so the first call for a floor, or for an
+     * earlier start, reads the store; make it off the UI thread, and use
+     * {@link #peekTimeline} on it. The read holds no lock, so writes go on meanwhile; they
+     * are kept and replayed on the timeline before it is installed, so one read is enough
+     * however busy the store is.
+     */
+    public QuakeTimeline getTimeline(double minMagnitude, long since) {
+        int replayFrom;
+        synchronized (mStatsLock) {
+            if (mTimeline != null && mTimeline.getMinMagnitude() == minMagnitude
+                    && mTimelineSince <= since) {
+                return mTimeline;
+            }
+            if (mTimelineWrites == null) {
+                mTimelineWrites = new ArrayList<>();
+            }
+            mTimelineReads++;
+            replayFrom = mTimelineWrites.size();
+        }
+        QuakeTimeline timeline = new QuakeTimeline( minMagnitude );
+        boolean read = false;
+        try {
+            timeline.putAll( query( minMagnitude, since, EarthquakeQuery.ORDER_BY_TIME, 0,
+                    Integer.MAX_VALUE ) );
+            read = true;
+        } finally {
+            synchronized (mStatsLock) {
+                if (read) {
+                    // The read may or may not have seen these; applied again, they leave
+                    // each event as the last write to it did.
+                    for (int i = replayFrom; i < mTimelineWrites.size(); i++) {
+                        mTimelineWrites.get( i ).applyTo( timeline );
+                    }
+                    mTimeline = timeline;
+                    mTimelineSince = since;
+                }
+                if (--mTimelineReads == 0) {
+                    mTimelineWrites = null;
+                }
+            }
+        }
+        return timeline;
+    }
+
+    /** Applies a write to the timeline, and keeps it for the timelines being read. */
+    private void writeTimeline(TimelineWrite write) {
+        if (mTimeline != null) {
+            write.applyTo( mTimeline );
+        }
+        if (mTimelineWrites != null) {
+            mTimelineWrites.add( write );
+        }
+    }
+
+    /**
+     * Returns a spatial index over the epicenters of every stored event, for the radius, box
+     * and nearest-event queries of the detail screen. The index can't be updated in place,
+     * so it is read again from the store on the first call after a write; make it off the
+     * UI thread. The read holds no lock, and an index that a write overtook is returned but
+     * not kept.
+     */
+    public QuakeSpatialIndex getSpatialIndex() {
+        long writes;
+        synchronized (mStatsLock) {
+            if (mSpatialIndex != null && mSpatialIndexWrites == mWrites) {
+                return mSpatialIndex;
+            }
+            writes = mWrites;
+        }
+        QuakeSpatialIndex index = new QuakeSpatialIndex( query( -Double.MAX_VALUE,
+                Long.MIN_VALUE, EarthquakeQuery.ORDER_BY_TIME, 0, Integer.MAX_VALUE ) );
+        synchronized (mStatsLock) {
+            if (mWrites == writes) {
+                mSpatialIndex = index;
+                mSpatialIndexWrites = writes;
+            }
+        }
+        return index;
+    }
+
+    /** Returns the timeline for {@code minMagnitude} if it is built, or null. */
+    public QuakeTimeline peekTimeline(double minMagnitude) {
+        QuakeTimeline timeline = mTimeline;
+        return timeline != null && timeline.getMinMagnitude() == minMagnitude ? timeline : null;
+    }
+
+    /**
+     * Returns the stored events with the given ids, in the order of the ids. Ids that are
+     * not stored are skipped.
+     */
+    public QuakeList queryByIds(List<String> ids) {
+        QuakeTable found = new QuakeTable( ids.size() );
+        Map<String, Integer> rows = new HashMap<>( ids.size() * 2 );
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        for (int from = 0; from < ids.size(); from += MAX_ARGUMENTS) {
+            List<String> chunk = ids.subList( from, Math.min( from + MAX_ARGUMENTS, ids.size() ) );
+            StringBuilder selection = new StringBuilder( COLUMN_ID ).append( " IN (" );
+            for (int i = 0; i < chunk.size(); i++) {
+                selection.append( i == 0 ? "?" : ",?" );
+            }
+            selection.append( ')' );
+            Cursor cursor = db.query( TABLE_EVENTS, EVENT_COLUMNS, selection.toString(),
+                    chunk.toArray( new String[chunk.size()] ), null, null, null );
+            try {
+                while (cursor.moveToNext()) {
+                    readEvent( cursor, found );
+                    rows.put( found.getId( found.size() - 1 ), found.size() - 1 );
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        int[] order = new int[ids.size()];
+        int size = 0;
+        for (String id : ids) {
+            Integer row = rows.get( id );
+            if (row != null) {
+                order[size++] = row;
+            }
+        }
+        return new QuakeList( found, order, size );
+    }
+
+    /** Returns every alert rule, with the ids the store gave them. */
+    public List<AlertRule> getAlertRules() {
+        Cursor cursor = mDbHelper.getReadableDatabase().query( TABLE_ALERT_RULES, new String[]{
+                        COLUMN_RULE_ID, COLUMN_RULE_NAME, COLUMN_MIN_MAGNITUDE, COLUMN_AREA,
+                        COLUMN_LATITUDE, COLUMN_LONGITUDE, COLUMN_RADIUS_KM, COLUMN_SOUTH,
+                        COLUMN_WEST, COLUMN_NORTH, COLUMN_EAST, COLUMN_MAX_AGE},
+                null, null, null, null, null );
+        List<AlertRule> rules = new ArrayList<>( cursor.getCount() );
+        try {
+            while (cursor.moveToNext()) {
+                rules.add( new AlertRule( cursor.getLong( 0 ), cursor.getString( 1 ),
+                        cursor.getDouble( 2 ), cursor.getInt( 3 ), cursor.getDouble( 4 ),
+                        cursor.getDouble( 5 ), cursor.getDouble( 6 ), cursor.getDouble( 7 ),
+                        cursor.getDouble( 8 ), cursor.getDouble( 9 ), cursor.getDouble( 10 ),
+                        cursor.getLong( 11 ) ) );
+            }
+        } finally {
+            cursor.close();
+        }
+        return rules;
+    }
+
+    /** Saves a new alert rule and returns it with its id. */
+    public AlertRule addAlertRule(AlertRule rule) {
+        ContentValues values = new ContentValues();
+        values.put( COLUMN_RULE_NAME, rule.getName() );
+        values.put( COLUMN_MIN_MAGNITUDE, rule.getMinMagnitude() );
+        values.put( COLUMN_AREA, rule.getArea() );
+        values.put( COLUMN_LATITUDE, rule.getLatitude() );
+        values.put( COLUMN_LONGITUDE, rule.getLongitude() );
+        values.put( COLUMN_RADIUS_KM, rule.getRadiusKm() );
+        values.put( COLUMN_SOUTH, rule.getSouth() );
+        values.put( COLUMN_WEST, rule.getWest() );
+        values.put( COLUMN_NORTH, rule.getNorth() );
+        values.put( COLUMN_EAST, rule.getEast() );
+        values.put( COLUMN_MAX_AGE, rule.getMaxAgeMillis() );
+        long id = mDbHelper.getWritableDatabase().insert( TABLE_ALERT_RULES, null, values );
+        return rule.withId( id );
+    }
+
+    /** Deletes every alert rule and the record of what they fired for. */
+    public void deleteAlertRules() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete( TABLE_ALERT_RULES, null, null );
+            db.delete( TABLE_ALERTS_FIRED, null, null );
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Records that a rule fired for an event.
+     *
+     * @return false if it already had, in which case it must not fire again
+     */
+    public boolean markAlertFired(long ruleId, String eventId, long firedAt) {
+        ContentValues values = new ContentValues();
+        values.put( COLUMN_RULE_ID, ruleId );
+        values.put( COLUMN_ID, eventId );
+        values.put( COLUMN_FIRED_AT, firedAt );
+        return mDbHelper.getWritableDatabase().insertWithOnConflict( TABLE_ALERTS_FIRED, null,
+                values, SQLiteDatabase.CONFLICT_IGNORE ) != -1;
+    }
+
+    /** Forgets alerts fired before the given time. */
+    public int pruneAlertsFired(long before) {
+        return mDbHelper.getWritableDatabase().delete( TABLE_ALERTS_FIRED,
+                COLUMN_FIRED_AT + " < ?", new String[]{String.valueOf( before )} );
+    }
+
+    private static String orderClause(String orderBy) {
+        return EarthquakeQuery.ORDER_BY_TIME.equals( orderBy )
+                ? COLUMN_TIME + " DESC"
+                : COLUMN_MAGNITUDE + " DESC, " + COLUMN_TIME + " DESC";
+    }
+
+    private static String[] filterArguments(double minMagnitude, long since) {
+        return new String[]{String.valueOf( minMagnitude ), String.valueOf( since )};
+    }
+
+    private static void putCoordinate(ContentValues values, String column, double value) {
+        if (Double.isNaN( value )) {
+            values.putNull( column );
+        } else {
+            values.put( column, value );
+        }
+    }
+
+    private static void readEvent(Cursor cursor, QuakeTable table) {
+        table.append(
+                cursor.getString( 0 ),
+                cursor.getDouble( 1 ),
+                cursor.getString( 2 ),
+                cursor.getLong( 3 ),
+                cursor.getLong( 4 ),
+                cursor.getString( 5 ),
+                cursor.isNull( 6 ) ? Double.NaN : cursor.getDouble( 6 ),
+                cursor.isNull( 7 ) ? Double.NaN : cursor.getDouble( 7 ),
+                cursor.isNull( 8 ) ? Double.NaN : cursor.getDouble( 8 ) );
+    }
+}
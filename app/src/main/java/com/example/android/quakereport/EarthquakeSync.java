@@ -0,0 +1,289 @@
+package com.example.android.quakereport;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the local store in step with USGS.
+ *
+ * {@link #sync} brings one query window up to date with only the events that changed
+ * since it was last synced. {@link #schedule} arranges for {@link #syncAll} to run every
+ * window the app has shown, in one wake-up, while the device is on an unmetered network
+ * or charging, so the list is usually current before the app is even opened.
+ */
+public final class EarthquakeSync {
+
+    private static final String LOG_TAG = EarthquakeSync.class.getSimpleName();
+
+    /** How often the background sync runs. */
+    public static final long SYNC_INTERVAL_MILLIS = AlarmManager.INTERVAL_HOUR;
+
+    /** First retry delay after a failed background sync; it doubles with every failure. */
+    static final long INITIAL_BACKOFF_MILLIS = 30 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 5 * 60 * 60 * 1000;
+
+    /** One job per condition, since a job can only require all of its conditions. */
+    private static final int JOB_ID_UNMETERED = 1;
+    private static final int JOB_ID_CHARGING = 2;
+
+    /** Request code of the repeating alarm used below Lollipop. */
+    private static final int ALARM_REQUEST_CODE = 0;
+
+    /** Keeps a job and an alarm, or two jobs, from syncing the same windows at once. */
+    private static final Object sSyncLock = new Object();
+
+    private EarthquakeSync() {
+    }
+
+    /**
+     * Fetches the events of the query's window that changed since its last sync, merges
+     * them into the store and prunes events that have left the window. Does nothing if the
+     * window was synced less than {@code maxAgeMillis} ago, or if fetches for other windows
+     * left the store holding all of it within that time, as a lower magnitude floor does. A
+     * window never synced before fetches only the part such fetches did not cover.
+     *
+     * @return true if the store is now current, false if USGS could not be reached
+     */
+    public static boolean sync(Context context, EarthquakeQuery query, long maxAgeMillis) {
+        EarthquakeStore store = EarthquakeStore.getInstance( context );
+        String syncKey = query.getSyncKey();
+        long now = System.currentTimeMillis();
+        long age = now - store.getSyncedAt( syncKey );
+        if (age >= 0 && age < maxAgeMillis) {
+            PipelineMetrics.CACHE_HITS.incrementAndGet();
+            return true;
+        }
+
+        long windowStart = query.getWindowStart( now );
+        long highWaterMark = store.getHighWaterMark( syncKey );
+        QueryPlanner.Plan plan = QueryPlanner.plan( store, query.getMinMagnitude(), windowStart,
+                now, now - maxAgeMillis );
+        // Once a window has a high-water mark, a delta is cheaper than refetching a gap.
+        if (plan.isCovered() || (highWaterMark == 0 && plan.getCurrentAsOf() != Long.MAX_VALUE)) {
+            return syncMissing( context, query, plan, windowStart, highWaterMark );
+        }
+        if (!isOnline( context )) {
+            return false;
+        }
+
+        // Deltas are parsed strictly: a body cut short comes back as null, so a partial
+        // delta never reaches setSyncState and the next sync asks for it again.
+        List<QuakeDescription> changed = fetchAll( query, highWaterMark, 0, 0 );
+        if (changed == null) {
+            return false;
+        }
+        if (Log.isLoggable( LOG_TAG, Log.DEBUG )) {
+            Log.d( LOG_TAG, "Sync " + syncKey + ": " + changed.size() + " changed, "
+                    + UsgsHttpClient.getNotModifiedCount() + "/" + UsgsHttpClient.getRequestCount()
+                    + " requests not modified, " + UsgsHttpClient.getBytesOnWire()
+                    + " bytes on wire, " + UsgsHttpClient.getBytesDecoded() + " decoded" );
+        }
+        long newMark = store.upsert( changed );
+        EarthquakeAlerts.check( context, changed );
+        store.setSyncState( syncKey, Math.max( newMark, highWaterMark ), now );
+        store.prune( windowStart );
+        QueryPlanner.record( store, query.getMinMagnitude(), windowStart, now, now );
+        return true;
+    }
+
+    /**
+     * Completes a window that other fetches already cover in part by fetching the ranges
+     * the plan lists as missing. The window is then only as current as the oldest fetch the
+     * plan relied on, so that is when it counts as synced, and where the next delta starts.
+     */
+    private static boolean syncMissing(Context context, EarthquakeQuery query,
+                                       QueryPlanner.Plan plan, long windowStart,
+                                       long highWaterMark) {
+        EarthquakeStore store = EarthquakeStore.getInstance( context );
+        String syncKey = query.getSyncKey();
+        if (plan.isCovered()) {
+            PipelineMetrics.REQUESTS_AVOIDED.incrementAndGet();
+        } else if (!isOnline( context )) {
+            return false;
+        }
+        int fetched = 0;
+        for (long[] missing : plan.getMissing()) {
+            List<QuakeDescription> events = fetchAll( query, 0, missing[0], missing[1] );
+            if (events == null) {
+                return false;
+            }
+            store.upsert( events );
+            EarthquakeAlerts.check( context, events );
+            QueryPlanner.record( store, query.getMinMagnitude(), missing[0], missing[1],
+                    System.currentTimeMillis() );
+            fetched += events.size();
+        }
+        long currentAsOf = plan.getCurrentAsOf();
+        if (Log.isLoggable( LOG_TAG, Log.DEBUG )) {
+            Log.d( LOG_TAG, "Sync " + syncKey + ": covered as of " + currentAsOf + ", "
+                    + plan.getMissing().size() + " ranges fetched with " + fetched + " events, "
+                    + Math.round( QueryPlanner.getHitRate() * 100 ) + "% planner hits, "
+                    + PipelineMetrics.REQUESTS_AVOIDED.get() + " requests avoided" );
+        }
+        store.setSyncState( syncKey, Math.max( highWaterMark,
+                currentAsOf - QueryPlanner.CLOCK_MARGIN_MILLIS ), currentAsOf );
+        store.prune( windowStart );
+        return true;
+    }
+
+    /**
+     * Fetches every event {@link EarthquakeQuery#toSyncUrl(long, long, long)} selects. USGS
+     * stops at {@link EarthquakeQuery#MAX_RESULTS}, so while a page comes back full the next
+     * one starts at the time of its last event; the store's upsert drops the events two
+     * pages share.
+     *
+     * @return the events, or null if a page could not be fetched
+     */
+    private static List<QuakeDescription> fetchAll(EarthquakeQuery query, long updatedAfter,
+                                                   long start, long end) {
+        List<QuakeDescription> events = null;
+        while (true) {
+            List<QuakeDescription> page = QueryUtils.fetchChangedEarthquakeData(
+                    query.toSyncUrl( updatedAfter, start, end ) );
+            if (page == null) {
+                return null;
+            }
+            boolean full = page.size() >= EarthquakeQuery.MAX_RESULTS;
+            if (events == null && !full) {
+                return page;
+            }
+            if (events == null) {
+                events = new ArrayList<>();
+            }
+            events.addAll( page );
+            if (!full) {
+                return events;
+            }
+            long last = page.get( page.size() - 1 ).getmTimeInMilliSeconds();
+            // More events at one millisecond than a page holds would never move on.
+            start = last > start ? last : start + 1;
+        }
+    }
+
+    /**
+     * Syncs every window in the store plus the one the current preferences ask for. Windows
+     * synced within the last half interval are skipped, so overlapping runs cost nothing.
+     *
+     * @return true if every window is now current
+     */
+    public static boolean syncAll(Context context) {
+        Set<String> syncKeys = new LinkedHashSet<>();
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences( context );
+        String minMagnitude = sharedPref.getString(
+                context.getString( R.string.settings_min_magnitude_key ),
+                context.getString( R.string.settings_min_magnitude_default ) );
+        syncKeys.add( new EarthquakeQuery( minMagnitude, EarthquakeQuery.ORDER_BY_TIME, 0 )
+                .getSyncKey() );
+        syncKeys.addAll( EarthquakeStore.getInstance( context ).getSyncKeys() );
+
+        boolean success = true;
+        synchronized (sSyncLock) {
+            for (String syncKey : syncKeys) {
+                EarthquakeQuery query = EarthquakeQuery.fromSyncKey( syncKey, 0 );
+                if (query != null && !sync( context, query, SYNC_INTERVAL_MILLIS / 2 )) {
+                    success = false;
+                }
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Schedules the periodic background sync unless it is already scheduled. Safe to call
+     * every time the app starts.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJobs( context );
+            return;
+        }
+        Intent intent = new Intent( context, EarthquakeSyncService.class );
+        if (PendingIntent.getService( context, ALARM_REQUEST_CODE, intent,
+                PendingIntent.FLAG_NO_CREATE ) != null) {
+            return;
+        }
+        AlarmManager alarmManager =
+                (AlarmManager) context.getSystemService( Context.ALARM_SERVICE );
+        // Inexact and non-waking, so the system can fold it into a wake-up that happens anyway.
+        alarmManager.setInexactRepeating( AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + SYNC_INTERVAL_MILLIS, SYNC_INTERVAL_MILLIS,
+                PendingIntent.getService( context, ALARM_REQUEST_CODE, intent, 0 ) );
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJobs(Context context) {
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService( Context.JOB_SCHEDULER_SERVICE );
+        boolean unmeteredScheduled = false;
+        boolean chargingScheduled = false;
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            unmeteredScheduled |= job.getId() == JOB_ID_UNMETERED;
+            chargingScheduled |= job.getId() == JOB_ID_CHARGING;
+        }
+        ComponentName service = new ComponentName( context, EarthquakeSyncJobService.class );
+        if (!unmeteredScheduled) {
+            jobScheduler.schedule( new JobInfo.Builder( JOB_ID_UNMETERED, service )
+                    .setRequiredNetworkType( JobInfo.NETWORK_TYPE_UNMETERED )
+                    .setPeriodic( SYNC_INTERVAL_MILLIS )
+                    .setBackoffCriteria( INITIAL_BACKOFF_MILLIS, JobInfo.BACKOFF_POLICY_EXPONENTIAL )
+                    .setPersisted( true )
+                    .build() );
+        }
+        if (!chargingScheduled) {
+            jobScheduler.schedule( new JobInfo.Builder( JOB_ID_CHARGING, service )
+                    .setRequiredNetworkType( JobInfo.NETWORK_TYPE_ANY )
+                    .setRequiresCharging( true )
+                    .setPeriodic( SYNC_INTERVAL_MILLIS )
+                    .setBackoffCriteria( INITIAL_BACKOFF_MILLIS, JobInfo.BACKOFF_POLICY_EXPONENTIAL )
+                    .setPersisted( true )
+                    .build() );
+        }
+    }
+
+    /** True if there is a network connection, or one is being made. */
+    public static boolean isOnline(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService( Context.CONNECTIVITY_SERVICE );
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnectedOrConnecting();
+    }
+
+    /**
+     * True if a background sync may run now: connected, and either on an unmetered network
+     * or charging. Job scheduling checks this itself; the alarm fallback has to ask.
+     */
+    static boolean isSyncAllowed(Context context) {
+        if (!isOnline( context )) {
+            return false;
+        }
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService( Context.CONNECTIVITY_SERVICE );
+        if (!ConnectivityManagerCompat.isActiveNetworkMetered( cm )) {
+            return true;
+        }
+        Intent battery = context.registerReceiver( null,
+                new IntentFilter( Intent.ACTION_BATTERY_CHANGED ) );
+        return battery != null && battery.getIntExtra( BatteryManager.EXTRA_PLUGGED, 0 ) != 0;
+    }
+}
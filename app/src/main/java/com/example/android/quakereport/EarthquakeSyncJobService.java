@@ -0,0 +1,55 @@
+package com.example.android.quakereport;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.AsyncTask;
+import android.os.Build;
+
+/**
+ * Runs the background sync when {@link android.app.job.JobScheduler} finds the device on
+ * an unmetered network or charging. A failed sync is handed back to the scheduler, which
+ * retries it with exponential backoff.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class EarthquakeSyncJobService extends JobService {
+
+    private SyncTask mTask;
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        // Jobs are started on the main thread, so the sync itself goes to a worker.
+        mTask = new SyncTask( params );
+        mTask.executeOnExecutor( AsyncTask.THREAD_POOL_EXECUTOR );
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The conditions went away mid-sync; try again once they are back.
+        if (mTask != null) {
+            mTask.cancel( true );
+            mTask = null;
+        }
+        return true;
+    }
+
+    private class SyncTask extends AsyncTask<Void, Void, Boolean> {
+        private final JobParameters mParams;
+
+        SyncTask(JobParameters params) {
+            mParams = params;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... voids) {
+            return EarthquakeSync.syncAll( getApplicationContext() );
+        }
+
+        @Override
+        protected void onPostExecute(Boolean success) {
+            mTask = null;
+            jobFinished( mParams, !success );
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.android.quakereport;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+
+/**
+ * Runs the background sync from an alarm on devices without
+ * {@link android.app.job.JobScheduler}. Does what the job scheduler would: skips the run
+ * unless the device is on an unmetered network or charging, and retries a failed sync
+ * with exponential backoff.
+ */
+public class EarthquakeSyncService extends IntentService {
+
+    private static final String PREFS_NAME = "earthquake_sync";
+    private static final String KEY_BACKOFF_MILLIS = "backoff_millis";
+
+    /** Request code of the one-shot retry alarm, apart from the repeating one. */
+    private static final int RETRY_REQUEST_CODE = 1;
+
+    public EarthquakeSyncService() {
+        super( "EarthquakeSyncService" );
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (!EarthquakeSync.isSyncAllowed( this )) {
+            // The next repeating alarm will look again.
+            return;
+        }
+        SharedPreferences prefs = getSharedPreferences( PREFS_NAME, Context.MODE_PRIVATE );
+        if (EarthquakeSync.syncAll( this )) {
+            prefs.edit().remove( KEY_BACKOFF_MILLIS ).apply();
+            return;
+        }
+
+        long backoff = prefs.getLong( KEY_BACKOFF_MILLIS, EarthquakeSync.INITIAL_BACKOFF_MILLIS );
+        prefs.edit().putLong( KEY_BACKOFF_MILLIS,
+                Math.min( backoff * 2, EarthquakeSync.MAX_BACKOFF_MILLIS ) ).apply();
+        AlarmManager alarmManager = (AlarmManager) getSystemService( Context.ALARM_SERVICE );
+        alarmManager.set( AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + backoff,
+                PendingIntent.getService( this, RETRY_REQUEST_CODE,
+                        new Intent( this, EarthquakeSyncService.class ),
+                        PendingIntent.FLAG_UPDATE_CURRENT ) );
+    }
+}
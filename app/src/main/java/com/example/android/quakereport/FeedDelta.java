@@ -0,0 +1,102 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What changed between the events held for a span of time and a fresh feed of the same
+ * span: events new to us, events USGS has revised since, and events it has deleted.
+ *
+ * Events are matched by id and compared by their "updated" time, in one pass over each
+ * side.
+ */
+public final class FeedDelta {
+
+    public static final FeedDelta EMPTY = new FeedDelta( new QuakeTable( 1 ).asList(),
+            new QuakeTable( 1 ).asList(), Collections.<String>emptyList() );
+
+    private final QuakeList mInserted;
+    private final QuakeList mUpdated;
+    private final List<String> mDeletedIds;
+
+    private FeedDelta(QuakeList inserted, QuakeList updated, List<String> deletedIds) {
+        mInserted = inserted;
+        mUpdated = updated;
+        mDeletedIds = deletedIds;
+    }
+
+    /**
+     * Compares a feed with the events held for the time it covers. The feed must have been
+     * read whole: every held event it lacks in the delete range is taken as deleted.
+     *
+     * @param deleteAfter only held events at or after this time count as deleted when the
+     *                    feed lacks them; older ones may simply have aged out of the feed
+     * @param deleteBefore nor do held events at or after this time, usually when the feed
+     *                     was built; they may have happened since
+     */
+    public static FeedDelta compute(QuakeList feed, QuakeList held, long deleteAfter,
+                                    long deleteBefore) {
+        QuakeTable heldTable = held.getTable();
+        Map<String, Integer> heldRows = new HashMap<>( held.size() * 2 );
+        for (int i = 0; i < held.size(); i++) {
+            int row = held.rowAt( i );
+            if (heldTable.getId( row ) != null) {
+                heldRows.put( heldTable.getId( row ), row );
+            }
+        }
+
+        QuakeTable feedTable = feed.getTable();
+        int[] inserted = new int[feed.size()];
+        int insertedCount = 0;
+        int[] updated = new int[feed.size()];
+        int updatedCount = 0;
+        for (int i = 0; i < feed.size(); i++) {
+            int row = feed.rowAt( i );
+            String id = feedTable.getId( row );
+            if (id == null) {
+                continue;
+            }
+            Integer heldRow = heldRows.remove( id );
+            if (heldRow == null) {
+                inserted[insertedCount++] = row;
+            } else if (feedTable.getUpdated( row ) > heldTable.getUpdated( heldRow )) {
+                updated[updatedCount++] = row;
+            }
+        }
+
+        // Whatever is left was held but is no longer in the feed.
+        List<String> deletedIds = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : heldRows.entrySet()) {
+            long time = heldTable.getTime( entry.getValue() );
+            if (time >= deleteAfter && time < deleteBefore) {
+                deletedIds.add( entry.getKey() );
+            }
+        }
+        return new FeedDelta( new QuakeList( feedTable, inserted, insertedCount ),
+                new QuakeList( feedTable, updated, updatedCount ), deletedIds );
+    }
+
+    public QuakeList getInserted() {
+        return mInserted;
+    }
+
+    public QuakeList getUpdated() {
+        return mUpdated;
+    }
+
+    public List<String> getDeletedIds() {
+        return mDeletedIds;
+    }
+
+    public boolean isEmpty() {
+        return mInserted.isEmpty() && mUpdated.isEmpty() && mDeletedIds.isEmpty();
+    }
+
+    /** Number of events inserted, updated or deleted. */
+    public int size() {
+        return mInserted.size() + mUpdated.size() + mDeletedIds.size();
+    }
+}
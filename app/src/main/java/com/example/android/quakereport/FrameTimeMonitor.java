@@ -0,0 +1,85 @@
+package com.example.android.quakereport;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.Arrays;
+
+/**
+ * Measures frame times while the earthquake list scrolls and logs a summary when the
+ * scroll ends: frame count, janky frames (over one 60 Hz vsync) and p50/p90/p99/max.
+ *
+ * Used in debug builds to compare list binding changes. Needs {@link Choreographer},
+ * so it does nothing before Jelly Bean.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public final class FrameTimeMonitor implements Choreographer.FrameCallback {
+
+    private static final String LOG_TAG = FrameTimeMonitor.class.getSimpleName();
+
+    private static final long FRAME_BUDGET_NANOS = 16666667L;
+    private static final int MAX_SAMPLES = 4096;
+
+    private final long[] mFrameNanos = new long[MAX_SAMPLES];
+    private int mCount = 0;
+    private long mLastFrameNanos = 0;
+    private boolean mRunning = false;
+
+    private static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
+    public void start() {
+        if (mRunning || !isSupported()) {
+            return;
+        }
+        mRunning = true;
+        mCount = 0;
+        mLastFrameNanos = 0;
+        Choreographer.getInstance().postFrameCallback( this );
+    }
+
+    /** Stops measuring and logs the frames seen since {@link #start()}. */
+    public void stop(String label) {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        Choreographer.getInstance().removeFrameCallback( this );
+        if (mCount == 0) {
+            return;
+        }
+        long[] sorted = Arrays.copyOf( mFrameNanos, mCount );
+        Arrays.sort( sorted );
+        int janky = 0;
+        for (long frame : sorted) {
+            if (frame > FRAME_BUDGET_NANOS) {
+                janky++;
+            }
+        }
+        Log.d( LOG_TAG, label + ": " + mCount + " frames, " + janky + " janky"
+                + ", p50=" + millis( sorted, 0.50 )
+                + "ms p90=" + millis( sorted, 0.90 )
+                + "ms p99=" + millis( sorted, 0.99 )
+                + "ms max=" + (sorted[mCount - 1] / 1000000.0) + "ms" );
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        if (mLastFrameNanos != 0 && mCount < MAX_SAMPLES) {
+            mFrameNanos[mCount++] = frameTimeNanos - mLastFrameNanos;
+        }
+        mLastFrameNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback( this );
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+        int index = (int) Math.min( sorted.length - 1, Math.floor( quantile * sorted.length ) );
+        return sorted[index] / 1000000.0;
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * Pull parser for the USGS GeoJSON feed format.
+ *
+ * Reads the response straight from the network stream and hands back one
+ * {@link QuakeDescription} per call to {@link #nextQuake()}. Only the fields the app
+ * uses are kept; every other member of a feature is skipped without being built.
+ * Events are appended to a {@link QuakeTable} as they are read.
+ */
+public final class GeoJsonQuakeParser implements Closeable {
+
+    private final JsonPullReader mReader;
+    private final QuakeTable mTable;
+
+    /** True once the reader is positioned inside the "features" array. */
+    private boolean mInFeatures = false;
+    private boolean mFinished = false;
+
+    /** From the "metadata" member, if it came before the features; -1 and 0 if not. */
+    private int mMetadataCount = -1;
+    private long mGeneratedAt = 0;
+
+    public GeoJsonQuakeParser(InputStream inputStream) {
+        this( inputStream, new QuakeTable() );
+    }
+
+    public GeoJsonQuakeParser(InputStream inputStream, QuakeTable table) {
+        mReader = new JsonPullReader(
+                new InputStreamReader( inputStream, Charset.forName( "UTF-8" ) ) );
+        mTable = table;
+    }
+
+    /** The table the parsed events are appended to. */
+    public QuakeTable getTable() {
+        return mTable;
+    }
+
+    /**
+     * Returns the next earthquake in the feed, or null once every feature has been read.
+     */
+    public QuakeDescription nextQuake() throws IOException {
+        if (mFinished) {
+            return null;
+        }
+        if (!mInFeatures && !seekFeatures()) {
+            mFinished = true;
+            return null;
+        }
+        if (!mReader.hasNext()) {
+            mReader.endArray();
+            finishRoot();
+            mFinished = true;
+            return null;
+        }
+        return readFeature();
+    }
+
+    /**
+     * The number of features the document's metadata says it holds, or -1 if it has no
+     * metadata before its features. Known once the first event has been asked for.
+     */
+    public int getMetadataCount() {
+        return mMetadataCount;
+    }
+
+    /** When USGS built the document, from its metadata, or 0 if not given. */
+    public long getGeneratedAt() {
+        return mGeneratedAt;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Moves the reader to the first element of the root "features" array.
+     * Returns false if the document has no such array.
+     */
+    private boolean seekFeatures() throws IOException {
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            String name = mReader.nextName();
+            if ("features".equals( name ) && mReader.peek() == JsonPullReader.Token.BEGIN_ARRAY) {
+                mReader.beginArray();
+                mInFeatures = true;
+                return true;
+            }
+            if ("metadata".equals( name ) && mReader.peek() == JsonPullReader.Token.BEGIN_OBJECT) {
+                readMetadata();
+                continue;
+            }
+            mReader.skipValue();
+        }
+        mReader.endObject();
+        return false;
+    }
+
+    private void readMetadata() throws IOException {
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            String name = mReader.nextName();
+            JsonPullReader.Token token = mReader.peek();
+            if ("count".equals( name ) && token == JsonPullReader.Token.NUMBER) {
+                mMetadataCount = (int) mReader.nextLong();
+            } else if ("generated".equals( name ) && token == JsonPullReader.Token.NUMBER) {
+                mGeneratedAt = mReader.nextLong();
+            } else {
+                mReader.skipValue();
+            }
+        }
+        mReader.endObject();
+    }
+
+    /** Skips whatever follows the features array, e.g. a trailing "bbox". */
+    private void finishRoot() throws IOException {
+        while (mReader.hasNext()) {
+            mReader.nextName();
+            mReader.skipValue();
+        }
+        mReader.endObject();
+    }
+
+    private QuakeDescription readFeature() throws IOException {
+        String id = null;
+        double magnitude = 0;
+        String place = "";
+        long time = 0;
+        long updated = 0;
+        String url = "";
+        double longitude = Double.NaN;
+        double latitude = Double.NaN;
+        double depth = Double.NaN;
+
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            String name = mReader.nextName();
+            if (mReader.peek() == JsonPullReader.Token.NULL) {
+                mReader.nextNull();
+            } else if ("id".equals( name )) {
+                id = mReader.nextString();
+            } else if ("properties".equals( name )) {
+                mReader.beginObject();
+                while (mReader.hasNext()) {
+                    String property = mReader.nextName();
+                    if (mReader.peek() == JsonPullReader.Token.NULL) {
+                        mReader.nextNull();
+                    } else if ("mag".equals( property )) {
+                        magnitude = mReader.nextDouble();
+                    } else if ("place".equals( property )) {
+                        place = mReader.nextString();
+                    } else if ("time".equals( property )) {
+                        time = mReader.nextLong();
+                    } else if ("updated".equals( property )) {
+                        updated = mReader.nextLong();
+                    } else if ("url".equals( property )) {
+                        url = mReader.nextString();
+                    } else {
+                        mReader.skipValue();
+                    }
+                }
+                mReader.endObject();
+            } else if ("geometry".equals( name )) {
+                mReader.beginObject();
+                while (mReader.hasNext()) {
+                    if ("coordinates".equals( mReader.nextName() )
+                            && mReader.peek() == JsonPullReader.Token.BEGIN_ARRAY) {
+                        // GeoJSON orders coordinates as [longitude, latitude, depth].
+                        mReader.beginArray();
+                        int index = 0;
+                        while (mReader.hasNext()) {
+                            if (mReader.peek() != JsonPullReader.Token.NUMBER) {
+                                mReader.skipValue();
+                            } else if (index == 0) {
+                                longitude = mReader.nextDouble();
+                            } else if (index == 1) {
+                                latitude = mReader.nextDouble();
+                            } else if (index == 2) {
+                                depth = mReader.nextDouble();
+                            } else {
+                                mReader.skipValue();
+                            }
+                            index++;
+                        }
+                        mReader.endArray();
+                    } else {
+                        mReader.skipValue();
+                    }
+                }
+                mReader.endObject();
+            } else {
+                mReader.skipValue();
+            }
+        }
+        mReader.endObject();
+
+        return mTable.get( mTable.append( id, magnitude, place, time, updated, url,
+                longitude, latitude, depth ) );
+    }
+}
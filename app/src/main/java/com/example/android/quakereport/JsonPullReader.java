@@ -0,0 +1,426 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A small pull-based JSON tokenizer that reads straight from a {@link Reader}.
+ *
+ * Unlike {@link org.json.JSONObject} it never holds more than its read buffer and the
+ * current token in memory, so the caller decides what to keep and what to skip.
+ * The API mirrors {@code android.util.JsonReader} but has no Android dependencies,
+ * which lets the parsing code run unchanged on a plain JVM.
+ */
+final class JsonPullReader implements Closeable {
+
+    /**
+     * Thrown for input that is not valid JSON, as opposed to an {@link IOException} from the
+     * underlying reader, e.g. a connection that dropped.
+     */
+    static final class SyntaxException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        SyntaxException(String message) {
+            super( message );
+        }
+    }
+
+    /** The kinds of token {@link #peek()} can report. */
+    enum Token {
+        BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL,
+        END_DOCUMENT
+    }
+
+    /** Lexical scopes tracked on the nesting stack. */
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int EMPTY_DOCUMENT = 6;
+    private static final int NONEMPTY_DOCUMENT = 7;
+
+    private final Reader mIn;
+    private final char[] mBuffer = new char[8192];
+    private int mPos = 0;
+    private int mLimit = 0;
+
+    private int[] mStack = new int[32];
+    private int mStackSize = 0;
+
+    /** The token that has been peeked but not yet consumed, or null. */
+    private Token mPeeked = null;
+
+    /** Holds the text of the peeked NUMBER or BOOLEAN literal. */
+    private final StringBuilder mLiteral = new StringBuilder( 32 );
+    private final StringBuilder mString = new StringBuilder( 64 );
+
+    JsonPullReader(Reader in) {
+        mIn = in;
+        push( EMPTY_DOCUMENT );
+    }
+
+    Token peek() throws IOException {
+        if (mPeeked == null) {
+            mPeeked = doPeek();
+        }
+        return mPeeked;
+    }
+
+    void beginArray() throws IOException {
+        expect( Token.BEGIN_ARRAY );
+        push( EMPTY_ARRAY );
+    }
+
+    void endArray() throws IOException {
+        expect( Token.END_ARRAY );
+        mStackSize--;
+    }
+
+    void beginObject() throws IOException {
+        expect( Token.BEGIN_OBJECT );
+        push( EMPTY_OBJECT );
+    }
+
+    void endObject() throws IOException {
+        expect( Token.END_OBJECT );
+        mStackSize--;
+    }
+
+    /** Returns true if the current array or object has another element. */
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_ARRAY && token != Token.END_OBJECT
+                && token != Token.END_DOCUMENT;
+    }
+
+    String nextName() throws IOException {
+        expect( Token.NAME );
+        return readString();
+    }
+
+    /** Returns the next STRING value, or the literal text of a NUMBER. */
+    String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            mPeeked = null;
+            return readString();
+        }
+        if (token == Token.NUMBER) {
+            mPeeked = null;
+            return mLiteral.toString();
+        }
+        throw syntaxError( "Expected a string but was " + token );
+    }
+
+    double nextDouble() throws IOException {
+        Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING) {
+            throw syntaxError( "Expected a number but was " + token );
+        }
+        String text = nextString();
+        try {
+            return Double.parseDouble( text );
+        } catch (NumberFormatException e) {
+            throw syntaxError( "Malformed number " + text );
+        }
+    }
+
+    long nextLong() throws IOException {
+        if (peek() != Token.NUMBER) {
+            return (long) nextDouble();
+        }
+        // Parse integral literals in place so epoch timestamps don't allocate. The value is
+        // built up negative, since Long.MIN_VALUE has no positive counterpart; one out of
+        // range saturates, as the cast of a non-integral literal does.
+        int length = mLiteral.length();
+        boolean negative = length > 0 && mLiteral.charAt( 0 ) == '-';
+        long value = 0;
+        boolean overflow = false;
+        for (int i = negative ? 1 : 0; i < length; i++) {
+            char c = mLiteral.charAt( i );
+            if (c < '0' || c > '9') {
+                return (long) nextDouble();
+            }
+            int digit = c - '0';
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                overflow = true;
+            } else {
+                value = value * 10 - digit;
+            }
+        }
+        mPeeked = null;
+        if (negative) {
+            return overflow ? Long.MIN_VALUE : value;
+        }
+        return overflow || value == Long.MIN_VALUE ? Long.MAX_VALUE : -value;
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect( Token.BOOLEAN );
+        return mLiteral.charAt( 0 ) == 't';
+    }
+
+    void nextNull() throws IOException {
+        expect( Token.NULL );
+    }
+
+    /** Skips the next value, including any nested arrays or objects it contains. */
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            mPeeked = null;
+            switch (token) {
+                case BEGIN_ARRAY:
+                    push( EMPTY_ARRAY );
+                    depth++;
+                    break;
+                case BEGIN_OBJECT:
+                    push( EMPTY_OBJECT );
+                    depth++;
+                    break;
+                case END_ARRAY:
+                case END_OBJECT:
+                    mStackSize--;
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    skipString();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError( "Unexpected end of document" );
+                default:
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mPeeked = null;
+        mStackSize = 0;
+        mIn.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError( "Expected " + expected + " but was " + token );
+        }
+        mPeeked = null;
+    }
+
+    private void push(int scope) {
+        if (mStackSize == mStack.length) {
+            int[] grown = new int[mStackSize * 2];
+            System.arraycopy( mStack, 0, grown, 0, mStackSize );
+            mStack = grown;
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    private Token doPeek() throws IOException {
+        int scope = mStack[mStackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return Token.END_ARRAY;
+                }
+                mPos--;
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError( "Unterminated array" );
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                if (scope == NONEMPTY_OBJECT) {
+                    c = nextNonWhitespace();
+                    if (c == '}') {
+                        return Token.END_OBJECT;
+                    }
+                    if (c != ',') {
+                        throw syntaxError( "Unterminated object" );
+                    }
+                }
+                mStack[mStackSize - 1] = DANGLING_NAME;
+                c = nextNonWhitespace();
+                if (c == '"') {
+                    return Token.NAME;
+                }
+                if (c == '}' && scope == EMPTY_OBJECT) {
+                    return Token.END_OBJECT;
+                }
+                throw syntaxError( "Expected name" );
+            case DANGLING_NAME:
+                mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError( "Expected ':'" );
+                }
+                break;
+            case EMPTY_DOCUMENT:
+                mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                if (nextNonWhitespaceOrEof() == -1) {
+                    return Token.END_DOCUMENT;
+                }
+                throw syntaxError( "Trailing content after the document" );
+        }
+
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            default:
+                mPos--;
+                readLiteral();
+                char first = mLiteral.charAt( 0 );
+                if (first == 't' || first == 'f') {
+                    return Token.BOOLEAN;
+                }
+                if (first == 'n') {
+                    return Token.NULL;
+                }
+                return Token.NUMBER;
+        }
+    }
+
+    /** Reads an unquoted literal (number, true, false or null) into {@link #mLiteral}. */
+    private void readLiteral() throws IOException {
+        mLiteral.setLength( 0 );
+        while (mPos < mLimit || fill()) {
+            char c = mBuffer[mPos];
+            if (c == ',' || c == '}' || c == ']' || c == ':'
+                    || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                break;
+            }
+            mLiteral.append( c );
+            mPos++;
+        }
+        if (mLiteral.length() == 0) {
+            throw syntaxError( "Expected a value" );
+        }
+    }
+
+    /** Reads the remainder of a string whose opening quote has already been consumed. */
+    private String readString() throws IOException {
+        mString.setLength( 0 );
+        while (true) {
+            int start = mPos;
+            while (mPos < mLimit) {
+                char c = mBuffer[mPos++];
+                if (c == '"') {
+                    mString.append( mBuffer, start, mPos - start - 1 );
+                    return mString.toString();
+                }
+                if (c == '\\') {
+                    mString.append( mBuffer, start, mPos - start - 1 );
+                    mString.append( readEscape() );
+                    start = mPos;
+                }
+            }
+            mString.append( mBuffer, start, mPos - start );
+            if (!fill()) {
+                throw syntaxError( "Unterminated string" );
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            while (mPos < mLimit) {
+                char c = mBuffer[mPos++];
+                if (c == '"') {
+                    return;
+                }
+                if (c == '\\') {
+                    readEscape();
+                }
+            }
+            if (!fill()) {
+                throw syntaxError( "Unterminated string" );
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        char c = nextChar();
+        switch (c) {
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    value = (value << 4) + Character.digit( nextChar(), 16 );
+                }
+                return (char) value;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            default:
+                return c;
+        }
+    }
+
+    private char nextChar() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            throw syntaxError( "Unexpected end of input" );
+        }
+        return mBuffer[mPos++];
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = nextNonWhitespaceOrEof();
+        if (c == -1) {
+            throw syntaxError( "Unexpected end of input" );
+        }
+        return c;
+    }
+
+    private int nextNonWhitespaceOrEof() throws IOException {
+        while (mPos < mLimit || fill()) {
+            char c = mBuffer[mPos++];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /** Refills the buffer from the reader. Returns false at the end of the input. */
+    private boolean fill() throws IOException {
+        mPos = 0;
+        mLimit = 0;
+        int read = mIn.read( mBuffer, 0, mBuffer.length );
+        if (read <= 0) {
+            return false;
+        }
+        mLimit = read;
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new SyntaxException( message );
+    }
+}
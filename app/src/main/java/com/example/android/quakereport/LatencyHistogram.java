@@ -0,0 +1,114 @@
+package com.example.android.quakereport;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in microseconds, cheap enough to record into on every
+ * request and every bound row.
+ *
+ * Values below 16 get a bucket each; above that every power of two is cut into eight
+ * buckets, so any percentile is within 12.5% of the true value. Recording is a few
+ * arithmetic operations and a few atomic adds, and never allocates.
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Octaves 2^4 .. 2^40 microseconds, about 12 days; anything longer goes in the last. */
+    private static final int OCTAVES = 37;
+    private static final int BUCKETS = LINEAR_BUCKETS + OCTAVES * SUB_BUCKETS;
+
+    private final String mName;
+    private final AtomicLongArray mCounts = new AtomicLongArray( BUCKETS );
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /** Records a duration given as a {@link System#nanoTime()} difference. */
+    public void recordNanos(long nanos) {
+        record( nanos / 1000 );
+    }
+
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        mCounts.incrementAndGet( bucketOf( micros ) );
+        mCount.incrementAndGet();
+        mSum.addAndGet( micros );
+        long max = mMax.get();
+        while (micros > max && !mMax.compareAndSet( max, micros )) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMaxMicros() {
+        return mMax.get();
+    }
+
+    public long getMeanMicros() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /** The value below which {@code fraction} of the recorded values fall, in microseconds. */
+    public long getPercentileMicros(double fraction) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil( fraction * count );
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get( i );
+            if (seen >= Math.max( 1, rank )) {
+                // The middle of the bucket, but never past the largest value seen.
+                return Math.min( (lowerBound( i ) + lowerBound( i + 1 ) - 1) / 2, mMax.get() );
+            }
+        }
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set( i, 0 );
+        }
+        mCount.set( 0 );
+        mSum.set( 0 );
+        mMax.set( 0 );
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros( micros );
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        int index = LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+        return Math.min( index, BUCKETS - 1 );
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The difference between two snapshots of the list: which old rows are gone, which new
+ * rows are new, and which rows are the same event with newer data.
+ *
+ * Events are matched by USGS id and compared by their "updated" time. When both snapshots
+ * are in time order, which is how the store returns them, one merge pass finds the
+ * difference; otherwise the events are matched through a hash map. Both are linear, so
+ * this can run on every refresh, off the UI thread.
+ */
+public final class ListDiff {
+
+    private final int[] mRemoved;
+    private final int mRemovedCount;
+    private final int[] mInserted;
+    private final int mInsertedCount;
+    private final int[] mChanged;
+    private final int mChangedCount;
+    private final boolean mReordered;
+    private final int mNewSize;
+
+    private ListDiff(int[] removed, int removedCount, int[] inserted, int insertedCount,
+                     int[] changed, int changedCount, boolean reordered, int newSize) {
+        mRemoved = removed;
+        mRemovedCount = removedCount;
+        mInserted = inserted;
+        mInsertedCount = insertedCount;
+        mChanged = changed;
+        mChangedCount = changedCount;
+        mReordered = reordered;
+        mNewSize = newSize;
+    }
+
+    public static ListDiff compute(List<QuakeDescription> oldList, List<QuakeDescription> newList) {
+        if (isTimeOrdered( oldList ) && isTimeOrdered( newList )) {
+            return mergeTimeOrdered( oldList, newList );
+        }
+        return matchById( oldList, newList );
+    }
+
+    /** True if nothing was removed, inserted, changed or moved. */
+    public boolean isEmpty() {
+        return mRemovedCount == 0 && mInsertedCount == 0 && mChangedCount == 0 && !mReordered;
+    }
+
+    /** Number of old rows removed, new rows inserted and rows changed. */
+    public int size() {
+        return mRemovedCount + mInsertedCount + mChangedCount;
+    }
+
+    public int getRemovedCount() {
+        return mRemovedCount;
+    }
+
+    /** Position in the old list of the {@code index}th removed row, in increasing order. */
+    public int getRemoved(int index) {
+        return mRemoved[index];
+    }
+
+    public int getInsertedCount() {
+        return mInsertedCount;
+    }
+
+    /** Position in the new list of the {@code index}th inserted row, in increasing order. */
+    public int getInserted(int index) {
+        return mInserted[index];
+    }
+
+    public int getChangedCount() {
+        return mChangedCount;
+    }
+
+    /** Position in the new list of the {@code index}th changed row, in increasing order. */
+    public int getChanged(int index) {
+        return mChanged[index];
+    }
+
+    /** True if rows present in both lists are not in the same relative order. */
+    public boolean isReordered() {
+        return mReordered;
+    }
+
+    /**
+     * Where the row at {@code oldPosition} of the old list is in the new one, or, if it was
+     * removed, the first later row that was kept. Used to keep the list scrolled to the same
+     * event across a refresh.
+     *
+     * @return the position in the new list, or -1 if the rows were reordered or none at or
+     *         after {@code oldPosition} were kept
+     */
+    public int getNewPosition(int oldPosition) {
+        if (mReordered) {
+            return -1;
+        }
+        // Kept rows keep their order, so the kth kept old row is the kth kept new row.
+        int kept = oldPosition;
+        for (int k = 0; k < mRemovedCount && mRemoved[k] < oldPosition; k++) {
+            kept--;
+        }
+        int position = kept;
+        for (int k = 0; k < mInsertedCount && mInserted[k] <= position; k++) {
+            position++;
+        }
+        return position < mNewSize ? position : -1;
+    }
+
+    private static boolean isTimeOrdered(List<QuakeDescription> list) {
+        for (int i = 1; i < list.size(); i++) {
+            if (list.get( i ).getmTimeInMilliSeconds() > list.get( i - 1 ).getmTimeInMilliSeconds()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Walks both lists, latest first, like the merge step of a merge sort. Only events with
+     * the same time need matching by id, and those runs are short.
+     */
+    private static ListDiff mergeTimeOrdered(List<QuakeDescription> oldList,
+                                             List<QuakeDescription> newList) {
+        Builder diff = new Builder( oldList.size(), newList.size() );
+        int i = 0;
+        int j = 0;
+        while (i < oldList.size() && j < newList.size()) {
+            long oldTime = oldList.get( i ).getmTimeInMilliSeconds();
+            long newTime = newList.get( j ).getmTimeInMilliSeconds();
+            if (oldTime > newTime) {
+                diff.remove( i++ );
+            } else if (oldTime < newTime) {
+                diff.insert( j++ );
+            } else {
+                int oldEnd = i + 1;
+                while (oldEnd < oldList.size()
+                        && oldList.get( oldEnd ).getmTimeInMilliSeconds() == oldTime) {
+                    oldEnd++;
+                }
+                int newEnd = j + 1;
+                while (newEnd < newList.size()
+                        && newList.get( newEnd ).getmTimeInMilliSeconds() == newTime) {
+                    newEnd++;
+                }
+                matchRun( oldList, i, oldEnd, newList, j, newEnd, diff );
+                i = oldEnd;
+                j = newEnd;
+            }
+        }
+        while (i < oldList.size()) {
+            diff.remove( i++ );
+        }
+        while (j < newList.size()) {
+            diff.insert( j++ );
+        }
+        return diff.build( false );
+    }
+
+    /** Matches a run of events that share one time. */
+    private static void matchRun(List<QuakeDescription> oldList, int oldStart, int oldEnd,
+                                 List<QuakeDescription> newList, int newStart, int newEnd,
+                                 Builder diff) {
+        boolean[] matched = new boolean[oldEnd - oldStart];
+        for (int j = newStart; j < newEnd; j++) {
+            QuakeDescription quake = newList.get( j );
+            int match = -1;
+            for (int i = oldStart; i < oldEnd && match < 0; i++) {
+                if (!matched[i - oldStart] && sameEvent( oldList.get( i ), quake )) {
+                    match = i;
+                }
+            }
+            if (match < 0) {
+                diff.insert( j );
+            } else {
+                matched[match - oldStart] = true;
+                if (quake.getUpdated() != oldList.get( match ).getUpdated()) {
+                    diff.change( j );
+                }
+            }
+        }
+        for (int i = oldStart; i < oldEnd; i++) {
+            if (!matched[i - oldStart]) {
+                diff.remove( i );
+            }
+        }
+    }
+
+    private static ListDiff matchById(List<QuakeDescription> oldList,
+                                      List<QuakeDescription> newList) {
+        Builder diff = new Builder( oldList.size(), newList.size() );
+        Map<String, Integer> oldPositions = new HashMap<>( oldList.size() * 2 );
+        for (int i = 0; i < oldList.size(); i++) {
+            oldPositions.put( keyOf( oldList.get( i ), i ), i );
+        }
+        boolean[] kept = new boolean[oldList.size()];
+        int lastKept = -1;
+        boolean reordered = false;
+        for (int j = 0; j < newList.size(); j++) {
+            QuakeDescription quake = newList.get( j );
+            Integer i = quake.getId() == null ? null : oldPositions.get( quake.getId() );
+            if (i == null) {
+                diff.insert( j );
+                continue;
+            }
+            kept[i] = true;
+            reordered |= i < lastKept;
+            lastKept = i;
+            if (quake.getUpdated() != oldList.get( i ).getUpdated()) {
+                diff.change( j );
+            }
+        }
+        for (int i = 0; i < oldList.size(); i++) {
+            if (!kept[i]) {
+                diff.remove( i );
+            }
+        }
+        return diff.build( reordered );
+    }
+
+    /** The event's id; rows without one never match anything. */
+    private static String keyOf(QuakeDescription quake, int position) {
+        return quake.getId() != null ? quake.getId() : "\u0000" + position;
+    }
+
+    private static boolean sameEvent(QuakeDescription a, QuakeDescription b) {
+        return a.getId() != null && a.getId().equals( b.getId() );
+    }
+
+    /**
+     * Collects positions into arrays sized for the worst case. Both walks visit each list
+     * front to back, so the positions arrive in increasing order.
+     */
+    private static final class Builder {
+        final int[] removed;
+        int removedCount;
+        final int[] inserted;
+        int insertedCount;
+        final int[] changed;
+        int changedCount;
+
+        Builder(int oldSize, int newSize) {
+            removed = new int[oldSize];
+            inserted = new int[newSize];
+            changed = new int[newSize];
+        }
+
+        void remove(int oldPosition) {
+            removed[removedCount++] = oldPosition;
+        }
+
+        void insert(int newPosition) {
+            inserted[insertedCount++] = newPosition;
+        }
+
+        void change(int newPosition) {
+            changed[changedCount++] = newPosition;
+        }
+
+        ListDiff build(boolean reordered) {
+            return new ListDiff( removed, removedCount, inserted, insertedCount, changed,
+                    changedCount, reordered, inserted.length );
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps recent events current by polling the USGS summary feeds.
+ *
+ * The summary feeds are small, pre-built and served from a CDN, so unlike the FDSN query
+ * they are cheap to fetch every minute. Each poll picks the smallest feed that covers the
+ * time since the last one and the user's magnitude floor, compares it with the store and
+ * applies only the difference, which it returns for the list to apply as well. What a poll
+ * covered is recorded for {@link QueryPlanner}, so other floors can be answered from it.
+ */
+public final class LiveFeed {
+
+    private static final String LOG_TAG = LiveFeed.class.getSimpleName();
+
+    static final String SUMMARY_FEED_URL =
+            "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/";
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    /** Periods the feeds cover, shortest first, and their names in the feed URLs. */
+    private static final long[] PERIOD_MILLIS = {HOUR_MILLIS, 24 * HOUR_MILLIS, 7 * 24 * HOUR_MILLIS};
+    private static final String[] PERIOD_NAMES = {"hour", "day", "week"};
+
+    /** Magnitude floors of the feeds, highest first, and their names in the feed URLs. */
+    private static final double[] LEVELS = {4.5, 2.5, 1.0};
+    private static final String[] LEVEL_NAMES = {"4.5", "2.5", "1.0"};
+    private static final String LEVEL_ALL = "all";
+
+    /**
+     * Slack for the feed being built a little before we fetch it and for clock skew. An
+     * event this close to the start of a feed may drop out of it without being deleted.
+     */
+    private static final long MARGIN_MILLIS = 5 * 60 * 1000;
+
+    /** A summary feed read to its end, and when USGS built it. */
+    private static final class Feed {
+        final QuakeList events;
+        final long generatedAt;
+
+        Feed(QuakeList events, long generatedAt) {
+            this.events = events;
+            this.generatedAt = generatedAt;
+        }
+    }
+
+    /**
+     * Parses a summary feed, failing unless it is whole: a body cut short, or one holding
+     * fewer events than its metadata counts. Deletes are inferred from what a feed lacks,
+     * so a feed missing events must never be applied.
+     */
+    private static final UsgsHttpClient.BodyParser<Feed> FEED_PARSER =
+            new UsgsHttpClient.BodyParser<Feed>() {
+                @Override
+                public Feed parse(InputStream body) throws IOException {
+                    GeoJsonQuakeParser parser = new GeoJsonQuakeParser( body );
+                    try {
+                        while (parser.nextQuake() != null) {
+                            // Each event is appended to the parser's table as it is read.
+                        }
+                    } catch (IOException e) {
+                        QueryUtils.countBodyError( e );
+                        throw e;
+                    } finally {
+                        PipelineMetrics.EVENTS_PARSED.addAndGet( parser.getTable().size() );
+                    }
+                    int count = parser.getMetadataCount();
+                    if (count >= 0 && count != parser.getTable().size()) {
+                        PipelineMetrics.PARSE_ERRORS.incrementAndGet();
+                        throw new IOException( "Feed lists " + count + " events but holds "
+                                + parser.getTable().size() );
+                    }
+                    return new Feed( parser.getTable().asList(), parser.getGeneratedAt() );
+                }
+            };
+
+    private final EarthquakeStore mStore;
+    private final Context mContext;
+
+    /** The window polled last, and when; 0 until the first poll of a window. */
+    private String mSyncKey;
+    private long mLastPollAt;
+
+    public LiveFeed(Context context) {
+        mContext = context.getApplicationContext();
+        mStore = EarthquakeStore.getInstance( mContext );
+    }
+
+    /**
+     * Fetches the feed for the query's magnitude floor and brings the store up to date with
+     * it. Call from a background thread, one poll at a time.
+     *
+     * @return what changed, already applied to the store, with the inserted and updated
+     *         events formatted for display; or null if it has been too long since the
+     *         window was last current for any feed to cover, in which case the window was
+     *         synced in full and should be loaded again
+     * @throws IOException if the feed could not be fetched
+     */
+    public FeedDelta poll(EarthquakeQuery query) throws IOException {
+        long now = System.currentTimeMillis();
+        String syncKey = query.getSyncKey();
+        if (!syncKey.equals( mSyncKey )) {
+            mSyncKey = syncKey;
+            mLastPollAt = mStore.getSyncedAt( syncKey );
+        }
+
+        int period = periodFor( now - mLastPollAt + MARGIN_MILLIS );
+        if (mLastPollAt <= 0 || period < 0) {
+            if (!EarthquakeSync.sync( mContext, query, 0 )) {
+                throw new IOException( "Could not sync " + syncKey );
+            }
+            mLastPollAt = now;
+            return null;
+        }
+
+        int level = levelFor( query.getMinMagnitude() );
+        URL url = new URL( feedUrl( level, period ) );
+        // Only conditional once this feed's last response has been applied.
+        Feed feed = UsgsHttpClient.get( url, true, FEED_PARSER );
+        long feedStart = now - PERIOD_MILLIS[period];
+        double floor = level < LEVELS.length ? LEVELS[level] : -Double.MAX_VALUE;
+        if (feed == null) {
+            // Unchanged since it was last applied, so the store holds all of it.
+            QueryPlanner.record( mStore, floor, feedStart + MARGIN_MILLIS, now, now );
+            mLastPollAt = now;
+            return FeedDelta.EMPTY;
+        }
+
+        // Events held from after the feed was built are not missing from it.
+        long asOf = feed.generatedAt > 0 ? Math.min( feed.generatedAt, now ) : now;
+        QuakeList held = mStore.query( floor, feedStart, EarthquakeQuery.ORDER_BY_TIME,
+                0, Integer.MAX_VALUE );
+        FeedDelta delta = FeedDelta.compute( feed.events, held, feedStart + MARGIN_MILLIS, asOf );
+
+        if (!delta.isEmpty()) {
+            List<QuakeDescription> changed = new ArrayList<>( delta.getInserted() );
+            changed.addAll( delta.getUpdated() );
+            mStore.upsert( changed );
+            mStore.delete( delta.getDeletedIds() );
+            EarthquakeAlerts.check( mContext, changed );
+            QuakeFormatter.prepareAll( delta.getInserted() );
+            QuakeFormatter.prepareAll( delta.getUpdated() );
+        }
+        QueryPlanner.record( mStore, floor, feedStart + MARGIN_MILLIS, asOf, asOf );
+        mLastPollAt = now;
+        if (Log.isLoggable( LOG_TAG, Log.DEBUG )) {
+            Log.d( LOG_TAG, "Poll " + url + ": " + delta.getInserted().size() + " new, "
+                    + delta.getUpdated().size() + " updated, " + delta.getDeletedIds().size()
+                    + " deleted" );
+        }
+        return delta;
+    }
+
+    /** Index of the shortest period at least {@code millis} long, or -1 if none is. */
+    static int periodFor(long millis) {
+        for (int i = 0; i < PERIOD_MILLIS.length; i++) {
+            if (millis <= PERIOD_MILLIS[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Index of the highest feed floor at or below {@code minMagnitude}, or
+     * {@code LEVELS.length} for the feed of every event.
+     */
+    static int levelFor(double minMagnitude) {
+        int level = 0;
+        while (level < LEVELS.length && LEVELS[level] > minMagnitude) {
+            level++;
+        }
+        return level;
+    }
+
+    static String feedUrl(int level, int period) {
+        String levelName = level < LEVEL_NAMES.length ? LEVEL_NAMES[level] : LEVEL_ALL;
+        return SUMMARY_FEED_URL + levelName + "_" + PERIOD_NAMES[period] + ".geojson";
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.android.quakereport;
+
+/**
+ * Picks the size of the next page of earthquakes from how long the previous pages took.
+ *
+ * The goal is for each page fetch to take about {@link #TARGET_LATENCY_MILLIS}: fast
+ * networks get bigger pages and fewer round trips, slow ones get smaller pages so the
+ * next rows still arrive before the user reaches the end of the list.
+ */
+public final class PageSizer {
+
+    private static final long TARGET_LATENCY_MILLIS = 800;
+    private static final int MIN_PAGE_SIZE = 10;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int INITIAL_PAGE_SIZE = 20;
+
+    /** Weight of the newest sample in the moving average. */
+    private static final double SMOOTHING = 0.3;
+
+    /** Smoothed fetch cost per event; 0 until the first measurement. */
+    private double mMillisPerEvent = 0;
+    private int mPageSize = INITIAL_PAGE_SIZE;
+
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /** Records how long a page of {@code eventCount} events took to fetch. */
+    public void record(long latencyMillis, int eventCount) {
+        if (eventCount <= 0) {
+            return;
+        }
+        double sample = (double) latencyMillis / eventCount;
+        mMillisPerEvent = mMillisPerEvent == 0
+                ? sample
+                : SMOOTHING * sample + (1 - SMOOTHING) * mMillisPerEvent;
+        int size = mMillisPerEvent <= 0
+                ? MAX_PAGE_SIZE
+                : (int) (TARGET_LATENCY_MILLIS / mMillisPerEvent);
+        mPageSize = Math.max( MIN_PAGE_SIZE, Math.min( MAX_PAGE_SIZE, size ) );
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time and bytes of a load go, from the connection to the bound row.
+ *
+ * Every stage records into a {@link LatencyHistogram} and every event of interest bumps a
+ * counter. Both are lock-free and allocation-free, so the metrics stay on in release
+ * builds; {@link #dump(Appendable)} and {@link #writeDump(Context)} turn them into text
+ * for a bug report or the debug screen.
+ */
+public final class PipelineMetrics {
+
+    /** DNS lookup, TCP and TLS handshakes: up to the request being sent. */
+    public static final LatencyHistogram CONNECT = new LatencyHistogram( "connect" );
+
+    /** From the request being sent to the response headers. */
+    public static final LatencyHistogram TIME_TO_FIRST_BYTE = new LatencyHistogram( "ttfb" );
+
+    /** Time spent waiting for body bytes from the network. */
+    public static final LatencyHistogram DOWNLOAD = new LatencyHistogram( "download" );
+
+    /**
+     * Time spent decoding and parsing the body. Parsing runs as the bytes arrive, so this is
+     * the body time not spent waiting on the network.
+     */
+    public static final LatencyHistogram PARSE = new LatencyHistogram( "parse" );
+
+    /** A whole {@link EarthquakeLoader#loadInBackground()}. */
+    public static final LatencyHistogram LOAD = new LatencyHistogram( "load" );
+
+    /** Reading the {@link QuakeSnapshot} shown on a cold start. */
+    public static final LatencyHistogram SNAPSHOT = new LatencyHistogram( "snapshot" );
+
+    /** Looking up a place search in the {@link PlaceIndex}. */
+    public static final LatencyHistogram SEARCH = new LatencyHistogram( "search" );
+
+    /** From tapping a row to its detail being shown, whether cached or fetched. */
+    public static final LatencyHistogram DETAIL = new LatencyHistogram( "detail" );
+
+    /** A whole {@link QuakeExporter#export}, however many events it wrote. */
+    public static final LatencyHistogram EXPORT = new LatencyHistogram( "export" );
+
+    /** Putting a delivered result into the adapter, on the UI thread. */
+    public static final LatencyHistogram DELIVER = new LatencyHistogram( "deliver" );
+
+    /** Binding one list row in {@link QuakeAdapter#getView}. */
+    public static final LatencyHistogram BIND = new LatencyHistogram( "bind" );
+
+    /** Sampling and drawing one frame of the {@link TimelineView}. */
+    public static final LatencyHistogram TIMELINE = new LatencyHistogram( "timeline" );
+
+    /** Requests that reached the server. */
+    public static final AtomicLong REQUESTS = new AtomicLong();
+
+    /** Requests that failed: no connection, an error status, or a broken body. */
+    public static final AtomicLong REQUEST_ERRORS = new AtomicLong();
+
+    /** Conditional requests answered with 304 Not Modified. */
+    public static final AtomicLong NOT_MODIFIED = new AtomicLong();
+
+    /** Response body bytes as transferred, i.e. before gzip decoding. */
+    public static final AtomicLong BYTES_ON_WIRE = new AtomicLong();
+
+    /** Response body bytes after gzip decoding. */
+    public static final AtomicLong BYTES_DECODED = new AtomicLong();
+
+    public static final AtomicLong EVENTS_PARSED = new AtomicLong();
+
+    /** Responses whose body was not valid JSON. */
+    public static final AtomicLong PARSE_ERRORS = new AtomicLong();
+
+    /** Responses whose body could not be read to the end, e.g. the connection dropped. */
+    public static final AtomicLong READ_ERRORS = new AtomicLong();
+
+    /**
+     * Loads answered without a request: a loader's cached result, a window synced recently
+     * enough, or a preference change the index covers.
+     */
+    public static final AtomicLong CACHE_HITS = new AtomicLong();
+
+    /** Requests that joined an identical one already running instead of making their own. */
+    public static final AtomicLong SHARED_REQUESTS = new AtomicLong();
+
+    /** Blocks of list rows let go of to stay within the {@link QuakeWindow} budget. */
+    public static final AtomicLong WINDOW_EVICTIONS = new AtomicLong();
+
+    /** Evicted blocks read back from their spill file because they were needed again. */
+    public static final AtomicLong WINDOW_RELOADS = new AtomicLong();
+
+    /** Event details opened or prefetched that {@link DetailCache} had in memory. */
+    public static final AtomicLong DETAIL_MEMORY_HITS = new AtomicLong();
+
+    /** Event details that {@link DetailCache} read back from disk. */
+    public static final AtomicLong DETAIL_DISK_HITS = new AtomicLong();
+
+    /** Event details fetched from USGS, for the user or ahead of them. */
+    public static final AtomicLong DETAIL_FETCHES = new AtomicLong();
+
+    /** Of those, the ones {@link DetailPrefetcher} asked for. */
+    public static final AtomicLong DETAIL_PREFETCHES = new AtomicLong();
+
+    /** Queries {@link QueryPlanner} found already fetched in full. */
+    public static final AtomicLong PLANNER_HITS = new AtomicLong();
+
+    /** Queries of which it found part fetched, so only the rest was. */
+    public static final AtomicLong PLANNER_PARTIAL = new AtomicLong();
+
+    /** Queries none of which had been fetched. */
+    public static final AtomicLong PLANNER_MISSES = new AtomicLong();
+
+    /** Requests not made because {@link QueryPlanner} found their events already held. */
+    public static final AtomicLong REQUESTS_AVOIDED = new AtomicLong();
+
+    private static final LatencyHistogram[] HISTOGRAMS = {
+            CONNECT, TIME_TO_FIRST_BYTE, DOWNLOAD, PARSE, LOAD, SNAPSHOT, SEARCH, DETAIL,
+            EXPORT, DELIVER, BIND, TIMELINE
+    };
+
+    private static final String DUMP_FILE = "pipeline_metrics.txt";
+
+    private PipelineMetrics() {
+    }
+
+    /** Writes every histogram and counter as a plain-text table. */
+    public static void dump(Appendable out) throws IOException {
+        out.append( String.format( Locale.US, "%-10s %8s %10s %10s %10s %10s %10s%n",
+                "stage", "count", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms" ) );
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            out.append( String.format( Locale.US, "%-10s %8d %10.2f %10.2f %10.2f %10.2f %10.2f%n",
+                    histogram.getName(), histogram.getCount(),
+                    histogram.getMeanMicros() / 1000.0,
+                    histogram.getPercentileMicros( 0.50 ) / 1000.0,
+                    histogram.getPercentileMicros( 0.90 ) / 1000.0,
+                    histogram.getPercentileMicros( 0.99 ) / 1000.0,
+                    histogram.getMaxMicros() / 1000.0 ) );
+        }
+        out.append( '\n' );
+        appendCounter( out, "requests", REQUESTS );
+        appendCounter( out, "request errors", REQUEST_ERRORS );
+        appendCounter( out, "not modified", NOT_MODIFIED );
+        appendCounter( out, "bytes on wire", BYTES_ON_WIRE );
+        appendCounter( out, "bytes decoded", BYTES_DECODED );
+        appendCounter( out, "events parsed", EVENTS_PARSED );
+        appendCounter( out, "parse errors", PARSE_ERRORS );
+        appendCounter( out, "read errors", READ_ERRORS );
+        appendCounter( out, "cache hits", CACHE_HITS );
+        appendCounter( out, "shared requests", SHARED_REQUESTS );
+        appendCounter( out, "window evictions", WINDOW_EVICTIONS );
+        appendCounter( out, "window reloads", WINDOW_RELOADS );
+        appendCounter( out, "detail mem hits", DETAIL_MEMORY_HITS );
+        appendCounter( out, "detail disk hits", DETAIL_DISK_HITS );
+        appendCounter( out, "detail fetches", DETAIL_FETCHES );
+        appendCounter( out, "detail prefetch", DETAIL_PREFETCHES );
+        appendCounter( out, "planner hits", PLANNER_HITS );
+        appendCounter( out, "planner partial", PLANNER_PARTIAL );
+        appendCounter( out, "planner misses", PLANNER_MISSES );
+        out.append( String.format( Locale.US, "%-16s %.1f%%%n", "planner hit rate",
+                QueryPlanner.getHitRate() * 100 ) );
+        appendCounter( out, "requests avoided", REQUESTS_AVOIDED );
+    }
+
+    /** Returns {@link #dump(Appendable)} as a String. */
+    public static String dumpToString() {
+        StringBuilder out = new StringBuilder();
+        try {
+            dump( out );
+        } catch (IOException e) {
+            // A StringBuilder does not throw.
+        }
+        return out.toString();
+    }
+
+    /** Writes the dump to a file in the app's private storage and returns the file. */
+    public static File writeDump(Context context) throws IOException {
+        File file = new File( context.getFilesDir(), DUMP_FILE );
+        Writer out = new FileWriter( file );
+        try {
+            out.write( "Pipeline metrics at " + System.currentTimeMillis() + "\n\n" );
+            dump( out );
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /** Clears every histogram and counter. */
+    public static void reset() {
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+        AtomicLong[] counters = {REQUESTS, REQUEST_ERRORS, NOT_MODIFIED, BYTES_ON_WIRE,
+                BYTES_DECODED, EVENTS_PARSED, PARSE_ERRORS, READ_ERRORS, CACHE_HITS, SHARED_REQUESTS,
+                WINDOW_EVICTIONS, WINDOW_RELOADS, DETAIL_MEMORY_HITS, DETAIL_DISK_HITS,
+                DETAIL_FETCHES, DETAIL_PREFETCHES, PLANNER_HITS, PLANNER_PARTIAL, PLANNER_MISSES,
+                REQUESTS_AVOIDED};
+        for (AtomicLong counter : counters) {
+            counter.set( 0 );
+        }
+    }
+
+    private static void appendCounter(Appendable out, String name, AtomicLong counter)
+            throws IOException {
+        out.append( String.format( Locale.US, "%-16s %d%n", name, counter.get() ) );
+    }
+}
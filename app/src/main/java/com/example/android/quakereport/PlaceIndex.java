@@ -0,0 +1,313 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * A search index over the place names of the stored events, kept up to date as events are
+ * put and removed, for search as you type.
+ *
+ * The "12 km SSW of" offset is stripped from each place, and what remains, such as
+ * "Anchorage, Alaska", is interned once however many events share it. Its words are
+ * lowercased into a sorted token dictionary that maps each token to the places containing
+ * it, so the places matching a prefix are one range of the dictionary. Each place keeps its
+ * events largest first.
+ *
+ * {@link #search} treats every word of the query as a prefix and returns the events of the
+ * places that match all of them. Places matching whole words rank above places matching
+ * only prefixes, and a place's own words above its region's; ties go to the larger, then
+ * later event. Only as many events as asked for are visited, so a search costs about the
+ * number of matching places, not the number of matching events.
+ *
+ * Thread-safe; {@link EarthquakeStore} feeds it from whichever thread writes the store.
+ */
+public final class PlaceIndex {
+
+    /** The "N km DIR of " prefix USGS puts before the place an event is near. */
+    private static final Pattern OFFSET = Pattern.compile(
+            "^\\s*\\d+(\\.\\d+)?\\s*km\\s+[NSEW]{1,3}\\s+of\\s+", Pattern.CASE_INSENSITIVE );
+
+    private static final Pattern NON_WORD = Pattern.compile( "[^\\p{L}\\p{N}]+" );
+
+    /** Score of a query word matching a whole word of the place, and only a prefix of one. */
+    private static final int WORD_MATCH = 4;
+    private static final int PREFIX_MATCH = 2;
+
+    /** Added when the word matched is in the place name itself, before the region. */
+    private static final int NAME_BONUS = 1;
+
+    /** One stored event. */
+    private static final class Entry {
+        final String id;
+        final double magnitude;
+        final long time;
+        final Place place;
+
+        Entry(String id, double magnitude, long time, Place place) {
+            this.id = id;
+            this.magnitude = magnitude;
+            this.time = time;
+            this.place = place;
+        }
+    }
+
+    /** Largest first, then latest first, then by id so distinct events never tie. */
+    private static final Comparator<Entry> LARGEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            int order = Double.compare( b.magnitude, a.magnitude );
+            if (order == 0) {
+                order = a.time > b.time ? -1 : (a.time < b.time ? 1 : 0);
+            }
+            return order != 0 ? order : a.id.compareTo( b.id );
+        }
+    };
+
+    /** One interned place name and its events. */
+    private static final class Place {
+        final String name;
+
+        /** Tokens of the name before its last comma; the rest are the region's. */
+        final int nameTokens;
+        final String[] tokens;
+        final TreeSet<Entry> entries = new TreeSet<>( LARGEST_FIRST );
+
+        Place(String name) {
+            this.name = name;
+            int comma = name.lastIndexOf( ',' );
+            String[] head = tokenize( comma < 0 ? name : name.substring( 0, comma ) );
+            String[] region = comma < 0 ? new String[0] : tokenize( name.substring( comma + 1 ) );
+            tokens = new String[head.length + region.length];
+            System.arraycopy( head, 0, tokens, 0, head.length );
+            System.arraycopy( region, 0, tokens, head.length, region.length );
+            nameTokens = head.length;
+        }
+    }
+
+    /** A place's events while {@link #search} merges them, with the place's score. */
+    private static final class Cursor {
+        final int score;
+        final Iterator<Entry> entries;
+        Entry head;
+
+        Cursor(int score, Iterator<Entry> entries) {
+            this.score = score;
+            this.entries = entries;
+            head = entries.next();
+        }
+    }
+
+    /** Higher score first, then larger and later event first. */
+    private static final Comparator<Cursor> BEST_FIRST = new Comparator<Cursor>() {
+        @Override
+        public int compare(Cursor a, Cursor b) {
+            if (a.score != b.score) {
+                return a.score > b.score ? -1 : 1;
+            }
+            return LARGEST_FIRST.compare( a.head, b.head );
+        }
+    };
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private final Map<String, Place> mPlaces = new HashMap<>();
+
+    /** Token to the places that contain it; sorted, so a prefix is a sub-map. */
+    private final TreeMap<String, List<Place>> mTokens = new TreeMap<>();
+
+    /**
+     * The place an event is near, without the distance and direction: "Anchorage, Alaska"
+     * for "12 km SSW of Anchorage, Alaska".
+     */
+    public static String placeName(String place) {
+        if (place == null) {
+            return "";
+        }
+        return OFFSET.matcher( place ).replaceFirst( "" ).trim();
+    }
+
+    /** Lowercased words of the text, without punctuation. */
+    static String[] tokenize(String text) {
+        String[] words = NON_WORD.split( text.toLowerCase( Locale.US ) );
+        List<String> tokens = new ArrayList<>( words.length );
+        for (String word : words) {
+            if (!word.isEmpty()) {
+                tokens.add( word );
+            }
+        }
+        return tokens.toArray( new String[tokens.size()] );
+    }
+
+    /** Adds an event, or moves it if an earlier version of it was elsewhere. */
+    public synchronized void put(String id, double magnitude, long time, String place) {
+        if (id == null) {
+            return;
+        }
+        remove( id );
+        String name = placeName( place );
+        Place interned = mPlaces.get( name );
+        if (interned == null) {
+            interned = new Place( name );
+            mPlaces.put( name, interned );
+            String[] tokens = interned.tokens;
+            for (int i = 0; i < tokens.length; i++) {
+                if (indexOf( tokens, tokens[i] ) < i) {
+                    // A word the name repeats is listed once.
+                    continue;
+                }
+                List<Place> places = mTokens.get( tokens[i] );
+                if (places == null) {
+                    places = new ArrayList<>( 2 );
+                    mTokens.put( tokens[i], places );
+                }
+                places.add( interned );
+            }
+        }
+        Entry entry = new Entry( id, magnitude, time, interned );
+        interned.entries.add( entry );
+        mEntries.put( id, entry );
+    }
+
+    public synchronized void putAll(List<QuakeDescription> earthquakes) {
+        for (QuakeDescription quake : earthquakes) {
+            put( quake.getId(), quake.getMagnitude(), quake.getmTimeInMilliSeconds(),
+                    quake.getQuakePlace() );
+        }
+    }
+
+    public synchronized void remove(String id) {
+        Entry old = mEntries.remove( id );
+        if (old != null) {
+            subtract( old );
+        }
+    }
+
+    /** Removes every event that happened before {@code time}; scans all events. */
+    public synchronized void removeOlderThan(long time) {
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.time < time) {
+                entries.remove();
+                subtract( entry );
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mPlaces.clear();
+        mTokens.clear();
+    }
+
+    /** Number of events indexed. */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /** Number of distinct place names. */
+    public synchronized int getPlaceCount() {
+        return mPlaces.size();
+    }
+
+    /**
+     * Returns the ids of up to {@code limit} events at or above {@code minMagnitude} whose
+     * place matches every word of {@code query} as a prefix, best match first.
+     */
+    public synchronized List<String> search(String query, double minMagnitude, int limit) {
+        String[] words = tokenize( query );
+        if (words.length == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // Score every place matching the first word, then keep those matching the rest.
+        Map<Place, Integer> scores = match( words[0], null );
+        for (int i = 1; i < words.length && !scores.isEmpty(); i++) {
+            scores = match( words[i], scores );
+        }
+
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>( Math.max( 1, scores.size() ),
+                BEST_FIRST );
+        for (Map.Entry<Place, Integer> scored : scores.entrySet()) {
+            Place place = scored.getKey();
+            if (place.entries.first().magnitude >= minMagnitude) {
+                cursors.add( new Cursor( scored.getValue(), place.entries.iterator() ) );
+            }
+        }
+        List<String> ids = new ArrayList<>( Math.min( limit, 256 ) );
+        while (ids.size() < limit && !cursors.isEmpty()) {
+            Cursor best = cursors.poll();
+            ids.add( best.head.id );
+            if (best.entries.hasNext()) {
+                best.head = best.entries.next();
+                // Largest first, so once below the floor the rest of the place is too.
+                if (best.head.magnitude >= minMagnitude) {
+                    cursors.add( best );
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Scores the places containing a token that starts with {@code word}. With
+     * {@code within}, only those places are kept and their scores added to.
+     */
+    private Map<Place, Integer> match(String word, Map<Place, Integer> within) {
+        Map<Place, Integer> scores = new HashMap<>();
+        for (Map.Entry<String, List<Place>> token
+                : mTokens.subMap( word, true, word + Character.MAX_VALUE, false ).entrySet()) {
+            boolean whole = token.getKey().length() == word.length();
+            for (Place place : token.getValue()) {
+                Integer previous = within == null ? Integer.valueOf( 0 ) : within.get( place );
+                if (previous == null) {
+                    continue;
+                }
+                int score = previous + score( place, token.getKey(), whole );
+                Integer best = scores.get( place );
+                if (best == null || score > best) {
+                    scores.put( place, score );
+                }
+            }
+        }
+        return scores;
+    }
+
+    private static int score(Place place, String token, boolean whole) {
+        int score = whole ? WORD_MATCH : PREFIX_MATCH;
+        return indexOf( place.tokens, token ) < place.nameTokens ? score + NAME_BONUS : score;
+    }
+
+    private static int indexOf(String[] tokens, String token) {
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].equals( token )) {
+                return i;
+            }
+        }
+        return tokens.length;
+    }
+
+    private void subtract(Entry entry) {
+        Place place = entry.place;
+        place.entries.remove( entry );
+        if (!place.entries.isEmpty()) {
+            return;
+        }
+        mPlaces.remove( place.name );
+        for (String token : place.tokens) {
+            List<Place> places = mTokens.get( token );
+            // A repeated word was listed once and is gone after the first pass.
+            if (places != null && places.remove( place ) && places.isEmpty()) {
+                mTokens.remove( token );
+            }
+        }
+    }
+}
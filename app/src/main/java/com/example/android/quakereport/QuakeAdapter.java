@@ -5,136 +5,338 @@ import android.graphics.drawable.GradientDrawable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
+import android.util.SparseIntArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.SimpleTimeZone;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Created by sagar on 21/12/17.
  */
 
-public class QuakeAdapter extends ArrayAdapter<QuakeDescription> {
+public class QuakeAdapter extends BaseAdapter {
 
-    public QuakeAdapter(@NonNull Activity context, @NonNull ArrayList<QuakeDescription> objects) {
-        super( context, 0, objects );
+    private final Activity mContext;
+
+    /** Resolved colors, keyed by color resource id. */
+    private final SparseIntArray mColors = new SparseIntArray();
+
+    /**
+     * The rows shown, held within a memory budget; rows of evicted blocks show as
+     * placeholders while they are read back.
+     */
+    private final QuakeWindow mWindow;
+
+    /** Bumped on every change, so a diff computed against an older snapshot is refused. */
+    private int mVersion = 0;
+
+    /** Most rows {@link #mFormatted} holds before it is started again. */
+    private static final int FORMATTED_ROWS = 64;
+
+    /**
+     * Copies of rows that reached {@link #getView} without their text, formatted here. The
+     * rows shown belong to tables other threads read, so they are never written from the UI
+     * thread; only this adapter touches this table.
+     */
+    private QuakeTable mFormatted = new QuakeTable();
+
+    public QuakeAdapter(@NonNull Activity context, @NonNull QuakeWindow window) {
+        mContext = context;
+        mWindow = window;
+        mWindow.setListener( new QuakeWindow.Listener() {
+            @Override
+            public void onRowsReloaded() {
+                // Rows shown as placeholders are bound again now their event is back.
+                notifyDataSetChanged();
+            }
+        } );
+    }
+
+    public Activity getContext() {
+        return mContext;
+    }
+
+    public QuakeWindow getWindow() {
+        return mWindow;
+    }
+
+    /** Appends earthquakes to the end of the list. */
+    public void addAll(List<QuakeDescription> earthquakes) {
+        if (earthquakes.isEmpty()) {
+            return;
+        }
+        mWindow.append( earthquakes );
+        mVersion++;
+        notifyDataSetChanged();
+    }
+
+    public void clear() {
+        mWindow.clear();
+        mVersion++;
+        notifyDataSetChanged();
+    }
+
+    /** Identifies the current contents for {@link #applyDiff}. */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Returns the rows shown now, as a list that later changes to the adapter don't affect,
+     * so it can be diffed on another thread.
+     */
+    public List<QuakeDescription> getSnapshot() {
+        return mWindow.snapshot();
+    }
+
+    /**
+     * Replaces the rows with {@code earthquakes}, given their {@link ListDiff} from the
+     * snapshot taken at {@code version}. Nothing happens if the diff is empty. Otherwise the
+     * list is told once; {@link ListDiff#getNewPosition} says where its rows went, so the
+     * caller can keep the first visible event in place.
+     *
+     * @return false if the adapter changed since {@code version} and the diff no longer
+     *         applies
+     */
+    public boolean applyDiff(List<QuakeDescription> earthquakes, ListDiff diff, int version) {
+        if (version != mVersion) {
+            return false;
+        }
+        if (diff.isEmpty()) {
+            return true;
+        }
+        mWindow.clear();
+        if (earthquakes.isEmpty()) {
+            mVersion++;
+            notifyDataSetChanged();
+        } else {
+            addAll( earthquakes );
+        }
+        return true;
+    }
+
+    /**
+     * Returns {@code rows} with what a {@link LiveFeed} poll found applied: deleted events
+     * leave the list, updated ones move to where they now belong, and new ones at or above
+     * {@code minMagnitude} are merged in {@code orderBy} order. The result refers to the
+     * rows rather than copying them; pass it to {@link #applyDiff}, which copies it into the
+     * window within its budget.
+     *
+     * Reads every row, so run it off the UI thread on a {@link #getSnapshot}.
+     *
+     * @param complete true if the list holds every matching event. Otherwise it is a prefix
+     *                 of them, and events that sort after its last row are left for a later
+     *                 page, so page offsets keep matching the store.
+     * @throws IllegalStateException if an evicted block of the snapshot cannot be read back
+     */
+    public static List<QuakeDescription> merge(List<QuakeDescription> rows, FeedDelta delta,
+                                               double minMagnitude, String orderBy,
+                                               boolean complete) {
+        Set<String> removed = new HashSet<>( delta.getDeletedIds() );
+        List<QuakeDescription> added = new ArrayList<>();
+        for (QuakeDescription quake : delta.getUpdated()) {
+            removed.add( quake.getId() );
+        }
+        added.addAll( delta.getUpdated() );
+        added.addAll( delta.getInserted() );
+        for (int i = added.size() - 1; i >= 0; i--) {
+            if (added.get( i ).getMagnitude() < minMagnitude) {
+                added.remove( i );
+            }
+        }
+        Comparator<QuakeDescription> order = EarthquakeQuery.ORDER_BY_TIME.equals( orderBy )
+                ? BY_TIME : BY_MAGNITUDE;
+        Collections.sort( added, order );
+
+        // Both sides are in order, so one merge pass rebuilds the list.
+        List<QuakeDescription> merged = new ArrayList<>( rows.size() + added.size() );
+        int next = 0;
+        QuakeDescription last = null;
+        for (QuakeDescription quake : rows) {
+            if (removed.contains( quake.getId() )) {
+                continue;
+            }
+            while (next < added.size() && order.compare( added.get( next ), quake ) < 0) {
+                merged.add( added.get( next++ ) );
+            }
+            merged.add( quake );
+            last = quake;
+        }
+        while (next < added.size()
+                && (complete || last == null || order.compare( added.get( next ), last ) < 0)) {
+            merged.add( added.get( next++ ) );
+        }
+        return merged;
+    }
+
+    /** Latest first, the order of {@link EarthquakeQuery#ORDER_BY_TIME}. */
+    private static final Comparator<QuakeDescription> BY_TIME = new Comparator<QuakeDescription>() {
+        @Override
+        public int compare(QuakeDescription a, QuakeDescription b) {
+            long timeA = a.getmTimeInMilliSeconds();
+            long timeB = b.getmTimeInMilliSeconds();
+            return timeA > timeB ? -1 : (timeA < timeB ? 1 : 0);
+        }
+    };
+
+    /** Largest first, then latest first, the order of {@link EarthquakeQuery#ORDER_BY_MAGNITUDE}. */
+    private static final Comparator<QuakeDescription> BY_MAGNITUDE = new Comparator<QuakeDescription>() {
+        @Override
+        public int compare(QuakeDescription a, QuakeDescription b) {
+            int magnitude = Double.compare( b.getMagnitude(), a.getMagnitude() );
+            return magnitude != 0 ? magnitude : BY_TIME.compare( a, b );
+        }
+    };
+
+    @Override
+    public int getCount() {
+        return mWindow.size();
+    }
+
+    @Override
+    public QuakeDescription getItem(int position) {
+        return mWindow.get( position );
+    }
+
+    /** A hash of the USGS event id, so the list can follow an event as rows move. */
+    @Override
+    public long getItemId(int position) {
+        String id = getItem( position ).getId();
+        if (id == null) {
+            return position;
+        }
+        // 64-bit FNV-1a; collisions among a few thousand ids are vanishingly unlikely.
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt( i );
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    /** Views of one list row, looked up once when the row is inflated. */
+    private static class ViewHolder {
+        final TextView magnitudeTv;
+        final GradientDrawable magnitudeCircle;
+        final TextView placeTv;
+        final TextView placeOffsetTv;
+        final TextView dateTv;
+        final TextView timeTv;
+
+        /** The earthquake this row currently shows. */
+        QuakeDescription bound;
+
+        /** True if the row already shows this event as last updated. */
+        boolean isShowing(QuakeDescription quake) {
+            if (bound == null) {
+                return false;
+            }
+            String id = quake.getId();
+            if (id == null) {
+                return quake.equals( bound );
+            }
+            // A refresh brings new rows for the same events; those need no binding either.
+            return id.equals( bound.getId() ) && quake.getUpdated() == bound.getUpdated();
+        }
+
+        ViewHolder(View listItemView) {
+            magnitudeTv = (TextView) listItemView.findViewById( R.id.magnitude );
+            magnitudeCircle = (GradientDrawable) magnitudeTv.getBackground();
+            placeTv = (TextView) listItemView.findViewById( R.id.primary_location );
+            placeOffsetTv = (TextView) listItemView.findViewById( R.id.location_offset );
+            dateTv = (TextView) listItemView.findViewById( R.id.date );
+            timeTv = (TextView) listItemView.findViewById( R.id.time );
+        }
     }
 
     @NonNull
     @Override
     public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
 
+        long start = System.nanoTime();
         View listItemView = convertView;
+        final QuakeDescription currentDes = getItem( position );
 
+        ViewHolder holder;
         if (listItemView == null) {
             listItemView = LayoutInflater.from( getContext() ).inflate(
                     R.layout.item_view, parent, false );
+            holder = new ViewHolder( listItemView );
+            listItemView.setTag( holder );
+        } else {
+            holder = (ViewHolder) listItemView.getTag();
         }
 
-        final QuakeDescription currentDes = getItem( position );
+        // Appending a page or applying a diff makes the ListView ask again for every visible
+        // row. A row that is already showing this event doesn't need to be bound a second time.
+        if (holder.isShowing( currentDes )) {
+            return listItemView;
+        }
+        holder.bound = currentDes;
 
-        TextView magnitudeTv = (TextView) listItemView.findViewById( R.id.magnitude );
-        TextView placeTv = (TextView) listItemView.findViewById( R.id.primary_location );
-        TextView placeOffsetTv = (TextView) listItemView.findViewById( R.id.location_offset );
-        TextView dateTv = (TextView) listItemView.findViewById( R.id.date );
-        TextView timeTv = (TextView) listItemView.findViewById( R.id.time );
+        QuakeDescription shown = formatted( currentDes );
 
         /**
          * setting the description of the quake
          * setting the magnitude
          */
-        double magnitude = currentDes.getMagnitude();
-        String mag = formatMagnitude( magnitude );
-        magnitudeTv.setText( mag );
+        holder.magnitudeTv.setText( shown.getMagnitudeText() );
 
         // Set the proper background color on the magnitude circle.
-        // Fetch the background from the TextView, which is a GradientDrawable.
-        GradientDrawable magnitudeCircle = (GradientDrawable) magnitudeTv.getBackground();
-
-        // Get the appropriate background color based on the current earthquake magnitude
-        int magnitudeColor = getMagnitudeColor(currentDes.getMagnitude());
-
-        // Set the color on the magnitude circle
-        magnitudeCircle.setColor( ContextCompat.getColor( getContext(), magnitudeColor ));
-
-        /**
-         * splitting the QuakePlace description into two strings
-         */
-
-        String quakePlace = currentDes.getQuakePlace();
-        int index = quakePlace.indexOf( "of" );
-
-        String place, place_offset;
-        if(index == -1){
-            place_offset = "Near of ";
-            place = quakePlace;
-        }
-        else{
-            place_offset = quakePlace.substring( 0, index+2 );
-            place = quakePlace.substring( index+3, quakePlace.length() );
-        }
-
-        placeTv.setText( place );
-        placeOffsetTv.setText( place_offset );
+        holder.magnitudeCircle.setColor( getColor( shown.getMagnitudeColor() ) );
 
         /**
-         * setting the date by converting the UNIX formatted milliseconds to human readable text
+         * the QuakePlace description split into two strings
          */
-
-        Date dateObject = new Date(currentDes.getmTimeInMilliSeconds());
-        String formattedDate = formatDate(dateObject);
-        dateTv.setText( formattedDate );
+        holder.placeTv.setText( shown.getPrimaryLocation() );
+        holder.placeOffsetTv.setText( shown.getLocationOffset() );
 
         /**
-         * setting the time by converting the UNIX formatted milliseconds to human readable text
+         * setting the date and time, already converted from the UNIX formatted milliseconds
          */
-        String formattedTime = formatTime(dateObject);
-        timeTv.setText( formattedTime );
+        holder.dateTv.setText( shown.getDateText() );
+        holder.timeTv.setText( shown.getTimeText() );
+        PipelineMetrics.BIND.recordNanos( System.nanoTime() - start );
         return listItemView;
     }
 
-    private String formatDate(Date dateObject) {
-        SimpleDateFormat date = new SimpleDateFormat( "LLL dd, yyyy" );
-        return date.format( dateObject );
-    }
-
-    private String formatTime(Date dateObject){
-        SimpleDateFormat time = new SimpleDateFormat( "h:mm:ss" );
-        return time.format( dateObject );
-    }
-    private String formatMagnitude(double magnitude) {
-        DecimalFormat magnitudeFormat = new DecimalFormat("0.0");
-        return magnitudeFormat.format(magnitude);
-    }
-    private int getMagnitudeColor(double mag){
-        switch ((int) mag){
-            case 1:
-                return R.color.magnitude1;
-            case 2:
-                return R.color.magnitude2;
-            case 3:
-                return R.color.magnitude3;
-            case 4:
-                return R.color.magnitude4;
-            case 5:
-                return R.color.magnitude5;
-            case 6:
-                return R.color.magnitude6;
-            case 7:
-                return R.color.magnitude7;
-            case 8:
-                return R.color.magnitude8;
-            case 9:
-                return R.color.magnitude9;
-            default:
-                return R.color.magnitude10plus;
+    /**
+     * Returns {@code quake} if its text was prepared off the UI thread, as the loader and the
+     * other sources of rows do, and otherwise a formatted copy of it.
+     */
+    private QuakeDescription formatted(QuakeDescription quake) {
+        if (quake.isPrepared()) {
+            return quake;
+        }
+        if (mFormatted.size() >= FORMATTED_ROWS) {
+            mFormatted = new QuakeTable();
+        }
+        int row = mFormatted.appendRow( quake.getTable(), quake.getRow() );
+        QuakeDescription copy = mFormatted.get( row );
+        QuakeFormatter.prepare( copy );
+        return copy;
+    }
+
+    private int getColor(int colorRes) {
+        int color = mColors.get( colorRes, 0 );
+        if (color == 0) {
+            color = ContextCompat.getColor( getContext(), colorRes );
+            mColors.put( colorRes, color );
         }
+        return color;
     }
 }
@@ -2,34 +2,116 @@ package com.example.android.quakereport;
 
 /**
  * Created by sagar on 21/12/17.
+ *
+ * A view of one row of a {@link QuakeTable}. It holds no data of its own, so it is cheap
+ * to create whenever a row is read.
  */
 
 public class QuakeDescription {
-    private double magnitude;
-    private String quakePlace;
-    private long mTimeInMilliSeconds;
-    private String mUrl;
+    private final QuakeTable table;
+    private final int row;
 
-    public QuakeDescription(double magnitude, String quakePlace, long mTimeInMilliSeconds, String mUrl) {
-        this.mTimeInMilliSeconds = mTimeInMilliSeconds;
-        this.magnitude = magnitude;
-        this.quakePlace = quakePlace;
-        this.mUrl = mUrl;
+    QuakeDescription(QuakeTable table, int row) {
+        this.table = table;
+        this.row = row;
+    }
+
+    public QuakeTable getTable() {
+        return table;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    /** USGS event id, or null if the event came from a source without ids. */
+    public String getId() {
+        return table.getId( row );
     }
 
     public double getMagnitude() {
-        return magnitude;
+        return table.getMagnitude( row );
     }
 
     public long getmTimeInMilliSeconds() {
-        return mTimeInMilliSeconds;
+        return table.getTime( row );
+    }
+
+    /** Time the event was last updated by USGS, in epoch milliseconds. */
+    public long getUpdated() {
+        return table.getUpdated( row );
     }
 
     public String getQuakePlace() {
-        return quakePlace;
+        return table.getPlace( row );
     }
 
     public String getmUrl() {
-        return mUrl;
+        return table.getUrl( row );
+    }
+
+    public double getLongitude() {
+        return table.getLongitude( row );
+    }
+
+    public double getLatitude() {
+        return table.getLatitude( row );
+    }
+
+    /** Depth in kilometers. */
+    public double getDepth() {
+        return table.getDepth( row );
+    }
+
+    boolean isPrepared() {
+        return table.isPrepared( row );
+    }
+
+    void setDisplay(String magnitudeText, int magnitudeColor, String locationOffset,
+                    String primaryLocation, String dateText, String timeText) {
+        table.setDisplay( row, magnitudeText, magnitudeColor, locationOffset, primaryLocation,
+                dateText, timeText );
+    }
+
+    public String getMagnitudeText() {
+        return table.getMagnitudeText( row );
+    }
+
+    /** Color resource of the magnitude circle. */
+    public int getMagnitudeColor() {
+        return table.getMagnitudeColor( row );
+    }
+
+    /** The "30km S of" part of the place. */
+    public String getLocationOffset() {
+        return table.getLocationOffset( row );
+    }
+
+    /** The place without its offset. */
+    public String getPrimaryLocation() {
+        return table.getPrimaryLocation( row );
+    }
+
+    public String getDateText() {
+        return table.getDateText( row );
+    }
+
+    public String getTimeText() {
+        return table.getTimeText( row );
+    }
+
+    /** Two views are equal if they show the same row of the same table. */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof QuakeDescription)) {
+            return false;
+        }
+        QuakeDescription other = (QuakeDescription) o;
+        return table == other.table && row == other.row;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode( table ) * 31 + row;
     }
 }
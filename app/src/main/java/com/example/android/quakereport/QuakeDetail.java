@@ -0,0 +1,273 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What the detail screen shows of one event, read from its USGS detail GeoJSON: a single
+ * Feature like those of the feed, plus felt reports, intensities, the PAGER alert and the
+ * products the networks have contributed.
+ *
+ * Only the summary is kept. Product contents, which make up most of a large document, are
+ * skipped as they are read.
+ */
+public final class QuakeDetail {
+
+    private String mId;
+    private String mTitle;
+    private String mPlace;
+    private String mUrl;
+    private double mMagnitude;
+    private String mMagnitudeType;
+    private long mTime;
+    private long mUpdated;
+    private double mLongitude = Double.NaN;
+    private double mLatitude = Double.NaN;
+    private double mDepth = Double.NaN;
+    private int mFelt = -1;
+    private double mCdi = Double.NaN;
+    private double mMmi = Double.NaN;
+    private String mAlert;
+    private boolean mTsunami;
+    private String mStatus;
+    private int mSignificance = -1;
+
+    /** Product type to the number of versions contributed, in document order. */
+    private final Map<String, Integer> mProducts = new LinkedHashMap<>();
+
+    private QuakeDetail() {
+    }
+
+    /**
+     * Reads a detail document.
+     *
+     * @throws IOException if the body is not a detail Feature with an id
+     */
+    public static QuakeDetail parse(InputStream body) throws IOException {
+        JsonPullReader reader = new JsonPullReader(
+                new InputStreamReader( body, Charset.forName( "UTF-8" ) ) );
+        QuakeDetail detail = new QuakeDetail();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonPullReader.Token.NULL) {
+                reader.nextNull();
+            } else if ("id".equals( name )) {
+                detail.mId = reader.nextString();
+            } else if ("properties".equals( name )) {
+                detail.readProperties( reader );
+            } else if ("geometry".equals( name )) {
+                detail.readGeometry( reader );
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (detail.mId == null) {
+            throw new IOException( "Detail document without an id" );
+        }
+        return detail;
+    }
+
+    private void readProperties(JsonPullReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonPullReader.Token.NULL) {
+                reader.nextNull();
+            } else if ("mag".equals( name )) {
+                mMagnitude = reader.nextDouble();
+            } else if ("magType".equals( name )) {
+                mMagnitudeType = reader.nextString();
+            } else if ("place".equals( name )) {
+                mPlace = reader.nextString();
+            } else if ("title".equals( name )) {
+                mTitle = reader.nextString();
+            } else if ("time".equals( name )) {
+                mTime = reader.nextLong();
+            } else if ("updated".equals( name )) {
+                mUpdated = reader.nextLong();
+            } else if ("url".equals( name )) {
+                mUrl = reader.nextString();
+            } else if ("felt".equals( name )) {
+                mFelt = (int) reader.nextLong();
+            } else if ("cdi".equals( name )) {
+                mCdi = reader.nextDouble();
+            } else if ("mmi".equals( name )) {
+                mMmi = reader.nextDouble();
+            } else if ("alert".equals( name )) {
+                mAlert = reader.nextString();
+            } else if ("tsunami".equals( name )) {
+                mTsunami = reader.nextLong() != 0;
+            } else if ("status".equals( name )) {
+                mStatus = reader.nextString();
+            } else if ("sig".equals( name )) {
+                mSignificance = (int) reader.nextLong();
+            } else if ("products".equals( name )
+                    && reader.peek() == JsonPullReader.Token.BEGIN_OBJECT) {
+                readProducts( reader );
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /** Counts the versions of each product type without reading what they contain. */
+    private void readProducts(JsonPullReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String type = reader.nextName();
+            if (reader.peek() != JsonPullReader.Token.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            int count = 0;
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.skipValue();
+                count++;
+            }
+            reader.endArray();
+            mProducts.put( type, count );
+        }
+        reader.endObject();
+    }
+
+    private void readGeometry(JsonPullReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"coordinates".equals( reader.nextName() )
+                    || reader.peek() != JsonPullReader.Token.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            // GeoJSON orders coordinates as [longitude, latitude, depth].
+            reader.beginArray();
+            int index = 0;
+            while (reader.hasNext()) {
+                if (reader.peek() != JsonPullReader.Token.NUMBER) {
+                    reader.skipValue();
+                } else if (index == 0) {
+                    mLongitude = reader.nextDouble();
+                } else if (index == 1) {
+                    mLatitude = reader.nextDouble();
+                } else if (index == 2) {
+                    mDepth = reader.nextDouble();
+                } else {
+                    reader.skipValue();
+                }
+                index++;
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    /** USGS's own title, "M 6.1 - 12 km SSW of ...", or null. */
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public String getPlace() {
+        return mPlace;
+    }
+
+    /** The event page on the USGS website. */
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public double getMagnitude() {
+        return mMagnitude;
+    }
+
+    /** How the magnitude was measured, e.g. "mww" or "ml", or null. */
+    public String getMagnitudeType() {
+        return mMagnitudeType;
+    }
+
+    public long getTime() {
+        return mTime;
+    }
+
+    /** When USGS last changed the event; a list row updated later makes this stale. */
+    public long getUpdated() {
+        return mUpdated;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /** Depth in kilometres, or NaN. */
+    public double getDepth() {
+        return mDepth;
+    }
+
+    /** Number of "Did You Feel It?" reports, or -1 if there are none. */
+    public int getFeltReports() {
+        return mFelt;
+    }
+
+    /** Highest intensity reported by people who felt it, or NaN. */
+    public double getCdi() {
+        return mCdi;
+    }
+
+    /** Highest instrumental intensity, or NaN. */
+    public double getMmi() {
+        return mMmi;
+    }
+
+    /** PAGER alert level, "green" to "red", or null. */
+    public String getAlert() {
+        return mAlert;
+    }
+
+    public boolean hasTsunamiFlag() {
+        return mTsunami;
+    }
+
+    /** "automatic" or "reviewed", or null. */
+    public String getStatus() {
+        return mStatus;
+    }
+
+    /** USGS significance, 0 to about 1000, or -1. */
+    public int getSignificance() {
+        return mSignificance;
+    }
+
+    /** Product types, such as "origin" or "shakemap", to how many versions there are. */
+    public Map<String, Integer> getProducts() {
+        return Collections.unmodifiableMap( mProducts );
+    }
+
+    /** Approximate heap bytes, for sizing the memory cache. */
+    long getMemoryEstimate() {
+        long bytes = 160 + 48L * mProducts.size();
+        for (String text : new String[]{mId, mTitle, mPlace, mUrl, mMagnitudeType, mAlert, mStatus}) {
+            if (text != null) {
+                bytes += 40 + 2L * text.length();
+            }
+        }
+        for (String type : mProducts.keySet()) {
+            bytes += 40 + 2L * type.length();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,401 @@
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Writes stored events out as CSV or GeoJSON for other tools, one row at a time, so an
+ * export of any size needs no more memory than a block of rows and a write buffer.
+ *
+ * The CSV has USGS's column order, with ISO 8601 UTC times and RFC 4180 quoting. The
+ * GeoJSON is a FeatureCollection shaped like the USGS feed, so {@link GeoJsonQuakeParser}
+ * reads it back.
+ *
+ * {@link #export} streams from {@link EarthquakeStore#scan} into a file; an exporter can
+ * also be driven directly with rows of any {@link QuakeTable}.
+ */
+public final class QuakeExporter {
+
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_GEOJSON = "geojson";
+
+    /** Rows read from the store at a time. */
+    private static final int BLOCK_ROWS = 256;
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private static final String CSV_HEADER = "time,latitude,longitude,depth,mag,place,id,updated,url";
+
+    /** Told how the export is getting on, on the thread that runs it. */
+    public interface Listener {
+        void onProgress(int exported, int total);
+    }
+
+    private final boolean mGeoJson;
+    private final ChannelWriter mOut;
+    private final SimpleDateFormat mIsoFormat;
+    private final Date mDate = new Date();
+    private int mRows;
+
+    public QuakeExporter(String format, WritableByteChannel channel) {
+        if (!FORMAT_CSV.equals( format ) && !FORMAT_GEOJSON.equals( format )) {
+            throw new IllegalArgumentException( "Unknown export format " + format );
+        }
+        mGeoJson = FORMAT_GEOJSON.equals( format );
+        mOut = new ChannelWriter( channel );
+        mIsoFormat = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US );
+        mIsoFormat.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+    }
+
+    /** MIME type of the format, for sharing the file. */
+    public static String getMimeType(String format) {
+        return FORMAT_GEOJSON.equals( format ) ? "application/geo+json" : "text/csv";
+    }
+
+    /** File extension of the format, without the dot. */
+    public static String getExtension(String format) {
+        return FORMAT_GEOJSON.equals( format ) ? "geojson" : "csv";
+    }
+
+    /**
+     * Writes every stored event at or above {@code minMagnitude} that happened at or after
+     * {@code since} to {@code file}, in {@code orderBy} order, replacing the file only once
+     * the export is complete. Blocks until it is done; interrupt the calling thread to stop
+     * it. Returns the number of events written.
+     *
+     * @throws InterruptedIOException if the thread was interrupted; nothing is left behind
+     */
+    public static int export(EarthquakeStore store, double minMagnitude, long since,
+                             String orderBy, String format, File file, final Listener listener)
+            throws IOException {
+        long start = System.nanoTime();
+        final int total = store.count( minMagnitude, since );
+        File temp = new File( file.getPath() + ".tmp" );
+        FileChannel channel = new FileOutputStream( temp ).getChannel();
+        boolean complete = false;
+        try {
+            final QuakeExporter exporter = new QuakeExporter( format, channel );
+            exporter.begin();
+            if (listener != null) {
+                listener.onProgress( 0, total );
+            }
+            store.scan( minMagnitude, since, orderBy, BLOCK_ROWS, new EarthquakeStore.BlockVisitor() {
+                @Override
+                public void visit(QuakeTable block) throws IOException {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException( "Export cancelled" );
+                    }
+                    for (int row = 0; row < block.size(); row++) {
+                        exporter.write( block, row );
+                    }
+                    if (listener != null) {
+                        // The count was taken before the scan; a sync may have added since.
+                        listener.onProgress( exporter.getRowCount(),
+                                Math.max( total, exporter.getRowCount() ) );
+                    }
+                }
+            } );
+            exporter.finish();
+            channel.force( false );
+            complete = true;
+            PipelineMetrics.EXPORT.recordNanos( System.nanoTime() - start );
+            return exporter.getRowCount();
+        } finally {
+            channel.close();
+            if (!complete) {
+                temp.delete();
+            } else if (!temp.renameTo( file )) {
+                temp.delete();
+                throw new IOException( "Cannot replace " + file );
+            }
+        }
+    }
+
+    /** Writes what comes before the first row. */
+    public void begin() throws IOException {
+        if (mGeoJson) {
+            mOut.write( "{\"type\":\"FeatureCollection\",\"features\":[" );
+        } else {
+            mOut.write( CSV_HEADER );
+            mOut.write( "\r\n" );
+        }
+    }
+
+    /** Writes one row of {@code table}. */
+    public void write(QuakeTable table, int row) throws IOException {
+        if (mGeoJson) {
+            writeFeature( table, row );
+        } else {
+            writeCsvRow( table, row );
+        }
+        mRows++;
+    }
+
+    /** Writes what follows the last row and flushes everything to the channel. */
+    public void finish() throws IOException {
+        if (mGeoJson) {
+            mOut.write( mRows == 0 ? "]}\n" : "\n]}\n" );
+        }
+        mOut.finish();
+    }
+
+    public int getRowCount() {
+        return mRows;
+    }
+
+    private void writeCsvRow(QuakeTable table, int row) throws IOException {
+        Writer out = mOut;
+        out.write( formatTime( table.getTime( row ) ) );
+        out.write( ',' );
+        writeCoordinate( table.getLatitude( row ) );
+        out.write( ',' );
+        writeCoordinate( table.getLongitude( row ) );
+        out.write( ',' );
+        writeCoordinate( table.getDepth( row ) );
+        out.write( ',' );
+        writeNumber( table.getMagnitude( row ) );
+        out.write( ',' );
+        writeCsvField( table.getPlace( row ) );
+        out.write( ',' );
+        writeCsvField( table.getId( row ) );
+        out.write( ',' );
+        out.write( formatTime( table.getUpdated( row ) ) );
+        out.write( ',' );
+        writeCsvField( table.getUrl( row ) );
+        out.write( "\r\n" );
+    }
+
+    private void writeFeature(QuakeTable table, int row) throws IOException {
+        Writer out = mOut;
+        out.write( mRows == 0 ? "\n" : ",\n" );
+        out.write( "{\"type\":\"Feature\",\"properties\":{\"mag\":" );
+        writeNumber( table.getMagnitude( row ) );
+        out.write( ",\"place\":" );
+        writeJsonString( table.getPlace( row ) );
+        out.write( ",\"time\":" );
+        out.write( Long.toString( table.getTime( row ) ) );
+        out.write( ",\"updated\":" );
+        out.write( Long.toString( table.getUpdated( row ) ) );
+        out.write( ",\"url\":" );
+        writeJsonString( table.getUrl( row ) );
+        double longitude = table.getLongitude( row );
+        double latitude = table.getLatitude( row );
+        if (Double.isNaN( longitude ) || Double.isNaN( latitude )) {
+            out.write( "},\"geometry\":null" );
+        } else {
+            out.write( "},\"geometry\":{\"type\":\"Point\",\"coordinates\":[" );
+            writeCoordinate( longitude );
+            out.write( ',' );
+            writeCoordinate( latitude );
+            double depth = table.getDepth( row );
+            if (!Double.isNaN( depth )) {
+                out.write( ',' );
+                writeCoordinate( depth );
+            }
+            out.write( "]}" );
+        }
+        out.write( ",\"id\":" );
+        writeJsonString( table.getId( row ) );
+        out.write( '}' );
+    }
+
+    private String formatTime(long millis) {
+        mDate.setTime( millis );
+        return mIsoFormat.format( mDate );
+    }
+
+    /** Writes the number, or nothing in CSV and null in JSON for a missing value. */
+    private void writeNumber(double value) throws IOException {
+        if (Double.isNaN( value ) || Double.isInfinite( value )) {
+            if (mGeoJson) {
+                mOut.write( "null" );
+            }
+        } else if (value == (long) value && Math.abs( value ) < 1e15) {
+            mOut.write( Long.toString( (long) value ) );
+        } else {
+            mOut.write( Double.toString( value ) );
+        }
+    }
+
+    /**
+     * Writes a coordinate with the digits {@link QuakeTable} keeps, which holds them as
+     * floats: "61.2", not "61.20000076293945".
+     */
+    private void writeCoordinate(double value) throws IOException {
+        if (Double.isNaN( value ) || Double.isInfinite( value ) || value == (long) value) {
+            writeNumber( value );
+        } else {
+            mOut.write( Float.toString( (float) value ) );
+        }
+    }
+
+    private void writeCsvField(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt( i );
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            mOut.write( value );
+            return;
+        }
+        mOut.write( '"' );
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt( i ) == '"') {
+                // A quote inside a quoted field is doubled.
+                mOut.write( value, from, i + 1 - from );
+                from = i;
+            }
+        }
+        mOut.write( value, from, value.length() - from );
+        mOut.write( '"' );
+    }
+
+    private void writeJsonString(String value) throws IOException {
+        if (value == null) {
+            mOut.write( "null" );
+            return;
+        }
+        mOut.write( '"' );
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt( i );
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            mOut.write( value, from, i - from );
+            from = i + 1;
+            if (c == '"' || c == '\\') {
+                mOut.write( '\\' );
+                mOut.write( c );
+            } else if (c == '\n') {
+                mOut.write( "\\n" );
+            } else if (c == '\r') {
+                mOut.write( "\\r" );
+            } else if (c == '\t') {
+                mOut.write( "\\t" );
+            } else {
+                mOut.write( String.format( Locale.US, "\\u%04x", (int) c ) );
+            }
+        }
+        mOut.write( value, from, value.length() - from );
+        mOut.write( '"' );
+    }
+
+    /**
+     * Encodes text to UTF-8 into a direct buffer and writes it to a channel whenever the
+     * buffer fills, so no string for the whole export is ever built.
+     */
+    private static final class ChannelWriter extends Writer {
+        private final WritableByteChannel mChannel;
+        private final CharsetEncoder mEncoder = UTF_8.newEncoder()
+                .onMalformedInput( CodingErrorAction.REPLACE )
+                .onUnmappableCharacter( CodingErrorAction.REPLACE );
+        private final CharBuffer mChars = CharBuffer.allocate( 8 * 1024 );
+        private final ByteBuffer mBytes = ByteBuffer.allocateDirect( BUFFER_BYTES );
+
+        ChannelWriter(WritableByteChannel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (!mChars.hasRemaining()) {
+                encode( false );
+            }
+            mChars.put( (char) c );
+        }
+
+        @Override
+        public void write(String text, int offset, int length) throws IOException {
+            int end = offset + length;
+            while (offset < end) {
+                if (!mChars.hasRemaining()) {
+                    encode( false );
+                }
+                int count = Math.min( end - offset, mChars.remaining() );
+                mChars.put( text, offset, offset + count );
+                offset += count;
+            }
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            int end = offset + length;
+            while (offset < end) {
+                if (!mChars.hasRemaining()) {
+                    encode( false );
+                }
+                int count = Math.min( end - offset, mChars.remaining() );
+                mChars.put( chars, offset, count );
+                offset += count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            encode( false );
+            drain();
+        }
+
+        /** Flushes everything, including the encoder's own state; the writer is then done. */
+        void finish() throws IOException {
+            encode( true );
+            while (mEncoder.flush( mBytes ).isOverflow()) {
+                drain();
+            }
+            drain();
+        }
+
+        /** Closes the channel too. */
+        @Override
+        public void close() throws IOException {
+            flush();
+            mChannel.close();
+        }
+
+        /** Moves the buffered characters into the byte buffer, writing it out when full. */
+        private void encode(boolean endOfInput) throws IOException {
+            mChars.flip();
+            while (true) {
+                CoderResult result = mEncoder.encode( mChars, mBytes, endOfInput );
+                if (result.isOverflow()) {
+                    drain();
+                } else {
+                    break;
+                }
+            }
+            // Keeps half of a surrogate pair for the next call.
+            mChars.compact();
+        }
+
+        private void drain() throws IOException {
+            mBytes.flip();
+            while (mBytes.hasRemaining()) {
+                mChannel.write( mBytes );
+            }
+            mBytes.clear();
+        }
+    }
+}
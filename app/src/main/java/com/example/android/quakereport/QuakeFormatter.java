@@ -0,0 +1,118 @@
+package com.example.android.quakereport;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Turns an earthquake into the text shown in its list row.
+ *
+ * The formatters are not thread-safe and expensive to create, so each thread keeps its
+ * own. {@link #prepare(QuakeDescription)} is meant to run on the loader thread, leaving
+ * {@link QuakeAdapter} nothing to do but set text.
+ */
+public final class QuakeFormatter {
+
+    /** Shown above the place when it has no "N km X of" prefix. */
+    private static final String NEAR_OF = "Near of ";
+
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT =
+            new ThreadLocal<SimpleDateFormat>() {
+                @Override
+                protected SimpleDateFormat initialValue() {
+                    return new SimpleDateFormat( "LLL dd, yyyy" );
+                }
+            };
+
+    private static final ThreadLocal<SimpleDateFormat> TIME_FORMAT =
+            new ThreadLocal<SimpleDateFormat>() {
+                @Override
+                protected SimpleDateFormat initialValue() {
+                    return new SimpleDateFormat( "h:mm:ss" );
+                }
+            };
+
+    private static final ThreadLocal<DecimalFormat> MAGNITUDE_FORMAT =
+            new ThreadLocal<DecimalFormat>() {
+                @Override
+                protected DecimalFormat initialValue() {
+                    return new DecimalFormat( "0.0" );
+                }
+            };
+
+    /** Reused per thread so formatting a row does not allocate a Date. */
+    private static final ThreadLocal<Date> DATE =
+            new ThreadLocal<Date>() {
+                @Override
+                protected Date initialValue() {
+                    return new Date();
+                }
+            };
+
+    private QuakeFormatter() {
+    }
+
+    /** Computes and stores the row text of every earthquake in the list. */
+    public static void prepareAll(Iterable<QuakeDescription> earthquakes) {
+        for (QuakeDescription quake : earthquakes) {
+            prepare( quake );
+        }
+    }
+
+    /** Computes and stores the row text of one earthquake, unless that was already done. */
+    public static void prepare(QuakeDescription quake) {
+        if (quake.isPrepared()) {
+            return;
+        }
+        String quakePlace = quake.getQuakePlace();
+        if (quakePlace == null) {
+            quakePlace = "";
+        }
+        // splitting the QuakePlace description into two strings
+        String place, placeOffset;
+        int index = quakePlace.indexOf( "of" );
+        if (index == -1) {
+            placeOffset = NEAR_OF;
+            place = quakePlace;
+        } else {
+            placeOffset = quakePlace.substring( 0, index + 2 );
+            place = quakePlace.substring( Math.min( index + 3, quakePlace.length() ) );
+        }
+
+        Date date = DATE.get();
+        date.setTime( quake.getmTimeInMilliSeconds() );
+        quake.setDisplay(
+                MAGNITUDE_FORMAT.get().format( quake.getMagnitude() ),
+                getMagnitudeColor( quake.getMagnitude() ),
+                placeOffset,
+                place,
+                DATE_FORMAT.get().format( date ),
+                TIME_FORMAT.get().format( date ) );
+    }
+
+    /** Color resource of the magnitude circle for the given magnitude. */
+    public static int getMagnitudeColor(double mag){
+        switch ((int) mag){
+            case 1:
+                return R.color.magnitude1;
+            case 2:
+                return R.color.magnitude2;
+            case 3:
+                return R.color.magnitude3;
+            case 4:
+                return R.color.magnitude4;
+            case 5:
+                return R.color.magnitude5;
+            case 6:
+                return R.color.magnitude6;
+            case 7:
+                return R.color.magnitude7;
+            case 8:
+                return R.color.magnitude8;
+            case 9:
+                return R.color.magnitude9;
+            default:
+                return R.color.magnitude10plus;
+        }
+    }
+}
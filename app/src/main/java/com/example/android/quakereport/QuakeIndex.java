@@ -0,0 +1,141 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The loaded earthquakes, indexed so they can be re-filtered by magnitude and re-sorted by
+ * time or magnitude without going back to the network.
+ *
+ * Magnitudes and times are copied into primitive arrays, and the two orderings are kept as
+ * arrays of positions into them, so a query walks ints and doubles rather than objects.
+ * Only the ids of the events are kept, not their rows, which the list holds within its own
+ * budget; a selection is read back from {@link EarthquakeStore#queryByIds}.
+ */
+public final class QuakeIndex {
+
+    /** Event id of each indexed position. */
+    private final String[] mIds;
+    private final double[] mMagnitudes;
+
+    /** Positions ordered by magnitude, largest first; equal magnitudes newest first. */
+    private final int[] mByMagnitude;
+
+    /** Positions ordered by time, newest first. */
+    private final int[] mByTime;
+
+    /** Lowest magnitude this index was loaded with. */
+    private final double mMinMagnitude;
+
+    /** True if the index holds every event at or above {@link #mMinMagnitude}. */
+    private final boolean mComplete;
+
+    public QuakeIndex(QuakeList earthquakes, double minMagnitude, boolean complete) {
+        int size = earthquakes.size();
+        QuakeTable table = earthquakes.getTable();
+        mIds = new String[size];
+        mMagnitudes = new double[size];
+        double[] times = new double[size];
+        for (int i = 0; i < size; i++) {
+            int row = earthquakes.rowAt( i );
+            mIds[i] = table.getId( row );
+            mMagnitudes[i] = table.getMagnitude( row );
+            // Epoch milliseconds stay exact as doubles for the next 280,000 years.
+            times[i] = table.getTime( row );
+        }
+        mByTime = identity( size );
+        sortDescending( mByTime, times );
+        // The sort is stable, so sorting the time order by magnitude keeps ties newest first.
+        mByMagnitude = mByTime.clone();
+        sortDescending( mByMagnitude, mMagnitudes );
+        mMinMagnitude = minMagnitude;
+        mComplete = complete;
+    }
+
+    public int size() {
+        return mIds.length;
+    }
+
+    /**
+     * Returns true if {@link #selectIds(double, String)} gives the same answer a network query
+     * at {@code minMagnitude} would, i.e. the index holds everything down to that magnitude.
+     */
+    public boolean covers(double minMagnitude) {
+        return mComplete && minMagnitude >= mMinMagnitude;
+    }
+
+    /**
+     * Returns the ids of the events at or above {@code minMagnitude}, ordered by
+     * {@link EarthquakeQuery#ORDER_BY_MAGNITUDE} or {@link EarthquakeQuery#ORDER_BY_TIME}.
+     */
+    public List<String> selectIds(double minMagnitude, String orderBy) {
+        List<String> ids;
+        if (EarthquakeQuery.ORDER_BY_TIME.equals( orderBy )) {
+            ids = new ArrayList<>( mIds.length );
+            for (int position : mByTime) {
+                if (mMagnitudes[position] >= minMagnitude) {
+                    ids.add( mIds[position] );
+                }
+            }
+        } else {
+            int count = countAtLeast( minMagnitude );
+            ids = new ArrayList<>( count );
+            for (int i = 0; i < count; i++) {
+                ids.add( mIds[mByMagnitude[i]] );
+            }
+        }
+        return ids;
+    }
+
+    /** Binary search for the number of leading entries of the magnitude order >= minMagnitude. */
+    private int countAtLeast(double minMagnitude) {
+        int low = 0;
+        int high = mByMagnitude.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mMagnitudes[mByMagnitude[mid]] >= minMagnitude) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int[] identity(int size) {
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = i;
+        }
+        return positions;
+    }
+
+    /** Stable merge sort of {@code positions} by {@code keys[position]}, largest first. */
+    static void sortDescending(int[] positions, double[] keys) {
+        int[] scratch = new int[positions.length];
+        for (int width = 1; width < positions.length; width *= 2) {
+            for (int low = 0; low < positions.length - width; low += 2 * width) {
+                int mid = low + width;
+                int high = Math.min( low + 2 * width, positions.length );
+                int left = low;
+                int right = mid;
+                int out = low;
+                while (left < mid && right < high) {
+                    // Take from the left run on ties to keep the sort stable.
+                    if (keys[positions[right]] > keys[positions[left]]) {
+                        scratch[out++] = positions[right++];
+                    } else {
+                        scratch[out++] = positions[left++];
+                    }
+                }
+                while (left < mid) {
+                    scratch[out++] = positions[left++];
+                }
+                while (right < high) {
+                    scratch[out++] = positions[right++];
+                }
+                System.arraycopy( scratch, low, positions, low, high - low );
+            }
+        }
+    }
+}
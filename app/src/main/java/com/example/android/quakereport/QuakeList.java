@@ -0,0 +1,45 @@
+package com.example.android.quakereport;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A list of rows of a {@link QuakeTable}. Elements are created on access, so holding a
+ * list of thousands of earthquakes costs one int per element rather than one object.
+ */
+public final class QuakeList extends AbstractList<QuakeDescription> implements RandomAccess {
+
+    private final QuakeTable mTable;
+
+    /** Table rows in list order, or null for rows 0..size-1. */
+    private final int[] mRows;
+    private final int mSize;
+
+    public QuakeList(QuakeTable table, int[] rows, int size) {
+        mTable = table;
+        mRows = rows;
+        mSize = size;
+    }
+
+    @Override
+    public QuakeDescription get(int index) {
+        return mTable.get( rowAt( index ) );
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    public QuakeTable getTable() {
+        return mTable;
+    }
+
+    /** Returns the table row of the element at {@code index}. */
+    public int rowAt(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException( "Index " + index + ", size " + mSize );
+        }
+        return mRows == null ? index : mRows[index];
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The list as last shown, saved in a compact binary file so the next cold start can show
+ * it before anything has been fetched or parsed.
+ *
+ * The file is columnar, like {@link QuakeTable}: a header, a string dictionary, then one
+ * fixed-width column per field, each as long as there are rows:
+ * <pre>
+ * header   magic "QSNP", format version, row count, string count, saved-at time,
+ *          query key code, display key code, columns offset (all big-endian)
+ * strings  string count x (byte length, UTF-8 bytes); code 0 is null and not stored
+ * columns  id, place, url codes (int); magnitude (double); time, updated (long);
+ *          longitude, latitude, depth (float); magnitude text, location offset,
+ *          primary location, date text, time text codes (int)
+ * </pre>
+ * Reading maps the file and copies each column out with one bulk get. The row text is
+ * kept too, unless the locale or time zone it was formatted for has changed since.
+ */
+public final class QuakeSnapshot {
+
+    private static final int MAGIC = 0x51534e50; // "QSNP"
+
+    /** Bump whenever the layout changes; files of any other version are ignored. */
+    static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 40;
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private QuakeSnapshot() {
+    }
+
+    /**
+     * Writes the earthquakes to {@code file}, replacing it only once the new file is
+     * complete.
+     *
+     * @param queryKey what the list is an answer to; {@link #read} only returns rows saved
+     *                 under the same key
+     */
+    public static void write(File file, List<QuakeDescription> earthquakes, String queryKey)
+            throws IOException {
+        int rows = earthquakes.size();
+        StringDictionary strings = new StringDictionary();
+        int displayKey = strings.encode( displayKey() );
+        int query = strings.encode( queryKey );
+        int[] ids = new int[rows];
+        int[] places = new int[rows];
+        int[] urls = new int[rows];
+        int[][] texts = new int[5][rows];
+        for (int i = 0; i < rows; i++) {
+            QuakeDescription quake = earthquakes.get( i );
+            ids[i] = strings.encode( quake.getId() );
+            places[i] = strings.encode( quake.getQuakePlace() );
+            urls[i] = strings.encode( quake.getmUrl() );
+            if (quake.isPrepared()) {
+                texts[0][i] = strings.encode( quake.getMagnitudeText() );
+                texts[1][i] = strings.encode( quake.getLocationOffset() );
+                texts[2][i] = strings.encode( quake.getPrimaryLocation() );
+                texts[3][i] = strings.encode( quake.getDateText() );
+                texts[4][i] = strings.encode( quake.getTimeText() );
+            }
+        }
+
+        byte[][] encoded = new byte[strings.size()][];
+        int stringBytes = 0;
+        for (int code = 1; code <= strings.size(); code++) {
+            encoded[code - 1] = strings.decode( code ).getBytes( UTF_8 );
+            stringBytes += 4 + encoded[code - 1].length;
+        }
+
+        File temp = new File( file.getPath() + ".tmp" );
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( new FileOutputStream( temp ), 64 * 1024 ) );
+        try {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( rows );
+            out.writeInt( strings.size() );
+            out.writeLong( System.currentTimeMillis() );
+            out.writeInt( query );
+            out.writeInt( displayKey );
+            out.writeInt( HEADER_BYTES + stringBytes );
+            out.writeInt( 0 );
+            for (byte[] bytes : encoded) {
+                out.writeInt( bytes.length );
+                out.write( bytes );
+            }
+            writeInts( out, ids );
+            writeInts( out, places );
+            writeInts( out, urls );
+            for (int i = 0; i < rows; i++) {
+                out.writeDouble( earthquakes.get( i ).getMagnitude() );
+            }
+            for (int i = 0; i < rows; i++) {
+                out.writeLong( earthquakes.get( i ).getmTimeInMilliSeconds() );
+            }
+            for (int i = 0; i < rows; i++) {
+                out.writeLong( earthquakes.get( i ).getUpdated() );
+            }
+            for (int i = 0; i < rows; i++) {
+                out.writeFloat( (float) earthquakes.get( i ).getLongitude() );
+            }
+            for (int i = 0; i < rows; i++) {
+                out.writeFloat( (float) earthquakes.get( i ).getLatitude() );
+            }
+            for (int i = 0; i < rows; i++) {
+                out.writeFloat( (float) earthquakes.get( i ).getDepth() );
+            }
+            for (int[] column : texts) {
+                writeInts( out, column );
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo( file )) {
+            temp.delete();
+            throw new IOException( "Cannot replace " + file );
+        }
+    }
+
+    /**
+     * Reads the earthquakes saved in {@code file} under {@code queryKey}.
+     *
+     * @return the rows in the order they were saved, or null if there is no snapshot, it
+     *         was saved for another query, or it is of another format version
+     */
+    public static QuakeList read(File file, String queryKey) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        FileInputStream in = new FileInputStream( file );
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt( 0 ) != MAGIC
+                    || buffer.getInt( 4 ) != VERSION) {
+                return null;
+            }
+            int rows = buffer.getInt( 8 );
+            int stringCount = buffer.getInt( 12 );
+            int queryCode = buffer.getInt( 24 );
+            int displayCode = buffer.getInt( 28 );
+            int columnsOffset = buffer.getInt( 32 );
+
+            String[] strings = new String[stringCount + 1];
+            int position = HEADER_BYTES;
+            for (int code = 1; code <= stringCount; code++) {
+                int length = buffer.getInt( position );
+                strings[code] = new String( bytes( buffer, position + 4, length ), UTF_8 );
+                position += 4 + length;
+            }
+            if (queryKey == null || !queryKey.equals( strings[queryCode] )) {
+                return null;
+            }
+            boolean textsValid = displayKey().equals( strings[displayCode] );
+
+            buffer.position( columnsOffset );
+            int[] ids = ints( buffer, rows );
+            int[] places = ints( buffer, rows );
+            int[] urls = ints( buffer, rows );
+            double[] magnitudes = doubles( buffer, rows );
+            long[] times = longs( buffer, rows );
+            long[] updated = longs( buffer, rows );
+            float[] longitudes = floats( buffer, rows );
+            float[] latitudes = floats( buffer, rows );
+            float[] depths = floats( buffer, rows );
+
+            QuakeTable table = new QuakeTable( rows );
+            for (int i = 0; i < rows; i++) {
+                table.append( strings[ids[i]], magnitudes[i], strings[places[i]], times[i],
+                        updated[i], strings[urls[i]], longitudes[i], latitudes[i], depths[i] );
+            }
+            if (textsValid) {
+                int[] magnitudeTexts = ints( buffer, rows );
+                int[] locationOffsets = ints( buffer, rows );
+                int[] primaryLocations = ints( buffer, rows );
+                int[] dateTexts = ints( buffer, rows );
+                int[] timeTexts = ints( buffer, rows );
+                for (int i = 0; i < rows; i++) {
+                    if (magnitudeTexts[i] != 0) {
+                        // Colors are resource ids, which may differ between builds.
+                        table.setDisplay( i, strings[magnitudeTexts[i]],
+                                QuakeFormatter.getMagnitudeColor( magnitudes[i] ),
+                                strings[locationOffsets[i]], strings[primaryLocations[i]],
+                                strings[dateTexts[i]], strings[timeTexts[i]] );
+                    }
+                }
+            }
+            return table.asList();
+        } catch (RuntimeException e) {
+            // A truncated or corrupt file: out of bounds offsets or codes.
+            throw new IOException( "Corrupt snapshot " + file, e );
+        } finally {
+            in.close();
+        }
+    }
+
+    /** What the row text depends on besides the event itself. */
+    private static String displayKey() {
+        return Locale.getDefault() + "/" + TimeZone.getDefault().getID();
+    }
+
+    private static void writeInts(DataOutputStream out, int[] column) throws IOException {
+        for (int value : column) {
+            out.writeInt( value );
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position( position );
+        view.get( bytes );
+        return bytes;
+    }
+
+    private static int[] ints(ByteBuffer buffer, int count) {
+        int[] column = new int[count];
+        IntBuffer view = buffer.asIntBuffer();
+        view.get( column );
+        buffer.position( buffer.position() + count * 4 );
+        return column;
+    }
+
+    private static double[] doubles(ByteBuffer buffer, int count) {
+        double[] column = new double[count];
+        DoubleBuffer view = buffer.asDoubleBuffer();
+        view.get( column );
+        buffer.position( buffer.position() + count * 8 );
+        return column;
+    }
+
+    private static long[] longs(ByteBuffer buffer, int count) {
+        long[] column = new long[count];
+        LongBuffer view = buffer.asLongBuffer();
+        view.get( column );
+        buffer.position( buffer.position() + count * 8 );
+        return column;
+    }
+
+    private static float[] floats(ByteBuffer buffer, int count) {
+        float[] column = new float[count];
+        FloatBuffer view = buffer.asFloatBuffer();
+        view.get( column );
+        buffer.position( buffer.position() + count * 4 );
+        return column;
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.android.quakereport;
+
+/**
+ * Grid index over the epicenters of a set of earthquakes, for radius, bounding box and
+ * nearest-neighbor queries without a server round trip.
+ *
+ * The globe is cut into {@link #CELL_DEGREES} x {@link #CELL_DEGREES} cells and the rows
+ * of each cell are stored contiguously, so a query only looks at the events in the few
+ * cells its area touches. Events without coordinates are not indexed.
+ */
+public final class QuakeSpatialIndex {
+
+    public static final double CELL_DEGREES = 2.0;
+
+    /** Mean Earth radius. */
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    /** Half the Earth's circumference; no two points are farther apart. */
+    private static final double MAX_DISTANCE_KM = Math.PI * EARTH_RADIUS_KM;
+
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private static final int LAT_CELLS = (int) (180 / CELL_DEGREES);
+    private static final int LON_CELLS = (int) (360 / CELL_DEGREES);
+
+    private final QuakeTable mTable;
+
+    /** mCellRows[mCellStarts[c] .. mCellStarts[c + 1]) are the table rows in cell c. */
+    private final int[] mCellStarts;
+    private final int[] mCellRows;
+
+    public QuakeSpatialIndex(QuakeList earthquakes) {
+        mTable = earthquakes.getTable();
+        int size = earthquakes.size();
+        int[] cells = new int[size];
+        mCellStarts = new int[LAT_CELLS * LON_CELLS + 1];
+        for (int i = 0; i < size; i++) {
+            int row = earthquakes.rowAt( i );
+            double latitude = mTable.getLatitude( row );
+            double longitude = mTable.getLongitude( row );
+            if (Double.isNaN( latitude ) || Double.isNaN( longitude )) {
+                cells[i] = -1;
+                continue;
+            }
+            cells[i] = cell( latIndex( latitude ), lonIndex( longitude ) );
+            mCellStarts[cells[i] + 1]++;
+        }
+        for (int c = 0; c < LAT_CELLS * LON_CELLS; c++) {
+            mCellStarts[c + 1] += mCellStarts[c];
+        }
+        mCellRows = new int[mCellStarts[LAT_CELLS * LON_CELLS]];
+        int[] fill = new int[LAT_CELLS * LON_CELLS];
+        for (int i = 0; i < size; i++) {
+            if (cells[i] >= 0) {
+                mCellRows[mCellStarts[cells[i]] + fill[cells[i]]++] = earthquakes.rowAt( i );
+            }
+        }
+    }
+
+    /** Number of indexed events, i.e. those with coordinates. */
+    public int size() {
+        return mCellRows.length;
+    }
+
+    /** Returns the events within {@code radiusKm} of the given point, in no particular order. */
+    public QuakeList withinRadius(double latitude, double longitude, double radiusKm) {
+        RowBuffer result = new RowBuffer();
+        collectWithinRadius( latitude, longitude, radiusKm, result );
+        return new QuakeList( mTable, result.rows, result.size );
+    }
+
+    /**
+     * Returns the events inside the box, in no particular order. A box whose west edge is
+     * east of its east edge crosses the antimeridian.
+     */
+    public QuakeList withinBox(double south, double west, double north, double east) {
+        RowBuffer result = new RowBuffer();
+        int latLow = latIndex( south );
+        int latHigh = latIndex( north );
+        int lonLow = lonIndex( west );
+        // An east edge on the antimeridian is the last cell, not the first one again.
+        int lonHigh = east >= 180 ? LON_CELLS - 1 : lonIndex( east );
+        int lonCount = west <= east
+                ? lonHigh - lonLow + 1
+                : LON_CELLS - lonLow + lonHigh + 1;
+        lonCount = Math.min( lonCount, LON_CELLS );
+        for (int latCell = latLow; latCell <= latHigh; latCell++) {
+            for (int i = 0; i < lonCount; i++) {
+                int c = cell( latCell, (lonLow + i) % LON_CELLS );
+                for (int j = mCellStarts[c]; j < mCellStarts[c + 1]; j++) {
+                    int row = mCellRows[j];
+                    double lat = mTable.getLatitude( row );
+                    double lon = mTable.getLongitude( row );
+                    boolean inLon = west <= east
+                            ? lon >= west && lon <= east
+                            : lon >= west || lon <= east;
+                    if (lat >= south && lat <= north && inLon) {
+                        result.add( row );
+                    }
+                }
+            }
+        }
+        return new QuakeList( mTable, result.rows, result.size );
+    }
+
+    /** Returns up to {@code k} events nearest to the given point, nearest first. */
+    public QuakeList nearest(double latitude, double longitude, int k) {
+        // Everything within a radius is found exactly, so once a radius holds k events the
+        // k nearest of those are the k nearest overall. Grow the radius until it does.
+        RowBuffer candidates = new RowBuffer();
+        double radiusKm = 100;
+        while (true) {
+            candidates.size = 0;
+            collectWithinRadius( latitude, longitude, radiusKm, candidates );
+            if (candidates.size >= k || radiusKm >= MAX_DISTANCE_KM) {
+                break;
+            }
+            radiusKm = Math.min( radiusKm * 2, MAX_DISTANCE_KM );
+        }
+        int[] positions = new int[candidates.size];
+        double[] negatedDistances = new double[candidates.size];
+        for (int i = 0; i < candidates.size; i++) {
+            int row = candidates.rows[i];
+            positions[i] = i;
+            negatedDistances[i] = -distanceKm( latitude, longitude,
+                    mTable.getLatitude( row ), mTable.getLongitude( row ) );
+        }
+        QuakeIndex.sortDescending( positions, negatedDistances );
+        int count = Math.min( k, candidates.size );
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = candidates.rows[positions[i]];
+        }
+        return new QuakeList( mTable, rows, count );
+    }
+
+    /** Great-circle distance between two points, by the haversine formula. */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians( lat2 - lat1 );
+        double dLon = Math.toRadians( lon2 - lon1 );
+        double sinLat = Math.sin( dLat / 2 );
+        double sinLon = Math.sin( dLon / 2 );
+        double a = sinLat * sinLat
+                + Math.cos( Math.toRadians( lat1 ) ) * Math.cos( Math.toRadians( lat2 ) ) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_KM * Math.asin( Math.min( 1, Math.sqrt( a ) ) );
+    }
+
+    private void collectWithinRadius(double latitude, double longitude, double radiusKm,
+                                     RowBuffer result) {
+        double dLat = radiusKm / KM_PER_DEGREE;
+        int latLow = latIndex( latitude - dLat );
+        int latHigh = latIndex( latitude + dLat );
+
+        // A degree of longitude is shortest at the latitude nearest a pole, so size the
+        // longitude span for that latitude. Near a pole the circle covers every longitude.
+        double maxAbsLatitude = Math.abs( latitude ) + dLat;
+        int lonLow = 0;
+        int lonCount = LON_CELLS;
+        if (maxAbsLatitude < 90) {
+            double dLon = dLat / Math.cos( Math.toRadians( maxAbsLatitude ) );
+            if (dLon < 180) {
+                lonLow = lonIndex( longitude - dLon );
+                lonCount = Math.min( LON_CELLS, (int) Math.ceil( 2 * dLon / CELL_DEGREES ) + 1 );
+            }
+        }
+
+        for (int latCell = latLow; latCell <= latHigh; latCell++) {
+            for (int i = 0; i < lonCount; i++) {
+                int c = cell( latCell, (lonLow + i) % LON_CELLS );
+                for (int j = mCellStarts[c]; j < mCellStarts[c + 1]; j++) {
+                    int row = mCellRows[j];
+                    if (distanceKm( latitude, longitude, mTable.getLatitude( row ),
+                            mTable.getLongitude( row ) ) <= radiusKm) {
+                        result.add( row );
+                    }
+                }
+            }
+        }
+    }
+
+    private static int cell(int latIndex, int lonIndex) {
+        return latIndex * LON_CELLS + lonIndex;
+    }
+
+    private static int latIndex(double latitude) {
+        int index = (int) Math.floor( (latitude + 90) / CELL_DEGREES );
+        return Math.max( 0, Math.min( LAT_CELLS - 1, index ) );
+    }
+
+    private static int lonIndex(double longitude) {
+        int index = (int) Math.floor( (longitude + 180) / CELL_DEGREES ) % LON_CELLS;
+        return index < 0 ? index + LON_CELLS : index;
+    }
+
+    /** Growable int[] of table rows. */
+    private static final class RowBuffer {
+        int[] rows = new int[64];
+        int size = 0;
+
+        void add(int row) {
+            if (size == rows.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy( rows, 0, grown, 0, size );
+                rows = grown;
+            }
+            rows[size++] = row;
+        }
+    }
+}
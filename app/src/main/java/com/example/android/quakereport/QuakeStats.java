@@ -0,0 +1,293 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Summary statistics over the stored events, kept up to date as events are put and
+ * removed rather than recomputed from the list.
+ *
+ * Events are tallied per magnitude band, the integer bands of
+ * {@link QuakeFormatter#getMagnitudeColor(double)}, and per hour in a ring of the last
+ * week of hours. Counts per band cost O(1), rates over any span of the last week
+ * O(hours x bands), and the largest event of a region O(log n). Every event is remembered
+ * by id, so an update takes back what the old version added before adding the new one.
+ *
+ * Thread-safe; {@link EarthquakeStore} feeds it from whichever thread writes the store.
+ */
+public final class QuakeStats {
+
+    /** Bands 0 (below 1, and negative) to 10 (10 and up). */
+    public static final int BANDS = 11;
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    /** Hours the ring covers: one week. */
+    public static final int HOURS = 7 * 24;
+
+    /** What one stored event contributed. */
+    private static final class Entry {
+        final String id;
+        final long time;
+        final double magnitude;
+        final String region;
+
+        Entry(String id, long time, double magnitude, String region) {
+            this.id = id;
+            this.time = time;
+            this.magnitude = magnitude;
+            this.region = region;
+        }
+    }
+
+    /** Largest first, then latest first, then by id so distinct events never tie. */
+    private static final Comparator<Entry> LARGEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            int order = Double.compare( b.magnitude, a.magnitude );
+            if (order == 0) {
+                order = a.time > b.time ? -1 : (a.time < b.time ? 1 : 0);
+            }
+            return order != 0 ? order : a.id.compareTo( b.id );
+        }
+    };
+
+    /** The largest event of one region, as returned by {@link #getLargestByRegion()}. */
+    public static final class RegionMax {
+        public final String region;
+        public final String id;
+        public final double magnitude;
+        public final long time;
+        public final int count;
+
+        RegionMax(String region, Entry largest, int count) {
+            this.region = region;
+            this.id = largest.id;
+            this.magnitude = largest.magnitude;
+            this.time = largest.time;
+            this.count = count;
+        }
+    }
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private final int[] mBandCounts = new int[BANDS];
+
+    /** Per hour and band; slot {@code hour % HOURS} holds that hour while it is in the ring. */
+    private final int[][] mHourly = new int[HOURS][BANDS];
+
+    /** The latest hour in the ring, as hours since the epoch. */
+    private long mHeadHour = Long.MIN_VALUE;
+
+    private final Map<String, TreeSet<Entry>> mRegions = new HashMap<>();
+
+    /** Band of a magnitude, as used by {@link QuakeFormatter#getMagnitudeColor(double)}. */
+    public static int band(double magnitude) {
+        if (!(magnitude >= 1)) {
+            return 0;
+        }
+        return (int) Math.min( magnitude, BANDS - 1 );
+    }
+
+    /**
+     * Region of a USGS place description: the part after its last comma, such as "CA" or
+     * "Japan", or the whole description if it has none.
+     */
+    public static String region(String place) {
+        if (place == null) {
+            return "";
+        }
+        int comma = place.lastIndexOf( ',' );
+        return (comma < 0 ? place : place.substring( comma + 1 )).trim();
+    }
+
+    /** Adds an event, or replaces what an earlier version of it added. */
+    public synchronized void put(String id, long time, double magnitude, String place) {
+        if (id == null) {
+            return;
+        }
+        Entry old = mEntries.get( id );
+        if (old != null) {
+            subtract( old );
+        }
+        Entry entry = new Entry( id, time, magnitude, region( place ) );
+        mEntries.put( id, entry );
+        mBandCounts[band( magnitude )]++;
+        long hour = hourOf( time );
+        advanceTo( hour );
+        if (inRing( hour )) {
+            mHourly[slot( hour )][band( magnitude )]++;
+        }
+        TreeSet<Entry> region = mRegions.get( entry.region );
+        if (region == null) {
+            region = new TreeSet<>( LARGEST_FIRST );
+            mRegions.put( entry.region, region );
+        }
+        region.add( entry );
+    }
+
+    public synchronized void putAll(List<QuakeDescription> earthquakes) {
+        for (QuakeDescription quake : earthquakes) {
+            put( quake.getId(), quake.getmTimeInMilliSeconds(), quake.getMagnitude(),
+                    quake.getQuakePlace() );
+        }
+    }
+
+    public synchronized void remove(String id) {
+        Entry old = mEntries.remove( id );
+        if (old != null) {
+            subtract( old );
+        }
+    }
+
+    /**
+     * Removes every event that happened before {@code time}. Unlike the rest this scans
+     * all events, but it only runs when the store is pruned.
+     */
+    public synchronized void removeOlderThan(long time) {
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.time < time) {
+                entries.remove();
+                subtract( entry );
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mRegions.clear();
+        for (int band = 0; band < BANDS; band++) {
+            mBandCounts[band] = 0;
+        }
+        for (int[] hour : mHourly) {
+            for (int band = 0; band < BANDS; band++) {
+                hour[band] = 0;
+            }
+        }
+        mHeadHour = Long.MIN_VALUE;
+    }
+
+    /** Number of events held. */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /** Number of events in one band. */
+    public synchronized int getBandCount(int band) {
+        return mBandCounts[band];
+    }
+
+    /** Number of events whose band is at or above that of {@code minMagnitude}. */
+    public synchronized int getCountAtLeast(double minMagnitude) {
+        int count = 0;
+        for (int band = band( minMagnitude ); band < BANDS; band++) {
+            count += mBandCounts[band];
+        }
+        return count;
+    }
+
+    /**
+     * Events per hour for the {@code hours} hours up to {@code now}, oldest first, counting
+     * bands at or above that of {@code minMagnitude}. The current, partial hour is last.
+     */
+    public synchronized int[] getHourlyCounts(int hours, double minMagnitude, long now) {
+        if (hours > HOURS) {
+            throw new IllegalArgumentException( "Only the last " + HOURS + " hours are kept" );
+        }
+        advanceTo( hourOf( now ) );
+        long nowHour = hourOf( now );
+        int fromBand = band( minMagnitude );
+        int[] counts = new int[hours];
+        for (int i = 0; i < hours; i++) {
+            long hour = nowHour - hours + 1 + i;
+            if (!inRing( hour )) {
+                continue;
+            }
+            int[] bands = mHourly[slot( hour )];
+            for (int band = fromBand; band < BANDS; band++) {
+                counts[i] += bands[band];
+            }
+        }
+        return counts;
+    }
+
+    /** Events in the last {@code hours} hours, averaged per hour. */
+    public double getRatePerHour(int hours, double minMagnitude, long now) {
+        int total = 0;
+        for (int count : getHourlyCounts( hours, minMagnitude, now )) {
+            total += count;
+        }
+        return (double) total / hours;
+    }
+
+    /** The largest event of every region, largest first. */
+    public synchronized List<RegionMax> getLargestByRegion() {
+        List<RegionMax> largest = new ArrayList<>( mRegions.size() );
+        for (Map.Entry<String, TreeSet<Entry>> region : mRegions.entrySet()) {
+            largest.add( new RegionMax( region.getKey(), region.getValue().first(),
+                    region.getValue().size() ) );
+        }
+        Collections.sort( largest, new Comparator<RegionMax>() {
+            @Override
+            public int compare(RegionMax a, RegionMax b) {
+                return Double.compare( b.magnitude, a.magnitude );
+            }
+        } );
+        return largest;
+    }
+
+    private void subtract(Entry entry) {
+        mBandCounts[band( entry.magnitude )]--;
+        long hour = hourOf( entry.time );
+        if (inRing( hour )) {
+            mHourly[slot( hour )][band( entry.magnitude )]--;
+        }
+        TreeSet<Entry> region = mRegions.get( entry.region );
+        region.remove( entry );
+        if (region.isEmpty()) {
+            mRegions.remove( entry.region );
+        }
+    }
+
+    /** Moves the head of the ring forward to {@code hour}, emptying the hours it passes. */
+    private void advanceTo(long hour) {
+        if (hour <= mHeadHour) {
+            return;
+        }
+        if (mHeadHour == Long.MIN_VALUE || hour - mHeadHour >= HOURS) {
+            for (int[] bands : mHourly) {
+                for (int band = 0; band < BANDS; band++) {
+                    bands[band] = 0;
+                }
+            }
+        } else {
+            for (long h = mHeadHour + 1; h <= hour; h++) {
+                int[] bands = mHourly[slot( h )];
+                for (int band = 0; band < BANDS; band++) {
+                    bands[band] = 0;
+                }
+            }
+        }
+        mHeadHour = hour;
+    }
+
+    private boolean inRing(long hour) {
+        return hour <= mHeadHour && hour > mHeadHour - HOURS;
+    }
+
+    /** Event times are after the epoch, so plain division rounds down. */
+    private static long hourOf(long time) {
+        return Math.max( 0, time ) / HOUR_MILLIS;
+    }
+
+    private static int slot(long hour) {
+        return (int) (hour % HOURS);
+    }
+}
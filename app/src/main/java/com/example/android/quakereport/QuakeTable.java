@@ -0,0 +1,242 @@
+package com.example.android.quakereport;
+
+/**
+ * Column-oriented storage for earthquakes: one primitive array per field instead of one
+ * object per event.
+ *
+ * Only the columns whose strings really repeat are dictionary-encoded: the magnitude text,
+ * the location offset, the primary location and the date. The id, place, url and time of
+ * day are close to unique per event, so they are kept as plain references; a dictionary
+ * would only add its hash table on top of the same strings.
+ *
+ * A row is read through a {@link QuakeDescription}, which is only a (table, row) pair.
+ * Rows are appended by one thread (the parser or loader) and then only read.
+ */
+public final class QuakeTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Bytes of the fifteen column arrays per row of capacity. */
+    private static final int BYTES_PER_ROW = 4 + 8 + 8 + 8 + 3 * 4 + 3 * 4 + 5 * 4;
+
+    private final StringDictionary mStrings = new StringDictionary();
+
+    private int mSize = 0;
+
+    private String[] mIds;
+    private double[] mMagnitudes;
+    private long[] mTimes;
+    private long[] mUpdated;
+    private float[] mLongitudes;
+    private float[] mLatitudes;
+    private float[] mDepths;
+    private String[] mPlaces;
+    private String[] mUrls;
+
+    /** Row text from {@link QuakeFormatter}; a magnitude text code of 0 means not prepared. */
+    private int[] mMagnitudeTexts;
+    private int[] mMagnitudeColors;
+    private int[] mLocationOffsets;
+    private int[] mPrimaryLocations;
+    private int[] mDateTexts;
+    private String[] mTimeTexts;
+
+    public QuakeTable() {
+        this( INITIAL_CAPACITY );
+    }
+
+    public QuakeTable(int capacity) {
+        allocate( Math.max( capacity, 1 ) );
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /** Appends an event and returns its row. NaN coordinates mean "unknown". */
+    public int append(String id, double magnitude, String place, long time, long updated,
+                      String url, double longitude, double latitude, double depth) {
+        if (mSize == mMagnitudes.length) {
+            grow();
+        }
+        int row = mSize++;
+        mIds[row] = id;
+        mMagnitudes[row] = magnitude;
+        mTimes[row] = time;
+        mUpdated[row] = updated;
+        mLongitudes[row] = (float) longitude;
+        mLatitudes[row] = (float) latitude;
+        mDepths[row] = (float) depth;
+        mPlaces[row] = place;
+        mUrls[row] = url;
+        return row;
+    }
+
+    /** Copies one row of another table into this one and returns the new row. */
+    public int appendRow(QuakeTable source, int row) {
+        int copy = append( source.getId( row ), source.getMagnitude( row ),
+                source.getPlace( row ), source.getTime( row ), source.getUpdated( row ),
+                source.getUrl( row ), source.getLongitude( row ), source.getLatitude( row ),
+                source.getDepth( row ) );
+        if (source.isPrepared( row )) {
+            setDisplay( copy, source.getMagnitudeText( row ), source.getMagnitudeColor( row ),
+                    source.getLocationOffset( row ), source.getPrimaryLocation( row ),
+                    source.getDateText( row ), source.getTimeText( row ) );
+        }
+        return copy;
+    }
+
+    /** Returns a view of one row. */
+    public QuakeDescription get(int row) {
+        return new QuakeDescription( this, row );
+    }
+
+    /** Returns all rows, in the order they were appended, as a list. */
+    public QuakeList asList() {
+        return new QuakeList( this, null, mSize );
+    }
+
+    public String getId(int row) {
+        return mIds[row];
+    }
+
+    public double getMagnitude(int row) {
+        return mMagnitudes[row];
+    }
+
+    public long getTime(int row) {
+        return mTimes[row];
+    }
+
+    public long getUpdated(int row) {
+        return mUpdated[row];
+    }
+
+    public double getLongitude(int row) {
+        return mLongitudes[row];
+    }
+
+    public double getLatitude(int row) {
+        return mLatitudes[row];
+    }
+
+    public double getDepth(int row) {
+        return mDepths[row];
+    }
+
+    public String getPlace(int row) {
+        return mPlaces[row];
+    }
+
+    public String getUrl(int row) {
+        return mUrls[row];
+    }
+
+    boolean isPrepared(int row) {
+        return mMagnitudeTexts[row] != 0;
+    }
+
+    void setDisplay(int row, String magnitudeText, int magnitudeColor, String locationOffset,
+                    String primaryLocation, String dateText, String timeText) {
+        mMagnitudeTexts[row] = mStrings.encode( magnitudeText );
+        mMagnitudeColors[row] = magnitudeColor;
+        mLocationOffsets[row] = mStrings.encode( locationOffset );
+        mPrimaryLocations[row] = mStrings.encode( primaryLocation );
+        mDateTexts[row] = mStrings.encode( dateText );
+        mTimeTexts[row] = timeText;
+    }
+
+    public String getMagnitudeText(int row) {
+        return mStrings.decode( mMagnitudeTexts[row] );
+    }
+
+    public int getMagnitudeColor(int row) {
+        return mMagnitudeColors[row];
+    }
+
+    public String getLocationOffset(int row) {
+        return mStrings.decode( mLocationOffsets[row] );
+    }
+
+    public String getPrimaryLocation(int row) {
+        return mStrings.decode( mPrimaryLocations[row] );
+    }
+
+    public String getDateText(int row) {
+        return mStrings.decode( mDateTexts[row] );
+    }
+
+    public String getTimeText(int row) {
+        return mTimeTexts[row];
+    }
+
+    /** Number of distinct strings held by the table's dictionary. */
+    public int getDistinctStringCount() {
+        return mStrings.size();
+    }
+
+    /** Rough heap footprint in bytes: the columns, the unencoded strings and the dictionary. */
+    public long getMemoryEstimate() {
+        long bytes = (long) BYTES_PER_ROW * mMagnitudes.length;
+        for (int row = 0; row < mSize; row++) {
+            bytes += StringDictionary.estimateBytes( mIds[row] )
+                    + StringDictionary.estimateBytes( mPlaces[row] )
+                    + StringDictionary.estimateBytes( mUrls[row] )
+                    + StringDictionary.estimateBytes( mTimeTexts[row] );
+        }
+        return bytes + mStrings.getMemoryEstimate();
+    }
+
+    private void allocate(int capacity) {
+        mIds = new String[capacity];
+        mMagnitudes = new double[capacity];
+        mTimes = new long[capacity];
+        mUpdated = new long[capacity];
+        mLongitudes = new float[capacity];
+        mLatitudes = new float[capacity];
+        mDepths = new float[capacity];
+        mPlaces = new String[capacity];
+        mUrls = new String[capacity];
+        mMagnitudeTexts = new int[capacity];
+        mMagnitudeColors = new int[capacity];
+        mLocationOffsets = new int[capacity];
+        mPrimaryLocations = new int[capacity];
+        mDateTexts = new int[capacity];
+        mTimeTexts = new String[capacity];
+    }
+
+    private void grow() {
+        int capacity = mMagnitudes.length * 2;
+        String[] ids = mIds;
+        double[] magnitudes = mMagnitudes;
+        long[] times = mTimes;
+        long[] updated = mUpdated;
+        float[] longitudes = mLongitudes;
+        float[] latitudes = mLatitudes;
+        float[] depths = mDepths;
+        String[] places = mPlaces;
+        String[] urls = mUrls;
+        int[] magnitudeTexts = mMagnitudeTexts;
+        int[] magnitudeColors = mMagnitudeColors;
+        int[] locationOffsets = mLocationOffsets;
+        int[] primaryLocations = mPrimaryLocations;
+        int[] dateTexts = mDateTexts;
+        String[] timeTexts = mTimeTexts;
+        allocate( capacity );
+        System.arraycopy( ids, 0, mIds, 0, mSize );
+        System.arraycopy( magnitudes, 0, mMagnitudes, 0, mSize );
+        System.arraycopy( times, 0, mTimes, 0, mSize );
+        System.arraycopy( updated, 0, mUpdated, 0, mSize );
+        System.arraycopy( longitudes, 0, mLongitudes, 0, mSize );
+        System.arraycopy( latitudes, 0, mLatitudes, 0, mSize );
+        System.arraycopy( depths, 0, mDepths, 0, mSize );
+        System.arraycopy( places, 0, mPlaces, 0, mSize );
+        System.arraycopy( urls, 0, mUrls, 0, mSize );
+        System.arraycopy( magnitudeTexts, 0, mMagnitudeTexts, 0, mSize );
+        System.arraycopy( magnitudeColors, 0, mMagnitudeColors, 0, mSize );
+        System.arraycopy( locationOffsets, 0, mLocationOffsets, 0, mSize );
+        System.arraycopy( primaryLocations, 0, mPrimaryLocations, 0, mSize );
+        System.arraycopy( dateTexts, 0, mDateTexts, 0, mSize );
+        System.arraycopy( timeTexts, 0, mTimeTexts, 0, mSize );
+    }
+}
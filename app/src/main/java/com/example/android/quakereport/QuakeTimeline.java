@@ -0,0 +1,600 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Magnitude over time for the timeline chart, at any zoom, in time proportional to the
+ * width of the chart rather than to the number of events.
+ *
+ * The events at or above a floor are kept sorted by time, and above them a pyramid of
+ * buckets: level 0 holds the smallest magnitude, the largest and the count of every
+ * {@link #BASE_MILLIS} that has events, and each level above merges pairs of the one below.
+ * {@link #sample} draws from the coarsest level whose buckets are no wider than a column,
+ * so it reads at most about two buckets per column, or from the events themselves when
+ * there are few enough of them in view. Levels are sparse, so empty stretches cost
+ * nothing.
+ *
+ * A single event updates one bucket per level, in O(levels x log buckets), and shifts the
+ * sorted events along by one; a large batch is merged into the sorted events and the
+ * pyramid rebuilt. Thread-safe; {@link EarthquakeStore} feeds it from whichever thread
+ * writes the store while the chart samples it on the UI thread. Every change ends by
+ * publishing an immutable copy of the events and the pyramid through a volatile field, and
+ * the chart reads only that copy, so drawing never waits for a writer. The copy makes every
+ * change O(events) however few events it touches, so hand changes over in batches, as the
+ * store does with each write, rather than one {@link #put} per event.
+ */
+public final class QuakeTimeline {
+
+    /** Width of a level 0 bucket. */
+    public static final long BASE_MILLIS = 15 * 60 * 1000;
+
+    /** Levels of the pyramid; the top one has buckets of about three and a half years. */
+    static final int LEVELS = 18;
+
+    /** Events in view per column up to which {@link #sample} reads the events themselves. */
+    static final int RAW_PER_COLUMN = 4;
+
+    /** Batches larger than this are merged and the pyramid rebuilt, not added one by one. */
+    private static final int BULK_THRESHOLD = 256;
+
+    /** What one event added. */
+    private static final class Entry {
+        final long time;
+        final float magnitude;
+
+        Entry(long time, float magnitude) {
+            this.time = time;
+            this.magnitude = magnitude;
+        }
+    }
+
+    /** The buckets of one level that hold events, ordered by key. */
+    private static final class Level {
+        long[] keys;
+        float[] low;
+        float[] high;
+        int[] counts;
+        int size;
+
+        Level(int capacity) {
+            keys = new long[capacity];
+            low = new float[capacity];
+            high = new float[capacity];
+            counts = new int[capacity];
+        }
+
+        /** A copy of the buckets, trimmed to size. */
+        Level copy() {
+            Level copy = new Level( size );
+            System.arraycopy( keys, 0, copy.keys, 0, size );
+            System.arraycopy( low, 0, copy.low, 0, size );
+            System.arraycopy( high, 0, copy.high, 0, size );
+            System.arraycopy( counts, 0, copy.counts, 0, size );
+            copy.size = size;
+            return copy;
+        }
+
+        /** Index of the key, or -(insertion point) - 1 if it has no bucket. */
+        int find(long key) {
+            int lo = 0;
+            int hi = size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] < key) {
+                    lo = mid + 1;
+                } else if (keys[mid] > key) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(lo + 1);
+        }
+
+        /** Adds one event to the bucket of the key, making the bucket if need be. */
+        void add(long key, float magnitude) {
+            int index = find( key );
+            if (index >= 0) {
+                low[index] = Math.min( low[index], magnitude );
+                high[index] = Math.max( high[index], magnitude );
+                counts[index]++;
+                return;
+            }
+            insert( -index - 1, key, magnitude, magnitude, 1 );
+        }
+
+        /** Replaces the bucket of the key, or removes it if the count is 0. */
+        void set(long key, float bucketLow, float bucketHigh, int count) {
+            int index = find( key );
+            if (index >= 0 && count == 0) {
+                System.arraycopy( keys, index + 1, keys, index, size - index - 1 );
+                System.arraycopy( low, index + 1, low, index, size - index - 1 );
+                System.arraycopy( high, index + 1, high, index, size - index - 1 );
+                System.arraycopy( counts, index + 1, counts, index, size - index - 1 );
+                size--;
+            } else if (index >= 0) {
+                low[index] = bucketLow;
+                high[index] = bucketHigh;
+                counts[index] = count;
+            } else if (count > 0) {
+                insert( -index - 1, key, bucketLow, bucketHigh, count );
+            }
+        }
+
+        /** Appends a bucket whose key is above every other. */
+        void append(long key, float bucketLow, float bucketHigh, int count) {
+            insert( size, key, bucketLow, bucketHigh, count );
+        }
+
+        private void insert(int index, long key, float bucketLow, float bucketHigh, int count) {
+            if (size == keys.length) {
+                int capacity = Math.max( 16, size * 2 );
+                keys = Arrays.copyOf( keys, capacity );
+                low = Arrays.copyOf( low, capacity );
+                high = Arrays.copyOf( high, capacity );
+                counts = Arrays.copyOf( counts, capacity );
+            }
+            System.arraycopy( keys, index, keys, index + 1, size - index );
+            System.arraycopy( low, index, low, index + 1, size - index );
+            System.arraycopy( high, index, high, index + 1, size - index );
+            System.arraycopy( counts, index, counts, index + 1, size - index );
+            keys[index] = key;
+            low[index] = bucketLow;
+            high[index] = bucketHigh;
+            counts[index] = count;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    /** The events and pyramid as of one change; never modified once published. */
+    private static final class Snapshot {
+        final long[] times;
+        final float[] magnitudes;
+        final int size;
+        final Level[] levels;
+
+        Snapshot(long[] times, float[] magnitudes, int size, Level[] levels) {
+            this.times = times;
+            this.magnitudes = magnitudes;
+            this.size = size;
+            this.levels = levels;
+        }
+    }
+
+    private final double mMinMagnitude;
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    /** The events, ordered by time. */
+    private long[] mTimes = new long[16];
+    private float[] mMagnitudes = new float[16];
+    private String[] mIds = new String[16];
+    private int mSize = 0;
+
+    private final Level[] mLevels = new Level[LEVELS];
+
+    /** What the readers see; replaced, never changed, after every change. */
+    private volatile Snapshot mSnapshot;
+
+    /** Holds only the events at or above {@code minMagnitude}. */
+    public QuakeTimeline(double minMagnitude) {
+        mMinMagnitude = minMagnitude;
+        for (int i = 0; i < LEVELS; i++) {
+            mLevels[i] = new Level( 16 );
+        }
+        publish();
+    }
+
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    public int size() {
+        return mSnapshot.size;
+    }
+
+    /** Time of the earliest event, or {@link Long#MAX_VALUE} if there is none. */
+    public long getStart() {
+        Snapshot snapshot = mSnapshot;
+        return snapshot.size == 0 ? Long.MAX_VALUE : snapshot.times[0];
+    }
+
+    /** Time of the latest event, or {@link Long#MIN_VALUE} if there is none. */
+    public long getEnd() {
+        Snapshot snapshot = mSnapshot;
+        return snapshot.size == 0 ? Long.MIN_VALUE : snapshot.times[snapshot.size - 1];
+    }
+
+    /** The largest magnitude held, or NaN if there is none. */
+    public float getMaxMagnitude() {
+        float max = Float.NaN;
+        Level top = mSnapshot.levels[LEVELS - 1];
+        for (int i = 0; i < top.size; i++) {
+            max = i == 0 ? top.high[i] : Math.max( max, top.high[i] );
+        }
+        return max;
+    }
+
+    /** Adds an event, or moves it if an earlier version was elsewhere. */
+    public synchronized void put(String id, long time, double magnitude) {
+        if (putEvent( id, time, magnitude )) {
+            publish();
+        }
+    }
+
+    /** Adds or moves one event without publishing; returns true if anything changed. */
+    private boolean putEvent(String id, long time, double magnitude) {
+        if (id == null) {
+            return false;
+        }
+        Entry old = mEntries.get( id );
+        boolean held = magnitude >= mMinMagnitude;
+        if (old != null) {
+            if (held && old.time == time && old.magnitude == (float) magnitude) {
+                return false;
+            }
+            removeEvent( id, old );
+        }
+        if (!held) {
+            return old != null;
+        }
+        mEntries.put( id, new Entry( time, (float) magnitude ) );
+        int index = upperBound( time );
+        ensureCapacity( mSize + 1 );
+        System.arraycopy( mTimes, index, mTimes, index + 1, mSize - index );
+        System.arraycopy( mMagnitudes, index, mMagnitudes, index + 1, mSize - index );
+        System.arraycopy( mIds, index, mIds, index + 1, mSize - index );
+        mTimes[index] = time;
+        mMagnitudes[index] = (float) magnitude;
+        mIds[index] = id;
+        mSize++;
+        long key = bucket( time );
+        for (Level level : mLevels) {
+            level.add( key, (float) magnitude );
+            key >>= 1;
+        }
+        return true;
+    }
+
+    /**
+     * Adds or updates every event of the list. Large lists are merged in one pass, so the
+     * order they come in does not matter.
+     */
+    public synchronized void putAll(List<QuakeDescription> earthquakes) {
+        boolean changed = false;
+        if (earthquakes.size() <= BULK_THRESHOLD) {
+            for (QuakeDescription quake : earthquakes) {
+                changed |= putEvent( quake.getId(), quake.getmTimeInMilliSeconds(),
+                        quake.getMagnitude() );
+            }
+        } else {
+            changed = merge( earthquakes );
+        }
+        if (changed) {
+            publish();
+        }
+    }
+
+    public synchronized void remove(String id) {
+        removeAll( Collections.singletonList( id ) );
+    }
+
+    /** Removes the events with the given ids, publishing once for all of them. */
+    public synchronized void removeAll(Collection<String> ids) {
+        boolean changed = false;
+        for (String id : ids) {
+            Entry old = mEntries.get( id );
+            if (old != null) {
+                removeEvent( id, old );
+                changed = true;
+            }
+        }
+        if (changed) {
+            publish();
+        }
+    }
+
+    /** Removes every event that happened before the given time. */
+    public synchronized void removeOlderThan(long time) {
+        int cut = lowerBound( time );
+        if (cut == 0) {
+            return;
+        }
+        for (int i = 0; i < cut; i++) {
+            mEntries.remove( mIds[i] );
+        }
+        System.arraycopy( mTimes, cut, mTimes, 0, mSize - cut );
+        System.arraycopy( mMagnitudes, cut, mMagnitudes, 0, mSize - cut );
+        System.arraycopy( mIds, cut, mIds, 0, mSize - cut );
+        Arrays.fill( mIds, mSize - cut, mSize, null );
+        mSize -= cut;
+        rebuild();
+        publish();
+    }
+
+    /**
+     * Reduces the events between {@code start} and {@code end} to {@code columns} columns
+     * of equal time: the smallest and largest magnitude and the count of each. Columns
+     * without events get a count of 0.
+     *
+     * Reads the last published copy, so it never waits for a writer.
+     *
+     * @return the pyramid level read, or -1 if the events themselves were
+     */
+    public int sample(long start, long end, int columns, float[] low, float[] high,
+                      int[] counts) {
+        Arrays.fill( counts, 0, columns, 0 );
+        if (end <= start || columns <= 0) {
+            return -1;
+        }
+        Snapshot snapshot = mSnapshot;
+        long span = end - start;
+        int first = lowerBound( snapshot.times, snapshot.size, start );
+        int last = lowerBound( snapshot.times, snapshot.size, end );
+        if (last - first <= (long) RAW_PER_COLUMN * columns) {
+            for (int i = first; i < last; i++) {
+                accumulate( (int) ((snapshot.times[i] - start) * columns / span),
+                        snapshot.magnitudes[i], snapshot.magnitudes[i], 1, low, high, counts );
+            }
+            return -1;
+        }
+
+        // The coarsest level whose buckets are no wider than a column.
+        int levelIndex = 0;
+        while (levelIndex < LEVELS - 1
+                && (BASE_MILLIS << (levelIndex + 1)) * columns <= span) {
+            levelIndex++;
+        }
+        Level level = snapshot.levels[levelIndex];
+        long width = BASE_MILLIS << levelIndex;
+        int index = level.find( floorDiv( start, width ) );
+        if (index < 0) {
+            index = -index - 1;
+        }
+        for (; index < level.size && level.keys[index] * width < end; index++) {
+            long middle = level.keys[index] * width + width / 2;
+            middle = Math.max( start, Math.min( end - 1, middle ) );
+            accumulate( (int) ((middle - start) * columns / span), level.low[index],
+                    level.high[index], level.counts[index], low, high, counts );
+        }
+        return levelIndex;
+    }
+
+    private static void accumulate(int column, float bucketLow, float bucketHigh, int count,
+                                   float[] low, float[] high, int[] counts) {
+        if (counts[column] == 0) {
+            low[column] = bucketLow;
+            high[column] = bucketHigh;
+        } else {
+            low[column] = Math.min( low[column], bucketLow );
+            high[column] = Math.max( high[column], bucketHigh );
+        }
+        counts[column] += count;
+    }
+
+    private void removeEvent(String id, Entry old) {
+        mEntries.remove( id );
+        int index = lowerBound( old.time );
+        while (index < mSize && !id.equals( mIds[index] )) {
+            index++;
+        }
+        System.arraycopy( mTimes, index + 1, mTimes, index, mSize - index - 1 );
+        System.arraycopy( mMagnitudes, index + 1, mMagnitudes, index, mSize - index - 1 );
+        System.arraycopy( mIds, index + 1, mIds, index, mSize - index - 1 );
+        mIds[--mSize] = null;
+
+        // Min and max cannot be taken back, so the buckets of the event are worked out again:
+        // level 0 from the events, every level above from its two children.
+        long key = bucket( old.time );
+        int from = lowerBound( key * BASE_MILLIS );
+        int to = lowerBound( (key + 1) * BASE_MILLIS );
+        float bucketLow = Float.MAX_VALUE;
+        float bucketHigh = -Float.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            bucketLow = Math.min( bucketLow, mMagnitudes[i] );
+            bucketHigh = Math.max( bucketHigh, mMagnitudes[i] );
+        }
+        mLevels[0].set( key, bucketLow, bucketHigh, to - from );
+        for (int i = 1; i < LEVELS; i++) {
+            key >>= 1;
+            Level below = mLevels[i - 1];
+            bucketLow = Float.MAX_VALUE;
+            bucketHigh = -Float.MAX_VALUE;
+            int count = 0;
+            for (long child = key * 2; child <= key * 2 + 1; child++) {
+                int c = below.find( child );
+                if (c >= 0) {
+                    bucketLow = Math.min( bucketLow, below.low[c] );
+                    bucketHigh = Math.max( bucketHigh, below.high[c] );
+                    count += below.counts[c];
+                }
+            }
+            mLevels[i].set( key, bucketLow, bucketHigh, count );
+        }
+    }
+
+    /**
+     * Merges a batch into the sorted events in one pass, then rebuilds the pyramid. Returns
+     * true if anything changed.
+     */
+    private boolean merge(List<QuakeDescription> earthquakes) {
+        // Only the last version of an event in the batch counts.
+        Map<String, QuakeDescription> latest = new HashMap<>( earthquakes.size() * 2 );
+        for (QuakeDescription quake : earthquakes) {
+            if (quake.getId() != null) {
+                latest.put( quake.getId(), quake );
+            }
+        }
+        List<QuakeDescription> added = new ArrayList<>( latest.size() );
+        Set<String> replaced = new HashSet<>();
+        for (QuakeDescription quake : latest.values()) {
+            String id = quake.getId();
+            Entry old = mEntries.get( id );
+            boolean held = quake.getMagnitude() >= mMinMagnitude;
+            if (old != null) {
+                if (held && old.time == quake.getmTimeInMilliSeconds()
+                        && old.magnitude == (float) quake.getMagnitude()) {
+                    continue;
+                }
+                replaced.add( id );
+                mEntries.remove( id );
+            }
+            if (held) {
+                mEntries.put( id, new Entry( quake.getmTimeInMilliSeconds(),
+                        (float) quake.getMagnitude() ) );
+                added.add( quake );
+            }
+        }
+        if (added.isEmpty() && replaced.isEmpty()) {
+            return false;
+        }
+        Collections.sort( added, new Comparator<QuakeDescription>() {
+            @Override
+            public int compare(QuakeDescription a, QuakeDescription b) {
+                long x = a.getmTimeInMilliSeconds();
+                long y = b.getmTimeInMilliSeconds();
+                return x < y ? -1 : (x > y ? 1 : 0);
+            }
+        } );
+
+        long[] times = new long[Math.max( 16, mSize + added.size() )];
+        float[] magnitudes = new float[times.length];
+        String[] ids = new String[times.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < mSize || j < added.size()) {
+            if (i < mSize && replaced.contains( mIds[i] )) {
+                i++;
+                continue;
+            }
+            if (j == added.size()
+                    || (i < mSize && mTimes[i] <= added.get( j ).getmTimeInMilliSeconds())) {
+                times[size] = mTimes[i];
+                magnitudes[size] = mMagnitudes[i];
+                ids[size++] = mIds[i++];
+            } else {
+                QuakeDescription quake = added.get( j++ );
+                times[size] = quake.getmTimeInMilliSeconds();
+                magnitudes[size] = (float) quake.getMagnitude();
+                ids[size++] = quake.getId();
+            }
+        }
+        mTimes = times;
+        mMagnitudes = magnitudes;
+        mIds = ids;
+        mSize = size;
+        rebuild();
+        return true;
+    }
+
+    /** Copies the events and the pyramid for the readers. */
+    private void publish() {
+        Level[] levels = new Level[LEVELS];
+        for (int i = 0; i < LEVELS; i++) {
+            levels[i] = mLevels[i].copy();
+        }
+        mSnapshot = new Snapshot( Arrays.copyOf( mTimes, mSize ),
+                Arrays.copyOf( mMagnitudes, mSize ), mSize, levels );
+    }
+
+    /** Builds every level again from the events, each from the one below. */
+    private void rebuild() {
+        Level base = mLevels[0];
+        base.clear();
+        for (int i = 0; i < mSize; i++) {
+            long key = bucket( mTimes[i] );
+            if (base.size > 0 && base.keys[base.size - 1] == key) {
+                int last = base.size - 1;
+                base.low[last] = Math.min( base.low[last], mMagnitudes[i] );
+                base.high[last] = Math.max( base.high[last], mMagnitudes[i] );
+                base.counts[last]++;
+            } else {
+                base.append( key, mMagnitudes[i], mMagnitudes[i], 1 );
+            }
+        }
+        for (int l = 1; l < LEVELS; l++) {
+            Level below = mLevels[l - 1];
+            Level level = mLevels[l];
+            level.clear();
+            for (int i = 0; i < below.size; i++) {
+                long key = below.keys[i] >> 1;
+                if (level.size > 0 && level.keys[level.size - 1] == key) {
+                    int last = level.size - 1;
+                    level.low[last] = Math.min( level.low[last], below.low[i] );
+                    level.high[last] = Math.max( level.high[last], below.high[i] );
+                    level.counts[last] += below.counts[i];
+                } else {
+                    level.append( key, below.low[i], below.high[i], below.counts[i] );
+                }
+            }
+        }
+    }
+
+    /** Index of the first event at or after the time. */
+    private int lowerBound(long time) {
+        return lowerBound( mTimes, mSize, time );
+    }
+
+    private static int lowerBound(long[] times, int size, long time) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Index of the first event after the time. */
+    private int upperBound(long time) {
+        int lo = 0;
+        int hi = mSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mTimes[mid] <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mTimes.length) {
+            int grown = Math.max( capacity, mTimes.length * 2 );
+            mTimes = Arrays.copyOf( mTimes, grown );
+            mMagnitudes = Arrays.copyOf( mMagnitudes, grown );
+            mIds = Arrays.copyOf( mIds, grown );
+        }
+    }
+
+    /** Key of the level 0 bucket holding the time. */
+    private static long bucket(long time) {
+        return floorDiv( time, BASE_MILLIS );
+    }
+
+    /** Division rounding down, so times before the epoch land in the right bucket too. */
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return x % y != 0 && (x < 0) ? quotient - 1 : quotient;
+    }
+}
@@ -0,0 +1,503 @@
+package com.example.android.quakereport;
+
+import android.content.ComponentCallbacks2;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The rows of the list, kept in memory only up to a budget.
+ *
+ * Rows are copied into blocks of {@link #BLOCK_ROWS}, each with its own {@link QuakeTable},
+ * so a block can be let go of on its own. When the blocks in memory add up to more than
+ * the budget, whole blocks are evicted by the chosen policy, never the ones on screen, and
+ * written to a spill file in the {@link QuakeSnapshot} format. Asking for a row of an
+ * evicted block returns {@link #PLACEHOLDER} and reads the file back on a background thread;
+ * the {@link Listener} hears when the rows are back.
+ *
+ * Blocks never change once made, so {@link #snapshot()} can hand them to other threads.
+ * Everything else is for the UI thread.
+ */
+public final class QuakeWindow {
+
+    /** Evict the blocks whose newest event is oldest. */
+    public static final String POLICY_OLDEST = "oldest";
+
+    /** Evict the blocks whose largest event is smallest. */
+    public static final String POLICY_LOWEST_MAGNITUDE = "magnitude";
+
+    /** Evict the blocks shown least recently. */
+    public static final String POLICY_LEAST_RECENTLY_VIEWED = "viewed";
+
+    static final int BLOCK_ROWS = 256;
+
+    /** Rows either side of the visible ones whose blocks are never evicted. */
+    private static final int PINNED_MARGIN = BLOCK_ROWS / 4;
+
+    private static final String LOG_TAG = QuakeWindow.class.getSimpleName();
+
+    private static final String SPILL_KEY = "window";
+
+    /** Stands in for the rows of a block while it is read back: no id and blank text. */
+    public static final QuakeDescription PLACEHOLDER = placeholder();
+
+    /** Told on the UI thread when evicted rows are back in memory. */
+    public interface Listener {
+        void onRowsReloaded();
+    }
+
+    /** Names the spill directory of each window made in this process. */
+    private static final AtomicInteger sWindows = new AtomicInteger();
+
+    /** One run of rows, in memory, on disk, or both. */
+    private static final class Block {
+        final File file;
+        final int size;
+        final long newestTime;
+        final double largestMagnitude;
+
+        /** The rows if in memory, else null. Read by snapshot threads. */
+        volatile QuakeList rows;
+
+        /** Evicted rows whose file is not written yet; guarded by this. */
+        QuakeList spilling;
+
+        /** True once the file holds the rows; guarded by this. */
+        boolean onDisk;
+
+        /** Heap footprint while in memory. */
+        long bytes;
+
+        long lastViewed;
+
+        /** True while a background read of the rows is under way. */
+        boolean loading;
+
+        Block(File file, QuakeList rows) {
+            this.file = file;
+            this.rows = rows;
+            size = rows.size();
+            long newest = Long.MIN_VALUE;
+            double largest = -Double.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                QuakeDescription quake = rows.get( i );
+                newest = Math.max( newest, quake.getmTimeInMilliSeconds() );
+                largest = Math.max( largest, quake.getMagnitude() );
+            }
+            newestTime = newest;
+            largestMagnitude = largest;
+            bytes = rows.getTable().getMemoryEstimate();
+        }
+
+        /** Returns the rows from wherever they are, without making them resident. */
+        QuakeList read() throws IOException {
+            QuakeList resident = rows;
+            if (resident != null) {
+                return resident;
+            }
+            synchronized (this) {
+                if (spilling != null) {
+                    return spilling;
+                }
+                QuakeList stored = QuakeSnapshot.read( file, SPILL_KEY );
+                if (stored == null || stored.size() != size) {
+                    throw new IOException( "Spilled rows missing from " + file );
+                }
+                return stored;
+            }
+        }
+    }
+
+    private final File mDir;
+    private final Executor mSpillExecutor;
+
+    private final List<Block> mBlocks = new ArrayList<>();
+
+    private Listener mListener;
+
+    /** Bumped by {@link #clear()}, so reads of blocks cleared since are dropped. */
+    private int mGeneration = 0;
+
+    /** Position of the first row of each block. */
+    private int[] mStarts = new int[16];
+    private int mSize = 0;
+    private int mNextFile = 0;
+
+    private long mBudgetBytes;
+    private String mPolicy = POLICY_LEAST_RECENTLY_VIEWED;
+
+    private long mResidentBytes = 0;
+    private int mResidentRows = 0;
+    private long mEvictions = 0;
+    private long mReloads = 0;
+
+    /** Bumped on every read, for {@link #POLICY_LEAST_RECENTLY_VIEWED}. */
+    private long mClock = 0;
+
+    private int mFirstVisible = 0;
+    private int mLastVisible = -1;
+
+    /**
+     * @param dir           where spill files go, in a directory of this window's own that
+     *                      {@link #release()} removes
+     * @param spillExecutor writes and deletes the spill files; must run tasks in order
+     */
+    public QuakeWindow(final File dir, long budgetBytes, Executor spillExecutor) {
+        final int number = sWindows.incrementAndGet();
+        mDir = new File( dir, "window-" + number );
+        mBudgetBytes = budgetBytes;
+        mSpillExecutor = spillExecutor;
+        if (number == 1) {
+            // The first window of the process clears out what a killed process left.
+            mSpillExecutor.execute( new Runnable() {
+                @Override
+                public void run() {
+                    File[] stale = dir.listFiles();
+                    for (int i = 0; stale != null && i < stale.length; i++) {
+                        deleteFiles( stale[i] );
+                        stale[i].delete();
+                    }
+                }
+            } );
+        }
+    }
+
+    /** Sets the memory budget, evicting at once if it shrank. */
+    public void setBudget(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+        evictDownTo( mBudgetBytes );
+    }
+
+    /** Sets the eviction policy, one of the {@code POLICY_} values. */
+    public void setPolicy(String policy) {
+        mPolicy = policy;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /** Tells the window which rows are on screen, so their blocks stay in memory. */
+    public void setVisibleRange(int first, int count) {
+        mFirstVisible = first;
+        mLastVisible = first + count - 1;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns a row, or {@link #PLACEHOLDER} if its block was evicted. The block is then read
+     * back in the background, and the listener told when it is in memory again.
+     */
+    public QuakeDescription get(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException( "Index " + position + ", size " + mSize );
+        }
+        int index = findBlock( position );
+        Block block = mBlocks.get( index );
+        block.lastViewed = ++mClock;
+        QuakeList rows = block.rows;
+        if (rows == null) {
+            if (!block.loading) {
+                block.loading = true;
+                new ReloadTask( block, mGeneration ).executeOnExecutor(
+                        AsyncTask.THREAD_POOL_EXECUTOR );
+            }
+            return PLACEHOLDER;
+        }
+        return rows.get( position - mStarts[index] );
+    }
+
+    /** True if the row's block is in memory, so {@link #get} returns it as it is. */
+    boolean isResident(int position) {
+        return mBlocks.get( findBlock( position ) ).rows != null;
+    }
+
+    /** True for the row {@link #get} returns while the real one is read back. */
+    public static boolean isPlaceholder(QuakeDescription quake) {
+        return quake == PLACEHOLDER;
+    }
+
+    /**
+     * Copies the earthquakes onto the end a block at a time, evicting down to the budget
+     * after each, so a long list never has more than one block over the budget in memory.
+     */
+    public void append(List<QuakeDescription> earthquakes) {
+        for (int from = 0; from < earthquakes.size(); from += BLOCK_ROWS) {
+            int to = Math.min( from + BLOCK_ROWS, earthquakes.size() );
+            QuakeTable table = new QuakeTable( to - from );
+            for (int i = from; i < to; i++) {
+                QuakeDescription quake = earthquakes.get( i );
+                table.appendRow( quake.getTable(), quake.getRow() );
+            }
+            Block block = new Block( new File( mDir, "block-" + mNextFile++ + ".bin" ),
+                    table.asList() );
+            if (mBlocks.size() == mStarts.length) {
+                mStarts = Arrays.copyOf( mStarts, mStarts.length * 2 );
+            }
+            mStarts[mBlocks.size()] = mSize;
+            mBlocks.add( block );
+            mSize += block.size;
+            mResidentBytes += block.bytes;
+            mResidentRows += block.size;
+            evictDownTo( mBudgetBytes );
+        }
+    }
+
+    /** Drops every row and deletes the spill files. */
+    public void clear() {
+        final List<Block> dropped = new ArrayList<>( mBlocks );
+        mBlocks.clear();
+        mGeneration++;
+        mSize = 0;
+        mResidentBytes = 0;
+        mResidentRows = 0;
+        mSpillExecutor.execute( new Runnable() {
+            @Override
+            public void run() {
+                for (Block block : dropped) {
+                    synchronized (block) {
+                        if (block.onDisk && !block.file.delete()) {
+                            Log.w( LOG_TAG, "Could not delete " + block.file );
+                        }
+                    }
+                }
+            }
+        } );
+    }
+
+    /** Clears the window and removes its spill directory; call when done with it. */
+    public void release() {
+        clear();
+        mSpillExecutor.execute( new Runnable() {
+            @Override
+            public void run() {
+                deleteFiles( mDir );
+                mDir.delete();
+            }
+        } );
+    }
+
+    /**
+     * Returns the rows now held, as a list later changes don't affect. Evicted blocks are
+     * read back on whichever thread asks, one at a time, without counting against the
+     * budget.
+     */
+    public List<QuakeDescription> snapshot() {
+        final Block[] blocks = mBlocks.toArray( new Block[mBlocks.size()] );
+        final int[] starts = Arrays.copyOf( mStarts, blocks.length );
+        final int size = mSize;
+        return new AbstractList<QuakeDescription>() {
+            private int mCachedIndex = -1;
+            private QuakeList mCachedRows;
+
+            @Override
+            public QuakeDescription get(int position) {
+                if (position < 0 || position >= size) {
+                    throw new IndexOutOfBoundsException( "Index " + position + ", size " + size );
+                }
+                int index = search( starts, blocks.length, position );
+                if (index != mCachedIndex) {
+                    try {
+                        mCachedRows = blocks[index].read();
+                    } catch (IOException e) {
+                        throw new IllegalStateException( "Cannot read spilled rows", e );
+                    }
+                    mCachedIndex = index;
+                }
+                return mCachedRows.get( position - starts[index] );
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /** Responds to {@link ComponentCallbacks2#onTrimMemory(int)} by evicting below the budget. */
+    public void trim(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // Critical, or the list is not even visible: keep only what is on screen.
+            evictDownTo( 0 );
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            evictDownTo( mBudgetBytes / 4 );
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            evictDownTo( mBudgetBytes / 2 );
+        }
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    public long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    public int getResidentRows() {
+        return mResidentRows;
+    }
+
+    public long getEvictionCount() {
+        return mEvictions;
+    }
+
+    public long getReloadCount() {
+        return mReloads;
+    }
+
+    /** Reads an evicted block back off the UI thread and makes it resident again. */
+    private final class ReloadTask extends AsyncTask<Void, Void, QuakeList> {
+        private final Block mBlock;
+        private final int mTaskGeneration;
+
+        ReloadTask(Block block, int generation) {
+            mBlock = block;
+            mTaskGeneration = generation;
+        }
+
+        @Override
+        protected QuakeList doInBackground(Void... unused) {
+            try {
+                return mBlock.read();
+            } catch (IOException e) {
+                Log.e( LOG_TAG, "Could not read spilled rows back", e );
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(QuakeList rows) {
+            mBlock.loading = false;
+            if (rows == null || mTaskGeneration != mGeneration || mBlock.rows != null) {
+                // A failed read leaves the placeholder; the next get tries again.
+                return;
+            }
+            mBlock.rows = rows;
+            mBlock.bytes = rows.getTable().getMemoryEstimate();
+            // Counts as just viewed, so making room does not evict it straight away.
+            mBlock.lastViewed = ++mClock;
+            mResidentBytes += mBlock.bytes;
+            mResidentRows += mBlock.size;
+            mReloads++;
+            PipelineMetrics.WINDOW_RELOADS.incrementAndGet();
+            evictDownTo( mBudgetBytes );
+            if (mListener != null) {
+                mListener.onRowsReloaded();
+            }
+        }
+    }
+
+    private static QuakeDescription placeholder() {
+        QuakeTable table = new QuakeTable( 1 );
+        table.append( null, 0, "", 0, 0, null, Double.NaN, Double.NaN, Double.NaN );
+        table.setDisplay( 0, "", QuakeFormatter.getMagnitudeColor( 0 ), "", "", "", "" );
+        return table.get( 0 );
+    }
+
+    /** Evicts blocks by policy until at most {@code target} bytes are resident. */
+    private void evictDownTo(long target) {
+        while (mResidentBytes > target) {
+            int victim = -1;
+            for (int i = 0; i < mBlocks.size(); i++) {
+                Block block = mBlocks.get( i );
+                if (block.rows != null && !isPinned( i )
+                        && (victim < 0 || evictsBefore( block, mBlocks.get( victim ) ))) {
+                    victim = i;
+                }
+            }
+            if (victim < 0) {
+                return;
+            }
+            evict( mBlocks.get( victim ) );
+        }
+    }
+
+    private boolean evictsBefore(Block a, Block b) {
+        if (POLICY_OLDEST.equals( mPolicy )) {
+            return a.newestTime < b.newestTime;
+        }
+        if (POLICY_LOWEST_MAGNITUDE.equals( mPolicy )) {
+            return a.largestMagnitude < b.largestMagnitude;
+        }
+        return a.lastViewed < b.lastViewed;
+    }
+
+    /** True for blocks on or near the screen, and for the one read last. */
+    private boolean isPinned(int index) {
+        Block block = mBlocks.get( index );
+        if (block.lastViewed == mClock && mClock > 0) {
+            return true;
+        }
+        int first = mStarts[index];
+        int last = first + block.size - 1;
+        return last >= mFirstVisible - PINNED_MARGIN && first <= mLastVisible + PINNED_MARGIN;
+    }
+
+    private void evict(final Block block) {
+        final QuakeList rows = block.rows;
+        block.rows = null;
+        mResidentBytes -= block.bytes;
+        mResidentRows -= block.size;
+        mEvictions++;
+        PipelineMetrics.WINDOW_EVICTIONS.incrementAndGet();
+        synchronized (block) {
+            if (block.onDisk || block.spilling != null) {
+                // Already written once; blocks never change, so the file is still good.
+                return;
+            }
+            block.spilling = rows;
+        }
+        mSpillExecutor.execute( new Runnable() {
+            @Override
+            public void run() {
+                synchronized (block) {
+                    try {
+                        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                            throw new IOException( "Cannot create " + mDir );
+                        }
+                        QuakeSnapshot.write( block.file, block.spilling, SPILL_KEY );
+                        block.onDisk = true;
+                        block.spilling = null;
+                    } catch (IOException e) {
+                        // The rows stay reachable through spilling, so nothing is lost.
+                        Log.e( LOG_TAG, "Could not spill rows to " + block.file, e );
+                    }
+                }
+            }
+        } );
+    }
+
+    private int findBlock(int position) {
+        return search( mStarts, mBlocks.size(), position );
+    }
+
+    /** Index of the block holding {@code position}, given the blocks' first positions. */
+    private static int search(int[] starts, int count, int position) {
+        int index = Arrays.binarySearch( starts, 0, count, position );
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private static void deleteFiles(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                Log.w( LOG_TAG, "Could not delete " + file );
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Answers queries from what the store already holds, where it can.
+ *
+ * Every sync, backfill window and live poll that succeeds leaves a {@link Region}: a time
+ * range, magnitude floor and box whose events were all fetched, and when. The store keeps
+ * the latest version of every event it is given, so a query whose range lies inside regions
+ * at or below its floor and around its box needs nothing from USGS: an M4.5 list is already
+ * in a fresh M2.5 window. {@link #plan} returns what no region covers, so only that part is
+ * fetched.
+ *
+ * A region fetched up to the time of its fetch is open: with a freshness bound, it counts
+ * as reaching the end of any query, since the events after it are no older than the bound
+ * allows. Otherwise the time between that fetch and now would never be covered.
+ */
+public final class QueryPlanner {
+
+    /**
+     * Slack for the device clock, which fetch times are taken from, being ahead of the
+     * USGS "updated" times a sync continues from.
+     */
+    static final long CLOCK_MARGIN_MILLIS = 5 * 60 * 1000;
+
+    /** A region of events fetched in full. */
+    public static final class Region {
+        final long start;
+        final long end;
+        final double minMagnitude;
+        final double south;
+        final double west;
+        final double north;
+        final double east;
+        final long fetchedAt;
+
+        Region(long start, long end, double minMagnitude, double south, double west,
+               double north, double east, long fetchedAt) {
+            this.start = start;
+            this.end = end;
+            this.minMagnitude = minMagnitude;
+            this.south = south;
+            this.west = west;
+            this.north = north;
+            this.east = east;
+            this.fetchedAt = fetchedAt;
+        }
+
+        /** Every event on the globe at or above the floor between start and end. */
+        public static Region world(long start, long end, double minMagnitude, long fetchedAt) {
+            return new Region( start, end, minMagnitude, -90, -180, 90, 180, fetchedAt );
+        }
+
+        /** True if this region's box holds the given one; either may cross the antimeridian. */
+        boolean containsBox(double south, double west, double north, double east) {
+            if (south < this.south || north > this.north) {
+                return false;
+            }
+            double width = lonSpan( this.west, this.east );
+            if (width >= 360) {
+                return true;
+            }
+            double offset = west - this.west;
+            if (offset < 0) {
+                offset += 360;
+            }
+            return offset + lonSpan( west, east ) <= width;
+        }
+
+        private static double lonSpan(double west, double east) {
+            return west <= east ? east - west : east - west + 360;
+        }
+
+        /** True if the region was fetched up to the time of the fetch. */
+        boolean isOpen() {
+            return end >= fetchedAt - CLOCK_MARGIN_MILLIS;
+        }
+    }
+
+    /** Where the regions are kept: {@link EarthquakeStore}, or a test's stand-in for it. */
+    public interface Coverage {
+        /** The regions at or below {@code minMagnitude} fetched since {@code notBefore}, by start. */
+        List<Region> getCoverage(double minMagnitude, long notBefore);
+
+        void addCoverage(Region region);
+    }
+
+    /** What a query needs fetched, after what is held is taken away. */
+    public static final class Plan {
+        private final List<long[]> mMissing;
+        private final long mCurrentAsOf;
+
+        Plan(List<long[]> missing, long currentAsOf) {
+            mMissing = missing;
+            mCurrentAsOf = currentAsOf;
+        }
+
+        /** The {start, end} ranges nothing covers, oldest first. */
+        public List<long[]> getMissing() {
+            return mMissing;
+        }
+
+        /** True if the query can be answered from the store alone. */
+        public boolean isCovered() {
+            return mMissing.isEmpty();
+        }
+
+        /**
+         * When the oldest region the plan relies on was fetched, or {@link Long#MAX_VALUE}
+         * if it relies on none. Events of the covered part may have changed since.
+         */
+        public long getCurrentAsOf() {
+            return mCurrentAsOf;
+        }
+    }
+
+    private QueryPlanner() {
+    }
+
+    /**
+     * Plans a worldwide query for the events at or above {@code minMagnitude} between
+     * {@code start} and {@code end}, using only regions fetched at or after
+     * {@code notBefore}, and counts the outcome in {@link PipelineMetrics}. With a
+     * {@code notBefore} of 0, as for history, open regions count only for the range they
+     * were fetched for.
+     */
+    public static Plan plan(Coverage coverage, double minMagnitude, long start, long end,
+                            long notBefore) {
+        Plan plan = plan( coverage.getCoverage( minMagnitude, notBefore ), minMagnitude,
+                -90, -180, 90, 180, start, end, notBefore > 0 ? notBefore : Long.MAX_VALUE );
+        if (plan.isCovered()) {
+            PipelineMetrics.PLANNER_HITS.incrementAndGet();
+        } else if (plan.getMissing().size() == 1 && plan.getMissing().get( 0 )[0] == start
+                && plan.getMissing().get( 0 )[1] == end) {
+            PipelineMetrics.PLANNER_MISSES.incrementAndGet();
+        } else {
+            PipelineMetrics.PLANNER_PARTIAL.incrementAndGet();
+        }
+        return plan;
+    }
+
+    /**
+     * Subtracts from [start, end) every region at or below {@code minMagnitude} whose box
+     * holds the query's. The regions must be ordered by start. Open regions fetched at or
+     * after {@code openSince} reach {@code end}.
+     */
+    static Plan plan(List<Region> regions, double minMagnitude, double south, double west,
+                     double north, double east, long start, long end, long openSince) {
+        List<long[]> missing = new ArrayList<>();
+        long currentAsOf = Long.MAX_VALUE;
+        long covered = start;
+        for (Region region : regions) {
+            if (covered >= end) {
+                break;
+            }
+            long regionEnd = region.isOpen() && region.fetchedAt >= openSince
+                    ? Math.max( region.end, end ) : region.end;
+            if (region.minMagnitude > minMagnitude || regionEnd <= covered
+                    || !region.containsBox( south, west, north, east )) {
+                continue;
+            }
+            if (region.start > covered) {
+                if (region.start >= end) {
+                    break;
+                }
+                missing.add( new long[]{covered, region.start} );
+            }
+            currentAsOf = Math.min( currentAsOf, region.fetchedAt );
+            covered = regionEnd;
+        }
+        if (covered < end) {
+            missing.add( new long[]{covered, end} );
+        }
+        return new Plan( missing.isEmpty() ? Collections.<long[]>emptyList() : missing,
+                currentAsOf );
+    }
+
+    /** Records that every event at or above the floor between start and end was fetched. */
+    public static void record(Coverage coverage, double minMagnitude, long start, long end,
+                              long fetchedAt) {
+        if (start < end) {
+            coverage.addCoverage( Region.world( start, end, minMagnitude, fetchedAt ) );
+        }
+    }
+
+    /** Share of plans answered without any request, or 0 before the first plan. */
+    public static double getHitRate() {
+        long hits = PipelineMetrics.PLANNER_HITS.get();
+        long plans = hits + PipelineMetrics.PLANNER_PARTIAL.get()
+                + PipelineMetrics.PLANNER_MISSES.get();
+        return plans == 0 ? 0 : (double) hits / plans;
+    }
+}
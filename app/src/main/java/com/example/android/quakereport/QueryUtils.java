@@ -10,13 +10,16 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.lang.reflect.Array;
-import java.net.HttpURLConnection;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Helper methods related to requesting and receiving earthquake data from USGS.
@@ -24,6 +27,47 @@ import java.util.List;
 public final class QueryUtils {
 
     public static final String LOG_TAG = QueryUtils.class.getSimpleName();
+
+    /**
+     * Parses a GeoJSON response body into earthquakes as it streams in. A body cut short
+     * gives the earthquakes read before the cut, which is fine for a page of the list.
+     */
+    private static final UsgsHttpClient.BodyParser<List<QuakeDescription>> FEATURE_PARSER =
+            new UsgsHttpClient.BodyParser<List<QuakeDescription>>() {
+                @Override
+                public List<QuakeDescription> parse(InputStream body) {
+                    return extractFeaturesFromStream(body);
+                }
+            };
+
+    /**
+     * Like {@link #FEATURE_PARSER}, but a body cut short fails the request. Deltas and
+     * feeds need this: a partial sync would be recorded as complete, and the events
+     * missing from a partial feed would be taken as deleted.
+     */
+    static final UsgsHttpClient.BodyParser<List<QuakeDescription>> STRICT_FEATURE_PARSER =
+            new UsgsHttpClient.BodyParser<List<QuakeDescription>>() {
+                @Override
+                public List<QuakeDescription> parse(InputStream body) throws IOException {
+                    GeoJsonQuakeParser parser = new GeoJsonQuakeParser(body);
+                    try {
+                        while (parser.nextQuake() != null) {
+                            // Each event is appended to the parser's table as it is read.
+                        }
+                    } catch (IOException e) {
+                        countBodyError(e);
+                        throw e;
+                    } finally {
+                        PipelineMetrics.EVENTS_PARSED.addAndGet(parser.getTable().size());
+                    }
+                    return parser.getTable().asList();
+                }
+            };
+
+    /** Requests currently running, keyed by URL, so identical requests can share one fetch. */
+    private static final ConcurrentHashMap<String, FutureTask<List<QuakeDescription>>> sInFlight =
+            new ConcurrentHashMap<>();
+
     /**
      * Query the USGS dataset and return an {@link QuakeDescription} object to represent a single earthquake.
      */
@@ -31,21 +75,42 @@ public final class QueryUtils {
         // Create URL object
         URL url = createUrl(requestUrl);
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
+        // Perform HTTP request to the URL and parse the features as they arrive
+        List<QuakeDescription> earthquake = new ArrayList<>();
         try {
-            jsonResponse = makeHttpRequest(url);
+            earthquake = makeHttpRequest(url, false);
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Error closing input stream", e);
+            Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results.", e);
         }
 
-        // Extract relevant fields from the JSON response and create an {@link Event} object
-        List<QuakeDescription> earthquake = extractFeaturesFromJson(jsonResponse);
-
         // Return the {@link Event}
         return earthquake;
     }
 
+    /**
+     * Like {@link #fetchEarthquakeData(String)}, but sends the validators from the last
+     * response for this URL. If the feed has not changed since then the server answers
+     * 304 and an empty list is returned, so only use this for delta queries whose
+     * previous results the caller has already stored. The body is parsed with
+     * {@link #STRICT_FEATURE_PARSER}, so a body cut short fails the whole request.
+     *
+     * @return the changed earthquakes, or null if the request failed or its body was
+     *         incomplete, so that a sync can tell "nothing changed" apart from "could not
+     *         find out"
+     */
+    public static List<QuakeDescription> fetchChangedEarthquakeData(String requestUrl) {
+        URL url = createUrl(requestUrl);
+        if (url == null) {
+            return null;
+        }
+        try {
+            return makeHttpRequest(url, true);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results.", e);
+            return null;
+        }
+    }
+
     /**
      * Returns new URL object from the given string URL.
      */
@@ -60,51 +125,76 @@ public final class QueryUtils {
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Make an HTTP request to the given URL and return the earthquakes in the response.
+     * If the same request is already running on another thread, wait for it and share
+     * its result instead of fetching the URL a second time. The rows of a shared result
+     * belong to one table, so their text is prepared before it is handed out and nobody
+     * writes the table after.
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
-
+    private static List<QuakeDescription> makeHttpRequest(final URL url, final boolean conditional)
+            throws IOException {
         // If the URL is null, then return early.
         if (url == null) {
-            return jsonResponse;
+            return new ArrayList<>();
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
-        try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
-            } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
-            }
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results.", e);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+        String key = (conditional ? "conditional " : "") + url;
+        FutureTask<List<QuakeDescription>> task = new FutureTask<>(
+                new Callable<List<QuakeDescription>>() {
+                    @Override
+                    public List<QuakeDescription> call() throws IOException {
+                        List<QuakeDescription> earthquakes = performHttpRequest(url, conditional);
+                        QuakeFormatter.prepareAll(earthquakes);
+                        return earthquakes;
+                    }
+                });
+        FutureTask<List<QuakeDescription>> inFlight = sInFlight.putIfAbsent(key, task);
+        if (inFlight == null) {
+            try {
+                task.run();
+            } finally {
+                sInFlight.remove(key, task);
             }
-            if (inputStream != null) {
-                inputStream.close();
+            inFlight = task;
+        } else {
+            PipelineMetrics.SHARED_REQUESTS.incrementAndGet();
+        }
+
+        try {
+            List<QuakeDescription> earthquakes = inFlight.get();
+            // Joined callers get their own list; the rows in it are only read from here on.
+            return inFlight == task ? earthquakes : new ArrayList<>(earthquakes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + url);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
+            throw new IOException(cause);
         }
-        return jsonResponse;
+    }
+
+    /**
+     * Perform the HTTP request for {@link #makeHttpRequest(URL, boolean)}. The body is parsed
+     * straight off the connection, so it is never held as a String.
+     */
+    private static List<QuakeDescription> performHttpRequest(URL url, boolean conditional)
+            throws IOException {
+        // Conditional requests are the sync deltas, which must arrive whole.
+        List<QuakeDescription> earthquakes = UsgsHttpClient.get(url, conditional,
+                conditional ? STRICT_FEATURE_PARSER : FEATURE_PARSER);
+        // Null means 304 Not Modified: nothing changed since the last response.
+        return earthquakes != null ? earthquakes : new ArrayList<QuakeDescription>();
     }
 
     /**
      * Convert the {@link InputStream} into a String which contains the
-     * whole JSON response from the server.
+     * whole JSON response from the server. Only used together with
+     * {@link #extractFeaturesFromJson(String)}; the network path streams instead.
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
+    static String readFromStream(InputStream inputStream) throws IOException {
         StringBuilder output = new StringBuilder();
         if (inputStream != null) {
             InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
@@ -127,14 +217,45 @@ public final class QueryUtils {
     private QueryUtils() {
     }
 
+    /**
+     * Return a list of {@link QuakeDescription} objects parsed one feature at a time from
+     * a GeoJSON stream. If the stream is malformed part way through, the earthquakes read
+     * before the error are returned.
+     */
+    public static List<QuakeDescription> extractFeaturesFromStream(InputStream inputStream) {
+        GeoJsonQuakeParser parser = new GeoJsonQuakeParser(inputStream);
+        try {
+            while (parser.nextQuake() != null) {
+                // Each event is appended to the parser's table as it is read.
+            }
+        } catch (IOException e) {
+            countBodyError(e);
+            Log.e(LOG_TAG, "Problem parsing the earthquake JSON results", e);
+        }
+        PipelineMetrics.EVENTS_PARSED.addAndGet(parser.getTable().size());
+        return parser.getTable().asList();
+    }
+
+    /**
+     * Counts a body that could not be read to the end as a parse error if it was not valid
+     * JSON, and as a read error if the connection failed under it.
+     */
+    static void countBodyError(IOException e) {
+        if (e instanceof JsonPullReader.SyntaxException) {
+            PipelineMetrics.PARSE_ERRORS.incrementAndGet();
+        } else {
+            PipelineMetrics.READ_ERRORS.incrementAndGet();
+        }
+    }
+
     /**
      * Return a list of {@link QuakeDescription} objects that has been built up from
-     * parsing a JSON response.
+     * parsing a JSON response held fully in memory.
      */
     public static List<QuakeDescription> extractFeaturesFromJson(String jsonResponse) {
 
-        // Create an empty ArrayList that we can start adding earthquakes to
-        List<QuakeDescription> earthquakes = new ArrayList<>();
+        // Create an empty table that we can start adding earthquakes to
+        QuakeTable earthquakes = new QuakeTable();
 
         // Try to parse the SAMPLE_JSON_RESPONSE. If there's a problem with the way the JSON
         // is formatted, a JSONException exception object will be thrown.
@@ -156,12 +277,14 @@ public final class QueryUtils {
                     String place = propertiesObj.getString( "place" );
                     long time = propertiesObj.getLong( "time" );
                     String url = propertiesObj.getString( "url" );
-                    earthquakes.add( new QuakeDescription( mag , place, time, url ) );
+                    earthquakes.append( null, mag, place, time, time, url,
+                            Double.NaN, Double.NaN, Double.NaN );
 
                 }
             }
 
         } catch (JSONException e) {
+            PipelineMetrics.PARSE_ERRORS.incrementAndGet();
             // If an error is thrown when executing any of the above statements in the "try" block,
             // catch the exception here, so the app doesn't crash. Print a log message
             // with the message from the exception.
@@ -169,7 +292,7 @@ public final class QueryUtils {
         }
 
         // Return the list of earthquakes
-        return earthquakes;
+        return earthquakes.asList();
     }
 
 
@@ -32,6 +32,15 @@ public class SettingActivity extends AppCompatActivity {
 
             Preference orderBy = findPreference(getString(R.string.settings_order_by_key));
             bindPreferenceSummaryToValue(orderBy);
+
+            Preference liveInterval = findPreference(getString(R.string.settings_live_interval_key));
+            bindPreferenceSummaryToValue(liveInterval);
+
+            Preference memoryBudget = findPreference(getString(R.string.settings_memory_budget_key));
+            bindPreferenceSummaryToValue(memoryBudget);
+
+            Preference evictionPolicy = findPreference(getString(R.string.settings_eviction_policy_key));
+            bindPreferenceSummaryToValue(evictionPolicy);
         }
 
         @Override
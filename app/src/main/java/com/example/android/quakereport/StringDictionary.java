@@ -0,0 +1,86 @@
+package com.example.android.quakereport;
+
+/**
+ * Maps strings to small int codes and back, so a column of mostly repeated strings can be
+ * stored as an int[] with each distinct string kept once.
+ *
+ * Code 0 always stands for null. Not thread-safe; a dictionary belongs to one
+ * {@link QuakeTable} and is written only by whoever fills that table.
+ */
+public final class StringDictionary {
+
+    private String[] mStrings = new String[16];
+    private int mSize = 1;
+
+    /** Open-addressing hash table of codes; 0 marks an empty slot. */
+    private int[] mSlots = new int[32];
+
+    /** Returns the code of {@code value}, adding it if it is new. */
+    public int encode(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int mask = mSlots.length - 1;
+        int slot = spread( value.hashCode() ) & mask;
+        while (mSlots[slot] != 0) {
+            int code = mSlots[slot];
+            if (mStrings[code].equals( value )) {
+                return code;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (mSize == mStrings.length) {
+            String[] grown = new String[mSize * 2];
+            System.arraycopy( mStrings, 0, grown, 0, mSize );
+            mStrings = grown;
+        }
+        int code = mSize++;
+        mStrings[code] = value;
+        mSlots[slot] = code;
+        if (mSize * 2 > mSlots.length) {
+            rehash();
+        }
+        return code;
+    }
+
+    /** Returns the string for {@code code}, or null for code 0. */
+    public String decode(int code) {
+        return mStrings[code];
+    }
+
+    /** Number of distinct strings, not counting null. */
+    public int size() {
+        return mSize - 1;
+    }
+
+    /** Rough heap footprint in bytes: the two arrays and every string held. */
+    public long getMemoryEstimate() {
+        long bytes = 4L * mStrings.length + 4L * mSlots.length;
+        for (int code = 1; code < mSize; code++) {
+            bytes += estimateBytes( mStrings[code] );
+        }
+        return bytes;
+    }
+
+    /** Rough heap footprint of one string: the String object and its char array. */
+    static long estimateBytes(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    private void rehash() {
+        int[] slots = new int[mSlots.length * 2];
+        int mask = slots.length - 1;
+        for (int code = 1; code < mSize; code++) {
+            int slot = spread( mStrings[code].hashCode() ) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = code;
+        }
+        mSlots = slots;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+/**
+ * Chart of magnitude over time above the list, drawn from a {@link QuakeTimeline}.
+ *
+ * Every frame asks the timeline for one column per pixel, the smallest and largest
+ * magnitude and the count of the events in it, and draws each as a vertical stroke in the
+ * color of its largest magnitude, more opaque the more events it holds. A frame therefore
+ * costs the same however many events there are. Drag to pan, pinch to zoom, double-tap to
+ * see everything again.
+ */
+public class TimelineView extends View {
+
+    /** The shortest span a zoom may reach. */
+    private static final long MIN_SPAN_MILLIS = 60 * 60 * 1000;
+
+    /** Opacity of a column with one event, and what each doubling of the count adds. */
+    private static final int BASE_ALPHA = 96;
+    private static final int ALPHA_PER_DOUBLING = 32;
+
+    private QuakeTimeline mTimeline;
+
+    /** Bottom and top of the magnitude axis. */
+    private float mFloor;
+    private float mCeiling;
+
+    /** The span on screen; both 0 until a timeline with events is set. */
+    private long mStart;
+    private long mEnd;
+
+    /** Column buffers, sized to the view so drawing never allocates. */
+    private float[] mLow = new float[0];
+    private float[] mHigh = new float[0];
+    private int[] mCounts = new int[0];
+
+    private final int[] mColors = new int[QuakeStats.BANDS];
+    private final Paint mPaint = new Paint();
+    private final Paint mAxisPaint = new Paint();
+
+    private final GestureDetector mGestures;
+    private final ScaleGestureDetector mScaleGestures;
+
+    public TimelineView(Context context, AttributeSet attrs) {
+        super( context, attrs );
+        for (int band = 0; band < QuakeStats.BANDS; band++) {
+            mColors[band] = ContextCompat.getColor( context,
+                    QuakeFormatter.getMagnitudeColor( band ) );
+        }
+        mPaint.setStrokeWidth( 1 );
+        mAxisPaint.setColor( ContextCompat.getColor( context, R.color.textColorEarthquakeDetails ) );
+        mAxisPaint.setStrokeWidth( 1 );
+
+        mGestures = new GestureDetector( context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX,
+                                    float distanceY) {
+                pan( (long) (distanceX * (mEnd - mStart) / Math.max( 1, getWidth() )) );
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                showAll();
+                return true;
+            }
+        } );
+        mScaleGestures = new ScaleGestureDetector( context,
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    @Override
+                    public boolean onScale(ScaleGestureDetector detector) {
+                        zoom( detector.getScaleFactor(), detector.getFocusX() );
+                        return true;
+                    }
+                } );
+    }
+
+    /**
+     * Shows the given timeline, or nothing if it is null. The span shown is kept if the
+     * timeline is the one already shown, and reset to all of it otherwise.
+     */
+    public void setTimeline(QuakeTimeline timeline) {
+        boolean changed = timeline != mTimeline;
+        mTimeline = timeline;
+        if (changed || mEnd <= mStart) {
+            showAll();
+        } else {
+            invalidate();
+        }
+    }
+
+    /** Shows every event of the timeline. */
+    public void showAll() {
+        mStart = 0;
+        mEnd = 0;
+        if (mTimeline != null && mTimeline.size() > 0) {
+            long start = mTimeline.getStart();
+            long end = Math.max( mTimeline.getEnd() + 1, start + MIN_SPAN_MILLIS );
+            // A little room on both sides, so the first and last events are not on the edge.
+            long margin = (end - start) / 50;
+            mStart = start - margin;
+            mEnd = end + margin;
+        }
+        invalidate();
+    }
+
+    private void pan(long millis) {
+        mStart += millis;
+        mEnd += millis;
+        invalidate();
+    }
+
+    /** Scales the span by 1 / {@code factor}, keeping the time under {@code focusX} in place. */
+    private void zoom(float factor, float focusX) {
+        long span = mEnd - mStart;
+        if (span <= 0 || getWidth() == 0) {
+            return;
+        }
+        long newSpan = Math.max( MIN_SPAN_MILLIS, (long) (span / factor) );
+        double focus = Math.max( 0, Math.min( 1, focusX / getWidth() ) );
+        long focusTime = mStart + (long) (span * focus);
+        mStart = focusTime - (long) (newSpan * focus);
+        mEnd = mStart + newSpan;
+        invalidate();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        // Keep a horizontal drag for the chart rather than the views around it.
+        getParent().requestDisallowInterceptTouchEvent( true );
+        boolean handled = mScaleGestures.onTouchEvent( event );
+        return mGestures.onTouchEvent( event ) || handled;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged( w, h, oldw, oldh );
+        mLow = new float[w];
+        mHigh = new float[w];
+        mCounts = new int[w];
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        long begin = System.nanoTime();
+        int width = getWidth();
+        int height = getHeight() - getPaddingTop() - getPaddingBottom();
+        float bottom = getHeight() - getPaddingBottom();
+        canvas.drawLine( 0, bottom, width, bottom, mAxisPaint );
+        if (mTimeline == null || mEnd <= mStart || width == 0 || height <= 0) {
+            return;
+        }
+        updateAxis();
+        mTimeline.sample( mStart, mEnd, width, mLow, mHigh, mCounts );
+        float pixelsPerMagnitude = height / (mCeiling - mFloor);
+        for (int x = 0; x < width; x++) {
+            int count = mCounts[x];
+            if (count == 0) {
+                continue;
+            }
+            mPaint.setColor( mColors[QuakeStats.band( mHigh[x] )] );
+            int doublings = 31 - Integer.numberOfLeadingZeros( count );
+            mPaint.setAlpha( Math.min( 255, BASE_ALPHA + ALPHA_PER_DOUBLING * doublings ) );
+            // Magnitudes below the axis are drawn on it.
+            float top = Math.min( bottom - 2, bottom - (mHigh[x] - mFloor) * pixelsPerMagnitude );
+            // At least two pixels tall, so a single event shows as a dot.
+            float low = Math.max( top + 2,
+                    Math.min( bottom, bottom - (mLow[x] - mFloor) * pixelsPerMagnitude ) );
+            canvas.drawLine( x + 0.5f, top, x + 0.5f, low, mPaint );
+        }
+        PipelineMetrics.TIMELINE.recordNanos( System.nanoTime() - begin );
+    }
+
+    /** Fits the magnitude axis to the timeline's floor and its largest event. */
+    private void updateAxis() {
+        double minMagnitude = mTimeline.getMinMagnitude();
+        mFloor = (float) Math.floor( Math.max( 0, minMagnitude ) );
+        float max = mTimeline.getMaxMagnitude();
+        mCeiling = Float.isNaN( max ) ? mFloor + 1 : Math.max( mFloor + 1, (float) Math.ceil( max ) );
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.android.quakereport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP layer for the USGS web service.
+ *
+ * Asks for gzip-compressed bodies, leaves connections open so the platform can pool
+ * them, and remembers the ETag/Last-Modified validators of each URL so a repeated
+ * conditional request for an unchanged feed costs a 304 with no body.
+ */
+public final class UsgsHttpClient {
+
+    /** How many URLs to remember validators for. */
+    private static final int MAX_VALIDATORS = 64;
+
+    /** Reads a successful response body into a result. */
+    public interface BodyParser<T> {
+        T parse(InputStream body) throws IOException;
+    }
+
+    /** ETag and Last-Modified values last seen for a URL. */
+    private static final class Validators {
+        final String eTag;
+        final String lastModified;
+
+        Validators(String eTag, String lastModified) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static final Map<String, Validators> sValidators =
+            new LinkedHashMap<String, Validators>( 16, 0.75f, true ) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Validators> eldest) {
+                    return size() > MAX_VALIDATORS;
+                }
+            };
+
+    private UsgsHttpClient() {
+    }
+
+    /**
+     * Performs a GET and hands the decoded body to {@code parser}. Each stage is timed
+     * into {@link PipelineMetrics}.
+     *
+     * @param conditional send the validators remembered for this URL. Only pass true when
+     *                    the caller already holds the result of the previous request, since
+     *                    an unchanged resource then comes back without a body.
+     *
+     * @return the parsed body, or null if the server answered 304 Not Modified
+     * @throws IOException if the request failed or the server answered with an error
+     */
+    public static <T> T get(URL url, boolean conditional, BodyParser<T> parser)
+            throws IOException {
+        String key = url.toString();
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        try {
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setReadTimeout( 10000 /* milliseconds */ );
+            urlConnection.setConnectTimeout( 15000 /* milliseconds */ );
+            urlConnection.setRequestMethod( "GET" );
+            // Setting this by hand turns off transparent decompression, so the bytes we
+            // count below are the compressed bytes that actually crossed the network.
+            urlConnection.setRequestProperty( "Accept-Encoding", "gzip" );
+            if (conditional) {
+                Validators validators;
+                synchronized (sValidators) {
+                    validators = sValidators.get( key );
+                }
+                if (validators != null && validators.eTag != null) {
+                    urlConnection.setRequestProperty( "If-None-Match", validators.eTag );
+                }
+                if (validators != null && validators.lastModified != null) {
+                    urlConnection.setRequestProperty( "If-Modified-Since", validators.lastModified );
+                }
+            }
+            long start = System.nanoTime();
+            urlConnection.connect();
+            long connected = System.nanoTime();
+            PipelineMetrics.CONNECT.recordNanos( connected - start );
+            PipelineMetrics.REQUESTS.incrementAndGet();
+
+            int responseCode = urlConnection.getResponseCode();
+            long firstByte = System.nanoTime();
+            PipelineMetrics.TIME_TO_FIRST_BYTE.recordNanos( firstByte - connected );
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                PipelineMetrics.NOT_MODIFIED.incrementAndGet();
+                return null;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                // Read the error body to the end so the connection can go back to the pool.
+                InputStream errorStream = urlConnection.getErrorStream();
+                if (errorStream != null) {
+                    drain( new CountingInputStream( errorStream, PipelineMetrics.BYTES_ON_WIRE ) );
+                    errorStream.close();
+                }
+                throw new IOException( "Error response code: " + responseCode );
+            }
+
+            String eTag = urlConnection.getHeaderField( "ETag" );
+            String lastModified = urlConnection.getHeaderField( "Last-Modified" );
+            CountingInputStream wire = new CountingInputStream( urlConnection.getInputStream(),
+                    PipelineMetrics.BYTES_ON_WIRE );
+            inputStream = wire;
+            if ("gzip".equalsIgnoreCase( urlConnection.getContentEncoding() )) {
+                inputStream = new GZIPInputStream( inputStream );
+            }
+            inputStream = new CountingInputStream( inputStream, PipelineMetrics.BYTES_DECODED );
+            T result;
+            try {
+                result = parser.parse( inputStream );
+                drain( inputStream );
+            } catch (IOException e) {
+                // The caller never got this body, so a 304 must not vouch for it next time.
+                synchronized (sValidators) {
+                    sValidators.remove( key );
+                }
+                throw e;
+            }
+            // Only now does the caller hold what the validators describe.
+            synchronized (sValidators) {
+                if (eTag != null || lastModified != null) {
+                    sValidators.put( key, new Validators( eTag, lastModified ) );
+                } else {
+                    sValidators.remove( key );
+                }
+            }
+            // The parser pulls bytes as it goes, so the two overlap: time blocked on the
+            // network is the download, and the rest of the body time is decoding and parsing.
+            long bodyNanos = System.nanoTime() - firstByte;
+            PipelineMetrics.DOWNLOAD.recordNanos( wire.getReadNanos() );
+            PipelineMetrics.PARSE.recordNanos( bodyNanos - wire.getReadNanos() );
+            return result;
+        } catch (IOException e) {
+            PipelineMetrics.REQUEST_ERRORS.incrementAndGet();
+            throw e;
+        } finally {
+            // No disconnect(): closing the body is what hands the socket back for reuse.
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+    }
+
+    /** Number of requests that reached the server. */
+    public static long getRequestCount() {
+        return PipelineMetrics.REQUESTS.get();
+    }
+
+    /** Number of conditional requests answered with 304 Not Modified. */
+    public static long getNotModifiedCount() {
+        return PipelineMetrics.NOT_MODIFIED.get();
+    }
+
+    /** Response body bytes as transferred, i.e. before gzip decoding. */
+    public static long getBytesOnWire() {
+        return PipelineMetrics.BYTES_ON_WIRE.get();
+    }
+
+    /** Response body bytes after gzip decoding. */
+    public static long getBytesDecoded() {
+        return PipelineMetrics.BYTES_DECODED.get();
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] skipBuffer = new byte[1024];
+        while (in.read( skipBuffer ) != -1) {
+            // Discard whatever the parser did not need.
+        }
+    }
+
+    /** Adds every byte read through it to a shared counter, and times the reads. */
+    private static final class CountingInputStream extends FilterInputStream {
+        private final AtomicLong mCounter;
+        private long mReadNanos = 0;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super( in );
+            mCounter = counter;
+        }
+
+        /** Total time spent inside read calls. */
+        long getReadNanos() {
+            return mReadNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mReadNanos += System.nanoTime() - start;
+            if (b != -1) {
+                mCounter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read( buffer, offset, count );
+            mReadNanos += System.nanoTime() - start;
+            if (read > 0) {
+                mCounter.addAndGet( read );
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip( n );
+            mCounter.addAndGet( skipped );
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class AlertMatcherTest {
+
+    private static final long NOW = 1513728000000L;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static List<String> names(List<AlertRule> rules) {
+        List<String> names = new ArrayList<>();
+        for (AlertRule rule : rules) {
+            names.add( rule.getName() );
+        }
+        Collections.sort( names );
+        return names;
+    }
+
+    private static List<String> match(AlertMatcher matcher, double magnitude, long time,
+                                      double latitude, double longitude) {
+        List<AlertRule> out = new ArrayList<>();
+        int matched = matcher.match( magnitude, time, latitude, longitude, NOW, out );
+        assertEquals( out.size(), matched );
+        return names( out );
+    }
+
+    @Test
+    public void matchesByMagnitudeAgeAndArea() {
+        AlertMatcher matcher = new AlertMatcher( Arrays.asList(
+                AlertRule.anywhere( "big", 6, 0 ),
+                AlertRule.anywhere( "recent", 3, HOUR ),
+                AlertRule.withinRadius( "tokyo", 4, 35.68, 139.69, 200, 0 ),
+                AlertRule.withinBox( "california", 2.5, 32, -125, 42, -114, 0 ) ) );
+        assertEquals( 4, matcher.size() );
+        assertEquals( Arrays.asList( "big", "recent", "tokyo" ),
+                match( matcher, 6.5, NOW, 36, 140 ) );
+        assertEquals( Arrays.asList( "tokyo" ), match( matcher, 4.5, NOW - 2 * HOUR, 36, 140 ) );
+        assertEquals( Arrays.asList( "california" ),
+                match( matcher, 2.7, NOW - 2 * HOUR, 34, -118 ) );
+        assertEquals( Collections.<String>emptyList(), match( matcher, 2, NOW, 34, -118 ) );
+    }
+
+    @Test
+    public void eventsWithoutALocationOnlyMatchRulesWithoutAnArea() {
+        AlertMatcher matcher = new AlertMatcher( Arrays.asList(
+                AlertRule.anywhere( "any", 0, 0 ),
+                AlertRule.withinBox( "box", 0, -10, -10, 10, 10, 0 ) ) );
+        assertEquals( Arrays.asList( "any" ), match( matcher, 5, NOW, Double.NaN, Double.NaN ) );
+    }
+
+    @Test
+    public void areasAcrossTheAntimeridianAndPoles() {
+        AlertMatcher matcher = new AlertMatcher( Arrays.asList(
+                AlertRule.withinBox( "fiji", 0, -25, 170, -10, -170, 0 ),
+                AlertRule.withinBox( "eastEdge", 0, 50, 170, 60, 180, 0 ),
+                AlertRule.withinRadius( "aleutians", 0, 52, 179, 300, 0 ),
+                AlertRule.withinRadius( "pole", 0, 89, 0, 300, 0 ) ) );
+        assertEquals( Arrays.asList( "fiji" ), match( matcher, 5, NOW, -18, 178 ) );
+        assertEquals( Arrays.asList( "fiji" ), match( matcher, 5, NOW, -18, -178 ) );
+        assertEquals( Collections.<String>emptyList(), match( matcher, 5, NOW, -18, -160 ) );
+        assertEquals( Arrays.asList( "aleutians", "eastEdge" ),
+                match( matcher, 5, NOW, 52, 180 ) );
+        assertEquals( Arrays.asList( "aleutians" ), match( matcher, 5, NOW, 52, -180 ) );
+        assertEquals( Arrays.asList( "aleutians" ), match( matcher, 5, NOW, 52, -178 ) );
+        assertEquals( Arrays.asList( "pole" ), match( matcher, 5, NOW, 88, -120 ) );
+    }
+
+    /** The index must find exactly the rules a check of every rule finds. */
+    @Test
+    public void matchesWhatCheckingEveryRuleFinds() {
+        Random random = new Random( 18 );
+        List<AlertRule> rules = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            double floor = random.nextInt( 60 ) / 10.0;
+            long maxAge = random.nextBoolean() ? 0 : random.nextInt( 48 ) * HOUR;
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            switch (random.nextInt( 3 )) {
+                case 0:
+                    rules.add( AlertRule.anywhere( "r" + i, floor, maxAge ) );
+                    break;
+                case 1:
+                    rules.add( AlertRule.withinRadius( "r" + i, floor, latitude, longitude,
+                            random.nextDouble() * 2000, maxAge ) );
+                    break;
+                default:
+                    double north = Math.min( 90, latitude + random.nextDouble() * 30 );
+                    double east = longitude + random.nextDouble() * 40;
+                    rules.add( AlertRule.withinBox( "r" + i, floor, latitude, longitude, north,
+                            east > 180 ? east - 360 : east, maxAge ) );
+            }
+        }
+        AlertMatcher matcher = new AlertMatcher( rules );
+        for (int i = 0; i < 20000; i++) {
+            double magnitude = random.nextInt( 80 ) / 10.0;
+            long time = NOW - random.nextInt( 72 ) * HOUR;
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            List<AlertRule> expected = new ArrayList<>();
+            for (AlertRule rule : rules) {
+                if (rule.matches( magnitude, time, latitude, longitude, NOW )) {
+                    expected.add( rule );
+                }
+            }
+            assertEquals( names( expected ), match( matcher, magnitude, time, latitude, longitude ) );
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * GeoJSON responses of any size for the benchmarks, in the exact shape USGS serves.
+ *
+ * Only a ten-feature response is checked in ({@code usgs_sample.geojson}); a 100k-feature
+ * response is over 70 MB. Larger fixtures replay its features, each copy with its own id,
+ * time, magnitude and epicenter, so every field the app reads varies as it would in a real
+ * feed while the members it skips keep their real size and nesting. The output is the same
+ * on every run.
+ */
+final class BenchmarkFixtures {
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private static final Pattern ID = Pattern.compile( "\"id\":\"([a-z]{2})([0-9a-z]+)\"}$" );
+    private static final Pattern MAG = Pattern.compile( "\"mag\":[-0-9.]+" );
+    private static final Pattern TIME = Pattern.compile( "\"time\":[0-9]+" );
+    private static final Pattern UPDATED = Pattern.compile( "\"updated\":[0-9]+" );
+    private static final Pattern COORDINATES = Pattern.compile( "\"coordinates\":\\[[^\\]]*\\]" );
+
+    private static final Map<Integer, byte[]> sCache = new HashMap<>();
+
+    private static String sHead;
+    private static String sTail;
+    private static List<String> sFeatures;
+
+    private BenchmarkFixtures() {
+    }
+
+    /** Returns a response body with {@code featureCount} features, built once per size. */
+    static synchronized byte[] geoJson(int featureCount) throws IOException {
+        byte[] fixture = sCache.get( featureCount );
+        if (fixture == null) {
+            fixture = build( featureCount ).getBytes( UTF_8 );
+            sCache.put( featureCount, fixture );
+        }
+        return fixture;
+    }
+
+    /**
+     * Returns the features of the {@code featureCount}-feature response one by one, as
+     * GeoJSON text, latest first.
+     */
+    static List<String> features(int featureCount) throws IOException {
+        loadSample();
+        List<String> features = new ArrayList<>( featureCount );
+        Random random = new Random( 42 );
+        long time = 1513728000000L;
+        for (int i = 0; i < featureCount; i++) {
+            String feature = sFeatures.get( i % sFeatures.size() );
+            if (i >= sFeatures.size()) {
+                feature = vary( feature, i, random, time );
+            }
+            features.add( feature );
+            time -= 1 + random.nextInt( 120000 );
+        }
+        return features;
+    }
+
+    /** Wraps features in the response envelope USGS serves them in. */
+    static String envelope(List<String> features) throws IOException {
+        loadSample();
+        int length = sHead.length() + sTail.length();
+        for (String feature : features) {
+            length += feature.length() + 1;
+        }
+        StringBuilder out = new StringBuilder( length );
+        out.append( sHead );
+        for (int i = 0; i < features.size(); i++) {
+            if (i > 0) {
+                out.append( ',' );
+            }
+            out.append( features.get( i ) );
+        }
+        out.append( sTail );
+        return out.toString();
+    }
+
+    /** Product types of a moderate event's detail document, and files in each. */
+    private static final String[] PRODUCTS = {"origin", "phase-data", "dyfi", "shakemap",
+            "losspager", "moment-tensor", "nearby-cities"};
+    private static final int[] PRODUCT_FILES = {6, 12, 18, 40, 14, 8, 2};
+
+    /**
+     * The detail document USGS serves for a feature: the feature itself, with the
+     * "products" that only the detail carries, each listing its files the way the real
+     * ones do. About 20 KB.
+     */
+    static byte[] detail(String feature) {
+        StringBuilder products = new StringBuilder( 24 * 1024 ).append( "\"products\":{" );
+        for (int p = 0; p < PRODUCTS.length; p++) {
+            String type = PRODUCTS[p];
+            if (p > 0) {
+                products.append( ',' );
+            }
+            products.append( '"' ).append( type ).append( "\":[{\"indexid\":\"" ).append( 1000 + p )
+                    .append( "\",\"id\":\"urn:usgs-product:us:" ).append( type )
+                    .append( ":1\",\"type\":\"" ).append( type )
+                    .append( "\",\"status\":\"UPDATE\",\"source\":\"us\",\"updateTime\":1513728000000,"
+                            + "\"properties\":{\"eventsource\":\"us\",\"review-status\":\"reviewed\"},"
+                            + "\"preferredWeight\":156,\"contents\":{" );
+            for (int f = 0; f < PRODUCT_FILES[p]; f++) {
+                if (f > 0) {
+                    products.append( ',' );
+                }
+                String name = "download/" + type + "_" + f + ".xml";
+                products.append( '"' ).append( name )
+                        .append( "\":{\"contentType\":\"application/xml\",\"lastModified\":1513728000000,"
+                                + "\"length\":" ).append( 1000 + 37 * f )
+                        .append( ",\"url\":\"https://earthquake.usgs.gov/archive/product/" )
+                        .append( type ).append( "/us/1513728000000/" ).append( name ).append( "\"}" );
+            }
+            products.append( "}}]" );
+        }
+        products.append( "}," );
+        String document = feature.replaceFirst( "\"properties\":\\{",
+                Matcher.quoteReplacement( "\"properties\":{" + products ) );
+        return document.getBytes( UTF_8 );
+    }
+
+    private static String build(int featureCount) throws IOException {
+        return envelope( features( featureCount ) );
+    }
+
+    /** A copy of a recorded feature that looks like a different event. */
+    private static String vary(String feature, int copy, Random random, long time) {
+        Matcher id = ID.matcher( feature );
+        if (!id.find()) {
+            throw new IllegalStateException( "Sample feature without an id" );
+        }
+        String oldId = id.group( 1 ) + id.group( 2 );
+        String newId = id.group( 1 ) + String.format( Locale.US, "%08d", copy );
+        feature = feature.replace( oldId, newId ).replace( "\"code\":\"" + id.group( 2 ) + "\"",
+                "\"code\":\"" + newId.substring( 2 ) + "\"" );
+
+        // Mostly small events, as in a real catalog.
+        double magnitude = Math.min( 9.5, -Math.log( 1 - random.nextDouble() ) / Math.log( 10 ) * 1.2 + 1 );
+        double longitude = random.nextDouble() * 360 - 180;
+        double latitude = Math.toDegrees( Math.asin( random.nextDouble() * 2 - 1 ) );
+        double depth = random.nextDouble() * 300;
+        feature = MAG.matcher( feature ).replaceFirst(
+                String.format( Locale.US, "\"mag\":%.2f", magnitude ) );
+        feature = TIME.matcher( feature ).replaceFirst( "\"time\":" + time );
+        feature = UPDATED.matcher( feature ).replaceFirst(
+                "\"updated\":" + (time + random.nextInt( 86400000 )) );
+        return COORDINATES.matcher( feature ).replaceFirst( String.format( Locale.US,
+                "\"coordinates\":[%.4f,%.4f,%.2f]", longitude, latitude, depth ) );
+    }
+
+    /** Splits the recorded response into the part before, each feature, and the part after. */
+    private static void loadSample() throws IOException {
+        if (sFeatures != null) {
+            return;
+        }
+        String sample = new String( readResource( "usgs_sample.geojson" ), UTF_8 ).trim();
+        int start = sample.indexOf( "\"features\":[" ) + "\"features\":[".length();
+        int end = sample.lastIndexOf( "],\"bbox\"" );
+        sHead = sample.substring( 0, start );
+        sTail = sample.substring( end );
+        List<String> features = new ArrayList<>();
+        String separator = "},{\"type\":\"Feature\"";
+        String body = sample.substring( start, end );
+        int from = 0;
+        int next;
+        while ((next = body.indexOf( separator, from )) != -1) {
+            features.add( body.substring( from, next + 1 ) );
+            from = next + 2;
+        }
+        features.add( body.substring( from ) );
+        sFeatures = features;
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = BenchmarkFixtures.class.getClassLoader().getResourceAsStream( name );
+        if (in == null) {
+            throw new IOException( "Missing test resource " + name );
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read( buffer )) != -1) {
+                out.write( buffer, 0, read );
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
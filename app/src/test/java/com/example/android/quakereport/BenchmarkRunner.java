@@ -0,0 +1,188 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A small JMH-style harness for the benchmarks, runnable by the plain JUnit runner.
+ *
+ * Each benchmark is warmed up, then invoked repeatedly with every invocation timed on its
+ * own, so the report has latency percentiles as well as throughput. Allocation is measured
+ * per invocation with the HotSpot per-thread allocation counter. Work an invocation needs
+ * but should not be charged for goes in {@link Op#setUp()}.
+ */
+final class BenchmarkRunner {
+
+    private static final long WARMUP_NANOS = 1000000000L;
+    private static final long MEASURE_NANOS = 2000000000L;
+    private static final int MIN_WARMUP_INVOCATIONS = 3;
+    private static final int MIN_INVOCATIONS = 10;
+
+    /** One benchmarked operation. */
+    interface Op {
+        /** Prepares one invocation; not timed. */
+        void setUp() throws Exception;
+
+        /** The timed work. The result is consumed so the JIT cannot drop it. */
+        Object run() throws Exception;
+    }
+
+    /** Base for operations that need no per-invocation setup. */
+    abstract static class SimpleOp implements Op {
+        @Override
+        public void setUp() {
+        }
+    }
+
+    /** What one benchmark measured. */
+    static final class Result {
+        final String name;
+        final int items;
+        final int invocations;
+        final double opsPerSecond;
+        final double p50Millis;
+        final double p99Millis;
+        final double bytesPerOp;
+        final double allocMbPerSecond;
+
+        Result(String name, int items, long[] nanos, long totalNanos, long allocatedBytes) {
+            this.name = name;
+            this.items = items;
+            invocations = nanos.length;
+            Arrays.sort( nanos );
+            opsPerSecond = invocations * 1e9 / totalNanos;
+            p50Millis = percentile( nanos, 0.50 ) / 1e6;
+            p99Millis = percentile( nanos, 0.99 ) / 1e6;
+            bytesPerOp = allocatedBytes < 0 ? -1 : (double) allocatedBytes / invocations;
+            allocMbPerSecond = allocatedBytes < 0 ? -1 : allocatedBytes * 1e9 / totalNanos / (1 << 20);
+        }
+
+        /** Items (features, rows) processed per second. */
+        double itemsPerSecond() {
+            return opsPerSecond * items;
+        }
+
+        String key() {
+            return name + "@" + items;
+        }
+    }
+
+    /** Sink for results, read nowhere; volatile so the writes cannot be elided. */
+    private static volatile int sSink;
+
+    private final List<Result> mResults = new ArrayList<>();
+
+    Result run(String name, int items, Op op) throws Exception {
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        for (int i = 0; i < MIN_WARMUP_INVOCATIONS || System.nanoTime() < warmupEnd; i++) {
+            op.setUp();
+            consume( op.run() );
+        }
+
+        long[] nanos = new long[64];
+        int count = 0;
+        long total = 0;
+        long allocated = 0;
+        while (count < MIN_INVOCATIONS || total < MEASURE_NANOS) {
+            op.setUp();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            Object result = op.run();
+            long elapsed = System.nanoTime() - start;
+            long allocatedAfter = allocatedBytes();
+            consume( result );
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf( nanos, count * 2 );
+            }
+            nanos[count++] = elapsed;
+            total += elapsed;
+            allocated = allocatedBefore < 0 ? -1 : allocated + allocatedAfter - allocatedBefore;
+        }
+        Result result = new Result( name, items, Arrays.copyOf( nanos, count ), total, allocated );
+        mResults.add( result );
+        System.out.println( format( result ) );
+        return result;
+    }
+
+    List<Result> getResults() {
+        return mResults;
+    }
+
+    static String header() {
+        return String.format( Locale.US, "%-28s %8s %6s %12s %14s %10s %10s %14s %10s",
+                "benchmark", "items", "n", "ops/s", "items/s", "p50 ms", "p99 ms",
+                "bytes/op", "MB/s" );
+    }
+
+    static String format(Result r) {
+        return String.format( Locale.US, "%-28s %8d %6d %12.1f %14.0f %10.3f %10.3f %14.0f %10.1f",
+                r.name, r.items, r.invocations, r.opsPerSecond, r.itemsPerSecond(),
+                r.p50Millis, r.p99Millis, r.bytesPerOp, r.allocMbPerSecond );
+    }
+
+    /** Writes the results as CSV, the format {@link #readThroughput(File)} reads back. */
+    void writeCsv(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException( "Cannot create " + dir );
+        }
+        PrintWriter out = new PrintWriter( new FileWriter( file ) );
+        try {
+            out.println( "benchmark,items,invocations,ops_per_s,p50_ms,p99_ms,bytes_per_op,alloc_mb_per_s" );
+            for (Result r : mResults) {
+                out.println( String.format( Locale.US, "%s,%d,%d,%.3f,%.4f,%.4f,%.0f,%.2f",
+                        r.name, r.items, r.invocations, r.opsPerSecond, r.p50Millis, r.p99Millis,
+                        r.bytesPerOp, r.allocMbPerSecond ) );
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Reads ops/s per benchmark, keyed like {@link Result#key()}, from a CSV report. */
+    static Map<String, Double> readThroughput(File file) throws IOException {
+        Map<String, Double> throughput = new HashMap<>();
+        BufferedReader in = new BufferedReader( new FileReader( file ) );
+        try {
+            String line = in.readLine();
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split( "," );
+                throughput.put( fields[0] + "@" + fields[1], Double.parseDouble( fields[3] ) );
+            }
+        } finally {
+            in.close();
+        }
+        return throughput;
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil( fraction * sorted.length ) - 1;
+        return sorted[Math.max( 0, Math.min( sorted.length - 1, index ) )];
+    }
+
+    private static void consume(Object result) {
+        sSink += result == null ? 0 : System.identityHashCode( result );
+    }
+
+    /** Bytes allocated by this thread so far, or -1 if the JVM cannot tell. */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes( Thread.currentThread().getId() );
+        }
+        return -1;
+    }
+}
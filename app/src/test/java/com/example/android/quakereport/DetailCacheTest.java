@@ -0,0 +1,173 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DetailCacheTest {
+
+    private static final long UNBOUNDED = Long.MAX_VALUE;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static byte[] document(String id, long updated) {
+        return ("{\"type\":\"Feature\",\"id\":\"" + id + "\",\"properties\":{\"mag\":4.5,"
+                + "\"updated\":" + updated + "}}").getBytes( Charset.forName( "UTF-8" ) );
+    }
+
+    private DetailCache cache(long memoryBudget, long diskBudget) {
+        return new DetailCache( new File( mFolder.getRoot(), "details" ), memoryBudget,
+                diskBudget, "http://127.0.0.1:1/query" );
+    }
+
+    @Test
+    public void memoryLevelEvictsTheLeastRecentlyUsed() throws IOException {
+        // Each of these details is estimated at a little over 200 bytes.
+        DetailCache cache = cache( 500, UNBOUNDED );
+        cache.put( "e1", document( "e1", 100 ), 0 );
+        cache.put( "e2", document( "e2", 100 ), 0 );
+        assertNotNull( cache.getFromMemory( "e1", 0 ) );
+        cache.put( "e3", document( "e3", 100 ), 0 );
+
+        assertNotNull( cache.getFromMemory( "e1", 0 ) );
+        assertNull( cache.getFromMemory( "e2", 0 ) );
+        assertNotNull( cache.getFromMemory( "e3", 0 ) );
+        assertTrue( cache.getMemoryBytes() <= 500 );
+        // Still on disk, and read back from there.
+        assertTrue( cache.contains( "e2", 100 ) );
+        assertEquals( "e2", cache.getCached( "e2", 100 ).getId() );
+    }
+
+    @Test
+    public void diskLevelEvictsTheLeastRecentlyUsed() throws IOException {
+        DetailCache sizing = cache( 0, UNBOUNDED );
+        sizing.put( "e0", document( "e0", 100 ), 0 );
+        long fileBytes = sizing.getDiskBytes();
+
+        DetailCache cache = cache( 0, fileBytes * 5 / 2 );
+        cache.put( "e1", document( "e1", 100 ), 0 );
+        cache.put( "e2", document( "e2", 100 ), 0 );
+        assertNotNull( cache.getCached( "e1", 0 ) );
+        cache.put( "e3", document( "e3", 100 ), 0 );
+
+        assertEquals( 2, cache.getDiskCount() );
+        assertTrue( cache.getDiskBytes() <= fileBytes * 5 / 2 );
+        assertTrue( cache.contains( "e1", 0 ) );
+        assertFalse( cache.contains( "e2", 0 ) );
+        assertTrue( cache.contains( "e3", 0 ) );
+        assertEquals( 2, new File( mFolder.getRoot(), "details" ).list().length );
+    }
+
+    @Test
+    public void rebuildsTheDiskIndexFromFileNames() throws IOException {
+        cache( UNBOUNDED, UNBOUNDED ).put( "us7000abcd", document( "us7000abcd", 1700 ), 0 );
+        File leftover = new File( new File( mFolder.getRoot(), "details" ), "x.json.gz.7.tmp" );
+        assertTrue( leftover.createNewFile() );
+
+        DetailCache restarted = cache( UNBOUNDED, UNBOUNDED );
+        assertEquals( 1, restarted.getDiskCount() );
+        assertFalse( leftover.exists() );
+        assertTrue( restarted.contains( "us7000abcd", 1700 ) );
+        assertFalse( restarted.contains( "us7000abcd", 1701 ) );
+        assertNull( restarted.getFromMemory( "us7000abcd", 0 ) );
+        assertEquals( 1700, restarted.getCached( "us7000abcd", 1700 ).getUpdated() );
+        assertNotNull( restarted.getFromMemory( "us7000abcd", 1700 ) );
+    }
+
+    @Test
+    public void detailOlderThanTheRowItWasFetchedForStillAnswersForIt() throws IOException {
+        // The detail feed lags the list: the row says 200, USGS still sends 100.
+        DetailCache cache = cache( UNBOUNDED, UNBOUNDED );
+        assertEquals( 100, cache.put( "e1", document( "e1", 100 ), 200 ).getUpdated() );
+        assertTrue( cache.contains( "e1", 200 ) );
+        assertNotNull( cache.getFromMemory( "e1", 200 ) );
+        assertFalse( cache.contains( "e1", 201 ) );
+
+        DetailCache restarted = cache( UNBOUNDED, UNBOUNDED );
+        assertTrue( restarted.contains( "e1", 200 ) );
+        assertEquals( 100, restarted.getCached( "e1", 200 ).getUpdated() );
+    }
+
+    @Test
+    public void concurrentRequestsForOneEventShareOneFetch() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final CountDownLatch arrived = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        HttpServer server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+        server.setExecutor( Executors.newCachedThreadPool() );
+        server.createContext( "/query", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                arrived.countDown();
+                try {
+                    release.await( 10, TimeUnit.SECONDS );
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = document( "e1", 100 );
+                exchange.sendResponseHeaders( 200, body.length );
+                OutputStream out = exchange.getResponseBody();
+                out.write( body );
+                out.close();
+                exchange.close();
+            }
+        } );
+        server.start();
+        ExecutorService callers = Executors.newFixedThreadPool( 2 );
+        try {
+            final DetailCache cache = new DetailCache( new File( mFolder.getRoot(), "details" ),
+                    UNBOUNDED, UNBOUNDED,
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/query" );
+            Callable<QuakeDetail> open = new Callable<QuakeDetail>() {
+                @Override
+                public QuakeDetail call() throws IOException {
+                    return cache.get( "e1", 100 );
+                }
+            };
+            long shared = PipelineMetrics.SHARED_REQUESTS.get();
+            Future<QuakeDetail> first = callers.submit( open );
+            assertTrue( arrived.await( 10, TimeUnit.SECONDS ) );
+            Future<QuakeDetail> second = callers.submit( open );
+            long deadline = System.currentTimeMillis() + 10000;
+            while (PipelineMetrics.SHARED_REQUESTS.get() == shared
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep( 10 );
+            }
+            release.countDown();
+
+            assertSame( first.get(), second.get() );
+            assertEquals( 1, requests.get() );
+            assertEquals( shared + 1, PipelineMetrics.SHARED_REQUESTS.get() );
+            assertTrue( cache.contains( "e1", 100 ) );
+        } finally {
+            callers.shutdownNow();
+            server.stop( 0 );
+        }
+    }
+}
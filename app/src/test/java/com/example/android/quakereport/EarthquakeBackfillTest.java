@@ -0,0 +1,161 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeBackfillTest {
+
+    private static final int EVENTS = 100;
+
+    /** What the stand-in's count says a query may return; windows aim for half of it. */
+    private static final int MAX_ALLOWED = 60;
+
+    private static final EarthquakeQuery QUERY = new EarthquakeQuery( "-5",
+            EarthquakeQuery.ORDER_BY_TIME, 20 );
+
+    /** The store's part in a backfill, in memory. */
+    private static final class History implements EarthquakeBackfill.History {
+        final Map<String, QuakeDescription> events = new HashMap<>();
+        final Map<String, long[]> states = new HashMap<>();
+        final List<QueryPlanner.Region> regions = new ArrayList<>();
+
+        @Override
+        public long[] getBackfillState(String syncKey) {
+            return states.get( syncKey );
+        }
+
+        @Override
+        public void setBackfillState(String syncKey, long rangeStart, long completedUntil) {
+            states.put( syncKey, new long[]{rangeStart, completedUntil} );
+        }
+
+        @Override
+        public long upsert(List<QuakeDescription> earthquakes) {
+            for (QuakeDescription quake : earthquakes) {
+                events.put( quake.getId(), quake );
+            }
+            return 0;
+        }
+
+        @Override
+        public List<QueryPlanner.Region> getCoverage(double minMagnitude, long notBefore) {
+            List<QueryPlanner.Region> matching = new ArrayList<>();
+            for (QueryPlanner.Region region : regions) {
+                if (region.minMagnitude <= minMagnitude && region.fetchedAt >= notBefore) {
+                    matching.add( region );
+                }
+            }
+            Collections.sort( matching, new Comparator<QueryPlanner.Region>() {
+                @Override
+                public int compare(QueryPlanner.Region a, QueryPlanner.Region b) {
+                    return a.start < b.start ? -1 : (a.start > b.start ? 1 : 0);
+                }
+            } );
+            return matching;
+        }
+
+        @Override
+        public void addCoverage(QueryPlanner.Region region) {
+            regions.add( region );
+        }
+
+        long earliest() {
+            long earliest = Long.MAX_VALUE;
+            for (QuakeDescription quake : events.values()) {
+                earliest = Math.min( earliest, quake.getmTimeInMilliSeconds() );
+            }
+            return earliest;
+        }
+    }
+
+    private UsgsStandIn mServer;
+    private History mHistory;
+    private long mStart;
+    private long mEnd;
+    private int[] mWindows;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new UsgsStandIn( EVENTS, 4 );
+        mServer.countMaxAllowed = MAX_ALLOWED;
+        mHistory = new History();
+        long[] range = mServer.timeRange();
+        mStart = range[0];
+        mEnd = range[1] + 1;
+        mWindows = new int[2];
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    private void backfill(long start, long end) throws IOException {
+        new EarthquakeBackfill( mHistory, QUERY, mServer.queryUrl(), mServer.countUrl() )
+                .run( start, end, new EarthquakeBackfill.Listener() {
+                    @Override
+                    public void onProgress(int windowsDone, int windowCount, int eventsStored) {
+                        mWindows[0] = windowsDone;
+                        mWindows[1] = windowCount;
+                    }
+                } );
+    }
+
+    @Test
+    public void cutsTheRangeIntoWindowsUnderTheCapAndStoresEveryEvent() throws IOException {
+        long parsed = PipelineMetrics.EVENTS_PARSED.get();
+        long started = System.nanoTime();
+        backfill( mStart, mEnd );
+        long elapsedMillis = (System.nanoTime() - started) / 1000000;
+
+        assertEquals( mServer.expectedCount( "format=geojson&minmag=-5" ), mHistory.events.size() );
+        assertTrue( mWindows[1] > EVENTS / MAX_ALLOWED );
+        assertEquals( mWindows[1], mWindows[0] );
+        assertArrayEquals( new long[]{mStart, mEnd}, mHistory.getBackfillState( QUERY.getSyncKey() ) );
+        assertEquals( mWindows[1], mHistory.regions.size() );
+        // The windows go through the shared parser, so they show in the metrics.
+        assertTrue( PipelineMetrics.EVENTS_PARSED.get() - parsed >= EVENTS );
+        // No two requests to the server started closer than the interval.
+        assertTrue( elapsedMillis
+                >= (mServer.requests.get() - 1) * EarthquakeBackfill.MIN_REQUEST_INTERVAL_MILLIS );
+    }
+
+    @Test
+    public void resumesWhereAnEarlierRunStopped() throws IOException {
+        long middle = mStart + (mEnd - mStart) / 2;
+        mHistory.setBackfillState( QUERY.getSyncKey(), mStart, middle );
+        backfill( mStart, mEnd );
+        assertTrue( mHistory.earliest() >= middle );
+        assertTrue( mHistory.events.size() > 0 );
+        assertArrayEquals( new long[]{mStart, mEnd}, mHistory.getBackfillState( QUERY.getSyncKey() ) );
+
+        // A second run over the same range has nothing left to do.
+        long requests = mServer.requests.get();
+        backfill( mStart, mEnd );
+        assertEquals( requests, mServer.requests.get() );
+    }
+
+    @Test
+    public void skipsWhatEarlierFetchesCovered() throws IOException {
+        long middle = mStart + (mEnd - mStart) / 2;
+        mHistory.addCoverage( QueryPlanner.Region.world( mStart, middle, -10,
+                System.currentTimeMillis() ) );
+        backfill( mStart, mEnd );
+        assertTrue( mHistory.earliest() >= middle );
+        assertTrue( mHistory.events.size() > 0 );
+        assertArrayEquals( new long[]{mStart, mEnd}, mHistory.getBackfillState( QUERY.getSyncKey() ) );
+    }
+}
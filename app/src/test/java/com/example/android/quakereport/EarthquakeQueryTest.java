@@ -0,0 +1,38 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class EarthquakeQueryTest {
+
+    @Test
+    public void syncKeyIgnoresHowTheMagnitudeIsWritten() {
+        String key = new EarthquakeQuery( "6", EarthquakeQuery.ORDER_BY_TIME, 10 ).getSyncKey();
+        assertEquals( key, new EarthquakeQuery( "6.0", EarthquakeQuery.ORDER_BY_MAGNITUDE, 50 )
+                .getSyncKey() );
+        assertEquals( key, new EarthquakeQuery( "6.00", EarthquakeQuery.ORDER_BY_TIME, 0 )
+                .getSyncKey() );
+        assertNotEquals( key, new EarthquakeQuery( "6.5", EarthquakeQuery.ORDER_BY_TIME, 10 )
+                .getSyncKey() );
+    }
+
+    @Test
+    public void syncKeyRoundTrips() {
+        for (String minMagnitude : new String[]{"6", "4.5", "2.50", "0"}) {
+            String key = new EarthquakeQuery( minMagnitude, EarthquakeQuery.ORDER_BY_TIME, 10 )
+                    .getSyncKey();
+            EarthquakeQuery query = EarthquakeQuery.fromSyncKey( key, 10 );
+            assertEquals( key, query.getSyncKey() );
+            assertEquals( Double.parseDouble( minMagnitude ), query.getMinMagnitude(), 0 );
+        }
+    }
+
+    @Test
+    public void keysFromBeforeNormalizingMapOntoCurrentOnes() {
+        assertEquals( "minmag=6.0", EarthquakeQuery.fromSyncKey( "minmag=6", 0 ).getSyncKey() );
+        assertNull( EarthquakeQuery.fromSyncKey( "other", 0 ) );
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FeedDeltaTest {
+
+    /** Appends an event whose time is {@code time} and whose "updated" time is {@code updated}. */
+    private static void add(QuakeTable table, String id, long time, long updated) {
+        table.append( id, 4, "place", time, updated, "url", Double.NaN, Double.NaN, Double.NaN );
+    }
+
+    private static List<String> ids(List<QuakeDescription> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (QuakeDescription quake : earthquakes) {
+            ids.add( quake.getId() );
+        }
+        return ids;
+    }
+
+    private static List<String> sorted(List<String> ids) {
+        List<String> copy = new ArrayList<>( ids );
+        Collections.sort( copy );
+        return copy;
+    }
+
+    @Test
+    public void findsNewRevisedAndMissingEvents() {
+        QuakeTable held = new QuakeTable();
+        add( held, "same", 10, 10 );
+        add( held, "revised", 20, 20 );
+        add( held, "older", 30, 35 );
+        add( held, "gone", 40, 40 );
+        QuakeTable feed = new QuakeTable();
+        add( feed, "same", 10, 10 );
+        add( feed, "revised", 20, 25 );
+        add( feed, "older", 30, 31 );
+        add( feed, "new", 50, 50 );
+
+        FeedDelta delta = FeedDelta.compute( feed.asList(), held.asList(), 0, 100 );
+        assertEquals( Arrays.asList( "new" ), ids( delta.getInserted() ) );
+        assertEquals( Arrays.asList( "revised" ), ids( delta.getUpdated() ) );
+        assertEquals( Arrays.asList( "gone" ), delta.getDeletedIds() );
+        assertEquals( 3, delta.size() );
+        assertFalse( delta.isEmpty() );
+    }
+
+    @Test
+    public void deletesOnlyWithinTheSpanTheFeedCovers() {
+        QuakeTable held = new QuakeTable();
+        add( held, "agedOut", 9, 9 );
+        add( held, "first", 10, 10 );
+        add( held, "last", 99, 99 );
+        add( held, "afterFeed", 100, 100 );
+
+        FeedDelta delta = FeedDelta.compute( new QuakeTable().asList(), held.asList(), 10, 100 );
+        assertEquals( Arrays.asList( "first", "last" ), sorted( delta.getDeletedIds() ) );
+        assertTrue( delta.getInserted().isEmpty() );
+        assertTrue( delta.getUpdated().isEmpty() );
+    }
+
+    @Test
+    public void ignoresEventsWithoutIds() {
+        QuakeTable held = new QuakeTable();
+        add( held, null, 10, 10 );
+        QuakeTable feed = new QuakeTable();
+        add( feed, null, 20, 20 );
+
+        assertTrue( FeedDelta.compute( feed.asList(), held.asList(), 0, 100 ).isEmpty() );
+    }
+
+    @Test
+    public void sameEventsMakeAnEmptyDelta() {
+        QuakeTable held = new QuakeTable();
+        add( held, "a", 10, 10 );
+        add( held, "b", 20, 20 );
+
+        FeedDelta delta = FeedDelta.compute( held.asList(), held.asList(), 0, 100 );
+        assertTrue( delta.isEmpty() );
+        assertEquals( 0, delta.size() );
+        assertTrue( FeedDelta.EMPTY.isEmpty() );
+    }
+}
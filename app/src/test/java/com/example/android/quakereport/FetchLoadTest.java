@@ -0,0 +1,265 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Drives the fetch and parse pipeline against {@link UsgsStandIn} with many clients at
+ * once, on a clean network and on a broken one, and reports throughput, tail latency and
+ * how failures were handled.
+ *
+ * Clients mix list pages, which go through the lenient parser, with sync deltas, which go
+ * through the conditional path and must either arrive whole or fail. Every answer is
+ * checked against what the stand-in should have sent, so a fault that slips through as a
+ * short delta counts as wrong, not as a success; a short list page counts as partial.
+ *
+ * Skipped unless asked for:
+ * <pre>
+ * ./gradlew :app:testDebugUnitTest --tests '*FetchLoadTest' -Dloadtest=true
+ * </pre>
+ * {@code -Dloadtest.events}, {@code -Dloadtest.clients} and {@code -Dloadtest.requests}
+ * (per scenario) size the run. Results are printed and written to
+ * {@code app/build/reports/loadtest/fetch.csv}.
+ */
+public class FetchLoadTest {
+
+    private static final int PAGE_SIZE = 100;
+    private static final String[] ORDERS = {"time", "time-asc", "magnitude", "magnitude-asc"};
+
+    /** One scenario's outcome. */
+    private static final class Outcome {
+        final String name;
+        final LatencyHistogram latency;
+        final int requests;
+        final int succeeded;
+        final int failed;
+        final int wrong;
+        final int partial;
+        final long events;
+        final long elapsedNanos;
+
+        Outcome(String name, LatencyHistogram latency, int requests, int succeeded, int failed,
+                int wrong, int partial, long events, long elapsedNanos) {
+            this.name = name;
+            this.latency = latency;
+            this.requests = requests;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.wrong = wrong;
+            this.partial = partial;
+            this.events = events;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    private UsgsStandIn mServer;
+    private int mClients;
+    private int mRequests;
+    private final List<Outcome> mOutcomes = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue( "Run with -Dloadtest=true", Boolean.getBoolean( "loadtest" ) );
+        mClients = Integer.getInteger( "loadtest.clients", 16 );
+        mRequests = Integer.getInteger( "loadtest.requests", 400 );
+        mServer = new UsgsStandIn( Integer.getInteger( "loadtest.events", 20000 ), mClients );
+    }
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.stop();
+        }
+    }
+
+    @Test
+    public void fetchUnderLoad() throws Exception {
+        System.out.println( header() );
+
+        Outcome clean = run( "clean", UsgsStandIn.Faults.none(), false );
+        assertEquals( "failures on a clean network", 0, clean.failed + clean.wrong + clean.partial );
+
+        // The same deltas again: those whose validators are still remembered come back 304.
+        long notModified = mServer.notModified.get();
+        Outcome repeated = run( "revalidate", UsgsStandIn.Faults.none(), true );
+        assertEquals( "wrong answers on revalidation", 0, repeated.failed + repeated.wrong );
+        System.out.println( "  304s: " + (mServer.notModified.get() - notModified) );
+
+        UsgsStandIn.Faults latency = new UsgsStandIn.Faults();
+        latency.latencyMillis = 300;
+        run( "latency", latency, false );
+
+        UsgsStandIn.Faults bandwidth = new UsgsStandIn.Faults();
+        bandwidth.bytesPerSecond = 256 * 1024;
+        run( "bandwidth", bandwidth, false );
+
+        UsgsStandIn.Faults errors = new UsgsStandIn.Faults();
+        errors.errorRate = 0.2;
+        Outcome withErrors = run( "5xx", errors, false );
+        assertEquals( "wrong answers with 5xx errors", 0, withErrors.wrong );
+
+        UsgsStandIn.Faults truncated = new UsgsStandIn.Faults();
+        truncated.truncateRate = 0.2;
+        Outcome withTruncation = run( "truncated", truncated, false );
+        System.out.println( "  truncated on purpose: " + mServer.truncationsInjected.get() );
+        assertEquals( "truncated deltas taken as whole", 0, withTruncation.wrong );
+
+        writeCsv( new File( "build/reports/loadtest/fetch.csv" ) );
+    }
+
+    /**
+     * Sends {@link #mRequests} requests from {@link #mClients} threads. With {@code repeat}
+     * the requests are the first run's again, in reverse; otherwise every delta asks for a
+     * new window, so no validator applies.
+     */
+    private Outcome run(String name, UsgsStandIn.Faults faults, boolean repeat) throws Exception {
+        mServer.setFaults( faults );
+        final LatencyHistogram latency = new LatencyHistogram( name );
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger wrong = new AtomicInteger();
+        final AtomicInteger partial = new AtomicInteger();
+        final AtomicLong events = new AtomicLong();
+        final boolean revalidating = repeat;
+
+        Random random = new Random( repeat ? 7 : 7 + mOutcomes.size() );
+        List<Callable<Void>> requests = new ArrayList<>( mRequests );
+        for (int i = 0; i < mRequests; i++) {
+            final boolean delta = i % 2 == 1;
+            final String query = delta ? deltaQuery( random ) : pageQuery( random );
+            final int expected = mServer.expectedCount( query );
+            requests.add( new Callable<Void>() {
+                @Override
+                public Void call() {
+                    String url = mServer.queryUrl() + "?" + query;
+                    long start = System.nanoTime();
+                    List<QuakeDescription> result = delta
+                            ? QueryUtils.fetchChangedEarthquakeData( url )
+                            : QueryUtils.fetchEarthquakeData( url );
+                    latency.recordNanos( System.nanoTime() - start );
+                    if (result == null || (!delta && result.isEmpty() && expected > 0)) {
+                        // Null is a failed delta; an empty page is a failed list load.
+                        failed.incrementAndGet();
+                    } else if (result.size() != expected
+                            && !(revalidating && delta && result.isEmpty())) {
+                        // A list page may be cut short and still show what arrived; a
+                        // delta may not.
+                        (delta ? wrong : partial).incrementAndGet();
+                    } else {
+                        succeeded.incrementAndGet();
+                        events.addAndGet( result.size() );
+                    }
+                    return null;
+                }
+            } );
+        }
+
+        if (repeat) {
+            // Latest first, since the client only remembers the validators of recent URLs.
+            Collections.reverse( requests );
+        }
+
+        ExecutorService clients = Executors.newFixedThreadPool( mClients );
+        long start = System.nanoTime();
+        try {
+            for (Future<Void> future : clients.invokeAll( requests )) {
+                future.get();
+            }
+        } finally {
+            clients.shutdown();
+        }
+        Outcome outcome = new Outcome( name, latency, mRequests, succeeded.get(), failed.get(),
+                wrong.get(), partial.get(), events.get(), System.nanoTime() - start );
+        mOutcomes.add( outcome );
+        System.out.println( format( outcome ) );
+        return outcome;
+    }
+
+    /** A list page as the app asks for one: a magnitude floor, an order and an offset. */
+    private String pageQuery(Random random) {
+        return String.format( Locale.US, "format=geojson&orderby=%s&minmag=%.1f&limit=%d&offset=%d",
+                ORDERS[random.nextInt( ORDERS.length )], random.nextInt( 6 ) * 0.5,
+                PAGE_SIZE, 1 + random.nextInt( 10 ) * PAGE_SIZE );
+    }
+
+    /** A sync delta: everything in a window updated after some time, in one response. */
+    private String deltaQuery(Random random) {
+        long[] range = mServer.timeRange();
+        long span = range[1] - range[0];
+        long start = range[0] + (long) (random.nextDouble() * span * 0.9);
+        long end = start + span / 20;
+        long updatedAfter = start + (long) (random.nextDouble() * span / 20);
+        return String.format( Locale.US,
+                "format=geojson&orderby=time&minmag=%.1f&starttime=%s&endtime=%s&updatedafter=%s",
+                random.nextInt( 4 ) * 0.5, iso( start ), iso( end ), iso( updatedAfter ) );
+    }
+
+    private static String iso(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US );
+        format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        return format.format( new Date( millis ) );
+    }
+
+    private static String header() {
+        return String.format( Locale.US, "%-12s %6s %6s %6s %6s %7s %10s %12s %9s %9s %9s %9s",
+                "scenario", "n", "ok", "failed", "wrong", "partial", "req/s", "events/s",
+                "p50 ms", "p95 ms", "p99 ms", "max ms" );
+    }
+
+    private static String format(Outcome o) {
+        double seconds = o.elapsedNanos / 1e9;
+        return String.format( Locale.US, "%-12s %6d %6d %6d %6d %7d %10.1f %12.0f %9.1f %9.1f %9.1f %9.1f",
+                o.name, o.requests, o.succeeded, o.failed, o.wrong, o.partial,
+                o.requests / seconds, o.events / seconds, o.latency.getPercentileMicros( 0.50 ) / 1000.0,
+                o.latency.getPercentileMicros( 0.95 ) / 1000.0,
+                o.latency.getPercentileMicros( 0.99 ) / 1000.0,
+                o.latency.getMaxMicros() / 1000.0 );
+    }
+
+    private void writeCsv(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException( "Cannot create " + dir );
+        }
+        PrintWriter out = new PrintWriter( new FileWriter( file ) );
+        try {
+            out.println( "scenario,requests,succeeded,failed,wrong,partial,req_per_s,events_per_s,"
+                    + "p50_ms,p95_ms,p99_ms,max_ms" );
+            for (Outcome o : mOutcomes) {
+                double seconds = o.elapsedNanos / 1e9;
+                out.println( String.format( Locale.US, "%s,%d,%d,%d,%d,%d,%.2f,%.0f,%.2f,%.2f,%.2f,%.2f",
+                        o.name, o.requests, o.succeeded, o.failed, o.wrong, o.partial,
+                        o.requests / seconds,
+                        o.events / seconds, o.latency.getPercentileMicros( 0.50 ) / 1000.0,
+                        o.latency.getPercentileMicros( 0.95 ) / 1000.0,
+                        o.latency.getPercentileMicros( 0.99 ) / 1000.0,
+                        o.latency.getMaxMicros() / 1000.0 ) );
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GeoJsonQuakeParserTest {
+
+    private static final String FEATURE = "{\"type\":\"Feature\",\"properties\":{\"mag\":6.2,"
+            + "\"place\":\"87km SSE of Sola, Vanuatu\",\"time\":1513728000000,"
+            + "\"updated\":1513814400000,\"tz\":null,\"url\":\"https://example.com/us1\","
+            + "\"ids\":\",us1,\",\"sig\":591},"
+            + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[169.3571,-14.6524,40.12]},"
+            + "\"id\":\"us1\"}";
+
+    private static GeoJsonQuakeParser parser(String json) {
+        return new GeoJsonQuakeParser(
+                new ByteArrayInputStream( json.getBytes( Charset.forName( "UTF-8" ) ) ) );
+    }
+
+    @Test
+    public void readsTheFieldsTheAppUses() throws IOException {
+        GeoJsonQuakeParser parser = parser( "{\"type\":\"FeatureCollection\","
+                + "\"metadata\":{\"count\":1},\"features\":[" + FEATURE + "],"
+                + "\"bbox\":[1,2,3,4,5,6]}" );
+        QuakeDescription quake = parser.nextQuake();
+        assertNotNull( quake );
+        assertEquals( "us1", quake.getId() );
+        assertEquals( 6.2, quake.getMagnitude(), 0 );
+        assertEquals( "87km SSE of Sola, Vanuatu", quake.getQuakePlace() );
+        assertEquals( 1513728000000L, quake.getmTimeInMilliSeconds() );
+        assertEquals( 1513814400000L, quake.getUpdated() );
+        assertEquals( "https://example.com/us1", quake.getmUrl() );
+        assertEquals( 169.3571, quake.getLongitude(), 1e-4 );
+        assertEquals( -14.6524, quake.getLatitude(), 1e-4 );
+        assertEquals( 40.12, quake.getDepth(), 1e-2 );
+        assertNull( parser.nextQuake() );
+        assertNull( parser.nextQuake() );
+        assertEquals( 1, parser.getTable().size() );
+    }
+
+    @Test
+    public void toleratesNullsAndMissingGeometry() throws IOException {
+        GeoJsonQuakeParser parser = parser( "{\"features\":[{\"properties\":{\"mag\":null,"
+                + "\"place\":null,\"time\":5,\"url\":\"u\"},\"geometry\":null,\"id\":\"x\"}]}" );
+        QuakeDescription quake = parser.nextQuake();
+        assertEquals( "x", quake.getId() );
+        assertEquals( 0, quake.getMagnitude(), 0 );
+        assertEquals( "", quake.getQuakePlace() );
+        assertEquals( 5, quake.getmTimeInMilliSeconds() );
+        assertTrue( Double.isNaN( quake.getLatitude() ) );
+        assertNull( parser.nextQuake() );
+    }
+
+    @Test
+    public void readsTheMetadataBeforeTheFeatures() throws IOException {
+        GeoJsonQuakeParser parser = parser( "{\"metadata\":{\"generated\":1513900000000,"
+                + "\"url\":\"u\",\"count\":2,\"status\":200},\"features\":[" + FEATURE + "]}" );
+        assertNotNull( parser.nextQuake() );
+        assertEquals( 2, parser.getMetadataCount() );
+        assertEquals( 1513900000000L, parser.getGeneratedAt() );
+        assertEquals( -1, parser( "{\"features\":[]}" ).getMetadataCount() );
+    }
+
+    @Test
+    public void documentWithoutFeaturesHasNoQuakes() throws IOException {
+        assertNull( parser( "{\"type\":\"FeatureCollection\",\"metadata\":{}}" ).nextQuake() );
+    }
+
+    @Test
+    public void parsesTheRecordedSample() throws IOException {
+        InputStream sample = getClass().getClassLoader().getResourceAsStream( "usgs_sample.geojson" );
+        GeoJsonQuakeParser parser = new GeoJsonQuakeParser( sample );
+        int count = 0;
+        while (parser.nextQuake() != null) {
+            count++;
+        }
+        parser.close();
+        assertEquals( 10, count );
+    }
+
+    @Test
+    public void failsOnABodyCutShort() throws IOException {
+        String json = "{\"features\":[" + FEATURE + "," + FEATURE.replace( "us1", "us2" ) + "]}";
+        GeoJsonQuakeParser parser = parser( json.substring( 0, json.length() - 40 ) );
+        assertNotNull( parser.nextQuake() );
+        try {
+            parser.nextQuake();
+            fail( "Expected an IOException" );
+        } catch (IOException expected) {
+        }
+        assertEquals( 1, parser.getTable().size() );
+    }
+
+    @Test
+    public void failsOnABodyCutBetweenFeatures() throws IOException {
+        GeoJsonQuakeParser parser = parser( "{\"features\":[" + FEATURE );
+        assertNotNull( parser.nextQuake() );
+        try {
+            parser.nextQuake();
+            fail( "Expected an IOException" );
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonPullReaderTest {
+
+    private static JsonPullReader reader(String json) {
+        return new JsonPullReader( new StringReader( json ) );
+    }
+
+    @Test
+    public void readsNestedObjectsAndArrays() throws IOException {
+        JsonPullReader reader = reader( "{\"a\": [1, -2.5, true, null], \"b\": {\"c\": \"d\"}}" );
+        reader.beginObject();
+        assertEquals( "a", reader.nextName() );
+        reader.beginArray();
+        assertEquals( 1, reader.nextLong() );
+        assertEquals( -2.5, reader.nextDouble(), 0 );
+        assertTrue( reader.nextBoolean() );
+        reader.nextNull();
+        assertFalse( reader.hasNext() );
+        reader.endArray();
+        assertEquals( "b", reader.nextName() );
+        reader.beginObject();
+        assertEquals( "c", reader.nextName() );
+        assertEquals( "d", reader.nextString() );
+        reader.endObject();
+        reader.endObject();
+        assertEquals( JsonPullReader.Token.END_DOCUMENT, reader.peek() );
+    }
+
+    @Test
+    public void decodesEscapes() throws IOException {
+        JsonPullReader reader = reader( "[\"a\\\"b\\\\c\\n\\u00e9\\/\"]" );
+        reader.beginArray();
+        assertEquals( "a\"b\\c\né/", reader.nextString() );
+        reader.endArray();
+    }
+
+    @Test
+    public void readsLongsExactlyAndFallsBackForNonIntegers() throws IOException {
+        JsonPullReader reader = reader( "[1513728000123, -42, 1.5e3, \"7\"]" );
+        reader.beginArray();
+        assertEquals( 1513728000123L, reader.nextLong() );
+        assertEquals( -42, reader.nextLong() );
+        assertEquals( 1500, reader.nextLong() );
+        assertEquals( 7, reader.nextLong() );
+        reader.endArray();
+    }
+
+    @Test
+    public void saturatesLongsOutOfRange() throws IOException {
+        JsonPullReader reader = reader( "[9223372036854775807, -9223372036854775808,"
+                + " 9223372036854775808, -9223372036854775809, 99999999999999999999, 0]" );
+        reader.beginArray();
+        assertEquals( Long.MAX_VALUE, reader.nextLong() );
+        assertEquals( Long.MIN_VALUE, reader.nextLong() );
+        assertEquals( Long.MAX_VALUE, reader.nextLong() );
+        assertEquals( Long.MIN_VALUE, reader.nextLong() );
+        assertEquals( Long.MAX_VALUE, reader.nextLong() );
+        assertEquals( 0, reader.nextLong() );
+        reader.endArray();
+    }
+
+    @Test
+    public void skipsNestedValues() throws IOException {
+        JsonPullReader reader = reader(
+                "{\"skip\": {\"x\": [1, {\"y\": \"]}\"}], \"z\": null}, \"keep\": 3}" );
+        reader.beginObject();
+        assertEquals( "skip", reader.nextName() );
+        reader.skipValue();
+        assertEquals( "keep", reader.nextName() );
+        assertEquals( 3, reader.nextLong() );
+        reader.endObject();
+    }
+
+    @Test
+    public void readsStringsAcrossBufferRefills() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            value.append( (char) ('a' + i % 26) );
+        }
+        JsonPullReader reader = reader( "[\"" + value + "\", 12345678901]" );
+        reader.beginArray();
+        assertEquals( value.toString(), reader.nextString() );
+        assertEquals( 12345678901L, reader.nextLong() );
+        reader.endArray();
+    }
+
+    @Test
+    public void failsOnTruncatedInput() throws IOException {
+        JsonPullReader reader = reader( "{\"a\": [1, 2" );
+        reader.beginObject();
+        reader.nextName();
+        reader.beginArray();
+        reader.nextLong();
+        reader.nextLong();
+        try {
+            reader.hasNext();
+            fail( "Expected an IOException" );
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void failsOnUnterminatedString() throws IOException {
+        JsonPullReader reader = reader( "[\"abc" );
+        reader.beginArray();
+        try {
+            reader.nextString();
+            fail( "Expected an IOException" );
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void failsOnUnexpectedToken() throws IOException {
+        JsonPullReader reader = reader( "{\"a\": 1}" );
+        try {
+            reader.beginArray();
+            fail( "Expected an IOException" );
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void failsOnTrailingContent() throws IOException {
+        JsonPullReader reader = reader( "{} {}" );
+        reader.beginObject();
+        reader.endObject();
+        try {
+            reader.peek();
+            fail( "Expected an IOException" );
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram( "empty" );
+        assertEquals( 0, histogram.getCount() );
+        assertEquals( 0, histogram.getMeanMicros() );
+        assertEquals( 0, histogram.getPercentileMicros( 0.5 ) );
+        assertEquals( 0, histogram.getMaxMicros() );
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram( "small" );
+        for (int micros = 1; micros <= 10; micros++) {
+            histogram.record( micros );
+        }
+        assertEquals( 10, histogram.getCount() );
+        assertEquals( 5, histogram.getMeanMicros() );
+        assertEquals( 5, histogram.getPercentileMicros( 0.5 ) );
+        assertEquals( 9, histogram.getPercentileMicros( 0.9 ) );
+        assertEquals( 10, histogram.getPercentileMicros( 1.0 ) );
+        assertEquals( 10, histogram.getMaxMicros() );
+    }
+
+    @Test
+    public void nanosAreRecordedAsMicrosAndNegativesAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram( "nanos" );
+        histogram.recordNanos( 7999 );
+        histogram.record( -5 );
+        assertEquals( 7, histogram.getMaxMicros() );
+        assertEquals( 0, histogram.getPercentileMicros( 0.5 ) );
+    }
+
+    @Test
+    public void percentilesAreWithinAnEighthOfTheTrueValue() {
+        Random random = new Random( 13 );
+        LatencyHistogram histogram = new LatencyHistogram( "random" );
+        long[] values = new long[20000];
+        for (int i = 0; i < values.length; i++) {
+            // Spread over six orders of magnitude, like connects and binds together.
+            values[i] = (long) Math.pow( 10, random.nextDouble() * 6 );
+            histogram.record( values[i] );
+        }
+        Arrays.sort( values );
+        for (double fraction : new double[]{0.01, 0.25, 0.5, 0.9, 0.99, 0.999}) {
+            long exact = values[(int) Math.ceil( fraction * values.length ) - 1];
+            long estimate = histogram.getPercentileMicros( fraction );
+            assertTrue( fraction + ": " + estimate + " vs " + exact,
+                    Math.abs( estimate - exact ) <= Math.max( 1, exact / 8 ) );
+        }
+        assertEquals( values[values.length - 1], histogram.getMaxMicros() );
+    }
+
+    @Test
+    public void valuesPastTheLastOctaveLandInTheLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram( "huge" );
+        histogram.record( Long.MAX_VALUE / 2 );
+        // Only the max remembers the value; the percentile says "at least 2^40 us".
+        assertEquals( Long.MAX_VALUE / 2, histogram.getMaxMicros() );
+        assertTrue( histogram.getPercentileMicros( 0.5 ) >= 1L << 40 );
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram( "reset" );
+        histogram.record( 1234 );
+        histogram.reset();
+        assertEquals( 0, histogram.getCount() );
+        assertEquals( 0, histogram.getMaxMicros() );
+        histogram.record( 3 );
+        assertEquals( 3, histogram.getPercentileMicros( 0.99 ) );
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram( "threads" );
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record( offset * 1000 + i % 1000 );
+                    }
+                }
+            } );
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals( 40000, histogram.getCount() );
+        assertEquals( 3999, histogram.getMaxMicros() );
+    }
+}
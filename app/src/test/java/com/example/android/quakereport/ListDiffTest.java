@@ -0,0 +1,161 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ListDiffTest {
+
+    /** Events named by id, with times from {@code times} and "updated" from {@code updated}. */
+    private static List<QuakeDescription> list(String[] ids, long[] times, long[] updated) {
+        QuakeTable table = new QuakeTable();
+        for (int i = 0; i < ids.length; i++) {
+            table.append( ids[i], 4, "place", times[i], updated[i], "url",
+                    Double.NaN, Double.NaN, Double.NaN );
+        }
+        return table.asList();
+    }
+
+    private static List<QuakeDescription> list(String[] ids, long[] times) {
+        return list( ids, times, times );
+    }
+
+    private static List<QuakeDescription> list(List<String> ids, List<Long> times) {
+        long[] values = new long[times.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = times.get( i );
+        }
+        return list( ids.toArray( new String[ids.size()] ), values );
+    }
+
+    private static List<Integer> removed(ListDiff diff) {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < diff.getRemovedCount(); i++) {
+            positions.add( diff.getRemoved( i ) );
+        }
+        return positions;
+    }
+
+    private static List<Integer> inserted(ListDiff diff) {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < diff.getInsertedCount(); i++) {
+            positions.add( diff.getInserted( i ) );
+        }
+        return positions;
+    }
+
+    private static List<Integer> changed(ListDiff diff) {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < diff.getChangedCount(); i++) {
+            positions.add( diff.getChanged( i ) );
+        }
+        return positions;
+    }
+
+    @Test
+    public void sameListsMakeAnEmptyDiff() {
+        List<QuakeDescription> earthquakes = list( new String[]{"a", "b"}, new long[]{20, 10} );
+        ListDiff diff = ListDiff.compute( earthquakes, earthquakes );
+        assertTrue( diff.isEmpty() );
+        assertEquals( 0, diff.size() );
+        assertEquals( 1, diff.getNewPosition( 1 ) );
+    }
+
+    @Test
+    public void findsRemovedInsertedAndChangedRowsInTimeOrder() {
+        List<QuakeDescription> oldList = list( new String[]{"a", "b", "c", "d"},
+                new long[]{40, 30, 20, 10}, new long[]{40, 30, 20, 10} );
+        List<QuakeDescription> newList = list( new String[]{"new", "a", "c", "d"},
+                new long[]{50, 40, 20, 10}, new long[]{50, 40, 25, 10} );
+        ListDiff diff = ListDiff.compute( oldList, newList );
+        assertEquals( "[1]", removed( diff ).toString() );
+        assertEquals( "[0]", inserted( diff ).toString() );
+        assertEquals( "[2]", changed( diff ).toString() );
+        assertFalse( diff.isReordered() );
+        assertEquals( 3, diff.size() );
+    }
+
+    @Test
+    public void matchesEventsSharingATimeById() {
+        List<QuakeDescription> oldList = list( new String[]{"a", "b"}, new long[]{10, 10} );
+        List<QuakeDescription> newList = list( new String[]{"b", "c", "a"}, new long[]{10, 10, 10} );
+        ListDiff diff = ListDiff.compute( oldList, newList );
+        assertEquals( "[]", removed( diff ).toString() );
+        assertEquals( "[1]", inserted( diff ).toString() );
+        assertTrue( changed( diff ).isEmpty() );
+    }
+
+    @Test
+    public void detectsReorderingOfListsNotInTimeOrder() {
+        // By magnitude, say: not in time order, so matched by id.
+        List<QuakeDescription> oldList = list( new String[]{"a", "b", "c"}, new long[]{10, 30, 20} );
+        List<QuakeDescription> newList = list( new String[]{"b", "a", "c"}, new long[]{30, 10, 20} );
+        ListDiff diff = ListDiff.compute( oldList, newList );
+        assertTrue( diff.isReordered() );
+        assertFalse( diff.isEmpty() );
+        assertEquals( 0, diff.size() );
+        assertEquals( -1, diff.getNewPosition( 0 ) );
+    }
+
+    @Test
+    public void rowsWithoutIdsNeverMatch() {
+        List<QuakeDescription> oldList = list( new String[]{null}, new long[]{10} );
+        List<QuakeDescription> newList = list( new String[]{null}, new long[]{10} );
+        ListDiff diff = ListDiff.compute( oldList, newList );
+        assertEquals( "[0]", removed( diff ).toString() );
+        assertEquals( "[0]", inserted( diff ).toString() );
+    }
+
+    @Test
+    public void newPositionFollowsTheEventOrTheNextKeptOne() {
+        List<QuakeDescription> oldList = list( new String[]{"a", "b", "c", "d"},
+                new long[]{40, 30, 20, 10} );
+        List<QuakeDescription> newList = list( new String[]{"x", "y", "a", "c", "z"},
+                new long[]{60, 50, 40, 20, 15} );
+        ListDiff diff = ListDiff.compute( oldList, newList );
+        assertEquals( 2, diff.getNewPosition( 0 ) );
+        // "b" was removed: the next kept event, "c", takes its place.
+        assertEquals( 3, diff.getNewPosition( 1 ) );
+        assertEquals( 3, diff.getNewPosition( 2 ) );
+        // Nothing after "d" was kept.
+        assertEquals( -1, diff.getNewPosition( 3 ) );
+    }
+
+    @Test
+    public void newPositionsMatchIdsOnRandomLists() {
+        Random random = new Random( 15 );
+        for (int round = 0; round < 200; round++) {
+            List<String> oldIds = new ArrayList<>();
+            List<String> newIds = new ArrayList<>();
+            List<Long> oldTimes = new ArrayList<>();
+            List<Long> newTimes = new ArrayList<>();
+            for (int t = 100; t > 0; t--) {
+                boolean inOld = random.nextInt( 3 ) > 0;
+                boolean inNew = random.nextInt( 3 ) > 0;
+                if (inOld) {
+                    oldIds.add( "e" + t );
+                    oldTimes.add( (long) t / 2 );
+                }
+                if (inNew) {
+                    newIds.add( "e" + t );
+                    newTimes.add( (long) t / 2 );
+                }
+            }
+            ListDiff diff = ListDiff.compute( list( oldIds, oldTimes ), list( newIds, newTimes ) );
+            for (int i = 0; i < oldIds.size(); i++) {
+                int expected = -1;
+                for (int k = i; k < oldIds.size() && expected < 0; k++) {
+                    expected = newIds.indexOf( oldIds.get( k ) );
+                }
+                assertEquals( expected, diff.getNewPosition( i ) );
+            }
+        }
+    }
+
+}
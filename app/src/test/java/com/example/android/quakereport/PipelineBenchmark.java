@@ -0,0 +1,828 @@
+package com.example.android.quakereport;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.channels.FileChannel;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks of every stage between the response body and the row text: read, parse,
+ * transform and format, at 10, 1k, 20k and 100k features.
+ *
+ * Where a stage was rewritten, the old way is measured next to the new one: the String
+ * and org.json path against the streaming parser, formatting at bind time against
+ * formatting on the loader thread, a linear scan against the spatial grid, checking every
+ * alert rule against the compiled matcher, a substring scan of every place against the
+ * place index, and parsing and formatting the JSON again against reading the cold-start
+ * snapshot, and every event drawn into the timeline chart's columns against the
+ * {@link QuakeTimeline} pyramid, whose frame time should stay flat as the sizes grow. Opening
+ * event details from each cache level, and exporting the rows as CSV and GeoJSON, are
+ * measured on their own. {@link #layouts} compares the heap held by 100k events as
+ * objects and as a {@link QuakeTable}.
+ *
+ * Skipped unless asked for, since a full run takes a few minutes:
+ * <pre>
+ * ./gradlew :app:testDebugUnitTest --tests '*PipelineBenchmark' -Dbenchmark=true
+ * </pre>
+ * {@code -Dbenchmark.sizes=10,1000} picks the fixture sizes. Results are printed and
+ * written to {@code app/build/reports/benchmarks/pipeline.csv}. Passing an earlier report as
+ * {@code -Dbenchmark.baseline=<csv>} fails the run if any benchmark lost more throughput
+ * than {@code -Dbenchmark.tolerance} (default 0.25, i.e. 25%).
+ */
+public class PipelineBenchmark {
+
+    private static final int[] DEFAULT_SIZES = {10, 1000, 20000, 100000};
+
+    /** Epicenters for the radius queries, spread over both hemispheres. */
+    private static final double[][] QUERY_POINTS = {
+            {35.7, 139.7}, {-33.4, -70.6}, {61.2, -149.9}, {37.8, -122.4},
+            {-6.2, 106.8}, {38.0, 23.7}, {19.4, -155.3}, {-41.3, 174.8}
+    };
+
+    private static final double QUERY_RADIUS_KM = 300;
+
+    private static final String SNAPSHOT_KEY = "benchmark";
+
+    /** What a user types, keystroke by keystroke, when searching for a place. */
+    private static final String[] SEARCH_QUERIES = {"a", "al", "alas", "alaska", "j", "jap",
+            "new z", "ko", "kota", "p"};
+
+    /** Detail documents cached at most, whatever the list size. */
+    private static final int MAX_DETAIL_DOCUMENTS = 200;
+
+    /** Results a search returns, as in the activity. */
+    private static final int SEARCH_LIMIT = 500;
+
+    /** Regions of the synthetic places; the sample has only ten places in all. */
+    private static final String[] REGIONS = {"Alaska", "California", "Japan", "Chile",
+            "Indonesia", "Peru", "Nevada", "Hawaii", "Tonga", "Fiji", "Mexico", "Greece",
+            "Turkey", "Iran", "Philippines", "New Zealand", "Papua New Guinea", "Puerto Rico",
+            "Oklahoma", "Montana"};
+
+    private static final String[] SYLLABLES = {"ka", "to", "mi", "ra", "su", "ne", "lo",
+            "ta", "ko", "an", "pe", "ri", "sa", "go", "hu", "ba", "ya", "chi", "ma", "te"};
+
+    private static final String[] DIRECTIONS = {"N", "NNE", "NE", "E", "SE", "S", "SSW",
+            "SW", "W", "WNW", "NW"};
+
+    /** Alert rules matched against every event, mostly radius rules around random sites. */
+    private static final int ALERT_RULES = 5000;
+
+    /** Columns of a timeline frame: a phone held upright, one per pixel. */
+    private static final int TIMELINE_COLUMNS = 1080;
+
+    /** How far the zoomed timeline frames are zoomed in, and how many steps they pan. */
+    private static final int TIMELINE_ZOOM = 64;
+
+    /** Events a live poll brings in at once. */
+    private static final int TIMELINE_ARRIVALS = 20;
+
+    /** Events kept in memory for the layout comparison. */
+    private static final int LAYOUT_ROWS = 100000;
+
+    private final BenchmarkRunner mRunner = new BenchmarkRunner();
+
+    @Before
+    public void onlyWhenAsked() {
+        Assume.assumeTrue( "Run with -Dbenchmark=true", Boolean.getBoolean( "benchmark" ) );
+    }
+
+    @Test
+    public void pipeline() throws Exception {
+        System.out.println( BenchmarkRunner.header() );
+        for (int size : sizes()) {
+            benchmarkSize( size );
+        }
+        mRunner.writeCsv( new File( "build/reports/benchmarks/pipeline.csv" ) );
+        checkAgainstBaseline();
+    }
+
+    /**
+     * Heap held and garbage collections caused by {@link #LAYOUT_ROWS} prepared events, kept
+     * as one object per event the way QuakeDescription used to be against one
+     * {@link QuakeTable}. Every string is copied, so each layout gets strings of its own as
+     * parsing and formatting would give it, and the table's dictionary has to earn its keep.
+     */
+    @Test
+    public void layouts() throws Exception {
+        QuakeList parsed = (QuakeList) QueryUtils.extractFeaturesFromStream(
+                new ByteArrayInputStream( BenchmarkFixtures.geoJson( LAYOUT_ROWS ) ) );
+        String[] places = syntheticPlaces( LAYOUT_ROWS );
+        QuakeTable source = new QuakeTable( LAYOUT_ROWS );
+        for (int i = 0; i < parsed.size(); i++) {
+            int row = parsed.rowAt( i );
+            QuakeTable table = parsed.getTable();
+            QuakeFormatter.prepare( source.get( source.append( table.getId( row ),
+                    table.getMagnitude( row ), places[i], table.getTime( row ),
+                    table.getUpdated( row ), table.getUrl( row ), table.getLongitude( row ),
+                    table.getLatitude( row ), table.getDepth( row ) ) ) );
+        }
+        System.out.println( "layout     rows  heap MB  bytes/row  gc count  gc ms" );
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up the JIT; only the second is printed.
+            measureLayout( "objects", source, round == 1 );
+            measureLayout( "table", source, round == 1 );
+        }
+    }
+
+    private static void measureLayout(String layout, QuakeTable source, boolean print) {
+        long heapBefore = usedHeapAfterGc();
+        long[] gcBefore = gcCountAndMillis();
+        int kept;
+        Object rows;
+        if ("table".equals( layout )) {
+            QuakeTable table = copyTable( source );
+            kept = table.size();
+            rows = table;
+        } else {
+            List<QuakeObject> objects = copyObjects( source );
+            kept = objects.size();
+            rows = objects;
+        }
+        long[] gcAfter = gcCountAndMillis();
+        long heap = usedHeapAfterGc() - heapBefore;
+        if (print) {
+            System.out.println( String.format( Locale.US, "%-8s %6d %8.1f %10d %9d %6d",
+                    layout, kept, heap / 1048576.0, heap / kept,
+                    gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1] ) );
+        }
+        // Read after the heap was measured, so the rows were still reachable then.
+        assertEquals( source.size(), rows instanceof QuakeTable
+                ? ((QuakeTable) rows).size() : ((List<?>) rows).size() );
+    }
+
+    private static QuakeTable copyTable(QuakeTable source) {
+        QuakeTable table = new QuakeTable();
+        for (int row = 0; row < source.size(); row++) {
+            int copy = table.append( new String( source.getId( row ) ), source.getMagnitude( row ),
+                    new String( source.getPlace( row ) ), source.getTime( row ),
+                    source.getUpdated( row ), new String( source.getUrl( row ) ),
+                    source.getLongitude( row ), source.getLatitude( row ), source.getDepth( row ) );
+            table.setDisplay( copy, new String( source.getMagnitudeText( row ) ),
+                    source.getMagnitudeColor( row ), new String( source.getLocationOffset( row ) ),
+                    new String( source.getPrimaryLocation( row ) ),
+                    new String( source.getDateText( row ) ), new String( source.getTimeText( row ) ) );
+        }
+        return table;
+    }
+
+    private static List<QuakeObject> copyObjects(QuakeTable source) {
+        List<QuakeObject> objects = new ArrayList<>();
+        for (int row = 0; row < source.size(); row++) {
+            QuakeObject quake = new QuakeObject();
+            quake.id = new String( source.getId( row ) );
+            quake.magnitude = source.getMagnitude( row );
+            quake.place = new String( source.getPlace( row ) );
+            quake.time = source.getTime( row );
+            quake.updated = source.getUpdated( row );
+            quake.url = new String( source.getUrl( row ) );
+            quake.longitude = source.getLongitude( row );
+            quake.latitude = source.getLatitude( row );
+            quake.depth = source.getDepth( row );
+            quake.magnitudeText = new String( source.getMagnitudeText( row ) );
+            quake.magnitudeColor = source.getMagnitudeColor( row );
+            quake.locationOffset = new String( source.getLocationOffset( row ) );
+            quake.primaryLocation = new String( source.getPrimaryLocation( row ) );
+            quake.dateText = new String( source.getDateText( row ) );
+            quake.timeText = new String( source.getTimeText( row ) );
+            objects.add( quake );
+        }
+        return objects;
+    }
+
+    /** The fields QuakeDescription had before it became a view of a table row. */
+    private static final class QuakeObject {
+        String id;
+        double magnitude;
+        String place;
+        long time;
+        long updated;
+        String url;
+        double longitude;
+        double latitude;
+        double depth;
+        String magnitudeText;
+        int magnitudeColor;
+        String locationOffset;
+        String primaryLocation;
+        String dateText;
+        String timeText;
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /** Collections and milliseconds spent in them so far, over every collector. */
+    private static long[] gcCountAndMillis() {
+        long[] total = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total[0] += Math.max( 0, gc.getCollectionCount() );
+            total[1] += Math.max( 0, gc.getCollectionTime() );
+        }
+        return total;
+    }
+
+    private void benchmarkSize(final int size) throws Exception {
+        final byte[] body = BenchmarkFixtures.geoJson( size );
+        final String json = QueryUtils.readFromStream( new ByteArrayInputStream( body ) );
+        final QuakeList parsed = (QuakeList) QueryUtils.extractFeaturesFromStream(
+                new ByteArrayInputStream( body ) );
+        assertEquals( size, parsed.size() );
+
+        // read
+
+        mRunner.run( "read/string", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() throws Exception {
+                return QueryUtils.readFromStream( new ByteArrayInputStream( body ) );
+            }
+        } );
+
+        // parse
+
+        mRunner.run( "parse/org.json", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                return QueryUtils.extractFeaturesFromJson( json );
+            }
+        } );
+        mRunner.run( "read+parse/org.json", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() throws Exception {
+                return QueryUtils.extractFeaturesFromJson(
+                        QueryUtils.readFromStream( new ByteArrayInputStream( body ) ) );
+            }
+        } );
+        mRunner.run( "read+parse/stream", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                return QueryUtils.extractFeaturesFromStream( new ByteArrayInputStream( body ) );
+            }
+        } );
+
+        // transform
+
+        mRunner.run( "transform/index", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                return new QuakeIndex( parsed, 0, true );
+            }
+        } );
+        final QuakeIndex index = new QuakeIndex( parsed, 0, true );
+        mRunner.run( "transform/select", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                return index.selectIds( 4.5, EarthquakeQuery.ORDER_BY_TIME );
+            }
+        } );
+        mRunner.run( "transform/spatial-build", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                return new QuakeSpatialIndex( parsed );
+            }
+        } );
+        final QuakeSpatialIndex spatialIndex = new QuakeSpatialIndex( parsed );
+        mRunner.run( "query/radius-grid", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                int found = 0;
+                for (double[] point : QUERY_POINTS) {
+                    found += spatialIndex.withinRadius( point[0], point[1], QUERY_RADIUS_KM ).size();
+                }
+                return found;
+            }
+        } );
+        mRunner.run( "query/radius-scan", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                int found = 0;
+                for (double[] point : QUERY_POINTS) {
+                    found += scanWithinRadius( parsed, point[0], point[1], QUERY_RADIUS_KM ).size();
+                }
+                return found;
+            }
+        } );
+
+        // format
+
+        mRunner.run( "format/loader", size, new BenchmarkRunner.Op() {
+            private QuakeList mFresh;
+
+            @Override
+            public void setUp() {
+                mFresh = copy( parsed );
+            }
+
+            @Override
+            public Object run() {
+                QuakeFormatter.prepareAll( mFresh );
+                return mFresh;
+            }
+        } );
+        mRunner.run( "format/bind-time", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                int length = 0;
+                for (QuakeDescription quake : parsed) {
+                    length += formatAtBindTime( quake );
+                }
+                return length;
+            }
+        } );
+        // What getView is left with once the loader has formatted the rows.
+        final QuakeList prepared = copy( parsed );
+        QuakeFormatter.prepareAll( prepared );
+        mRunner.run( "format/bind-prepared", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                int length = 0;
+                for (QuakeDescription quake : prepared) {
+                    length += bindPrepared( quake );
+                }
+                return length;
+            }
+        } );
+
+        // alerts: the compiled matcher against checking every rule for every event
+
+        final List<AlertRule> rules = alertRules( ALERT_RULES );
+        final AlertMatcher matcher = new AlertMatcher( rules );
+        final long now = System.currentTimeMillis();
+        assertEquals( scanAlerts( parsed, rules, now ), matchAlerts( parsed, matcher, now ) );
+        mRunner.run( "alerts/indexed", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                return matchAlerts( parsed, matcher, now );
+            }
+        } );
+        mRunner.run( "alerts/scan", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                return scanAlerts( parsed, rules, now );
+            }
+        } );
+
+        // search: the place index against a substring scan, per keystroke
+
+        final String[] places = syntheticPlaces( size );
+        mRunner.run( "search/build", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                return placeIndex( parsed, places );
+            }
+        } );
+        final PlaceIndex placeIndex = placeIndex( parsed, places );
+        mRunner.run( "search/indexed", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                int found = 0;
+                for (String query : SEARCH_QUERIES) {
+                    found += placeIndex.search( query, 0, SEARCH_LIMIT ).size();
+                }
+                return found;
+            }
+        } );
+        mRunner.run( "search/scan", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                int found = 0;
+                for (String query : SEARCH_QUERIES) {
+                    found += scanPlaces( parsed, places, query, SEARCH_LIMIT ).size();
+                }
+                return found;
+            }
+        } );
+
+        // cold start: the snapshot against parsing the same events from JSON again
+
+        final File snapshot = File.createTempFile( "snapshot", ".bin" );
+        snapshot.deleteOnExit();
+        mRunner.run( "snapshot/write", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() throws Exception {
+                QuakeSnapshot.write( snapshot, prepared, SNAPSHOT_KEY );
+                return snapshot;
+            }
+        } );
+        assertEquals( size, QuakeSnapshot.read( snapshot, SNAPSHOT_KEY ).size() );
+        mRunner.run( "snapshot/read", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() throws Exception {
+                return QuakeSnapshot.read( snapshot, SNAPSHOT_KEY );
+            }
+        } );
+        mRunner.run( "snapshot/json-reparse", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                QuakeList earthquakes = (QuakeList) QueryUtils.extractFeaturesFromStream(
+                        new ByteArrayInputStream( body ) );
+                QuakeFormatter.prepareAll( earthquakes );
+                return earthquakes;
+            }
+        } );
+
+        // detail: opening an event from the memory cache, from the disk cache, and parsing
+        // a fetched document
+
+        final int documents = Math.min( size, MAX_DETAIL_DOCUMENTS );
+        final byte[][] details = new byte[documents][];
+        List<String> features = BenchmarkFixtures.features( documents );
+        final File detailDir = File.createTempFile( "details", "" );
+        detailDir.delete();
+        final DetailCache detailCache = new DetailCache( detailDir, Long.MAX_VALUE, Long.MAX_VALUE,
+                EarthquakeQuery.USGS_REQUEST_URL );
+        for (int i = 0; i < documents; i++) {
+            details[i] = BenchmarkFixtures.detail( features.get( i ) );
+            detailCache.put( "d" + i, details[i], 0 );
+        }
+        assertEquals( documents, detailCache.getDiskCount() );
+        mRunner.run( "detail/parse", documents, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() throws Exception {
+                int products = 0;
+                for (byte[] detail : details) {
+                    products += QuakeDetail.parse( new ByteArrayInputStream( detail ) )
+                            .getProducts().size();
+                }
+                return products;
+            }
+        } );
+        mRunner.run( "detail/memory-hit", documents, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                int found = 0;
+                for (int i = 0; i < documents; i++) {
+                    found += detailCache.getFromMemory( "d" + i, 0 ) != null ? 1 : 0;
+                }
+                return found;
+            }
+        } );
+        mRunner.run( "detail/disk-hit", documents, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                // A new cache, as after a restart: nothing in memory, the index from a listing.
+                DetailCache cold = new DetailCache( detailDir, Long.MAX_VALUE, Long.MAX_VALUE,
+                        EarthquakeQuery.USGS_REQUEST_URL );
+                int found = 0;
+                for (int i = 0; i < documents; i++) {
+                    found += cold.getCached( "d" + i, 0 ) != null ? 1 : 0;
+                }
+                return found;
+            }
+        } );
+        File[] cached = detailDir.listFiles();
+        for (File file : cached != null ? cached : new File[0]) {
+            file.delete();
+        }
+        detailDir.delete();
+
+        // timeline: one chart frame from the pyramid against drawing every event, the whole
+        // span and zoomed in, and a live poll's worth of events arriving
+
+        final QuakeTimeline timeline = new QuakeTimeline( -Double.MAX_VALUE );
+        timeline.putAll( parsed );
+        final long first = timeline.getStart();
+        final long last = timeline.getEnd() + 1;
+        final long zoomed = Math.max( 1, (last - first) / TIMELINE_ZOOM );
+        mRunner.run( "timeline/build", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                QuakeTimeline built = new QuakeTimeline( -Double.MAX_VALUE );
+                built.putAll( parsed );
+                return built;
+            }
+        } );
+        final float[] low = new float[TIMELINE_COLUMNS];
+        final float[] high = new float[TIMELINE_COLUMNS];
+        final int[] counts = new int[TIMELINE_COLUMNS];
+        timeline.sample( first, last, TIMELINE_COLUMNS, low, high, counts );
+        assertEquals( size, sum( counts ) );
+        mRunner.run( "timeline/frame-all", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                timeline.sample( first, last, TIMELINE_COLUMNS, low, high, counts );
+                return counts;
+            }
+        } );
+        mRunner.run( "timeline/frame-zoom", size, new BenchmarkRunner.SimpleOp() {
+            private int mFrame;
+
+            @Override
+            public Object run() {
+                // Panning across the whole span, one step of the zoomed span per frame.
+                long start = first + (mFrame++ % TIMELINE_ZOOM) * zoomed;
+                timeline.sample( start, start + zoomed, TIMELINE_COLUMNS, low, high, counts );
+                return counts;
+            }
+        } );
+        mRunner.run( "timeline/frame-scan", size, new BenchmarkRunner.SimpleOp() {
+            @Override
+            public Object run() {
+                return scanTimeline( parsed, first, last, TIMELINE_COLUMNS, low, high, counts );
+            }
+        } );
+        final QuakeTable arrivals = new QuakeTable( TIMELINE_ARRIVALS );
+        for (int i = 0; i < TIMELINE_ARRIVALS; i++) {
+            arrivals.append( "live" + i, 2 + i % 5, null, last + i * 60000L, last, null,
+                    0, 0, 0 );
+        }
+        mRunner.run( "timeline/arrive", TIMELINE_ARRIVALS, new BenchmarkRunner.Op() {
+            @Override
+            public void setUp() {
+                for (int i = 0; i < TIMELINE_ARRIVALS; i++) {
+                    timeline.remove( "live" + i );
+                }
+            }
+
+            @Override
+            public Object run() {
+                timeline.putAll( arrivals.asList() );
+                return timeline;
+            }
+        } );
+
+        // export: streaming the rows to a file, one format at a time
+
+        for (final String format : new String[]{QuakeExporter.FORMAT_CSV,
+                QuakeExporter.FORMAT_GEOJSON}) {
+            final File export = File.createTempFile( "export", "." + format );
+            export.deleteOnExit();
+            mRunner.run( "export/" + format, size, new BenchmarkRunner.SimpleOp() {
+                @Override
+                public Object run() throws Exception {
+                    return exportTo( export, format, parsed );
+                }
+            } );
+        }
+    }
+
+    /** Writes the earthquakes to {@code file} the way {@link QuakeExporter#export} does. */
+    private static File exportTo(File file, String format, QuakeList earthquakes)
+            throws IOException {
+        FileChannel channel = new FileOutputStream( file ).getChannel();
+        try {
+            QuakeExporter exporter = new QuakeExporter( format, channel );
+            exporter.begin();
+            QuakeTable table = earthquakes.getTable();
+            for (int i = 0; i < earthquakes.size(); i++) {
+                exporter.write( table, earthquakes.rowAt( i ) );
+            }
+            exporter.finish();
+        } finally {
+            channel.close();
+        }
+        return file;
+    }
+
+    private void checkAgainstBaseline() throws Exception {
+        String baseline = System.getProperty( "benchmark.baseline" );
+        if (baseline == null) {
+            return;
+        }
+        double tolerance = Double.parseDouble( System.getProperty( "benchmark.tolerance", "0.25" ) );
+        Map<String, Double> before = BenchmarkRunner.readThroughput( new File( baseline ) );
+        List<String> regressions = new ArrayList<>();
+        for (BenchmarkRunner.Result result : mRunner.getResults()) {
+            Double old = before.get( result.key() );
+            if (old != null && result.opsPerSecond < old * (1 - tolerance)) {
+                regressions.add( String.format( "%s: %.1f -> %.1f ops/s",
+                        result.key(), old, result.opsPerSecond ) );
+            }
+        }
+        assertTrue( "Slower than " + baseline + ": " + regressions, regressions.isEmpty() );
+    }
+
+    /**
+     * USGS-style places for {@code count} events, "12 km SSW of Kotami, Alaska", with about
+     * one town for every five events.
+     */
+    private static String[] syntheticPlaces(int count) {
+        Random random = new Random( 11 );
+        String[] towns = new String[Math.max( 1, count / 5 )];
+        for (int i = 0; i < towns.length; i++) {
+            StringBuilder town = new StringBuilder();
+            int syllables = 2 + random.nextInt( 3 );
+            for (int j = 0; j < syllables; j++) {
+                town.append( SYLLABLES[random.nextInt( SYLLABLES.length )] );
+            }
+            town.setCharAt( 0, Character.toUpperCase( town.charAt( 0 ) ) );
+            towns[i] = town + ", " + REGIONS[random.nextInt( REGIONS.length )];
+        }
+        String[] places = new String[count];
+        for (int i = 0; i < count; i++) {
+            places[i] = (1 + random.nextInt( 150 )) + " km "
+                    + DIRECTIONS[random.nextInt( DIRECTIONS.length )] + " of "
+                    + towns[random.nextInt( towns.length )];
+        }
+        return places;
+    }
+
+    private static PlaceIndex placeIndex(QuakeList earthquakes, String[] places) {
+        PlaceIndex index = new PlaceIndex();
+        for (int i = 0; i < earthquakes.size(); i++) {
+            QuakeDescription quake = earthquakes.get( i );
+            index.put( quake.getId(), quake.getMagnitude(), quake.getmTimeInMilliSeconds(),
+                    places[i] );
+        }
+        return index;
+    }
+
+    /**
+     * The search without an index: every place lowercased and checked for the query, then
+     * the matches sorted largest first.
+     */
+    private static List<String> scanPlaces(QuakeList earthquakes, String[] places, String query,
+                                           int limit) {
+        String needle = query.toLowerCase( Locale.US );
+        final List<QuakeDescription> matches = new ArrayList<>();
+        for (int i = 0; i < earthquakes.size(); i++) {
+            if (places[i].toLowerCase( Locale.US ).contains( needle )) {
+                matches.add( earthquakes.get( i ) );
+            }
+        }
+        Collections.sort( matches, new Comparator<QuakeDescription>() {
+            @Override
+            public int compare(QuakeDescription a, QuakeDescription b) {
+                return Double.compare( b.getMagnitude(), a.getMagnitude() );
+            }
+        } );
+        List<String> ids = new ArrayList<>( Math.min( limit, matches.size() ) );
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            ids.add( matches.get( i ).getId() );
+        }
+        return ids;
+    }
+
+    /** A timeline frame without the pyramid: every event, put in its column one by one. */
+    private static int[] scanTimeline(QuakeList earthquakes, long start, long end, int columns,
+                                      float[] low, float[] high, int[] counts) {
+        Arrays.fill( counts, 0 );
+        QuakeTable table = earthquakes.getTable();
+        long span = end - start;
+        for (int i = 0; i < earthquakes.size(); i++) {
+            int row = earthquakes.rowAt( i );
+            long time = table.getTime( row );
+            if (time < start || time >= end) {
+                continue;
+            }
+            int column = (int) ((time - start) * columns / span);
+            float magnitude = (float) table.getMagnitude( row );
+            if (counts[column]++ == 0) {
+                low[column] = magnitude;
+                high[column] = magnitude;
+            } else {
+                low[column] = Math.min( low[column], magnitude );
+                high[column] = Math.max( high[column], magnitude );
+            }
+        }
+        return counts;
+    }
+
+    private static int sum(int[] values) {
+        int sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static int[] sizes() {
+        String sizes = System.getProperty( "benchmark.sizes" );
+        if (sizes == null) {
+            return DEFAULT_SIZES;
+        }
+        String[] parts = sizes.split( "," );
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt( parts[i].trim() );
+        }
+        return result;
+    }
+
+    /** A copy whose rows have not been formatted yet. */
+    private static QuakeList copy(QuakeList earthquakes) {
+        QuakeTable table = new QuakeTable( earthquakes.size() );
+        for (int i = 0; i < earthquakes.size(); i++) {
+            table.appendRow( earthquakes.getTable(), earthquakes.rowAt( i ) );
+        }
+        return table.asList();
+    }
+
+    /** The radius query the spatial index replaces: every event, one distance each. */
+    private static QuakeList scanWithinRadius(QuakeList earthquakes, double latitude,
+                                              double longitude, double radiusKm) {
+        int[] rows = new int[earthquakes.size()];
+        int count = 0;
+        QuakeTable table = earthquakes.getTable();
+        for (int i = 0; i < earthquakes.size(); i++) {
+            int row = earthquakes.rowAt( i );
+            if (QuakeSpatialIndex.distanceKm( latitude, longitude, table.getLatitude( row ),
+                    table.getLongitude( row ) ) <= radiusKm) {
+                rows[count++] = row;
+            }
+        }
+        return new QuakeList( table, rows, count );
+    }
+
+    /** Radius and box rules at random places and floors, and a few worldwide ones. */
+    private static List<AlertRule> alertRules(int count) {
+        Random random = new Random( 7 );
+        List<AlertRule> rules = new ArrayList<>( count );
+        for (int i = 0; i < count; i++) {
+            double latitude = Math.toDegrees( Math.asin( random.nextDouble() * 2 - 1 ) );
+            double longitude = random.nextDouble() * 360 - 180;
+            double floor = 2 + random.nextInt( 50 ) / 10.0;
+            if (i % 100 == 0) {
+                rules.add( AlertRule.anywhere( "anywhere", floor + 2, 0 ) );
+            } else if (i % 10 == 0) {
+                rules.add( AlertRule.withinBox( "box", floor, latitude - 5, longitude - 5,
+                        latitude + 5, longitude + 5, 0 ) );
+            } else {
+                rules.add( AlertRule.withinRadius( "radius", floor, latitude, longitude,
+                        50 + random.nextInt( 950 ), 0 ) );
+            }
+        }
+        return rules;
+    }
+
+    private static int matchAlerts(QuakeList earthquakes, AlertMatcher matcher, long now) {
+        List<AlertRule> matched = new ArrayList<>();
+        int count = 0;
+        for (int i = 0; i < earthquakes.size(); i++) {
+            matched.clear();
+            count += matcher.match( earthquakes.get( i ), now, matched );
+        }
+        return count;
+    }
+
+    private static int scanAlerts(QuakeList earthquakes, List<AlertRule> rules, long now) {
+        int count = 0;
+        for (int i = 0; i < earthquakes.size(); i++) {
+            QuakeDescription quake = earthquakes.get( i );
+            for (AlertRule rule : rules) {
+                if (rule.matches( quake.getMagnitude(), quake.getmTimeInMilliSeconds(),
+                        quake.getLatitude(), quake.getLongitude(), now )) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** The reads QuakeAdapter.getView makes of a row the loader has prepared. */
+    private static int bindPrepared(QuakeDescription quake) {
+        return quake.getMagnitudeText().length() + quake.getLocationOffset().length()
+                + quake.getPrimaryLocation().length() + quake.getDateText().length()
+                + quake.getTimeText().length() + quake.getMagnitudeColor();
+    }
+
+    /**
+     * Formats a row the way the adapter did before formatting moved to the loader: new
+     * formatters and a new Date for every row bound. Returns the text length.
+     */
+    private static int formatAtBindTime(QuakeDescription quake) {
+        String magnitude = new DecimalFormat( "0.0" ).format( quake.getMagnitude() );
+        String quakePlace = quake.getQuakePlace();
+        String place, placeOffset;
+        int index = quakePlace.indexOf( "of" );
+        if (index == -1) {
+            placeOffset = "Near of ";
+            place = quakePlace;
+        } else {
+            placeOffset = quakePlace.substring( 0, index + 2 );
+            place = quakePlace.substring( Math.min( index + 3, quakePlace.length() ) );
+        }
+        Date dateObject = new Date( quake.getmTimeInMilliSeconds() );
+        String date = new SimpleDateFormat( "LLL dd, yyyy" ).format( dateObject );
+        String time = new SimpleDateFormat( "h:mm:ss" ).format( dateObject );
+        return magnitude.length() + placeOffset.length() + place.length()
+                + date.length() + time.length();
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PlaceIndexTest {
+
+    @Test
+    public void stripsTheOffsetFromPlaces() {
+        assertEquals( "Anchorage, Alaska", PlaceIndex.placeName( "12 km SSW of Anchorage, Alaska" ) );
+        assertEquals( "Anchorage, Alaska", PlaceIndex.placeName( "3.5km N of Anchorage, Alaska" ) );
+        assertEquals( "Fiji region", PlaceIndex.placeName( "Fiji region" ) );
+        assertEquals( "", PlaceIndex.placeName( null ) );
+        assertEquals( Arrays.asList( "são", "paulo", "brazil" ),
+                Arrays.asList( PlaceIndex.tokenize( "São Paulo, Brazil!" ) ) );
+    }
+
+    @Test
+    public void everyWordIsAPrefixThatMustMatch() {
+        PlaceIndex index = new PlaceIndex();
+        index.put( "a", 4, 1, "10 km N of Anchorage, Alaska" );
+        index.put( "b", 5, 2, "5 km E of Adak, Alaska" );
+        index.put( "c", 6, 3, "Northern California" );
+        assertEquals( Arrays.asList( "b", "a" ), index.search( "alas", 0, 10 ) );
+        assertEquals( Arrays.asList( "a" ), index.search( "anch ALASKA", 0, 10 ) );
+        assertEquals( Collections.<String>emptyList(), index.search( "anch calif", 0, 10 ) );
+        assertEquals( Collections.<String>emptyList(), index.search( " , ", 0, 10 ) );
+        assertEquals( 3, index.getPlaceCount() );
+    }
+
+    @Test
+    public void ranksWholeWordsAndPlaceNamesFirst() {
+        PlaceIndex index = new PlaceIndex();
+        index.put( "prefix", 7, 1, "Perugia, Italy" );
+        index.put( "region", 6, 1, "Volcano, Peru" );
+        index.put( "name", 5, 1, "Peru Basin, Pacific Ocean" );
+        // Whole word in the name, whole word in the region, then only a prefix.
+        assertEquals( Arrays.asList( "name", "region", "prefix" ), index.search( "peru", 0, 10 ) );
+    }
+
+    @Test
+    public void appliesTheFloorAndTheLimit() {
+        PlaceIndex index = new PlaceIndex();
+        index.put( "a", 3, 1, "Tonga" );
+        index.put( "b", 5, 2, "Tonga" );
+        index.put( "c", 5, 3, "Tonga" );
+        assertEquals( Arrays.asList( "c", "b" ), index.search( "tonga", 4, 10 ) );
+        assertEquals( Arrays.asList( "c" ), index.search( "tonga", 0, 1 ) );
+        assertEquals( Collections.<String>emptyList(), index.search( "tonga", 6, 10 ) );
+    }
+
+    @Test
+    public void updatesAndRemovalsKeepTheIndexCurrent() {
+        PlaceIndex index = new PlaceIndex();
+        index.put( "a", 4, 10, "Kyushu, Japan" );
+        index.put( "a", 4, 10, "Honshu, Japan" );
+        assertEquals( Collections.<String>emptyList(), index.search( "kyushu", 0, 10 ) );
+        assertEquals( Arrays.asList( "a" ), index.search( "honshu", 0, 10 ) );
+        assertEquals( 1, index.getPlaceCount() );
+
+        index.put( "b", 5, 5, "Crete, Greece" );
+        index.removeOlderThan( 6 );
+        assertEquals( Collections.<String>emptyList(), index.search( "crete", 0, 10 ) );
+        index.remove( "a" );
+        assertEquals( 0, index.size() );
+        assertEquals( 0, index.getPlaceCount() );
+        assertEquals( Collections.<String>emptyList(), index.search( "japan", 0, 10 ) );
+    }
+
+    /** Checks searches against scoring every event with the rules the class describes. */
+    @Test
+    public void matchesScoringEveryEvent() {
+        Random random = new Random( 21 );
+        String[] names = {"Anchorage", "Adak", "Akutan", "Honshu", "Hokkaido", "Santiago",
+                "San Pedro", "Santa Cruz", "Perugia", "Lima"};
+        String[] regions = {"Alaska", "Japan", "Chile", "Peru", "Italy", "Santa Cruz Islands"};
+        List<Object[]> events = new ArrayList<>();
+        PlaceIndex index = new PlaceIndex();
+        for (int i = 0; i < 400; i++) {
+            String place = random.nextInt( 50 ) + " km NE of " + names[random.nextInt( names.length )]
+                    + ", " + regions[random.nextInt( regions.length )];
+            double magnitude = random.nextInt( 70 ) / 10.0;
+            long time = random.nextInt( 1000 );
+            index.put( "e" + i, magnitude, time, place );
+            events.add( new Object[]{"e" + i, magnitude, time, PlaceIndex.placeName( place )} );
+        }
+        String[] queries = {"a", "san", "santa cruz", "al", "hon jap", "peru", "per", "s c",
+                "lima peru", "x"};
+        for (String query : queries) {
+            for (double floor : new double[]{0, 3.5}) {
+                assertEquals( query, expected( events, query, floor, 25 ),
+                        index.search( query, floor, 25 ) );
+            }
+        }
+    }
+
+    private static List<String> expected(List<Object[]> events, String query, double floor,
+                                         int limit) {
+        final String[] words = PlaceIndex.tokenize( query );
+        List<Object[]> matches = new ArrayList<>();
+        for (Object[] event : events) {
+            int score = score( (String) event[3], words );
+            if (score >= 0 && (Double) event[1] >= floor) {
+                matches.add( new Object[]{event[0], event[1], event[2], score} );
+            }
+        }
+        Collections.sort( matches, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] a, Object[] b) {
+                int order = ((Integer) b[3]).compareTo( (Integer) a[3] );
+                if (order == 0) {
+                    order = ((Double) b[1]).compareTo( (Double) a[1] );
+                }
+                if (order == 0) {
+                    order = ((Long) b[2]).compareTo( (Long) a[2] );
+                }
+                return order != 0 ? order : ((String) a[0]).compareTo( (String) b[0] );
+            }
+        } );
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            ids.add( (String) matches.get( i )[0] );
+        }
+        return ids;
+    }
+
+    /** Sum over the words of their best match in the place, or -1 if one has none. */
+    private static int score(String place, String[] words) {
+        int comma = place.lastIndexOf( ',' );
+        List<String> name = Arrays.asList( PlaceIndex.tokenize( place.substring( 0, comma ) ) );
+        List<String> all = new ArrayList<>( name );
+        all.addAll( Arrays.asList( PlaceIndex.tokenize( place.substring( comma + 1 ) ) ) );
+        int total = 0;
+        for (String word : words) {
+            int best = -1;
+            for (String token : all) {
+                if (token.startsWith( word )) {
+                    int score = (token.equals( word ) ? 4 : 2) + (name.contains( token ) ? 1 : 0);
+                    best = Math.max( best, score );
+                }
+            }
+            if (best < 0) {
+                return -1;
+            }
+            total += best;
+        }
+        return total;
+    }
+}
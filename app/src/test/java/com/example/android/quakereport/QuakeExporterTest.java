@@ -0,0 +1,101 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QuakeExporterTest {
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private static String export(String format, QuakeTable table) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        QuakeExporter exporter = new QuakeExporter( format, Channels.newChannel( bytes ) );
+        exporter.begin();
+        for (int row = 0; row < table.size(); row++) {
+            exporter.write( table, row );
+        }
+        exporter.finish();
+        assertEquals( table.size(), exporter.getRowCount() );
+        return new String( bytes.toByteArray(), UTF_8 );
+    }
+
+    private static QuakeTable sample() {
+        QuakeTable table = new QuakeTable();
+        table.append( "us1", 6.2, "87km SSE of Sola, Vanuatu", 1513728000123L, 1513814400000L,
+                "https://example.com/us1", 169.3571, -14.6524, 40.12 );
+        table.append( "ak2", 3, "Say \"hi\"\nthen\tgo\\", 0, 0, null,
+                Double.NaN, Double.NaN, Double.NaN );
+        return table;
+    }
+
+    @Test
+    public void writesCsvWithQuotingAndEmptyMissingValues() throws IOException {
+        assertEquals( "time,latitude,longitude,depth,mag,place,id,updated,url\r\n"
+                + "2017-12-20T00:00:00.123Z,-14.6524,169.3571,40.12,6.2,"
+                + "\"87km SSE of Sola, Vanuatu\",us1,2017-12-21T00:00:00.000Z,"
+                + "https://example.com/us1\r\n"
+                + "1970-01-01T00:00:00.000Z,,,,3,\"Say \"\"hi\"\"\nthen\tgo\\\",ak2,"
+                + "1970-01-01T00:00:00.000Z,\r\n", export( QuakeExporter.FORMAT_CSV, sample() ) );
+    }
+
+    @Test
+    public void geoJsonReadsBackThroughTheParser() throws IOException {
+        String json = export( QuakeExporter.FORMAT_GEOJSON, sample() );
+        GeoJsonQuakeParser parser = new GeoJsonQuakeParser(
+                new ByteArrayInputStream( json.getBytes( UTF_8 ) ) );
+        QuakeDescription first = parser.nextQuake();
+        assertEquals( "us1", first.getId() );
+        assertEquals( 6.2, first.getMagnitude(), 0 );
+        assertEquals( "87km SSE of Sola, Vanuatu", first.getQuakePlace() );
+        assertEquals( 1513728000123L, first.getmTimeInMilliSeconds() );
+        assertEquals( 1513814400000L, first.getUpdated() );
+        assertEquals( 169.3571, first.getLongitude(), 1e-4 );
+        assertEquals( 40.12, first.getDepth(), 1e-4 );
+        QuakeDescription second = parser.nextQuake();
+        assertEquals( "Say \"hi\"\nthen\tgo\\", second.getQuakePlace() );
+        assertEquals( "", second.getmUrl() );
+        assertTrue( Double.isNaN( second.getLatitude() ) );
+        assertNull( parser.nextQuake() );
+    }
+
+    @Test
+    public void emptyExportsAreStillWellFormed() throws IOException {
+        assertEquals( "{\"type\":\"FeatureCollection\",\"features\":[]}\n",
+                export( QuakeExporter.FORMAT_GEOJSON, new QuakeTable() ) );
+        assertNull( new GeoJsonQuakeParser( new ByteArrayInputStream(
+                export( QuakeExporter.FORMAT_GEOJSON, new QuakeTable() ).getBytes( UTF_8 ) ) )
+                .nextQuake() );
+    }
+
+    /** Enough non-ASCII text to cross the writer's buffers, including surrogate pairs. */
+    @Test
+    public void encodesLongTextAcrossBuffers() throws IOException {
+        StringBuilder place = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            place.append( "Ñuñoa 🌋, " );
+        }
+        QuakeTable table = new QuakeTable();
+        for (int i = 0; i < 20; i++) {
+            table.append( "id" + i, i, place.toString(), i, i, "u", 1, 2, 3 );
+        }
+        String csv = export( QuakeExporter.FORMAT_CSV, table );
+        String row = "1970-01-01T00:00:00.005Z,2,1,3,5,\"" + place + "\",id5,"
+                + "1970-01-01T00:00:00.005Z,u\r\n";
+        assertTrue( csv.contains( row ) );
+        assertEquals( 21, csv.split( "\r\n" ).length );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownFormats() {
+        new QuakeExporter( "xml", Channels.newChannel( new ByteArrayOutputStream() ) );
+    }
+}
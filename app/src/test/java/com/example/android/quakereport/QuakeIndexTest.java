@@ -0,0 +1,124 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QuakeIndexTest {
+
+    private static QuakeTable table(double[] magnitudes, long[] times) {
+        QuakeTable table = new QuakeTable();
+        for (int i = 0; i < magnitudes.length; i++) {
+            table.append( "id" + i, magnitudes[i], "place", times[i], times[i], "url",
+                    Double.NaN, Double.NaN, Double.NaN );
+        }
+        return table;
+    }
+
+    private static List<String> ids(List<QuakeDescription> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (QuakeDescription quake : earthquakes) {
+            ids.add( quake.getId() );
+        }
+        return ids;
+    }
+
+    @Test
+    public void ordersByTimeNewestFirst() {
+        QuakeTable table = table( new double[]{3, 5, 4}, new long[]{10, 30, 20} );
+        QuakeIndex index = new QuakeIndex( table.asList(), 0, true );
+        assertEquals( Arrays.asList( "id1", "id2", "id0" ),
+                index.selectIds( 0, EarthquakeQuery.ORDER_BY_TIME ) );
+        assertEquals( Arrays.asList( "id1", "id2" ),
+                index.selectIds( 4, EarthquakeQuery.ORDER_BY_TIME ) );
+    }
+
+    @Test
+    public void ordersByMagnitudeWithTiesNewestFirst() {
+        QuakeTable table = table( new double[]{4, 5, 4, 2}, new long[]{10, 5, 30, 40} );
+        QuakeIndex index = new QuakeIndex( table.asList(), 0, true );
+        assertEquals( Arrays.asList( "id1", "id2", "id0", "id3" ),
+                index.selectIds( 0, EarthquakeQuery.ORDER_BY_MAGNITUDE ) );
+        assertEquals( Arrays.asList( "id1", "id2", "id0" ),
+                index.selectIds( 4, EarthquakeQuery.ORDER_BY_MAGNITUDE ) );
+        assertEquals( Collections.<String>emptyList(),
+                index.selectIds( 6, EarthquakeQuery.ORDER_BY_MAGNITUDE ) );
+    }
+
+    @Test
+    public void coversOnlyAtOrAboveTheLoadedFloorWhenComplete() {
+        QuakeList earthquakes = table( new double[]{3}, new long[]{1} ).asList();
+        QuakeIndex complete = new QuakeIndex( earthquakes, 2.5, true );
+        assertTrue( complete.covers( 2.5 ) );
+        assertTrue( complete.covers( 4.5 ) );
+        assertFalse( complete.covers( 1.0 ) );
+        assertFalse( new QuakeIndex( earthquakes, 2.5, false ).covers( 4.5 ) );
+    }
+
+    @Test
+    public void indexesOnlyTheRowsOfTheList() {
+        QuakeTable table = table( new double[]{1, 2, 3, 4}, new long[]{1, 2, 3, 4} );
+        QuakeIndex index = new QuakeIndex( new QuakeList( table, new int[]{3, 1}, 2 ), 0, true );
+        assertEquals( 2, index.size() );
+        assertEquals( Arrays.asList( "id3", "id1" ),
+                index.selectIds( 0, EarthquakeQuery.ORDER_BY_TIME ) );
+    }
+
+    @Test
+    public void selectMatchesSortingEveryEvent() {
+        Random random = new Random( 6 );
+        int size = 2000;
+        double[] magnitudes = new double[size];
+        long[] times = new long[size];
+        for (int i = 0; i < size; i++) {
+            // Few distinct values, so there are plenty of ties.
+            magnitudes[i] = random.nextInt( 80 ) / 10.0;
+            times[i] = random.nextInt( 500 );
+        }
+        QuakeTable table = table( magnitudes, times );
+        QuakeIndex index = new QuakeIndex( table.asList(), 0, true );
+        for (double floor : new double[]{0, 2.5, 4.5, 7.9, 8}) {
+            assertEquals( expected( table, floor, BY_TIME ),
+                    index.selectIds( floor, EarthquakeQuery.ORDER_BY_TIME ) );
+            assertEquals( expected( table, floor, BY_MAGNITUDE ),
+                    index.selectIds( floor, EarthquakeQuery.ORDER_BY_MAGNITUDE ) );
+        }
+    }
+
+    /** The rows at or above {@code floor} in a stable sort of the table order. */
+    private static List<String> expected(QuakeTable table, double floor,
+                                         Comparator<QuakeDescription> order) {
+        List<QuakeDescription> rows = new ArrayList<>();
+        for (QuakeDescription quake : table.asList()) {
+            if (quake.getMagnitude() >= floor) {
+                rows.add( quake );
+            }
+        }
+        Collections.sort( rows, order );
+        return ids( rows );
+    }
+
+    private static final Comparator<QuakeDescription> BY_TIME = new Comparator<QuakeDescription>() {
+        @Override
+        public int compare(QuakeDescription a, QuakeDescription b) {
+            return Long.compare( b.getmTimeInMilliSeconds(), a.getmTimeInMilliSeconds() );
+        }
+    };
+
+    private static final Comparator<QuakeDescription> BY_MAGNITUDE = new Comparator<QuakeDescription>() {
+        @Override
+        public int compare(QuakeDescription a, QuakeDescription b) {
+            int magnitude = Double.compare( b.getMagnitude(), a.getMagnitude() );
+            return magnitude != 0 ? magnitude : BY_TIME.compare( a, b );
+        }
+    };
+}
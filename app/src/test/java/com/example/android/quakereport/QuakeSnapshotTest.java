@@ -0,0 +1,123 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QuakeSnapshotTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile( "snapshot", ".bin" );
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static QuakeList earthquakes() {
+        QuakeTable table = new QuakeTable();
+        table.append( "us1", 6.2, "87km SSE of Sola, Vanuatu", 1513728000000L, 1513814400000L,
+                "https://example.com/us1", 169.3571, -14.6524, 40.12 );
+        table.append( null, 2.5, "Near the coast of Chile", 1513700000000L, 1513700000000L,
+                null, Double.NaN, Double.NaN, Double.NaN );
+        table.setDisplay( 0, "6.2", 0, "87km SSE of", "Sola, Vanuatu", "Dec 20, 2017",
+                "12:00 AM" );
+        return table.asList();
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        QuakeSnapshot.write( mFile, earthquakes(), "query" );
+        QuakeList read = QuakeSnapshot.read( mFile, "query" );
+        assertEquals( 2, read.size() );
+
+        QuakeDescription first = read.get( 0 );
+        assertEquals( "us1", first.getId() );
+        assertEquals( 6.2, first.getMagnitude(), 0 );
+        assertEquals( "87km SSE of Sola, Vanuatu", first.getQuakePlace() );
+        assertEquals( 1513728000000L, first.getmTimeInMilliSeconds() );
+        assertEquals( 1513814400000L, first.getUpdated() );
+        assertEquals( "https://example.com/us1", first.getmUrl() );
+        assertEquals( 169.3571, first.getLongitude(), 1e-4 );
+        assertEquals( -14.6524, first.getLatitude(), 1e-4 );
+        assertEquals( 40.12, first.getDepth(), 1e-4 );
+        assertTrue( first.isPrepared() );
+        assertEquals( "6.2", first.getMagnitudeText() );
+        assertEquals( "Sola, Vanuatu", first.getPrimaryLocation() );
+        assertEquals( "12:00 AM", first.getTimeText() );
+
+        QuakeDescription second = read.get( 1 );
+        assertNull( second.getId() );
+        assertNull( second.getmUrl() );
+        assertTrue( Double.isNaN( second.getLatitude() ) );
+        assertFalse( second.isPrepared() );
+        assertFalse( new File( mFile.getPath() + ".tmp" ).exists() );
+    }
+
+    @Test
+    public void ignoresSnapshotsOfOtherQueries() throws IOException {
+        assertNull( QuakeSnapshot.read( mFile, "query" ) );
+        QuakeSnapshot.write( mFile, earthquakes(), "query" );
+        assertNull( QuakeSnapshot.read( mFile, "other" ) );
+        assertNull( QuakeSnapshot.read( mFile, null ) );
+    }
+
+    @Test
+    public void dropsRowTextFormattedForAnotherLocale() throws IOException {
+        Locale locale = Locale.getDefault();
+        QuakeSnapshot.write( mFile, earthquakes(), "query" );
+        try {
+            Locale.setDefault( locale.equals( Locale.GERMANY ) ? Locale.FRANCE : Locale.GERMANY );
+            QuakeList read = QuakeSnapshot.read( mFile, "query" );
+            assertEquals( "us1", read.get( 0 ).getId() );
+            assertFalse( read.get( 0 ).isPrepared() );
+        } finally {
+            Locale.setDefault( locale );
+        }
+    }
+
+    @Test
+    public void ignoresOtherFormatVersions() throws IOException {
+        QuakeSnapshot.write( mFile, earthquakes(), "query" );
+        RandomAccessFile file = new RandomAccessFile( mFile, "rw" );
+        try {
+            file.seek( 4 );
+            file.writeInt( QuakeSnapshot.VERSION + 1 );
+        } finally {
+            file.close();
+        }
+        assertNull( QuakeSnapshot.read( mFile, "query" ) );
+    }
+
+    @Test
+    public void failsOnATruncatedFile() throws IOException {
+        QuakeSnapshot.write( mFile, earthquakes(), "query" );
+        RandomAccessFile file = new RandomAccessFile( mFile, "rw" );
+        try {
+            file.setLength( file.length() - 20 );
+        } finally {
+            file.close();
+        }
+        try {
+            QuakeSnapshot.read( mFile, "query" );
+            fail( "Expected an IOException" );
+        } catch (IOException expected) {
+        }
+    }
+}
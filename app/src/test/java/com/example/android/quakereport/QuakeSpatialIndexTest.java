@@ -0,0 +1,118 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class QuakeSpatialIndexTest {
+
+    private static QuakeTable randomTable(int size, long seed) {
+        Random random = new Random( seed );
+        QuakeTable table = new QuakeTable();
+        for (int i = 0; i < size; i++) {
+            double latitude = Math.toDegrees( Math.asin( random.nextDouble() * 2 - 1 ) );
+            double longitude = random.nextDouble() * 360 - 180;
+            table.append( "id" + i, 3, "place", i, i, "url", longitude, latitude, 10 );
+        }
+        return table;
+    }
+
+    private static List<Integer> sortedRows(QuakeList earthquakes) {
+        List<Integer> rows = new ArrayList<>();
+        for (int i = 0; i < earthquakes.size(); i++) {
+            rows.add( earthquakes.rowAt( i ) );
+        }
+        Collections.sort( rows );
+        return rows;
+    }
+
+    @Test
+    public void distanceOfAQuarterCircle() {
+        assertEquals( Math.PI / 2 * QuakeSpatialIndex.EARTH_RADIUS_KM,
+                QuakeSpatialIndex.distanceKm( 0, 0, 0, 90 ), 1e-6 );
+        assertEquals( 0, QuakeSpatialIndex.distanceKm( 35, 139, 35, 139 ), 1e-9 );
+        // Across the antimeridian, one degree apart.
+        assertEquals( QuakeSpatialIndex.distanceKm( 0, 0, 0, 1 ),
+                QuakeSpatialIndex.distanceKm( 0, 179.5, 0, -179.5 ), 1e-6 );
+    }
+
+    @Test
+    public void leavesOutEventsWithoutCoordinates() {
+        QuakeTable table = new QuakeTable();
+        table.append( "a", 3, "p", 0, 0, "u", 10, 10, 1 );
+        table.append( "b", 3, "p", 0, 0, "u", Double.NaN, Double.NaN, Double.NaN );
+        QuakeSpatialIndex index = new QuakeSpatialIndex( table.asList() );
+        assertEquals( 1, index.size() );
+        assertEquals( 1, index.withinBox( -90, -180, 90, 180 ).size() );
+    }
+
+    @Test
+    public void radiusMatchesAScanOfEveryEvent() {
+        QuakeTable table = randomTable( 5000, 9 );
+        QuakeSpatialIndex index = new QuakeSpatialIndex( table.asList() );
+        double[][] points = {{35.7, 139.7}, {-33.4, -70.6}, {0, 179.9}, {0, -179.9},
+                {89.5, 0}, {-89.9, 45}, {61.2, -149.9}};
+        for (double[] point : points) {
+            for (double radius : new double[]{10, 300, 2500, 25000}) {
+                List<Integer> expected = new ArrayList<>();
+                for (int row = 0; row < table.size(); row++) {
+                    if (QuakeSpatialIndex.distanceKm( point[0], point[1], table.getLatitude( row ),
+                            table.getLongitude( row ) ) <= radius) {
+                        expected.add( row );
+                    }
+                }
+                assertEquals( point[0] + "," + point[1] + " r=" + radius, expected,
+                        sortedRows( index.withinRadius( point[0], point[1], radius ) ) );
+            }
+        }
+    }
+
+    @Test
+    public void boxMatchesAScanIncludingAcrossTheAntimeridian() {
+        QuakeTable table = randomTable( 5000, 10 );
+        QuakeSpatialIndex index = new QuakeSpatialIndex( table.asList() );
+        double[][] boxes = {{30, 125, 46, 146}, {-60, 170, -10, -170}, {-90, -180, 90, 180},
+                {10, -5, 11, -4}};
+        for (double[] box : boxes) {
+            List<Integer> expected = new ArrayList<>();
+            for (int row = 0; row < table.size(); row++) {
+                double lat = table.getLatitude( row );
+                double lon = table.getLongitude( row );
+                boolean inLon = box[1] <= box[3]
+                        ? lon >= box[1] && lon <= box[3]
+                        : lon >= box[1] || lon <= box[3];
+                if (lat >= box[0] && lat <= box[2] && inLon) {
+                    expected.add( row );
+                }
+            }
+            assertEquals( expected, sortedRows( index.withinBox( box[0], box[1], box[2], box[3] ) ) );
+        }
+    }
+
+    @Test
+    public void nearestIsOrderedAndMatchesAScan() {
+        final QuakeTable table = randomTable( 3000, 11 );
+        QuakeSpatialIndex index = new QuakeSpatialIndex( table.asList() );
+        final double latitude = -6.2;
+        final double longitude = 106.8;
+        QuakeList nearest = index.nearest( latitude, longitude, 25 );
+        assertEquals( 25, nearest.size() );
+
+        double[] distances = new double[table.size()];
+        for (int row = 0; row < table.size(); row++) {
+            distances[row] = QuakeSpatialIndex.distanceKm( latitude, longitude,
+                    table.getLatitude( row ), table.getLongitude( row ) );
+        }
+        double[] sorted = distances.clone();
+        java.util.Arrays.sort( sorted );
+        for (int i = 0; i < nearest.size(); i++) {
+            assertEquals( sorted[i], distances[nearest.rowAt( i )], 1e-9 );
+        }
+        assertEquals( table.size(), index.nearest( latitude, longitude, 10000 ).size() );
+    }
+}
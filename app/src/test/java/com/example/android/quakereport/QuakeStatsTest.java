@@ -0,0 +1,128 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class QuakeStatsTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long NOW = 1000 * HOUR + 30 * 60 * 1000;
+
+    @Test
+    public void bandsAndRegions() {
+        assertEquals( 0, QuakeStats.band( -1 ) );
+        assertEquals( 0, QuakeStats.band( Double.NaN ) );
+        assertEquals( 4, QuakeStats.band( 4.9 ) );
+        assertEquals( 10, QuakeStats.band( 12 ) );
+        assertEquals( "Japan", QuakeStats.region( "10km E of Namie, Japan" ) );
+        assertEquals( "Fiji region", QuakeStats.region( " Fiji region " ) );
+        assertEquals( "", QuakeStats.region( null ) );
+    }
+
+    @Test
+    public void updateReplacesWhatTheOldVersionAdded() {
+        QuakeStats stats = new QuakeStats();
+        stats.put( "a", NOW, 3.5, "x, CA" );
+        stats.put( "a", NOW - 2 * HOUR, 5.1, "y, Japan" );
+        stats.put( null, NOW, 7, "z, Chile" );
+        assertEquals( 1, stats.size() );
+        assertEquals( 0, stats.getBandCount( 3 ) );
+        assertEquals( 1, stats.getBandCount( 5 ) );
+        assertArrayEquals( new int[]{1, 0, 0}, stats.getHourlyCounts( 3, 0, NOW ) );
+        List<QuakeStats.RegionMax> largest = stats.getLargestByRegion();
+        assertEquals( 1, largest.size() );
+        assertEquals( "Japan", largest.get( 0 ).region );
+
+        stats.remove( "a" );
+        assertEquals( 0, stats.size() );
+        assertEquals( 0, stats.getLargestByRegion().size() );
+        assertArrayEquals( new int[]{0, 0, 0}, stats.getHourlyCounts( 3, 0, NOW ) );
+    }
+
+    @Test
+    public void hoursOutsideTheWeekAreNotCounted() {
+        QuakeStats stats = new QuakeStats();
+        stats.put( "old", NOW - QuakeStats.HOURS * HOUR, 4, "CA" );
+        stats.put( "new", NOW, 4, "CA" );
+        assertEquals( 2, stats.getCountAtLeast( 4 ) );
+        assertEquals( 1.0 / QuakeStats.HOURS,
+                stats.getRatePerHour( QuakeStats.HOURS, 0, NOW ), 1e-12 );
+        // A week later the hour of "new" has left the ring too.
+        assertEquals( 0, stats.getRatePerHour( 1, 0, NOW + QuakeStats.HOURS * HOUR ), 0 );
+        stats.remove( "new" );
+        assertEquals( 1, stats.size() );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSpansLongerThanTheRing() {
+        new QuakeStats().getHourlyCounts( QuakeStats.HOURS + 1, 0, NOW );
+    }
+
+    /** Puts, updates and removes random events and checks every total against a recount. */
+    @Test
+    public void matchesARecountAfterRandomChanges() {
+        Random random = new Random( 17 );
+        QuakeStats stats = new QuakeStats();
+        Map<String, Object[]> events = new HashMap<>();
+        long now = NOW;
+        String[] regions = {"CA", "Japan", "Chile", "Alaska"};
+        for (int step = 0; step < 5000; step++) {
+            String id = "e" + random.nextInt( 300 );
+            int action = random.nextInt( 10 );
+            if (action == 0) {
+                stats.remove( id );
+                events.remove( id );
+            } else if (action == 1) {
+                long cutoff = now - random.nextInt( 200 ) * HOUR;
+                stats.removeOlderThan( cutoff );
+                for (String key : events.keySet().toArray( new String[0] )) {
+                    if ((Long) events.get( key )[0] < cutoff) {
+                        events.remove( key );
+                    }
+                }
+            } else {
+                now += random.nextInt( 3 ) * HOUR / 4;
+                long time = now - (long) (random.nextDouble() * 200 * HOUR);
+                double magnitude = random.nextInt( 90 ) / 10.0;
+                String region = regions[random.nextInt( regions.length )];
+                stats.put( id, time, magnitude, "near " + id + ", " + region );
+                events.put( id, new Object[]{time, magnitude, region} );
+            }
+        }
+
+        assertEquals( events.size(), stats.size() );
+        int[] bands = new int[QuakeStats.BANDS];
+        int[] hourly = new int[QuakeStats.HOURS];
+        Map<String, Double> largest = new HashMap<>();
+        long nowHour = now / HOUR;
+        for (Object[] event : events.values()) {
+            long time = (Long) event[0];
+            double magnitude = (Double) event[1];
+            bands[QuakeStats.band( magnitude )]++;
+            long age = nowHour - time / HOUR;
+            if (age >= 0 && age < QuakeStats.HOURS && magnitude >= 2) {
+                hourly[(int) (QuakeStats.HOURS - 1 - age)]++;
+            }
+            Double max = largest.get( (String) event[2] );
+            if (max == null || magnitude > max) {
+                largest.put( (String) event[2], magnitude );
+            }
+        }
+        for (int band = 0; band < QuakeStats.BANDS; band++) {
+            assertEquals( bands[band], stats.getBandCount( band ) );
+        }
+        assertArrayEquals( hourly, stats.getHourlyCounts( QuakeStats.HOURS, 2, now ) );
+        List<QuakeStats.RegionMax> regionMaxes = stats.getLargestByRegion();
+        assertEquals( largest.size(), regionMaxes.size() );
+        for (QuakeStats.RegionMax region : regionMaxes) {
+            assertEquals( largest.get( region.region ), region.magnitude, 0 );
+        }
+    }
+}
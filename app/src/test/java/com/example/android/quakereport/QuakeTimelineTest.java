@@ -0,0 +1,238 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QuakeTimelineTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000;
+    private static final double FLOOR = 2.5;
+
+    @Test
+    public void emptyTimelineHasNoRange() {
+        QuakeTimeline timeline = new QuakeTimeline( FLOOR );
+        assertEquals( 0, timeline.size() );
+        assertEquals( Long.MAX_VALUE, timeline.getStart() );
+        assertEquals( Long.MIN_VALUE, timeline.getEnd() );
+        assertTrue( Float.isNaN( timeline.getMaxMagnitude() ) );
+        int[] counts = {7, 7};
+        assertEquals( -1, timeline.sample( 0, DAY, 2, new float[2], new float[2], counts ) );
+        assertArrayEquals( new int[]{0, 0}, counts );
+    }
+
+    @Test
+    public void updateMovesAnEventAndDropsItBelowTheFloor() {
+        QuakeTimeline timeline = new QuakeTimeline( FLOOR );
+        timeline.put( "a", DAY, 4 );
+        timeline.put( "a", 3 * DAY, 5 );
+        timeline.put( null, 2 * DAY, 6 );
+        assertEquals( 1, timeline.size() );
+        assertEquals( 3 * DAY, timeline.getStart() );
+        assertEquals( 5, timeline.getMaxMagnitude(), 0 );
+
+        timeline.put( "a", 3 * DAY, 1 );
+        assertEquals( 0, timeline.size() );
+        assertTrue( Float.isNaN( timeline.getMaxMagnitude() ) );
+    }
+
+    @Test
+    public void samplingDoesNotWaitForAWriter() throws InterruptedException {
+        final QuakeTimeline timeline = new QuakeTimeline( FLOOR );
+        timeline.put( "a", DAY, 4 );
+        final int[] counts = new int[4];
+        Thread reader = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                timeline.sample( 0, 4 * DAY, 4, new float[4], new float[4], counts );
+            }
+        } );
+        // Writers hold the timeline's monitor while they change it.
+        synchronized (timeline) {
+            reader.start();
+            reader.join( 5000 );
+            assertFalse( reader.isAlive() );
+        }
+        assertArrayEquals( new int[]{0, 1, 0, 0}, counts );
+    }
+
+    /**
+     * Puts, updates and removes random events, one at a time and in batches large enough to
+     * be merged, and checks every sample against the events themselves and against a
+     * timeline built in one go from the events left.
+     */
+    @Test
+    public void matchesABruteForceSampleAfterRandomChanges() {
+        Random random = new Random( 29 );
+        QuakeTimeline timeline = new QuakeTimeline( FLOOR );
+        Map<String, double[]> events = new HashMap<>();
+        long origin = -200 * DAY;
+        long range = 1200 * DAY;
+        for (int step = 0; step < 3000; step++) {
+            int action = random.nextInt( 20 );
+            if (action == 0) {
+                String id = "e" + random.nextInt( 2000 );
+                timeline.remove( id );
+                events.remove( id );
+            } else if (action == 1) {
+                List<String> ids = new ArrayList<>();
+                for (int i = random.nextInt( 20 ); i > 0; i--) {
+                    ids.add( "e" + random.nextInt( 2000 ) );
+                }
+                timeline.removeAll( ids );
+                events.keySet().removeAll( ids );
+            } else if (action == 2) {
+                long cutoff = origin + (long) (random.nextDouble() * range / 4);
+                timeline.removeOlderThan( cutoff );
+                for (String id : events.keySet().toArray( new String[0] )) {
+                    if (events.get( id )[0] < cutoff) {
+                        events.remove( id );
+                    }
+                }
+            } else if (action == 3) {
+                QuakeTable batch = new QuakeTable();
+                int size = random.nextBoolean() ? 300 + random.nextInt( 400 ) : random.nextInt( 50 );
+                for (int i = 0; i < size; i++) {
+                    String id = random.nextInt( 50 ) == 0 ? null : "e" + random.nextInt( 2000 );
+                    long time = randomTime( random, origin, range );
+                    double magnitude = random.nextInt( 90 ) / 10.0;
+                    batch.append( id, magnitude, "", time, 0, "", Double.NaN, Double.NaN,
+                            Double.NaN );
+                    put( events, id, time, magnitude );
+                }
+                timeline.putAll( batch.asList() );
+            } else {
+                String id = "e" + random.nextInt( 2000 );
+                long time = randomTime( random, origin, range );
+                double magnitude = random.nextInt( 90 ) / 10.0;
+                timeline.put( id, time, magnitude );
+                put( events, id, time, magnitude );
+            }
+        }
+
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        float max = Float.NaN;
+        QuakeTable all = new QuakeTable();
+        for (Map.Entry<String, double[]> event : events.entrySet()) {
+            long time = (long) event.getValue()[0];
+            float magnitude = (float) event.getValue()[1];
+            start = Math.min( start, time );
+            end = Math.max( end, time );
+            max = Float.isNaN( max ) ? magnitude : Math.max( max, magnitude );
+            all.append( event.getKey(), event.getValue()[1], "", time, 0, "", Double.NaN,
+                    Double.NaN, Double.NaN );
+        }
+        assertTrue( events.size() > QuakeTimeline.RAW_PER_COLUMN * 100 );
+        assertEquals( events.size(), timeline.size() );
+        assertEquals( start, timeline.getStart() );
+        assertEquals( end, timeline.getEnd() );
+        assertEquals( max, timeline.getMaxMagnitude(), 0 );
+
+        QuakeTimeline fresh = new QuakeTimeline( FLOOR );
+        fresh.putAll( all.asList() );
+
+        boolean sawRaw = false;
+        boolean sawLevel = false;
+        for (int i = 0; i < 500; i++) {
+            long from = randomTime( random, origin, range );
+            long to = from + 1 + (long) (random.nextDouble() * (i % 2 == 0 ? 5 * DAY : range));
+            int columns = 1 + random.nextInt( 200 );
+            float[] low = new float[columns];
+            float[] high = new float[columns];
+            int[] counts = new int[columns];
+            int level = timeline.sample( from, to, columns, low, high, counts );
+
+            float[] freshLow = new float[columns];
+            float[] freshHigh = new float[columns];
+            int[] freshCounts = new int[columns];
+            assertEquals( level,
+                    fresh.sample( from, to, columns, freshLow, freshHigh, freshCounts ) );
+            assertArrayEquals( freshCounts, counts );
+            for (int c = 0; c < columns; c++) {
+                if (counts[c] > 0) {
+                    assertEquals( freshLow[c], low[c], 0 );
+                    assertEquals( freshHigh[c], high[c], 0 );
+                }
+            }
+
+            if (level < 0) {
+                sawRaw = true;
+                int[] expected = new int[columns];
+                float[] expectedLow = new float[columns];
+                float[] expectedHigh = new float[columns];
+                for (double[] event : events.values()) {
+                    long time = (long) event[0];
+                    if (time < from || time >= to) {
+                        continue;
+                    }
+                    int c = (int) ((time - from) * columns / (to - from));
+                    float magnitude = (float) event[1];
+                    expectedLow[c] = expected[c] == 0 ? magnitude : Math.min( expectedLow[c], magnitude );
+                    expectedHigh[c] = expected[c] == 0 ? magnitude : Math.max( expectedHigh[c], magnitude );
+                    expected[c]++;
+                }
+                assertArrayEquals( expected, counts );
+                for (int c = 0; c < columns; c++) {
+                    if (expected[c] > 0) {
+                        assertEquals( expectedLow[c], low[c], 0 );
+                        assertEquals( expectedHigh[c], high[c], 0 );
+                    }
+                }
+            } else {
+                sawLevel = true;
+                // Every bucket that overlaps the span is drawn, so the span widens to them.
+                long width = QuakeTimeline.BASE_MILLIS << level;
+                long first = floorDiv( from, width ) * width;
+                long last = (floorDiv( to - 1, width ) + 1) * width;
+                int expected = 0;
+                for (double[] event : events.values()) {
+                    if (event[0] >= first && event[0] < last) {
+                        expected++;
+                    }
+                }
+                int total = 0;
+                for (int count : counts) {
+                    total += count;
+                }
+                assertEquals( expected, total );
+            }
+        }
+        assertTrue( sawRaw );
+        assertTrue( sawLevel );
+    }
+
+    private static void put(Map<String, double[]> events, String id, long time, double magnitude) {
+        if (id == null) {
+            return;
+        }
+        if (magnitude >= FLOOR) {
+            events.put( id, new double[]{time, magnitude} );
+        } else {
+            events.remove( id );
+        }
+    }
+
+    /** Half the events fall in a few busy weeks, the rest anywhere. */
+    private static long randomTime(Random random, long origin, long range) {
+        if (random.nextBoolean()) {
+            long week = origin + random.nextInt( 4 ) * range / 4;
+            return week + (long) (random.nextDouble() * 7 * DAY);
+        }
+        return origin + (long) (random.nextDouble() * range);
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return x % y != 0 && (x < 0) ? quotient - 1 : quotient;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QuakeWindowTest {
+
+    private static final int ROWS = QuakeWindow.BLOCK_ROWS;
+
+    /** Runs spills on the caller, so the files are there as soon as a block is evicted. */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /** Newest time and largest magnitude of each block, in a different order for each. */
+    private static final long[] NEWEST = {400, 100, 300, 200};
+    private static final double[] LARGEST = {5, 2, 7, 3};
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private QuakeTable mRows;
+    private long mBlockBytes;
+
+    @Before
+    public void setUp() {
+        mRows = new QuakeTable();
+        for (int block = 0; block < NEWEST.length; block++) {
+            for (int i = 0; i < ROWS; i++) {
+                mRows.append( String.format( "e%04d", block * ROWS + i ),
+                        LARGEST[block] - (i % 10) / 10.0, "", NEWEST[block] - i, 0, "",
+                        Double.NaN, Double.NaN, Double.NaN );
+            }
+        }
+        QuakeWindow sizing = window( Long.MAX_VALUE );
+        sizing.append( mRows.asList().subList( 0, ROWS ) );
+        mBlockBytes = sizing.getResidentBytes();
+        sizing.release();
+    }
+
+    private QuakeWindow window(long budget) {
+        return new QuakeWindow( mFolder.getRoot(), budget, DIRECT );
+    }
+
+    /** Room for two blocks and a half; the last block is kept on screen. */
+    private QuakeWindow filled(String policy) {
+        QuakeWindow window = window( mBlockBytes * 5 / 2 );
+        window.setPolicy( policy );
+        window.setVisibleRange( 3 * ROWS + ROWS / 2, 1 );
+        window.append( mRows.asList() );
+        return window;
+    }
+
+    private static boolean[] residentBlocks(QuakeWindow window) {
+        boolean[] resident = new boolean[window.size() / ROWS];
+        for (int block = 0; block < resident.length; block++) {
+            resident[block] = window.isResident( block * ROWS );
+        }
+        return resident;
+    }
+
+    private void assertWithinBudget(QuakeWindow window) {
+        assertTrue( window.getResidentBytes() <= window.getBudgetBytes() );
+        assertEquals( 2 * ROWS, window.getResidentRows() );
+        assertEquals( 2, window.getEvictionCount() );
+    }
+
+    @Test
+    public void oldestPolicyEvictsTheBlocksWithTheOldestNewestEvent() {
+        QuakeWindow window = filled( QuakeWindow.POLICY_OLDEST );
+        assertWithinBudget( window );
+        assertArrayEquals( new boolean[]{true, false, false, true}, residentBlocks( window ) );
+    }
+
+    @Test
+    public void magnitudePolicyEvictsTheBlocksWithTheSmallestLargestEvent() {
+        QuakeWindow window = filled( QuakeWindow.POLICY_LOWEST_MAGNITUDE );
+        assertWithinBudget( window );
+        assertArrayEquals( new boolean[]{false, false, true, true}, residentBlocks( window ) );
+    }
+
+    @Test
+    public void viewedPolicyEvictsTheBlocksShownLeastRecently() {
+        QuakeWindow window = window( Long.MAX_VALUE );
+        window.setPolicy( QuakeWindow.POLICY_LEAST_RECENTLY_VIEWED );
+        window.setVisibleRange( 3 * ROWS + ROWS / 2, 1 );
+        window.append( mRows.asList() );
+        window.get( 2 * ROWS );
+        window.get( 0 );
+        window.get( ROWS );
+        window.setBudget( mBlockBytes * 5 / 2 );
+        assertWithinBudget( window );
+        assertArrayEquals( new boolean[]{false, true, false, true}, residentBlocks( window ) );
+    }
+
+    @Test
+    public void snapshotReadsEvictedBlocksBackFromTheirSpillFiles() {
+        QuakeWindow window = filled( QuakeWindow.POLICY_OLDEST );
+        assertEquals( 2, countFiles( mFolder.getRoot() ) );
+
+        List<QuakeDescription> snapshot = window.snapshot();
+        assertEquals( mRows.size(), snapshot.size() );
+        for (int i = 0; i < mRows.size(); i++) {
+            QuakeDescription expected = mRows.get( i );
+            QuakeDescription row = snapshot.get( i );
+            assertEquals( expected.getId(), row.getId() );
+            assertEquals( expected.getMagnitude(), row.getMagnitude(), 0 );
+            assertEquals( expected.getmTimeInMilliSeconds(), row.getmTimeInMilliSeconds() );
+        }
+        // Reading a snapshot does not make the blocks resident again.
+        assertFalse( window.isResident( ROWS ) );
+        assertWithinBudget( window );
+    }
+
+    @Test
+    public void budgetHoldsAfterClearAndAppendAgain() {
+        QuakeWindow window = filled( QuakeWindow.POLICY_OLDEST );
+        window.clear();
+        assertEquals( 0, window.size() );
+        assertEquals( 0, window.getResidentBytes() );
+        assertEquals( 0, countFiles( mFolder.getRoot() ) );
+
+        window.append( mRows.asList() );
+        window.append( mRows.asList() );
+        assertEquals( 2 * mRows.size(), window.size() );
+        assertTrue( window.getResidentBytes() <= window.getBudgetBytes() );
+        assertEquals( 2 * ROWS, window.getResidentRows() );
+        assertEquals( mRows.get( 5 ).getId(), window.snapshot().get( mRows.size() + 5 ).getId() );
+
+        window.setBudget( 0 );
+        // Only the blocks on screen stay.
+        assertEquals( ROWS, window.getResidentRows() );
+        window.release();
+        assertEquals( 0, countFiles( mFolder.getRoot() ) );
+    }
+
+    private static int countFiles(File dir) {
+        int count = 0;
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            count += files[i].isDirectory() ? countFiles( files[i] ) : 1;
+        }
+        return count;
+    }
+}
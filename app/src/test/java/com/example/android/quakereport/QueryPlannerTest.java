@@ -0,0 +1,121 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryPlannerTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long DAY = 24 * 60 * MINUTE;
+    private static final long T0 = 1513728000000L;
+
+    /** A closed region: fetched long after the range it covers. */
+    private static QueryPlanner.Region closed(long start, long end, double minMagnitude) {
+        return QueryPlanner.Region.world( start, end, minMagnitude, end + DAY );
+    }
+
+    private static QueryPlanner.Plan plan(List<QueryPlanner.Region> regions,
+                                          double minMagnitude, long start, long end,
+                                          long openSince) {
+        return QueryPlanner.plan( regions, minMagnitude, -90, -180, 90, 180, start, end,
+                openSince );
+    }
+
+    private static String missing(QueryPlanner.Plan plan) {
+        List<String> ranges = new ArrayList<>();
+        for (long[] range : plan.getMissing()) {
+            ranges.add( range[0] + "-" + range[1] );
+        }
+        return ranges.toString();
+    }
+
+    @Test
+    public void subtractsEveryRegionAtOrBelowTheFloor() {
+        List<QueryPlanner.Region> regions = Arrays.asList(
+                closed( 0, 10, 2.5 ), closed( 5, 15, 4.5 ), closed( 20, 30, 1.0 ),
+                closed( 25, 40, 2.5 ), closed( 45, 60, 5.0 ) );
+        QueryPlanner.Plan plan = plan( regions, 2.5, 0, 50, Long.MAX_VALUE );
+        assertEquals( "[10-20, 40-50]", missing( plan ) );
+        assertFalse( plan.isCovered() );
+        assertEquals( 10 + DAY, plan.getCurrentAsOf() );
+
+        // At M4.5 the M4.5 region fills part of the first gap.
+        assertEquals( "[15-20, 40-50]", missing( plan( regions, 4.5, 0, 50, Long.MAX_VALUE ) ) );
+        assertEquals( "[]", missing( plan( regions, 2.5, 20, 40, Long.MAX_VALUE ) ) );
+    }
+
+    @Test
+    public void withoutRegionsEverythingIsMissing() {
+        QueryPlanner.Plan plan = plan( Collections.<QueryPlanner.Region>emptyList(), 2.5, 0, 50,
+                Long.MAX_VALUE );
+        assertEquals( "[0-50]", missing( plan ) );
+        assertEquals( Long.MAX_VALUE, plan.getCurrentAsOf() );
+    }
+
+    /**
+     * A sync at M2.5 covers its window up to when it ran; a minute later the M4.5 list must
+     * not have to fetch that minute.
+     */
+    @Test
+    public void freshOpenRegionReachesNow() {
+        long windowStart = T0 - 30 * DAY;
+        List<QueryPlanner.Region> regions = Collections.singletonList(
+                QueryPlanner.Region.world( windowStart, T0, 2.5, T0 ) );
+        long now = T0 + MINUTE;
+        QueryPlanner.Plan plan = plan( regions, 4.5, windowStart, now, now - 5 * MINUTE );
+        assertTrue( plan.isCovered() );
+        assertEquals( T0, plan.getCurrentAsOf() );
+
+        // Older than the freshness bound, or planning history: only its own range counts.
+        assertEquals( "[" + T0 + "-" + now + "]",
+                missing( plan( regions, 4.5, windowStart, now, T0 + 1 ) ) );
+        assertEquals( "[" + T0 + "-" + now + "]",
+                missing( plan( regions, 4.5, windowStart, now, Long.MAX_VALUE ) ) );
+    }
+
+    @Test
+    public void closedRegionsNeverReachPastTheirEnd() {
+        List<QueryPlanner.Region> regions = Collections.singletonList( closed( 0, 10, 2.5 ) );
+        assertEquals( "[10-50]", missing( plan( regions, 2.5, 0, 50, 0 ) ) );
+    }
+
+    @Test
+    public void boxContainment() {
+        QueryPlanner.Region world = QueryPlanner.Region.world( 0, 10, 2.5, 10 );
+        assertTrue( world.containsBox( -90, -180, 90, 180 ) );
+        assertTrue( world.containsBox( -10, 170, 10, -170 ) );
+
+        QueryPlanner.Region box = new QueryPlanner.Region( 0, 10, 2.5, 30, -130, 50, -110, 10 );
+        assertTrue( box.containsBox( 35, -125, 45, -115 ) );
+        assertTrue( box.containsBox( 30, -130, 50, -110 ) );
+        assertFalse( box.containsBox( 25, -125, 45, -115 ) );
+        assertFalse( box.containsBox( 35, -135, 45, -115 ) );
+        // Crosses the antimeridian the long way round.
+        assertFalse( box.containsBox( 35, -115, 45, -125 ) );
+    }
+
+    @Test
+    public void boxContainmentAcrossTheAntimeridian() {
+        QueryPlanner.Region fiji = new QueryPlanner.Region( 0, 10, 2.5, -25, 170, -10, -170, 10 );
+        assertTrue( fiji.containsBox( -20, 175, -15, -175 ) );
+        assertTrue( fiji.containsBox( -20, 172, -15, 178 ) );
+        assertTrue( fiji.containsBox( -20, -178, -15, -172 ) );
+        assertFalse( fiji.containsBox( -20, 160, -15, -175 ) );
+        assertFalse( fiji.containsBox( -20, 175, -15, -160 ) );
+        assertFalse( fiji.containsBox( -20, -175, -15, 175 ) );
+
+        // A worldwide query is only covered by worldwide regions.
+        List<QueryPlanner.Region> regions = Collections.singletonList( fiji );
+        assertEquals( "[0-10]", missing( plan( regions, 2.5, 0, 10, Long.MAX_VALUE ) ) );
+        assertTrue( QueryPlanner.plan( regions, 2.5, -20, 175, -15, -175, 0, 10, Long.MAX_VALUE )
+                .isCovered() );
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryUtilsTest {
+
+    private static final String FEATURE = "{\"type\":\"Feature\",\"properties\":{\"mag\":4.1,"
+            + "\"place\":\"10km N of Somewhere\",\"time\":1000,\"updated\":2000,"
+            + "\"url\":\"https://example.com/%1$s\"},\"geometry\":{\"type\":\"Point\","
+            + "\"coordinates\":[1.5,2.5,3.5]},\"id\":\"%1$s\"}";
+
+    private static final String WHOLE = "{\"type\":\"FeatureCollection\",\"features\":["
+            + String.format( FEATURE, "us1" ) + "," + String.format( FEATURE, "us2" ) + "]}";
+
+    /** The first event whole, then the connection drops in the middle of the second. */
+    private static final String CUT = WHOLE.substring( 0, WHOLE.indexOf( "us2" ) + 20 );
+
+    private HttpServer mServer;
+    private String mBase;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+        mServer.createContext( "/whole", handler( WHOLE ) );
+        mServer.createContext( "/cut", handler( CUT ) );
+        mServer.start();
+        mBase = "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop( 0 );
+    }
+
+    private static HttpHandler handler(final String body) {
+        return new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] bytes = body.getBytes( Charset.forName( "UTF-8" ) );
+                // Chunked, so a body cut short ends like a dropped connection, not a bad length.
+                exchange.sendResponseHeaders( 200, 0 );
+                OutputStream out = exchange.getResponseBody();
+                out.write( bytes );
+                out.close();
+                exchange.close();
+            }
+        };
+    }
+
+    /** A unique URL per call, so neither sharing nor validators carry over between tests. */
+    private String url(String path) {
+        return mBase + path + "?t=" + System.nanoTime();
+    }
+
+    @Test
+    public void deltaOfAWholeBodyHasEveryEvent() {
+        List<QuakeDescription> changed = QueryUtils.fetchChangedEarthquakeData( url( "/whole" ) );
+        assertEquals( 2, changed.size() );
+        assertEquals( "us2", changed.get( 1 ).getId() );
+    }
+
+    @Test
+    public void fetchedRowsArriveWithTheirTextPrepared() {
+        // Callers that join a request share its rows, so none of them may have to write them.
+        for (QuakeDescription quake : QueryUtils.fetchEarthquakeData( url( "/whole" ) )) {
+            assertTrue( quake.isPrepared() );
+        }
+    }
+
+    @Test
+    public void deltaOfABodyCutShortFails() {
+        // A sync must not record a window as current from half a delta.
+        assertNull( QueryUtils.fetchChangedEarthquakeData( url( "/cut" ) ) );
+    }
+
+    @Test
+    public void listPageOfABodyCutShortKeepsWhatArrived() {
+        List<QuakeDescription> page = QueryUtils.fetchEarthquakeData( url( "/cut" ) );
+        assertEquals( 1, page.size() );
+        assertEquals( "us1", page.get( 0 ).getId() );
+    }
+
+    @Test
+    public void brokenJsonAndBrokenConnectionsAreCountedApart() {
+        long parseErrors = PipelineMetrics.PARSE_ERRORS.get();
+        long readErrors = PipelineMetrics.READ_ERRORS.get();
+
+        QueryUtils.extractFeaturesFromStream( new ByteArrayInputStream(
+                "{\"features\":[}".getBytes( Charset.forName( "UTF-8" ) ) ) );
+        assertEquals( parseErrors + 1, PipelineMetrics.PARSE_ERRORS.get() );
+        assertEquals( readErrors, PipelineMetrics.READ_ERRORS.get() );
+
+        InputStream dropped = new SequenceInputStream( new ByteArrayInputStream(
+                CUT.getBytes( Charset.forName( "UTF-8" ) ) ), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException( "Connection reset" );
+            }
+        } );
+        assertEquals( 1, QueryUtils.extractFeaturesFromStream( dropped ).size() );
+        assertEquals( parseErrors + 1, PipelineMetrics.PARSE_ERRORS.get() );
+        assertEquals( readErrors + 1, PipelineMetrics.READ_ERRORS.get() );
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StringDictionaryTest {
+
+    @Test
+    public void nullIsCodeZero() {
+        StringDictionary strings = new StringDictionary();
+        assertEquals( 0, strings.encode( null ) );
+        assertNull( strings.decode( 0 ) );
+        assertEquals( 0, strings.size() );
+    }
+
+    @Test
+    public void equalStringsShareOneCode() {
+        StringDictionary strings = new StringDictionary();
+        int alaska = strings.encode( "Alaska" );
+        int chile = strings.encode( "Chile" );
+        assertNotEquals( alaska, chile );
+        assertEquals( alaska, strings.encode( new String( "Alaska" ) ) );
+        assertEquals( 2, strings.size() );
+    }
+
+    @Test
+    public void keepsTheFirstCopyOfEachString() {
+        StringDictionary strings = new StringDictionary();
+        String first = new String( "Dec 20, 2017" );
+        int code = strings.encode( first );
+        strings.encode( new String( "Dec 20, 2017" ) );
+        assertSame( first, strings.decode( code ) );
+    }
+
+    @Test
+    public void decodesEveryCodeAfterGrowing() {
+        StringDictionary strings = new StringDictionary();
+        int[] codes = new int[5000];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = strings.encode( "place " + i );
+        }
+        assertEquals( codes.length, strings.size() );
+        for (int i = 0; i < codes.length; i++) {
+            assertEquals( "place " + i, strings.decode( codes[i] ) );
+            assertEquals( codes[i], strings.encode( "place " + i ) );
+        }
+    }
+
+    @Test
+    public void collidingHashesGetTheirOwnCodes() {
+        // "Aa" and "BB" have the same hashCode.
+        StringDictionary strings = new StringDictionary();
+        int aa = strings.encode( "Aa" );
+        int bb = strings.encode( "BB" );
+        assertNotEquals( aa, bb );
+        assertEquals( "Aa", strings.decode( aa ) );
+        assertEquals( "BB", strings.decode( bb ) );
+        assertEquals( bb, strings.encode( "BB" ) );
+    }
+
+    @Test
+    public void estimateGrowsOnlyWithNewStrings() {
+        StringDictionary strings = new StringDictionary();
+        strings.encode( "Alaska" );
+        long once = strings.getMemoryEstimate();
+        strings.encode( "Alaska" );
+        assertEquals( once, strings.getMemoryEstimate() );
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class UsgsHttpClientTest {
+
+    private static final byte[] BODY = "{\"features\":[]}".getBytes();
+
+    private HttpServer mServer;
+    private URL mUrl;
+
+    /** The If-None-Match header of every request, or "-" where there was none. */
+    private final List<String> mConditions = Collections.synchronizedList( new ArrayList<String>() );
+
+    private static final UsgsHttpClient.BodyParser<String> READER =
+            new UsgsHttpClient.BodyParser<String>() {
+                @Override
+                public String parse(InputStream body) throws IOException {
+                    StringBuilder text = new StringBuilder();
+                    int c;
+                    while ((c = body.read()) != -1) {
+                        text.append( (char) c );
+                    }
+                    return text.toString();
+                }
+            };
+
+    private static final UsgsHttpClient.BodyParser<String> FAILING =
+            new UsgsHttpClient.BodyParser<String>() {
+                @Override
+                public String parse(InputStream body) throws IOException {
+                    body.read();
+                    throw new IOException( "Body cut short" );
+                }
+            };
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+        mServer.createContext( "/feed", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String condition = exchange.getRequestHeaders().getFirst( "If-None-Match" );
+                mConditions.add( condition == null ? "-" : condition );
+                exchange.getResponseHeaders().set( "ETag", "\"v1\"" );
+                if ("\"v1\"".equals( condition )) {
+                    exchange.sendResponseHeaders( 304, -1 );
+                } else {
+                    exchange.sendResponseHeaders( 200, BODY.length );
+                    OutputStream out = exchange.getResponseBody();
+                    out.write( BODY );
+                    out.close();
+                }
+                exchange.close();
+            }
+        } );
+        mServer.start();
+        // A path of its own per test, since validators are remembered per URL.
+        mUrl = new URL( "http://127.0.0.1:" + mServer.getAddress().getPort() + "/feed?t="
+                + System.nanoTime() );
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop( 0 );
+    }
+
+    @Test
+    public void unchangedResourceIsNotModified() throws IOException {
+        assertEquals( new String( BODY ), UsgsHttpClient.get( mUrl, true, READER ) );
+        assertNull( UsgsHttpClient.get( mUrl, true, READER ) );
+        assertEquals( "[-, \"v1\"]", mConditions.toString() );
+    }
+
+    @Test
+    public void validatorsAreNotSentUnlessAsked() throws IOException {
+        UsgsHttpClient.get( mUrl, true, READER );
+        assertEquals( new String( BODY ), UsgsHttpClient.get( mUrl, false, READER ) );
+        assertEquals( "[-, -]", mConditions.toString() );
+    }
+
+    @Test
+    public void bodyThatFailedToParseIsFetchedAgain() throws IOException {
+        try {
+            UsgsHttpClient.get( mUrl, true, FAILING );
+            fail( "Expected an IOException" );
+        } catch (IOException expected) {
+        }
+        assertEquals( new String( BODY ), UsgsHttpClient.get( mUrl, true, READER ) );
+        assertEquals( "[-, -]", mConditions.toString() );
+    }
+
+    @Test
+    public void failedParseDropsEarlierValidators() throws IOException {
+        UsgsHttpClient.get( mUrl, true, READER );
+        try {
+            UsgsHttpClient.get( mUrl, false, FAILING );
+            fail( "Expected an IOException" );
+        } catch (IOException expected) {
+        }
+        assertEquals( new String( BODY ), UsgsHttpClient.get( mUrl, true, READER ) );
+        assertEquals( "[-, -, -]", mConditions.toString() );
+    }
+}
@@ -0,0 +1,369 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for the USGS FDSN event service, for load and fault tests of the fetch
+ * pipeline without touching the real one.
+ *
+ * It serves {@code /fdsnws/event/1/query} and {@code /fdsnws/event/1/count} over a
+ * {@link BenchmarkFixtures} catalog, with the parameters the app sends: {@code format},
+ * {@code limit}, {@code offset} (from 1), {@code minmag}/{@code minmagnitude},
+ * {@code orderby}, {@code starttime}, {@code endtime} and {@code updatedafter}. Bodies are
+ * gzipped when asked for and carry an ETag, so conditional requests get their 304.
+ *
+ * {@link Faults} makes it misbehave: added latency, a bandwidth cap, 5xx errors and
+ * bodies cut off part way, each on a seeded random share of requests.
+ */
+final class UsgsStandIn {
+
+    static final String QUERY_PATH = "/fdsnws/event/1/query";
+    static final String COUNT_PATH = "/fdsnws/event/1/count";
+
+    /** Most events one query may return, as USGS enforces. */
+    static final int MAX_ALLOWED = 20000;
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    /** How the server misbehaves. The defaults make it behave. */
+    static final class Faults {
+        /** Delay before the response headers. */
+        long latencyMillis;
+
+        /** Body bytes per second on the wire; 0 for no cap. */
+        long bytesPerSecond;
+
+        /** Share of requests answered with 503. */
+        double errorRate;
+
+        /** Share of 200 responses whose body stops half way and the connection closes. */
+        double truncateRate;
+
+        long seed = 1;
+
+        static Faults none() {
+            return new Faults();
+        }
+
+        @Override
+        public String toString() {
+            return String.format( Locale.US, "latency=%dms bandwidth=%s errors=%.0f%% truncated=%.0f%%",
+                    latencyMillis, bytesPerSecond == 0 ? "unlimited" : bytesPerSecond / 1024 + "KB/s",
+                    errorRate * 100, truncateRate * 100 );
+        }
+    }
+
+    /** One event of the catalog: what the filters need, and its GeoJSON text. */
+    private static final class Event {
+        final String feature;
+        final double magnitude;
+        final long time;
+        final long updated;
+
+        Event(String feature, double magnitude, long time, long updated) {
+            this.feature = feature;
+            this.magnitude = magnitude;
+            this.time = time;
+            this.updated = updated;
+        }
+    }
+
+    private static final Comparator<Event> LATEST_FIRST = new Comparator<Event>() {
+        @Override
+        public int compare(Event a, Event b) {
+            return a.time > b.time ? -1 : (a.time < b.time ? 1 : 0);
+        }
+    };
+
+    private static final Comparator<Event> LARGEST_FIRST = new Comparator<Event>() {
+        @Override
+        public int compare(Event a, Event b) {
+            int order = Double.compare( b.magnitude, a.magnitude );
+            return order != 0 ? order : LATEST_FIRST.compare( a, b );
+        }
+    };
+
+    private final Event[] mCatalog;
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+    private volatile Faults mFaults = Faults.none();
+    private Random mRandom = new Random( 1 );
+
+    /**
+     * The cap the count endpoint reports. Lowering it makes a client cut smaller windows,
+     * while queries are still refused only above {@link #MAX_ALLOWED}.
+     */
+    volatile int countMaxAllowed = MAX_ALLOWED;
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong errorsInjected = new AtomicLong();
+    final AtomicLong truncationsInjected = new AtomicLong();
+    final AtomicLong notModified = new AtomicLong();
+
+    /** Builds a catalog of {@code size} events and starts serving it on a free local port. */
+    UsgsStandIn(int size, int threads) throws IOException {
+        List<String> features = BenchmarkFixtures.features( size );
+        QuakeList parsed = (QuakeList) QueryUtils.extractFeaturesFromStream( new ByteArrayInputStream(
+                BenchmarkFixtures.envelope( features ).getBytes( UTF_8 ) ) );
+        mCatalog = new Event[features.size()];
+        for (int i = 0; i < mCatalog.length; i++) {
+            QuakeDescription quake = parsed.get( i );
+            mCatalog[i] = new Event( features.get( i ), quake.getMagnitude(),
+                    quake.getmTimeInMilliSeconds(), quake.getUpdated() );
+        }
+        Arrays.sort( mCatalog, LATEST_FIRST );
+
+        mServer = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 64 );
+        mExecutor = Executors.newFixedThreadPool( threads );
+        mServer.setExecutor( mExecutor );
+        mServer.createContext( QUERY_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve( exchange, false );
+            }
+        } );
+        mServer.createContext( COUNT_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve( exchange, true );
+            }
+        } );
+        mServer.start();
+    }
+
+    /** Base URL of the query endpoint, e.g. {@code http://127.0.0.1:53124/fdsnws/event/1/query}. */
+    String queryUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + QUERY_PATH;
+    }
+
+    String countUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + COUNT_PATH;
+    }
+
+    synchronized void setFaults(Faults faults) {
+        mFaults = faults;
+        mRandom = new Random( faults.seed );
+    }
+
+    /** Time span of the catalog: {oldest event time, latest event time}. */
+    long[] timeRange() {
+        return new long[]{mCatalog[mCatalog.length - 1].time, mCatalog[0].time};
+    }
+
+    /**
+     * The number of events a well-behaved server returns for the query string, for
+     * checking what a client received.
+     */
+    int expectedCount(String query) throws IOException {
+        Map<String, String> params = parse( query );
+        int matching = select( params ).size();
+        int offset = Integer.parseInt( value( params, "offset", "1" ) ) - 1;
+        int limit = Integer.parseInt( value( params, "limit", String.valueOf( MAX_ALLOWED ) ) );
+        return Math.max( 0, Math.min( limit, matching - offset ) );
+    }
+
+    void stop() {
+        mServer.stop( 0 );
+        mExecutor.shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange, boolean count) throws IOException {
+        requests.incrementAndGet();
+        try {
+            Faults faults = mFaults;
+            boolean fail;
+            boolean truncate;
+            synchronized (this) {
+                fail = mRandom.nextDouble() < faults.errorRate;
+                truncate = mRandom.nextDouble() < faults.truncateRate;
+            }
+            sleep( faults.latencyMillis );
+            if (fail) {
+                errorsInjected.incrementAndGet();
+                respond( exchange, 503, "Service Unavailable\n".getBytes( UTF_8 ), false, faults );
+                return;
+            }
+
+            Map<String, String> params = parse( exchange.getRequestURI().getRawQuery() );
+            if (!"geojson".equals( params.get( "format" ) )) {
+                respond( exchange, 400, "Bad Request: format must be geojson\n".getBytes( UTF_8 ),
+                        false, faults );
+                return;
+            }
+            List<Event> matching = select( params );
+            byte[] body;
+            if (count) {
+                body = String.format( Locale.US, "{\"count\":%d,\"maxAllowed\":%d}",
+                        matching.size(), countMaxAllowed ).getBytes( UTF_8 );
+            } else {
+                int offset = Integer.parseInt( value( params, "offset", "1" ) ) - 1;
+                int limit = Integer.parseInt( value( params, "limit", String.valueOf( MAX_ALLOWED ) ) );
+                if (limit > MAX_ALLOWED || (offset == 0 && !params.containsKey( "limit" )
+                        && matching.size() > MAX_ALLOWED)) {
+                    respond( exchange, 400, "Bad Request: too many events\n".getBytes( UTF_8 ),
+                            false, faults );
+                    return;
+                }
+                List<Event> page = matching.subList( Math.min( offset, matching.size() ),
+                        Math.min( offset + limit, matching.size() ) );
+                List<String> features = new ArrayList<>( page.size() );
+                for (Event event : page) {
+                    features.add( event.feature );
+                }
+                body = BenchmarkFixtures.envelope( features ).getBytes( UTF_8 );
+            }
+
+            String eTag = "\"" + Integer.toHexString( Arrays.hashCode( body ) ) + "\"";
+            if (eTag.equals( exchange.getRequestHeaders().getFirst( "If-None-Match" ) )) {
+                notModified.incrementAndGet();
+                exchange.getResponseHeaders().set( "ETag", eTag );
+                exchange.sendResponseHeaders( 304, -1 );
+                return;
+            }
+            exchange.getResponseHeaders().set( "ETag", eTag );
+            exchange.getResponseHeaders().set( "Content-Type", "application/json" );
+            if (truncate) {
+                truncationsInjected.incrementAndGet();
+            }
+            respond( exchange, 200, body, truncate, faults );
+        } catch (RuntimeException e) {
+            respond( exchange, 500, String.valueOf( e ).getBytes( UTF_8 ), false, mFaults );
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body, boolean truncate,
+                                Faults faults) throws IOException {
+        String acceptEncoding = exchange.getRequestHeaders().getFirst( "Accept-Encoding" );
+        if (status == 200 && acceptEncoding != null && acceptEncoding.contains( "gzip" )) {
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream( body.length / 4 );
+            GZIPOutputStream gzip = new GZIPOutputStream( gzipped );
+            gzip.write( body );
+            gzip.close();
+            body = gzipped.toByteArray();
+            exchange.getResponseHeaders().set( "Content-Encoding", "gzip" );
+        }
+        // The full length is promised even when only half is sent, so the connection drops
+        // mid-body the way a mobile network does.
+        exchange.sendResponseHeaders( status, body.length );
+        OutputStream out = exchange.getResponseBody();
+        int end = truncate ? body.length / 2 : body.length;
+        int chunk = 8192;
+        long started = System.nanoTime();
+        for (int position = 0; position < end; position += chunk) {
+            int length = Math.min( chunk, end - position );
+            out.write( body, position, length );
+            out.flush();
+            if (faults.bytesPerSecond > 0) {
+                long due = started + (position + length) * 1000000000L / faults.bytesPerSecond;
+                sleep( (due - System.nanoTime()) / 1000000 );
+            }
+        }
+        out.close();
+    }
+
+    /** The events matching the filters, in the order asked for. */
+    private List<Event> select(Map<String, String> params) throws IOException {
+        double minMagnitude = Double.parseDouble( value( params, "minmag",
+                value( params, "minmagnitude", "-10" ) ) );
+        long start = parseTime( params.get( "starttime" ), Long.MIN_VALUE );
+        long end = parseTime( params.get( "endtime" ), Long.MAX_VALUE );
+        long updatedAfter = parseTime( params.get( "updatedafter" ), Long.MIN_VALUE );
+        List<Event> matching = new ArrayList<>();
+        for (Event event : mCatalog) {
+            if (event.magnitude >= minMagnitude && event.time >= start && event.time < end
+                    && event.updated > updatedAfter) {
+                matching.add( event );
+            }
+        }
+        String orderBy = value( params, "orderby", "time" );
+        if ("magnitude".equals( orderBy )) {
+            Collections.sort( matching, LARGEST_FIRST );
+        } else if ("magnitude-asc".equals( orderBy )) {
+            Collections.sort( matching, Collections.reverseOrder( LARGEST_FIRST ) );
+        } else if ("time-asc".equals( orderBy )) {
+            Collections.reverse( matching );
+        } else if (!"time".equals( orderBy )) {
+            throw new IllegalArgumentException( "Bad orderby " + orderBy );
+        }
+        return matching;
+    }
+
+    private static Map<String, String> parse(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split( "&" )) {
+            int equals = pair.indexOf( '=' );
+            if (equals > 0) {
+                params.put( URLDecoder.decode( pair.substring( 0, equals ), "UTF-8" ),
+                        URLDecoder.decode( pair.substring( equals + 1 ), "UTF-8" ) );
+            }
+        }
+        return params;
+    }
+
+    private static String value(Map<String, String> params, String name, String fallback) {
+        String value = params.get( name );
+        return value != null ? value : fallback;
+    }
+
+    /** Parses the ISO 8601 times the app sends, with or without the time of day. */
+    static long parseTime(String value, long fallback) throws IOException {
+        if (value == null) {
+            return fallback;
+        }
+        String[] patterns = {"yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd"};
+        for (String pattern : patterns) {
+            SimpleDateFormat format = new SimpleDateFormat( pattern, Locale.US );
+            format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+            format.setLenient( false );
+            try {
+                return format.parse( value ).getTime();
+            } catch (ParseException e) {
+                // Try the next pattern.
+            }
+        }
+        throw new IOException( "Bad time " + value );
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep( millis );
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}